@@ -24,8 +24,9 @@ import static com.google.common.base.Preconditions.checkState;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NavigableSet;
-import java.util.NoSuchElementException;
 import java.util.TreeSet;
 import javax.annotation.Nullable;
 import org.apache.beam.sdk.state.TimeDomain;
@@ -33,19 +34,33 @@ import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
 import org.apache.beam.sdk.util.WindowTracing;
 import org.joda.time.Instant;
 
-/** {@link TimerInternals} with all watermarks and processing clock simulated in-memory. */
+/**
+ * {@link TimerInternals} with all watermarks and processing clock simulated in-memory.
+ *
+ * <p>Timers are indexed by namespace and ID, so that setting a timer again or deleting it only
+ * updates the index. The replaced timer stays in its pending set until it reaches the front or
+ * enough replaced timers have accumulated, and is never fired since it no longer matches the index.
+ */
 public class InMemoryTimerInternals implements TimerInternals {
 
+  /**
+   * The number of replaced or deleted timers that may be pending before they are removed, in
+   * addition to one for each live timer.
+   */
+  private static final int MIN_STALE_TIMERS_TO_COMPACT = 1024;
+
   /** The current set timers by namespace and ID. */
   Table<StateNamespace, String, TimerData> existingTimers = HashBasedTable.create();
 
-  /** Pending input watermark timers, in timestamp order. */
+  /** Pending input watermark timers, in timestamp order, including replaced ones. */
   private NavigableSet<TimerData> watermarkTimers = new TreeSet<>();
 
-  /** Pending processing time timers, in timestamp order. */
+  /** Pending processing time timers, in timestamp order, including replaced ones. */
   private NavigableSet<TimerData> processingTimers = new TreeSet<>();
 
-  /** Pending synchronized processing time timers, in timestamp order. */
+  /**
+   * Pending synchronized processing time timers, in timestamp order, including replaced ones.
+   */
   private NavigableSet<TimerData> synchronizedProcessingTimers = new TreeSet<>();
 
   /** Current input watermark. */
@@ -72,20 +87,8 @@ public class InMemoryTimerInternals implements TimerInternals {
    */
   @Nullable
   public Instant getNextTimer(TimeDomain domain) {
-    try {
-      switch (domain) {
-        case EVENT_TIME:
-          return watermarkTimers.first().getTimestamp();
-        case PROCESSING_TIME:
-          return processingTimers.first().getTimestamp();
-        case SYNCHRONIZED_PROCESSING_TIME:
-          return synchronizedProcessingTimers.first().getTimestamp();
-        default:
-          throw new IllegalArgumentException("Unexpected time domain: " + domain);
-      }
-    } catch (NoSuchElementException exc) {
-      return null;
-    }
+    TimerData timer = firstLiveTimer(timersForDomain(domain));
+    return timer == null ? null : timer.getTimestamp();
   }
 
   private NavigableSet<TimerData> timersForDomain(TimeDomain domain) {
@@ -126,17 +129,20 @@ public class InMemoryTimerInternals implements TimerInternals {
           timerData.getTimerId(), timerData.getDomain(), existing.getDomain());
 
       if (!timerData.getTimestamp().equals(existing.getTimestamp())) {
-        NavigableSet<TimerData> timers = timersForDomain(timerData.getDomain());
-        timers.remove(existing);
-        timers.add(timerData);
+        // The existing timer no longer matches the index and is skipped when it is reached.
         existingTimers.put(timerData.getNamespace(), timerData.getTimerId(), timerData);
+        timersForDomain(timerData.getDomain()).add(timerData);
+        maybeCompact();
       }
     }
   }
 
   @Override
   public void deleteTimer(StateNamespace namespace, String timerId, TimeDomain timeDomain) {
-    throw new UnsupportedOperationException("Canceling a timer by ID is not yet supported.");
+    TimerData existing = existingTimers.get(namespace, timerId);
+    if (existing != null && existing.getDomain().equals(timeDomain)) {
+      deleteTimer(existing);
+    }
   }
 
   /**
@@ -158,8 +164,9 @@ public class InMemoryTimerInternals implements TimerInternals {
   @Override
   public void deleteTimer(TimerData timer) {
     WindowTracing.trace("{}.deleteTimer: {}", getClass().getSimpleName(), timer);
-    existingTimers.remove(timer.getNamespace(), timer.getTimerId());
-    timersForDomain(timer.getDomain()).remove(timer);
+    if (existingTimers.remove(timer.getNamespace(), timer.getTimerId()) != null) {
+      maybeCompact();
+    }
   }
 
   @Override
@@ -294,16 +301,82 @@ public class InMemoryTimerInternals implements TimerInternals {
     return timer;
   }
 
+  /**
+   * Removes and returns all timers that are eligible to fire in any time domain, ordered by time
+   * domain and then by timestamp, or an empty list if there are none.
+   *
+   * <p>This is equivalent to calling {@link #removeNextEventTimer}, {@link
+   * #removeNextProcessingTimer} and {@link #removeNextSynchronizedProcessingTimer} until each of
+   * them returns {@code null}, so that a caller can deliver all timers for its key in one pass.
+   * Timers set while delivering the returned ones are returned by a later call.
+   */
+  public List<TimerData> removeEligibleTimers() {
+    List<TimerData> timers = new ArrayList<>();
+    removeEligibleTimers(inputWatermarkTime, TimeDomain.EVENT_TIME, timers);
+    removeEligibleTimers(processingTime, TimeDomain.PROCESSING_TIME, timers);
+    removeEligibleTimers(
+        synchronizedProcessingTime, TimeDomain.SYNCHRONIZED_PROCESSING_TIME, timers);
+    WindowTracing.trace(
+        "{}.removeEligibleTimers: firing {}", getClass().getSimpleName(), timers);
+    return timers;
+  }
+
+  private void removeEligibleTimers(
+      Instant currentTime, TimeDomain domain, List<TimerData> eligibleTimers) {
+    TimerData timer;
+    while ((timer = removeNextTimer(currentTime, domain)) != null) {
+      eligibleTimers.add(timer);
+    }
+  }
+
   @Nullable
   private TimerData removeNextTimer(Instant currentTime, TimeDomain domain) {
     NavigableSet<TimerData> timers = timersForDomain(domain);
+    TimerData timer = firstLiveTimer(timers);
 
-    if (!timers.isEmpty() && currentTime.isAfter(timers.first().getTimestamp())) {
-      TimerData timer = timers.pollFirst();
+    if (timer != null && currentTime.isAfter(timer.getTimestamp())) {
+      timers.pollFirst();
       existingTimers.remove(timer.getNamespace(), timer.getTimerId());
       return timer;
     } else {
       return null;
     }
   }
+
+  /**
+   * Returns the first timer in {@code timers} that has not been replaced or deleted, removing the
+   * ones before it, or {@code null} if there is no such timer.
+   */
+  @Nullable
+  private TimerData firstLiveTimer(NavigableSet<TimerData> timers) {
+    while (!timers.isEmpty()) {
+      TimerData timer = timers.first();
+      if (isLive(timer)) {
+        return timer;
+      }
+      timers.pollFirst();
+    }
+    return null;
+  }
+
+  private boolean isLive(TimerData timer) {
+    return timer.equals(existingTimers.get(timer.getNamespace(), timer.getTimerId()));
+  }
+
+  /**
+   * Removes all replaced and deleted timers once they outnumber the live ones, which keeps the
+   * amortized cost of setting and deleting timers independent of how often they are replaced.
+   */
+  private void maybeCompact() {
+    int staleTimers =
+        watermarkTimers.size()
+            + processingTimers.size()
+            + synchronizedProcessingTimers.size()
+            - existingTimers.size();
+    if (staleTimers > MIN_STALE_TIMERS_TO_COMPACT + existingTimers.size()) {
+      watermarkTimers.removeIf(timer -> !isLive(timer));
+      processingTimers.removeIf(timer -> !isLive(timer));
+      synchronizedProcessingTimers.removeIf(timer -> !isLive(timer));
+    }
+  }
 }
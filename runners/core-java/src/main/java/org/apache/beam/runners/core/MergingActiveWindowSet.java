@@ -25,6 +25,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -37,10 +38,18 @@ import org.apache.beam.sdk.coders.MapCoder;
 import org.apache.beam.sdk.coders.SetCoder;
 import org.apache.beam.sdk.state.ValueState;
 import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.MergeOverlappingIntervalWindows;
+import org.apache.beam.sdk.transforms.windowing.Sessions;
 import org.apache.beam.sdk.transforms.windowing.WindowFn;
 
 /**
  * An {@link ActiveWindowSet} for merging {@link WindowFn} implementations.
+ *
+ * <p>For {@link Sessions}, only the NEW windows added since the last merge and the windows they
+ * overlap are passed to {@link MergeOverlappingIntervalWindows}, rather than all the windows. The
+ * other windows cannot overlap each other, so this has the same result, but sorts only the windows
+ * being merged. Finding them is still a scan over the windows, as they are persisted unordered.
  */
 public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWindowSet<W> {
   private final WindowFn<Object, W> windowFn;
@@ -66,8 +75,18 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
    */
   private final ValueState<Map<W, Set<W>>> valueState;
 
+  /**
+   * Whether only {@link #newWindows} and the windows they overlap need to be merged, which
+   * requires the windows to be {@link Sessions} windows, and the other windows to not overlap.
+   */
+  private boolean mergeNewWindowsOnly;
+
+  /** NEW windows added since the last merge. */
+  private final Set<W> newWindows = new LinkedHashSet<>();
+
   public MergingActiveWindowSet(WindowFn<Object, W> windowFn, StateInternals state) {
     this.windowFn = windowFn;
+    this.mergeNewWindowsOnly = Sessions.class.equals(windowFn.getClass());
 
     StateTag<ValueState<Map<W, Set<W>>>> tag =
         StateTags.makeSystemTagInternal(StateTags.value(
@@ -83,7 +102,8 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
   public void cleanupTemporaryWindows() {
     // All NEW windows can be forgotten since they must have ended up being merged into
     // some other ACTIVE window.
-    activeWindowToStateAddressWindows.entrySet().removeIf(entry -> entry.getValue().isEmpty());
+    activeWindowToStateAddressWindows.values().removeIf(Set::isEmpty);
+    newWindows.clear();
   }
 
   @Override
@@ -124,6 +144,7 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
     if (!activeWindowToStateAddressWindows.containsKey(window)) {
       // Add window as NEW.
       activeWindowToStateAddressWindows.put(window, new LinkedHashSet<>());
+      newWindows.add(window);
     }
   }
 
@@ -147,6 +168,8 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
       Set<W> stateAddressWindows = new LinkedHashSet<>();
       stateAddressWindows.add(window);
       activeWindowToStateAddressWindows.put(window, stateAddressWindows);
+      // Windows added directly may overlap.
+      mergeNewWindowsOnly = false;
     }
   }
 
@@ -154,12 +177,14 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
   public void addActiveForTesting(W window, Iterable<W> stateAddressWindows) {
     if (!activeWindowToStateAddressWindows.containsKey(window)) {
       activeWindowToStateAddressWindows.put(window, Sets.newLinkedHashSet(stateAddressWindows));
+      mergeNewWindowsOnly = false;
     }
   }
 
   @Override
   public void remove(W window) {
     activeWindowToStateAddressWindows.remove(window);
+    newWindows.remove(window);
   }
 
   private class MergeContextImpl extends WindowFn<Object, W>.MergeContext {
@@ -220,17 +245,96 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
   }
 
   @Override
+  @SuppressWarnings({"unchecked", "rawtypes"})
   public void merge(MergeCallback<W> mergeCallback) throws Exception {
     MergeContextImpl context = new MergeContextImpl(mergeCallback);
 
-    // See what the window function does with the NEW and already ACTIVE windows.
-    // Entering userland.
-    windowFn.mergeWindows(context);
+    if (mergeNewWindowsOnly) {
+      // Sessions windows are IntervalWindows.
+      MergeOverlappingIntervalWindows.mergeWindows(
+          (WindowFn.MergeContext) new SubsetMergeContext(context, windowsOverlappingNewWindows()));
+    } else {
+      // See what the window function does with the NEW and already ACTIVE windows.
+      // Entering userland.
+      windowFn.mergeWindows(context);
+    }
+    newWindows.clear();
 
     // Actually do the merging and invoke the callbacks.
     context.recordMerges();
   }
 
+  /**
+   * Returns the NEW windows added since the last merge, and the windows which overlap them. Since
+   * the other windows do not overlap each other, these are the only windows which can be merged.
+   */
+  @VisibleForTesting
+  List<W> windowsOverlappingNewWindows() {
+    List<W> windows = new ArrayList<>(newWindows);
+    if (newWindows.isEmpty()) {
+      return windows;
+    }
+    // The spans covered by the NEW windows, which do not overlap and are ordered by start.
+    List<IntervalWindow> sortedNewWindows = new ArrayList<>();
+    for (W window : newWindows) {
+      sortedNewWindows.add((IntervalWindow) window);
+    }
+    Collections.sort(sortedNewWindows);
+    List<IntervalWindow> spans = new ArrayList<>();
+    for (IntervalWindow window : sortedNewWindows) {
+      int last = spans.size() - 1;
+      if (last >= 0 && spans.get(last).intersects(window)) {
+        spans.set(last, spans.get(last).span(window));
+      } else {
+        spans.add(window);
+      }
+    }
+    for (W window : activeWindowToStateAddressWindows.keySet()) {
+      if (!newWindows.contains(window) && overlapsAny(spans, (IntervalWindow) window)) {
+        windows.add(window);
+      }
+    }
+    return windows;
+  }
+
+  /** Returns whether {@code window} overlaps any of the ordered, non-overlapping {@code spans}. */
+  private static boolean overlapsAny(List<IntervalWindow> spans, IntervalWindow window) {
+    // Only the last span starting before the window ends can overlap it.
+    int low = 0;
+    int high = spans.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (spans.get(mid).start().isBefore(window.end())) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low > 0 && spans.get(low - 1).intersects(window);
+  }
+
+  /** Merges a subset of the windows, recording the merges in the given {@link MergeContextImpl}. */
+  private class SubsetMergeContext extends WindowFn<Object, W>.MergeContext {
+    private final MergeContextImpl context;
+    private final Collection<W> windows;
+
+    SubsetMergeContext(MergeContextImpl context, Collection<W> windows) {
+      windowFn.super();
+      this.context = context;
+      this.windows = windows;
+    }
+
+    @Override
+    public Collection<W> windows() {
+      return windows;
+    }
+
+    @Override
+    public void merge(Collection<W> toBeMerged, W mergeResult) throws Exception {
+      context.merge(toBeMerged, mergeResult);
+    }
+  }
+
   /**
    * A {@link WindowFn#mergeWindows} call has determined that {@code toBeMerged} (which must
    * all be ACTIVE}) should be considered equivalent to {@code activeWindow} (which is either a
@@ -33,6 +33,10 @@ import org.apache.beam.sdk.values.WindowingStrategy.AccumulationMode;
  */
 public abstract class NonEmptyPanes<K, W extends BoundedWindow> {
 
+  static final StateTag<CombiningState<Long, long[], Long>> PANE_ADDITIONS_TAG =
+      StateTags.makeSystemTagInternal(StateTags.combiningValueFromInputInternal(
+          "count", VarLongCoder.of(), Sum.ofLongs()));
+
   static <K, W extends BoundedWindow> NonEmptyPanes<K, W> create(
       WindowingStrategy<?, W> strategy, ReduceFn<K, ?, ?, W> reduceFn) {
     if (strategy.getMode() == AccumulationMode.DISCARDING_FIRED_PANES) {
@@ -113,11 +117,6 @@ public abstract class NonEmptyPanes<K, W extends BoundedWindow> {
   private static class GeneralNonEmptyPanes<K, W extends BoundedWindow>
       extends NonEmptyPanes<K, W> {
 
-    private static final StateTag<CombiningState<Long, long[], Long>>
-        PANE_ADDITIONS_TAG =
-        StateTags.makeSystemTagInternal(StateTags.combiningValueFromInputInternal(
-            "count", VarLongCoder.of(), Sum.ofLongs()));
-
     @Override
     public void recordContent(StateAccessor<K> state) {
       state.access(PANE_ADDITIONS_TAG).add(1L);
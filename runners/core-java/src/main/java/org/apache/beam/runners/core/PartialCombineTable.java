@@ -0,0 +1,533 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.Coder.NonDeterministicException;
+import org.apache.beam.sdk.transforms.Combine;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
+import org.apache.beam.sdk.transforms.Count;
+import org.apache.beam.sdk.util.CoderUtils;
+import org.apache.beam.sdk.util.common.ElementByteSizeObserver;
+
+/**
+ * A bounded table of accumulators for combiner lifting, which combines the inputs for each key
+ * before they are shuffled.
+ *
+ * <p>Keys are compared by their encoded bytes, so the key coder must be deterministic. Runners that
+ * combine per key and window use a key that includes the window. The table holds at most {@code
+ * maxEntries} keys and about {@code maxBytes} of encoded keys and accumulators. Whenever either
+ * bound is exceeded, the accumulators of the least recently updated keys are flushed to the {@link
+ * Receiver}, which typically outputs them to the shuffle. {@link #flush()} flushes all remaining
+ * accumulators, for example when finishing a bundle, and {@link #flushIf} flushes those of some
+ * keys, for example of the windows that have ended.
+ *
+ * <p>{@link #create} specializes the table for {@link Combine.BinaryCombineLongFn} and {@link
+ * Combine.BinaryCombineDoubleFn}, such as {@code Sum}, {@code Min} and {@code Max} over longs and
+ * doubles, and for {@link Count#combineFn()}. These keep their accumulators in a primitive array
+ * instead of one object per key.
+ *
+ * @param <K> the type of the keys
+ * @param <InputT> the type of the inputs of the combine function
+ * @param <AccumT> the type of the accumulators of the combine function
+ */
+public abstract class PartialCombineTable<K, InputT, AccumT> {
+
+  /** Receives the accumulators flushed from a {@link PartialCombineTable}. */
+  public interface Receiver<K, AccumT> {
+    void receive(K key, AccumT accumulator) throws Exception;
+  }
+
+  private static final Class<?> COUNT_FN_CLASS = Count.combineFn().getClass();
+
+  /**
+   * Returns a {@link PartialCombineTable} combining inputs with {@code combineFn}, and flushing
+   * accumulators to {@code receiver}.
+   *
+   * @param accumulatorCoder the coder used to estimate the size of accumulators, if the table is
+   *     not specialized for {@code combineFn}
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public static <K, InputT, AccumT> PartialCombineTable<K, InputT, AccumT> create(
+      Coder<K> keyCoder,
+      CombineFn<InputT, AccumT, ?> combineFn,
+      Coder<AccumT> accumulatorCoder,
+      int maxEntries,
+      long maxBytes,
+      Receiver<K, AccumT> receiver) {
+    PartialCombineTable table;
+    if (combineFn instanceof Combine.BinaryCombineLongFn) {
+      Combine.BinaryCombineLongFn fn = (Combine.BinaryCombineLongFn) combineFn;
+      table =
+          new LongTable<K, Long>(
+              keyCoder, maxEntries, maxBytes, (Receiver) receiver, fn.identity(), fn::apply) {
+            @Override
+            long toLong(Long input) {
+              return input;
+            }
+          };
+    } else if (COUNT_FN_CLASS.isInstance(combineFn)) {
+      table =
+          new LongTable<K, Object>(
+              keyCoder, maxEntries, maxBytes, (Receiver) receiver, 0L, Long::sum) {
+            @Override
+            long toLong(Object input) {
+              return 1L;
+            }
+          };
+    } else if (combineFn instanceof Combine.BinaryCombineDoubleFn) {
+      table =
+          new DoubleTable<>(
+              keyCoder,
+              maxEntries,
+              maxBytes,
+              (Receiver) receiver,
+              (Combine.BinaryCombineDoubleFn) combineFn);
+    } else {
+      table =
+          new GenericTable<>(
+              keyCoder, maxEntries, maxBytes, receiver, combineFn, accumulatorCoder);
+    }
+    return table;
+  }
+
+  private final Coder<K> keyCoder;
+  private final int maxEntries;
+  private final long maxBytes;
+  private final Receiver<K, AccumT> receiver;
+
+  /** The number of slots in the table, which is a power of two. */
+  final int tableSize;
+
+  private final int mask;
+  private final byte[][] encodedKeys;
+  private final int[] hashes;
+  private final Object[] keys;
+
+  /** The slots in the order they were last updated, as a doubly linked list. */
+  private final int[] lruPrevious;
+  private final int[] lruNext;
+  private int lruHead = -1;
+  private int lruTail = -1;
+
+  private int size;
+  private long byteSize;
+
+  PartialCombineTable(
+      Coder<K> keyCoder, int maxEntries, long maxBytes, Receiver<K, AccumT> receiver) {
+    checkArgument(maxEntries > 0, "maxEntries must be positive, but was %s", maxEntries);
+    checkArgument(
+        maxEntries <= (1 << 29), "maxEntries must be at most %s, but was %s", 1 << 29, maxEntries);
+    checkArgument(maxBytes > 0, "maxBytes must be positive, but was %s", maxBytes);
+    try {
+      keyCoder.verifyDeterministic();
+    } catch (NonDeterministicException e) {
+      throw new IllegalArgumentException(
+          "PartialCombineTable requires a deterministic key coder", e);
+    }
+    this.keyCoder = keyCoder;
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    this.receiver = receiver;
+
+    // Keep the load factor at most one half, so that probe sequences stay short. There is always
+    // an empty slot, even while one entry more than maxEntries is being flushed.
+    this.tableSize = Math.max(4, Integer.highestOneBit(2 * maxEntries - 1) << 1);
+    this.mask = tableSize - 1;
+    this.encodedKeys = new byte[tableSize][];
+    this.hashes = new int[tableSize];
+    this.keys = new Object[tableSize];
+    this.lruPrevious = new int[tableSize];
+    this.lruNext = new int[tableSize];
+  }
+
+  /**
+   * Adds {@code input} to the accumulator for {@code key}, flushing the least recently updated
+   * accumulators if the table exceeds its bounds.
+   */
+  public void add(K key, InputT input) throws Exception {
+    byte[] encodedKey = CoderUtils.encodeToByteArray(keyCoder, key);
+    int hash = hash(encodedKey);
+    int slot = hash & mask;
+    while (encodedKeys[slot] != null) {
+      if (hashes[slot] == hash && Arrays.equals(encodedKeys[slot], encodedKey)) {
+        long oldAccumulatorSize = accumulatorByteSize(slot);
+        addInput(slot, input);
+        byteSize += accumulatorByteSize(slot) - oldAccumulatorSize;
+        unlink(slot);
+        append(slot);
+        flushWhileOverBounds();
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    encodedKeys[slot] = encodedKey;
+    hashes[slot] = hash;
+    keys[slot] = key;
+    createAccumulator(slot, input);
+    byteSize += encodedKey.length + accumulatorByteSize(slot);
+    size++;
+    append(slot);
+    flushWhileOverBounds();
+  }
+
+  /** Flushes all accumulators to the {@link Receiver}, leaving the table empty. */
+  public void flush() throws Exception {
+    while (lruHead != -1) {
+      flush(lruHead);
+    }
+  }
+
+  /**
+   * Flushes the accumulators of the keys matching {@code predicate} to the {@link Receiver}, in
+   * the order they were last updated.
+   */
+  @SuppressWarnings("unchecked")
+  public void flushIf(Predicate<? super K> predicate) throws Exception {
+    // Flushing an entry may move others to different slots, so they are looked up again.
+    List<byte[]> toFlush = new ArrayList<>();
+    for (int slot = lruHead; slot != -1; slot = lruNext[slot]) {
+      if (predicate.test((K) keys[slot])) {
+        toFlush.add(encodedKeys[slot]);
+      }
+    }
+    for (byte[] encodedKey : toFlush) {
+      int slot = hash(encodedKey) & mask;
+      while (encodedKeys[slot] != encodedKey) {
+        slot = (slot + 1) & mask;
+      }
+      flush(slot);
+    }
+  }
+
+  /** Returns the number of keys in the table. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the estimated size of the encoded keys and accumulators in the table. */
+  public long getByteSize() {
+    return byteSize;
+  }
+
+  /** Sets the accumulator in {@code slot} to the accumulator of just {@code input}. */
+  abstract void createAccumulator(int slot, InputT input) throws Exception;
+
+  /** Adds {@code input} to the accumulator in {@code slot}. */
+  abstract void addInput(int slot, InputT input) throws Exception;
+
+  /** Returns the accumulator in {@code slot}, in the representation of the combine function. */
+  abstract AccumT extractAccumulator(int slot);
+
+  /** Returns the estimated encoded size of the accumulator in {@code slot}. */
+  abstract long accumulatorByteSize(int slot);
+
+  /** Moves the accumulator in slot {@code from} to slot {@code to}. */
+  abstract void moveAccumulator(int from, int to);
+
+  /** Releases the accumulator in {@code slot}. */
+  void clearAccumulator(int slot) {}
+
+  private void flushWhileOverBounds() throws Exception {
+    while (size > maxEntries || (byteSize > maxBytes && size > 0)) {
+      flush(lruHead);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void flush(int slot) throws Exception {
+    K key = (K) keys[slot];
+    AccumT accumulator = extractAccumulator(slot);
+    byteSize -= encodedKeys[slot].length + accumulatorByteSize(slot);
+    remove(slot);
+    receiver.receive(key, accumulator);
+  }
+
+  /**
+   * Removes the entry in {@code slot}, moving later entries of the same probe sequence back so
+   * that lookups never need to skip deleted slots.
+   */
+  private void remove(int slot) {
+    unlink(slot);
+    size--;
+    int hole = slot;
+    int next = (slot + 1) & mask;
+    while (encodedKeys[next] != null) {
+      int home = hashes[next] & mask;
+      // The entry may fill the hole only if the hole is between its home slot and its slot.
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        move(next, hole);
+        hole = next;
+      }
+      next = (next + 1) & mask;
+    }
+    encodedKeys[hole] = null;
+    keys[hole] = null;
+    clearAccumulator(hole);
+  }
+
+  private void move(int from, int to) {
+    encodedKeys[to] = encodedKeys[from];
+    hashes[to] = hashes[from];
+    keys[to] = keys[from];
+    moveAccumulator(from, to);
+
+    int previous = lruPrevious[from];
+    int next = lruNext[from];
+    lruPrevious[to] = previous;
+    lruNext[to] = next;
+    if (previous == -1) {
+      lruHead = to;
+    } else {
+      lruNext[previous] = to;
+    }
+    if (next == -1) {
+      lruTail = to;
+    } else {
+      lruPrevious[next] = to;
+    }
+  }
+
+  private void append(int slot) {
+    lruPrevious[slot] = lruTail;
+    lruNext[slot] = -1;
+    if (lruTail == -1) {
+      lruHead = slot;
+    } else {
+      lruNext[lruTail] = slot;
+    }
+    lruTail = slot;
+  }
+
+  private void unlink(int slot) {
+    int previous = lruPrevious[slot];
+    int next = lruNext[slot];
+    if (previous == -1) {
+      lruHead = next;
+    } else {
+      lruNext[previous] = next;
+    }
+    if (next == -1) {
+      lruTail = previous;
+    } else {
+      lruPrevious[next] = previous;
+    }
+  }
+
+  private static int hash(byte[] encodedKey) {
+    int hash = Arrays.hashCode(encodedKey) * 0x9E3779B9;
+    return hash ^ (hash >>> 16);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  /** A table holding the accumulators of any {@link CombineFn} as objects. */
+  private static class GenericTable<K, InputT, AccumT>
+      extends PartialCombineTable<K, InputT, AccumT> {
+    private final CombineFn<InputT, AccumT, ?> combineFn;
+    private final Coder<AccumT> accumulatorCoder;
+    private final ByteSizeObserver observer = new ByteSizeObserver();
+    private final Object[] accumulators;
+    private final long[] accumulatorByteSizes;
+    private final long[] inputCounts;
+
+    private GenericTable(
+        Coder<K> keyCoder,
+        int maxEntries,
+        long maxBytes,
+        Receiver<K, AccumT> receiver,
+        CombineFn<InputT, AccumT, ?> combineFn,
+        Coder<AccumT> accumulatorCoder) {
+      super(keyCoder, maxEntries, maxBytes, receiver);
+      this.combineFn = combineFn;
+      this.accumulatorCoder = accumulatorCoder;
+      this.accumulators = new Object[tableSize];
+      this.accumulatorByteSizes = new long[tableSize];
+      this.inputCounts = new long[tableSize];
+    }
+
+    @Override
+    void createAccumulator(int slot, InputT input) throws Exception {
+      AccumT accumulator = combineFn.addInput(combineFn.createAccumulator(), input);
+      accumulators[slot] = accumulator;
+      accumulatorByteSizes[slot] = observer.byteSize(accumulatorCoder, accumulator);
+      inputCounts[slot] = 1;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    void addInput(int slot, InputT input) throws Exception {
+      AccumT accumulator = combineFn.addInput((AccumT) accumulators[slot], input);
+      accumulators[slot] = accumulator;
+      long inputCount = ++inputCounts[slot];
+      // Measuring may require encoding the accumulator, so unless that is cheap it is only
+      // measured each time the number of inputs doubles.
+      if (accumulatorCoder.isRegisterByteSizeObserverCheap(accumulator)
+          || Long.bitCount(inputCount) == 1) {
+        accumulatorByteSizes[slot] = observer.byteSize(accumulatorCoder, accumulator);
+      }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    AccumT extractAccumulator(int slot) {
+      return combineFn.compact((AccumT) accumulators[slot]);
+    }
+
+    @Override
+    long accumulatorByteSize(int slot) {
+      return accumulatorByteSizes[slot];
+    }
+
+    @Override
+    void moveAccumulator(int from, int to) {
+      accumulators[to] = accumulators[from];
+      accumulatorByteSizes[to] = accumulatorByteSizes[from];
+      inputCounts[to] = inputCounts[from];
+    }
+
+    @Override
+    void clearAccumulator(int slot) {
+      accumulators[slot] = null;
+    }
+  }
+
+  /** Measures the encoded size of values through {@link Coder#registerByteSizeObserver}. */
+  private static class ByteSizeObserver extends ElementByteSizeObserver {
+    private long byteSize;
+
+    <T> long byteSize(Coder<T> coder, T value) throws Exception {
+      coder.registerByteSizeObserver(value, this);
+      advance();
+      return byteSize;
+    }
+
+    @Override
+    protected void reportElementSize(long elementByteSize) {
+      byteSize = elementByteSize;
+    }
+  }
+
+  /** The operation combining two {@code long} accumulators or inputs. */
+  private interface LongOperation {
+    long apply(long left, long right);
+  }
+
+  /**
+   * A table holding {@code long} accumulators, for combine functions that use {@code long[1]} as
+   * their accumulator.
+   */
+  private abstract static class LongTable<K, InputT>
+      extends PartialCombineTable<K, InputT, long[]> {
+    private final long identity;
+    private final LongOperation operation;
+    private final long[] values;
+
+    private LongTable(
+        Coder<K> keyCoder,
+        int maxEntries,
+        long maxBytes,
+        Receiver<K, long[]> receiver,
+        long identity,
+        LongOperation operation) {
+      super(keyCoder, maxEntries, maxBytes, receiver);
+      this.identity = identity;
+      this.operation = operation;
+      this.values = new long[tableSize];
+    }
+
+    /** Returns the value that {@code input} contributes to the accumulator. */
+    abstract long toLong(InputT input);
+
+    @Override
+    void createAccumulator(int slot, InputT input) {
+      values[slot] = operation.apply(identity, toLong(input));
+    }
+
+    @Override
+    void addInput(int slot, InputT input) {
+      values[slot] = operation.apply(values[slot], toLong(input));
+    }
+
+    @Override
+    long[] extractAccumulator(int slot) {
+      return new long[] {values[slot]};
+    }
+
+    @Override
+    long accumulatorByteSize(int slot) {
+      return Long.BYTES;
+    }
+
+    @Override
+    void moveAccumulator(int from, int to) {
+      values[to] = values[from];
+    }
+  }
+
+  /** A table holding the {@code double} accumulators of a {@link Combine.BinaryCombineDoubleFn}. */
+  private static class DoubleTable<K> extends PartialCombineTable<K, Double, double[]> {
+    private final Combine.BinaryCombineDoubleFn combineFn;
+    private final double identity;
+    private final double[] values;
+
+    private DoubleTable(
+        Coder<K> keyCoder,
+        int maxEntries,
+        long maxBytes,
+        Receiver<K, double[]> receiver,
+        Combine.BinaryCombineDoubleFn combineFn) {
+      super(keyCoder, maxEntries, maxBytes, receiver);
+      this.combineFn = combineFn;
+      this.identity = combineFn.identity();
+      this.values = new double[tableSize];
+    }
+
+    @Override
+    void createAccumulator(int slot, Double input) {
+      values[slot] = combineFn.apply(identity, input);
+    }
+
+    @Override
+    void addInput(int slot, Double input) {
+      values[slot] = combineFn.apply(values[slot], input);
+    }
+
+    @Override
+    double[] extractAccumulator(int slot) {
+      return new double[] {values[slot]};
+    }
+
+    @Override
+    long accumulatorByteSize(int slot) {
+      return Double.BYTES;
+    }
+
+    @Override
+    void moveAccumulator(int from, int to) {
+      values[to] = values[from];
+    }
+  }
+}
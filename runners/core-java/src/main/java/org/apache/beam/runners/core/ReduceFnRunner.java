@@ -28,6 +28,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -36,11 +37,13 @@ import org.apache.beam.runners.core.GroupByKeyViaGroupByKeyOnly.GroupByKeyOnly;
 import org.apache.beam.runners.core.ReduceFnContextFactory.StateStyle;
 import org.apache.beam.runners.core.StateNamespaces.WindowNamespace;
 import org.apache.beam.runners.core.TimerInternals.TimerData;
+import org.apache.beam.runners.core.triggers.DefaultTriggerStateMachine;
 import org.apache.beam.runners.core.triggers.ExecutableTriggerStateMachine;
 import org.apache.beam.runners.core.triggers.TriggerStateMachineContextFactory;
 import org.apache.beam.runners.core.triggers.TriggerStateMachineRunner;
 import org.apache.beam.sdk.metrics.Counter;
 import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.options.ExperimentalOptions;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.state.TimeDomain;
 import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
@@ -109,6 +112,13 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
 
   public static final String DROPPED_DUE_TO_CLOSED_WINDOW = "droppedDueToClosedWindow";
 
+  /**
+   * The experiment that stores the pane info, trigger finished bits and non-empty pane count of
+   * each window in a single state value, for windowing strategies whose windows do not merge. The
+   * state written with and without this experiment is not compatible.
+   */
+  public static final String COMPACT_WINDOW_METADATA_EXPERIMENT = "compact_window_metadata";
+
   private final K key;
 
   /**
@@ -205,6 +215,24 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
    */
   private final NonEmptyPanes<K, W> nonEmptyPanes;
 
+  /**
+   * Holds the pane info, trigger finished bits and non-empty pane count of each window, if
+   * {@link #COMPACT_WINDOW_METADATA_EXPERIMENT} is enabled.
+   *
+   * <ul>
+   * <li>State: A single value per window, read once and written once by {@link #persist}.
+   * <li>Lifetime: Cleared when all of the values it holds are cleared.
+   * </ul>
+   */
+  @Nullable private final WindowMetadataStateInternals windowMetadata;
+
+  /**
+   * Whether elements are processed in batches per window. This is only done for non-merging
+   * windows with the default trigger, for which per-element trigger and hold bookkeeping is
+   * redundant within a window.
+   */
+  private final boolean processElementsByWindow;
+
   public ReduceFnRunner(
       K key,
       WindowingStrategy<?, W> windowingStrategy,
@@ -218,7 +246,15 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
     this.key = key;
     this.timerInternals = timerInternals;
     this.paneInfoTracker = new PaneInfoTracker(timerInternals);
-    this.stateInternals = stateInternals;
+    if (windowingStrategy.getWindowFn().isNonMerging()
+        && options != null
+        && ExperimentalOptions.hasExperiment(options, COMPACT_WINDOW_METADATA_EXPERIMENT)) {
+      this.windowMetadata = new WindowMetadataStateInternals(stateInternals);
+      this.stateInternals = windowMetadata;
+    } else {
+      this.windowMetadata = null;
+      this.stateInternals = stateInternals;
+    }
     this.outputter = outputter;
     this.reduceFn = reduceFn;
     this.droppedDueToClosedWindow = Metrics.counter(ReduceFnRunner.class,
@@ -239,18 +275,21 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
             key,
             reduceFn,
             this.windowingStrategy,
-            stateInternals,
+            this.stateInternals,
             this.activeWindows,
             timerInternals,
             sideInputReader,
             options);
 
     this.watermarkHold = new WatermarkHold<>(timerInternals, windowingStrategy);
+    this.processElementsByWindow =
+        windowingStrategy.getWindowFn().isNonMerging()
+            && triggerStateMachine.getSpec() instanceof DefaultTriggerStateMachine;
     this.triggerRunner =
         new TriggerStateMachineRunner<>(
             triggerStateMachine,
             new TriggerStateMachineContextFactory<>(
-                windowingStrategy.getWindowFn(), stateInternals, activeWindows));
+                windowingStrategy.getWindowFn(), this.stateInternals, activeWindows));
   }
 
   private ActiveWindowSet<W> createActiveWindowSet() {
@@ -323,6 +362,10 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
     if (!values.iterator().hasNext()) {
       return;
     }
+    if (processElementsByWindow) {
+      processElementsByWindow(values);
+      return;
+    }
 
     // Determine all the windows for elements.
     Set<W> windows = collectWindows(values);
@@ -351,6 +394,45 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
       processElement(windowToMergeResult, value);
     }
 
+    fireWindows(windowsToConsider);
+  }
+
+  /**
+   * Processes {@code values} like {@link #processElements}, but one window at a time, so that the
+   * trigger, hold and pane state of each window is only read and written once for all its values.
+   * Only used for non-merging windows with the default trigger.
+   */
+  private void processElementsByWindow(Iterable<WindowedValue<InputT>> values) throws Exception {
+    Map<W, List<WindowedValue<InputT>>> valuesByWindow = new LinkedHashMap<>();
+    for (WindowedValue<InputT> value : values) {
+      for (BoundedWindow untypedWindow : value.getWindows()) {
+        @SuppressWarnings("unchecked")
+        W window = (W) untypedWindow;
+        List<WindowedValue<InputT>> windowValues = valuesByWindow.get(window);
+        if (windowValues == null) {
+          windowValues = new ArrayList<>();
+          valuesByWindow.put(window, windowValues);
+        }
+        windowValues.add(value);
+      }
+    }
+
+    prefetchWindowsForValues(valuesByWindow.keySet());
+
+    Set<W> windowsToConsider = windowsThatAreOpen(valuesByWindow.keySet());
+
+    for (Map.Entry<W, List<WindowedValue<InputT>>> entry : valuesByWindow.entrySet()) {
+      processWindowValues(entry.getKey(), entry.getValue());
+    }
+
+    fireWindows(windowsToConsider);
+  }
+
+  /**
+   * Fires the windows in {@code windowsToConsider} whose triggers are ready after processing
+   * elements.
+   */
+  private void fireWindows(Set<W> windowsToConsider) throws Exception {
     // Now that we've processed the elements, see if any of the windows need to fire.
     // Prefetch state necessary to determine if the triggers should fire.
     for (W mergedWindow : windowsToConsider) {
@@ -378,6 +460,9 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
 
   public void persist() {
     activeWindows.persist();
+    if (windowMetadata != null) {
+      windowMetadata.persist();
+    }
   }
 
   /**
@@ -512,7 +597,10 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
 
       // Have the trigger merge state as needed.
       triggerRunner.onMerge(
-          directMergeContext.window(), directMergeContext.timers(), directMergeContext.state());
+          directMergeContext.window(),
+          activeToBeMerged,
+          directMergeContext.timers(),
+          directMergeContext.state());
 
       for (W active : activeToBeMerged) {
         if (active.equals(mergeResult)) {
@@ -621,6 +709,49 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
     }
   }
 
+  /**
+   * Process all {@code values} of a single non-merging window. With the default trigger, which
+   * only sets an end-of-window timer for each element, this is equivalent to calling {@link
+   * #processElement} for each value.
+   */
+  private void processWindowValues(W window, List<WindowedValue<InputT>> values)
+      throws Exception {
+    ReduceFn<K, InputT, OutputT, W>.Context directContext =
+        contextFactory.base(window, StateStyle.DIRECT);
+    if (triggerRunner.isClosed(directContext.state())) {
+      // This window has already been closed.
+      droppedDueToClosedWindow.inc(values.size());
+      WindowTracing.debug(
+          "ReduceFnRunner.processWindowValues: Dropping {} elements for key:{}; window:{} "
+          + "since window is no longer active at inputWatermark:{}; outputWatermark:{}",
+          values.size(), key, window, timerInternals.currentInputWatermarkTime(),
+          timerInternals.currentOutputWatermarkTime());
+      return;
+    }
+
+    activeWindows.ensureWindowIsActive(window);
+    ReduceFn<K, InputT, OutputT, W>.Context renamedContext =
+        contextFactory.base(window, StateStyle.RENAMED);
+
+    nonEmptyPanes.recordContent(renamedContext.state());
+    scheduleGarbageCollectionTimer(directContext);
+
+    List<Instant> timestamps = new ArrayList<>(values.size());
+    for (WindowedValue<InputT> value : values) {
+      timestamps.add(value.getTimestamp());
+      // Execute the reduceFn, which will buffer the value as appropriate
+      reduceFn.processValue(
+          contextFactory.forValue(
+              window, value.getValue(), value.getTimestamp(), StateStyle.RENAMED));
+    }
+    watermarkHold.addHolds(renamedContext, timestamps);
+
+    // Run the trigger to update its state. The default trigger does not depend on the element
+    // timestamp.
+    triggerRunner.processValue(
+        window, values.get(0).getTimestamp(), directContext.timers(), directContext.state());
+  }
+
   /**
    * A descriptor of the activation for a window based on a timer.
    */
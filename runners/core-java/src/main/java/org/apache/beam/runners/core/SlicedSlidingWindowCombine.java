@@ -0,0 +1,393 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.apache.beam.runners.core.construction.PTransformReplacements;
+import org.apache.beam.runners.core.construction.ReplacementOutputs;
+import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.coders.CannotProvideCoderException;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderRegistry;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.runners.AppliedPTransform;
+import org.apache.beam.sdk.runners.PTransformMatcher;
+import org.apache.beam.sdk.runners.PTransformOverrideFactory;
+import org.apache.beam.sdk.runners.TransformHierarchy;
+import org.apache.beam.sdk.transforms.Combine;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
+import org.apache.beam.sdk.transforms.CombineFnBase.GlobalCombineFn;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.sdk.transforms.windowing.DefaultTrigger;
+import org.apache.beam.sdk.transforms.windowing.FixedWindows;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.NonMergingWindowFn;
+import org.apache.beam.sdk.transforms.windowing.SlidingWindows;
+import org.apache.beam.sdk.transforms.windowing.TimestampCombiner;
+import org.apache.beam.sdk.transforms.windowing.Window;
+import org.apache.beam.sdk.transforms.windowing.Window.ClosingBehavior;
+import org.apache.beam.sdk.transforms.windowing.WindowFn;
+import org.apache.beam.sdk.transforms.windowing.WindowMappingFn;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PValue;
+import org.apache.beam.sdk.values.TupleTag;
+import org.apache.beam.sdk.values.WindowingStrategy;
+
+/**
+ * A runner-independent expansion of {@link Combine.PerKey} over {@link SlidingWindows} that adds
+ * each element to a single accumulator, instead of one accumulator per sliding window.
+ *
+ * <p>Elements are first combined per key into non-overlapping slices, which are fixed windows of
+ * the period of the sliding windows. The accumulator of each slice is then merged into every
+ * sliding window containing the slice. For windows of size {@code n * period}, this adds each
+ * element once instead of {@code n} times, and keeps one accumulator per slice in state instead
+ * of {@code n} per element.
+ *
+ * <p>A slice accepts late data until the last sliding window containing it expires, so late data
+ * still reaches the sliding windows that are within the allowed lateness, and is dropped by the
+ * others when the slice is merged into them. Slices fire a pane for each late element, as the
+ * default trigger does, and each pane only holds the elements that arrived since the previous one.
+ *
+ * <p>The expansion produces the same output as {@link Combine.PerKey} only for the default
+ * trigger and the default {@link TimestampCombiner#END_OF_WINDOW}. See {@link #matcher()}.
+ */
+public class SlicedSlidingWindowCombine {
+  private SlicedSlidingWindowCombine() {}
+
+  /**
+   * Returns whether a {@link Combine.PerKey} using the given function and without side inputs
+   * can be expanded into a {@link CombinePerKeyViaSlices} for an input with the given windowing
+   * strategy.
+   */
+  public static boolean canExpand(
+      WindowingStrategy<?, ?> windowingStrategy, GlobalCombineFn<?, ?, ?> fn) {
+    if (!(fn instanceof CombineFn)
+        || !(windowingStrategy.getWindowFn() instanceof SlidingWindows)) {
+      return false;
+    }
+    SlidingWindows windowFn = (SlidingWindows) windowingStrategy.getWindowFn();
+    long periodMillis = windowFn.getPeriod().getMillis();
+    long sizeMillis = windowFn.getSize().getMillis();
+    return sizeMillis > periodMillis
+        && sizeMillis % periodMillis == 0
+        && windowingStrategy.getTrigger() instanceof DefaultTrigger
+        && windowingStrategy.getTimestampCombiner() == TimestampCombiner.END_OF_WINDOW;
+  }
+
+  /**
+   * Matches {@link Combine.PerKey} transforms that can be replaced using {@link
+   * OverrideFactory}.
+   *
+   * <p>The expansion assigns elements to slices by their timestamps, so it only matches combines
+   * whose input is the output of a {@link Window} into its sliding windows. Elements that were
+   * windowed by an earlier aggregation, e.g. one output per sliding window, are not in every
+   * sliding window containing their timestamp, and must be combined in the windows they are in.
+   */
+  public static PTransformMatcher matcher() {
+    return application -> {
+      if (!(application.getTransform() instanceof Combine.PerKey)) {
+        return false;
+      }
+      Combine.PerKey<?, ?, ?> combine = (Combine.PerKey<?, ?, ?>) application.getTransform();
+      // The expansion itself ends with a combine over the sliding windows, which must be kept.
+      if (!combine.getSideInputs().isEmpty() || combine.getFn() instanceof MergeSlicesFn) {
+        return false;
+      }
+      PCollection<?> input =
+          (PCollection<?>) Iterables.getOnlyElement(application.getInputs().values());
+      return canExpand(input.getWindowingStrategy(), combine.getFn())
+          && isAssignedToWindows(application.getPipeline(), input);
+    };
+  }
+
+  /** Returns whether the collection is the output of a {@link Window.Assign} into its windows. */
+  private static boolean isAssignedToWindows(Pipeline pipeline, PCollection<?> collection) {
+    WindowFn<?, ?> windowFn = collection.getWindowingStrategy().getWindowFn();
+    boolean[] assigned = {false};
+    pipeline.traverseTopologically(
+        new Pipeline.PipelineVisitor.Defaults() {
+          @Override
+          public void visitPrimitiveTransform(TransformHierarchy.Node node) {
+            if (node.getTransform() instanceof Window.Assign
+                && node.getOutputs().containsValue(collection)) {
+              assigned[0] = windowFn.equals(((Window.Assign<?>) node.getTransform()).getWindowFn());
+            }
+          }
+        });
+    return assigned[0];
+  }
+
+  /** Replaces a matching {@link Combine.PerKey} with a {@link CombinePerKeyViaSlices}. */
+  public static class OverrideFactory<K, InputT, OutputT>
+      implements PTransformOverrideFactory<
+          PCollection<KV<K, InputT>>, PCollection<KV<K, OutputT>>,
+          Combine.PerKey<K, InputT, OutputT>> {
+    @Override
+    public PTransformReplacement<PCollection<KV<K, InputT>>, PCollection<KV<K, OutputT>>>
+        getReplacementTransform(
+            AppliedPTransform<
+                    PCollection<KV<K, InputT>>, PCollection<KV<K, OutputT>>,
+                    Combine.PerKey<K, InputT, OutputT>>
+                transform) {
+      return PTransformReplacement.of(
+          PTransformReplacements.getSingletonMainInput(transform),
+          viaSlices(transform.getTransform().getFn()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, InputT, AccumT, OutputT>
+        CombinePerKeyViaSlices<K, InputT, AccumT, OutputT> viaSlices(
+            GlobalCombineFn<? super InputT, ?, OutputT> fn) {
+      return new CombinePerKeyViaSlices<>((CombineFn<InputT, AccumT, OutputT>) fn);
+    }
+
+    @Override
+    public Map<PValue, ReplacementOutput> mapOutputs(
+        Map<TupleTag<?>, PValue> outputs, PCollection<KV<K, OutputT>> newOutput) {
+      return ReplacementOutputs.singleton(outputs, newOutput);
+    }
+  }
+
+  /**
+   * Combines the values of each key in each sliding window by first combining them into slices.
+   * The input must be windowed into {@link SlidingWindows} such that {@link #canExpand} holds.
+   */
+  public static class CombinePerKeyViaSlices<K, InputT, AccumT, OutputT>
+      extends PTransform<PCollection<KV<K, InputT>>, PCollection<KV<K, OutputT>>> {
+    private final CombineFn<InputT, AccumT, OutputT> fn;
+
+    public CombinePerKeyViaSlices(CombineFn<InputT, AccumT, OutputT> fn) {
+      this.fn = fn;
+    }
+
+    @Override
+    public PCollection<KV<K, OutputT>> expand(PCollection<KV<K, InputT>> input) {
+      WindowingStrategy<?, ?> windowingStrategy = input.getWindowingStrategy();
+      checkArgument(
+          canExpand(windowingStrategy, fn),
+          "%s requires SlidingWindows whose size is a multiple of their period, with the default "
+              + "trigger and the END_OF_WINDOW timestamp combiner, but got %s",
+          CombinePerKeyViaSlices.class.getSimpleName(),
+          windowingStrategy);
+      SlidingWindows windowFn = (SlidingWindows) windowingStrategy.getWindowFn();
+
+      KvCoder<K, InputT> inputKvCoder = (KvCoder<K, InputT>) input.getCoder();
+      Coder<InputT> inputCoder = inputKvCoder.getValueCoder();
+      Coder<AccumT> accumCoder;
+      try {
+        accumCoder = fn.getAccumulatorCoder(input.getPipeline().getCoderRegistry(), inputCoder);
+      } catch (CannotProvideCoderException e) {
+        throw new IllegalStateException("Unable to determine accumulator coder.", e);
+      }
+
+      return input
+          .apply("AssignSlices", assignSlices(windowingStrategy))
+          .apply("CombineSlices", Combine.perKey(new SliceCombineFn<>(fn, accumCoder)))
+          .setCoder(KvCoder.of(inputKvCoder.getKeyCoder(), accumCoder))
+          .apply("AssignSlidingWindows", Window.into(new SlidingWindowsOfSlices(windowFn)))
+          // Restores the sliding windows, which assign the same windows, and the allowed
+          // lateness. Windowing can only extend the allowed lateness, which the slices did.
+          .setWindowingStrategyInternal(windowingStrategy)
+          .apply(
+              "MergeSlices",
+              Combine.perKey(new MergeSlicesFn<>(fn, accumCoder, inputCoder)));
+    }
+
+    @Override
+    public void populateDisplayData(DisplayData.Builder builder) {
+      super.populateDisplayData(builder);
+      builder.add(DisplayData.item("combineFn", fn.getClass()).withLabel("Combine function"));
+      builder.include("combineFn", fn);
+    }
+  }
+
+  /**
+   * Windows elements into the slices of the sliding windows of the given strategy. A slice is kept
+   * until the last sliding window containing it expires.
+   */
+  static <T> Window<T> assignSlices(WindowingStrategy<?, ?> windowingStrategy) {
+    SlidingWindows windowFn = (SlidingWindows) windowingStrategy.getWindowFn();
+    return Window.<T>into(FixedWindows.of(windowFn.getPeriod()).withOffset(windowFn.getOffset()))
+        .triggering(DefaultTrigger.of())
+        .withTimestampCombiner(TimestampCombiner.END_OF_WINDOW)
+        .withAllowedLateness(
+            windowingStrategy
+                .getAllowedLateness()
+                .plus(windowFn.getSize())
+                .minus(windowFn.getPeriod()),
+            ClosingBehavior.FIRE_IF_NON_EMPTY)
+        .discardingFiredPanes();
+  }
+
+  /**
+   * Assigns each slice accumulator to the sliding windows containing its slice. Windows are
+   * assigned from the slice rather than from the timestamp, because late panes of a slice are
+   * timestamped at its garbage collection time, which would assign them to later sliding windows.
+   */
+  static class SlidingWindowsOfSlices extends NonMergingWindowFn<Object, IntervalWindow> {
+    private final SlidingWindows windowFn;
+
+    SlidingWindowsOfSlices(SlidingWindows windowFn) {
+      this.windowFn = windowFn;
+    }
+
+    @Override
+    public Collection<IntervalWindow> assignWindows(AssignContext c) {
+      checkArgument(
+          c.window() instanceof IntervalWindow,
+          "%s requires slices in %s, but got %s",
+          SlidingWindowsOfSlices.class.getSimpleName(),
+          IntervalWindow.class.getSimpleName(),
+          c.window());
+      // Every sliding window containing the start of a slice contains the whole slice.
+      return windowFn.assignWindows(((IntervalWindow) c.window()).start());
+    }
+
+    @Override
+    public boolean isCompatible(WindowFn<?, ?> other) {
+      return equals(other);
+    }
+
+    @Override
+    public Coder<IntervalWindow> windowCoder() {
+      return windowFn.windowCoder();
+    }
+
+    @Override
+    public WindowMappingFn<IntervalWindow> getDefaultWindowMappingFn() {
+      return windowFn.getDefaultWindowMappingFn();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof SlidingWindowsOfSlices
+          && windowFn.equals(((SlidingWindowsOfSlices) other).windowFn);
+    }
+
+    @Override
+    public int hashCode() {
+      return windowFn.hashCode();
+    }
+  }
+
+  /** Adds elements to the accumulator of their slice, and outputs the accumulator itself. */
+  static class SliceCombineFn<InputT, AccumT> extends CombineFn<InputT, AccumT, AccumT> {
+    private final CombineFn<InputT, AccumT, ?> fn;
+    private final Coder<AccumT> accumCoder;
+
+    SliceCombineFn(CombineFn<InputT, AccumT, ?> fn, Coder<AccumT> accumCoder) {
+      this.fn = fn;
+      this.accumCoder = accumCoder;
+    }
+
+    @Override
+    public AccumT createAccumulator() {
+      return fn.createAccumulator();
+    }
+
+    @Override
+    public AccumT addInput(AccumT accumulator, InputT input) {
+      return fn.addInput(accumulator, input);
+    }
+
+    @Override
+    public AccumT mergeAccumulators(Iterable<AccumT> accumulators) {
+      return fn.mergeAccumulators(accumulators);
+    }
+
+    @Override
+    public AccumT extractOutput(AccumT accumulator) {
+      return accumulator;
+    }
+
+    @Override
+    public AccumT compact(AccumT accumulator) {
+      return fn.compact(accumulator);
+    }
+
+    @Override
+    public Coder<AccumT> getAccumulatorCoder(CoderRegistry registry, Coder<InputT> inputCoder) {
+      return accumCoder;
+    }
+
+    @Override
+    public Coder<AccumT> getDefaultOutputCoder(CoderRegistry registry, Coder<InputT> inputCoder) {
+      return accumCoder;
+    }
+  }
+
+  /** Merges the accumulators of the slices of a window, and extracts the output from them. */
+  static class MergeSlicesFn<InputT, AccumT, OutputT> extends CombineFn<AccumT, AccumT, OutputT> {
+    private final CombineFn<InputT, AccumT, OutputT> fn;
+    private final Coder<AccumT> accumCoder;
+    private final Coder<InputT> inputCoder;
+
+    MergeSlicesFn(
+        CombineFn<InputT, AccumT, OutputT> fn, Coder<AccumT> accumCoder, Coder<InputT> inputCoder) {
+      this.fn = fn;
+      this.accumCoder = accumCoder;
+      this.inputCoder = inputCoder;
+    }
+
+    @Override
+    public AccumT createAccumulator() {
+      return fn.createAccumulator();
+    }
+
+    @Override
+    public AccumT addInput(AccumT accumulator, AccumT slice) {
+      // Merging conventionally only modifies the first accumulator, which is ours.
+      List<AccumT> accumulators = ImmutableList.of(accumulator, slice);
+      return fn.mergeAccumulators(accumulators);
+    }
+
+    @Override
+    public AccumT mergeAccumulators(Iterable<AccumT> accumulators) {
+      return fn.mergeAccumulators(accumulators);
+    }
+
+    @Override
+    public OutputT extractOutput(AccumT accumulator) {
+      return fn.extractOutput(accumulator);
+    }
+
+    @Override
+    public AccumT compact(AccumT accumulator) {
+      return fn.compact(accumulator);
+    }
+
+    @Override
+    public Coder<AccumT> getAccumulatorCoder(CoderRegistry registry, Coder<AccumT> sliceCoder) {
+      return accumCoder;
+    }
+
+    @Override
+    public Coder<OutputT> getDefaultOutputCoder(CoderRegistry registry, Coder<AccumT> sliceCoder)
+        throws CannotProvideCoderException {
+      return fn.getDefaultOutputCoder(registry, inputCoder);
+    }
+  }
+}
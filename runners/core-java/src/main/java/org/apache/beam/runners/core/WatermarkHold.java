@@ -21,7 +21,9 @@ import static com.google.common.base.Preconditions.checkState;
 
 import com.google.common.annotations.VisibleForTesting;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
 import org.apache.beam.sdk.state.ReadableState;
@@ -148,6 +150,47 @@ class WatermarkHold<W extends BoundedWindow> implements Serializable {
    */
   @Nullable
   private Instant addElementHold(Instant timestamp, ReduceFn<?, ?, ?, W>.Context context) {
+    Instant elementHold = onTimeElementHold(timestamp, context);
+    if (elementHold != null) {
+      context.state().access(elementHoldTag).add(elementHold);
+    }
+    return elementHold;
+  }
+
+  /**
+   * Add holds for a batch of elements with the given {@code timestamps} in the window of {@code
+   * context}. This is equivalent to calling {@link #addHolds(ReduceFn.ProcessValueContext)} for
+   * each element, but combines the element holds before adding them, so it writes each hold state
+   * at most once.
+   */
+  public void addHolds(ReduceFn<?, ?, ?, W>.Context context, Iterable<Instant> timestamps) {
+    List<Instant> elementHolds = new ArrayList<>();
+    boolean anyTooLate = false;
+    for (Instant timestamp : timestamps) {
+      Instant elementHold = onTimeElementHold(timestamp, context);
+      if (elementHold == null) {
+        anyTooLate = true;
+      } else {
+        elementHolds.add(elementHold);
+      }
+    }
+    if (!elementHolds.isEmpty()) {
+      context
+          .state()
+          .access(elementHoldTag)
+          .add(windowingStrategy.getTimestampCombiner().combine(elementHolds));
+    }
+    if (anyTooLate) {
+      addGarbageCollectionHold(context, false /*paneIsEmpty*/);
+    }
+  }
+
+  /**
+   * Return the element hold for {@code timestamp} if it can be added, as described in {@link
+   * #addElementHold}, or {@literal null} if it is too late.
+   */
+  @Nullable
+  private Instant onTimeElementHold(Instant timestamp, ReduceFn<?, ?, ?, W>.Context context) {
     // Give the window function a chance to move the hold timestamp forward to encourage progress.
     // (A later hold implies less impediment to the output watermark making progress, which in
     // turn encourages end-of-window triggers to fire earlier in following computations.)
@@ -171,7 +214,6 @@ class WatermarkHold<W extends BoundedWindow> implements Serializable {
       tooLate = false;
       checkState(!elementHold.isAfter(BoundedWindow.TIMESTAMP_MAX_VALUE),
           "Element hold %s is beyond end-of-time", elementHold);
-      context.state().access(elementHoldTag).add(elementHold);
     }
     WindowTracing.trace(
         "WatermarkHold.addHolds: element hold at {} is {} for "
@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.apache.beam.runners.core.triggers.TriggerStateMachineRunner;
+import org.apache.beam.sdk.coders.AtomicCoder;
+import org.apache.beam.sdk.coders.BitSetCoder;
+import org.apache.beam.sdk.coders.ByteCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.state.CombiningState;
+import org.apache.beam.sdk.state.ReadableState;
+import org.apache.beam.sdk.state.State;
+import org.apache.beam.sdk.state.StateContext;
+import org.apache.beam.sdk.state.ValueState;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo.PaneInfoCoder;
+
+/**
+ * {@link StateInternals} that keep the bookkeeping of {@link ReduceFnRunner} for each window in a
+ * single value, instead of one state cell each.
+ *
+ * <p>The {@link PaneInfoTracker pane info}, the {@link TriggerStateMachineRunner finished bits}
+ * of the trigger and the {@link NonEmptyPanes count of elements in the pane} of a window are stored
+ * together. Each window's value is read at most once, when any of them is first accessed, and
+ * written at most once, by {@link #persist()}. All other state is delegated unchanged, including
+ * watermark holds, which the runner must see as holds.
+ *
+ * <p>This reduces the round trips for runners whose state is remote, at the cost of a state layout
+ * that is not compatible with the default one. It is only used for {@link
+ * org.apache.beam.sdk.transforms.windowing.WindowFn WindowFns} that do not merge, whose windows
+ * never move state between namespaces.
+ */
+class WindowMetadataStateInternals implements StateInternals {
+
+  @VisibleForTesting
+  static final StateTag<ValueState<WindowMetadata>> WINDOW_METADATA_TAG =
+      StateTags.makeSystemTagInternal(StateTags.value("metadata", WindowMetadataCoder.INSTANCE));
+
+  private static final String PANE_INFO_ID = PaneInfoTracker.PANE_INFO_TAG.getId();
+  private static final String FINISHED_BITS_ID =
+      TriggerStateMachineRunner.FINISHED_BITS_TAG.getId();
+  private static final String PANE_ADDITIONS_ID = NonEmptyPanes.PANE_ADDITIONS_TAG.getId();
+
+  private final StateInternals delegate;
+
+  /** The metadata read so far, by namespace. */
+  private final Map<StateNamespace, WindowMetadata> metadata = new HashMap<>();
+
+  WindowMetadataStateInternals(StateInternals delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public Object getKey() {
+    return delegate.getKey();
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T extends State> T state(
+      StateNamespace namespace, StateTag<T> address, StateContext<?> c) {
+    // Trigger state lives in window-and-trigger namespaces and may reuse the same IDs.
+    if (!(namespace instanceof StateNamespaces.WindowNamespace)) {
+      return delegate.state(namespace, address, c);
+    }
+    String id = address.getId();
+    if (id.equals(PANE_INFO_ID)) {
+      return (T) new PaneInfoState(namespace);
+    } else if (id.equals(FINISHED_BITS_ID)) {
+      return (T) new FinishedBitsState(namespace);
+    } else if (id.equals(PANE_ADDITIONS_ID)) {
+      return (T) new PaneAdditionsState(namespace);
+    }
+    return delegate.state(namespace, address, c);
+  }
+
+  /** Writes the metadata of each window that was modified since it was read. */
+  void persist() {
+    for (Map.Entry<StateNamespace, WindowMetadata> entry : metadata.entrySet()) {
+      WindowMetadata windowMetadata = entry.getValue();
+      if (windowMetadata.dirty) {
+        ValueState<WindowMetadata> state = delegate.state(entry.getKey(), WINDOW_METADATA_TAG);
+        if (windowMetadata.isEmpty()) {
+          state.clear();
+        } else {
+          state.write(windowMetadata.copy());
+        }
+        windowMetadata.dirty = false;
+      }
+    }
+  }
+
+  private void prefetch(StateNamespace namespace) {
+    if (!metadata.containsKey(namespace)) {
+      delegate.state(namespace, WINDOW_METADATA_TAG).readLater();
+    }
+  }
+
+  private WindowMetadata read(StateNamespace namespace) {
+    WindowMetadata windowMetadata = metadata.get(namespace);
+    if (windowMetadata == null) {
+      WindowMetadata stored = delegate.state(namespace, WINDOW_METADATA_TAG).read();
+      // Copy the stored value, so that changes are only visible to the delegate once persisted.
+      windowMetadata = stored == null ? new WindowMetadata() : stored.copy();
+      metadata.put(namespace, windowMetadata);
+    }
+    return windowMetadata;
+  }
+
+  /** A view of the {@link PaneInfoTracker#PANE_INFO_TAG} of a window. */
+  private class PaneInfoState implements ValueState<PaneInfo> {
+    private final StateNamespace namespace;
+
+    private PaneInfoState(StateNamespace namespace) {
+      this.namespace = namespace;
+    }
+
+    @Override
+    public PaneInfo read() {
+      return WindowMetadataStateInternals.this.read(namespace).paneInfo;
+    }
+
+    @Override
+    public void write(PaneInfo input) {
+      WindowMetadata windowMetadata = WindowMetadataStateInternals.this.read(namespace);
+      windowMetadata.paneInfo = input;
+      windowMetadata.dirty = true;
+    }
+
+    @Override
+    public ValueState<PaneInfo> readLater() {
+      prefetch(namespace);
+      return this;
+    }
+
+    @Override
+    public void clear() {
+      write(null);
+    }
+  }
+
+  /** A view of the {@link TriggerStateMachineRunner#FINISHED_BITS_TAG} of a window. */
+  private class FinishedBitsState implements ValueState<BitSet> {
+    private final StateNamespace namespace;
+
+    private FinishedBitsState(StateNamespace namespace) {
+      this.namespace = namespace;
+    }
+
+    @Override
+    public BitSet read() {
+      return WindowMetadataStateInternals.this.read(namespace).finishedBits;
+    }
+
+    @Override
+    public void write(BitSet input) {
+      WindowMetadata windowMetadata = WindowMetadataStateInternals.this.read(namespace);
+      windowMetadata.finishedBits = input;
+      windowMetadata.dirty = true;
+    }
+
+    @Override
+    public ValueState<BitSet> readLater() {
+      prefetch(namespace);
+      return this;
+    }
+
+    @Override
+    public void clear() {
+      write(null);
+    }
+  }
+
+  /** A view of the {@link NonEmptyPanes#PANE_ADDITIONS_TAG} of a window. */
+  private class PaneAdditionsState implements CombiningState<Long, long[], Long> {
+    private final StateNamespace namespace;
+
+    private PaneAdditionsState(StateNamespace namespace) {
+      this.namespace = namespace;
+    }
+
+    @Override
+    public void add(Long value) {
+      addAccum(new long[] {value});
+    }
+
+    @Override
+    public ReadableState<Boolean> isEmpty() {
+      return new ReadableState<Boolean>() {
+        @Override
+        public Boolean read() {
+          return PaneAdditionsState.this.read() == 0L;
+        }
+
+        @Override
+        public ReadableState<Boolean> readLater() {
+          prefetch(namespace);
+          return this;
+        }
+      };
+    }
+
+    @Override
+    public Long read() {
+      return WindowMetadataStateInternals.this.read(namespace).paneAdditions;
+    }
+
+    @Override
+    public long[] getAccum() {
+      return new long[] {read()};
+    }
+
+    @Override
+    public void addAccum(long[] accum) {
+      WindowMetadata windowMetadata = WindowMetadataStateInternals.this.read(namespace);
+      windowMetadata.paneAdditions += accum[0];
+      windowMetadata.dirty = true;
+    }
+
+    @Override
+    public long[] mergeAccumulators(Iterable<long[]> accumulators) {
+      long sum = 0L;
+      for (long[] accumulator : accumulators) {
+        sum += accumulator[0];
+      }
+      return new long[] {sum};
+    }
+
+    @Override
+    public CombiningState<Long, long[], Long> readLater() {
+      prefetch(namespace);
+      return this;
+    }
+
+    @Override
+    public void clear() {
+      WindowMetadata windowMetadata = WindowMetadataStateInternals.this.read(namespace);
+      windowMetadata.paneAdditions = 0L;
+      windowMetadata.dirty = true;
+    }
+  }
+
+  /** The bookkeeping of {@link ReduceFnRunner} for a window. */
+  @VisibleForTesting
+  static class WindowMetadata {
+    @Nullable PaneInfo paneInfo;
+    @Nullable BitSet finishedBits;
+    long paneAdditions;
+
+    /** Whether this has been modified since it was read or persisted. Not encoded. */
+    boolean dirty;
+
+    boolean isEmpty() {
+      return paneInfo == null && finishedBits == null && paneAdditions == 0L;
+    }
+
+    WindowMetadata copy() {
+      WindowMetadata copy = new WindowMetadata();
+      copy.paneInfo = paneInfo;
+      copy.finishedBits = finishedBits == null ? null : (BitSet) finishedBits.clone();
+      copy.paneAdditions = paneAdditions;
+      return copy;
+    }
+  }
+
+  /** A {@link org.apache.beam.sdk.coders.Coder} for {@link WindowMetadata}. */
+  @VisibleForTesting
+  static class WindowMetadataCoder extends AtomicCoder<WindowMetadata> {
+    static final WindowMetadataCoder INSTANCE = new WindowMetadataCoder();
+
+    private static final int HAS_PANE_INFO = 1;
+    private static final int HAS_FINISHED_BITS = 2;
+
+    private WindowMetadataCoder() {}
+
+    @Override
+    public void encode(WindowMetadata value, OutputStream outStream) throws IOException {
+      int fields =
+          (value.paneInfo == null ? 0 : HAS_PANE_INFO)
+              | (value.finishedBits == null ? 0 : HAS_FINISHED_BITS);
+      ByteCoder.of().encode((byte) fields, outStream);
+      if (value.paneInfo != null) {
+        PaneInfoCoder.INSTANCE.encode(value.paneInfo, outStream);
+      }
+      if (value.finishedBits != null) {
+        BitSetCoder.of().encode(value.finishedBits, outStream);
+      }
+      VarLongCoder.of().encode(value.paneAdditions, outStream);
+    }
+
+    @Override
+    public WindowMetadata decode(InputStream inStream) throws IOException {
+      int fields = ByteCoder.of().decode(inStream);
+      WindowMetadata value = new WindowMetadata();
+      if ((fields & HAS_PANE_INFO) != 0) {
+        value.paneInfo = PaneInfoCoder.INSTANCE.decode(inStream);
+      }
+      if ((fields & HAS_FINISHED_BITS) != 0) {
+        value.finishedBits = BitSetCoder.of().decode(inStream);
+      }
+      value.paneAdditions = VarLongCoder.of().decode(inStream);
+      return value;
+    }
+
+    @Override
+    public void verifyDeterministic() {}
+  }
+}
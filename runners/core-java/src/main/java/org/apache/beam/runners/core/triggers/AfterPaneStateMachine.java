@@ -34,7 +34,8 @@ import org.apache.beam.sdk.transforms.Sum;
 @Experimental(Experimental.Kind.TRIGGER)
 public class AfterPaneStateMachine extends TriggerStateMachine {
 
-private static final StateTag<CombiningState<Long, long[], Long>>
+  /** The number of elements in the pane, also used by {@link CompiledTriggerStateMachine}. */
+  static final StateTag<CombiningState<Long, long[], Long>>
       ELEMENTS_IN_PANE_TAG =
       StateTags.makeSystemTagInternal(StateTags.combiningValueFromInputInternal(
           "count", VarLongCoder.of(), Sum.ofLongs()));
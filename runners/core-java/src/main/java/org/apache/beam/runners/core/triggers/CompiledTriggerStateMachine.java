@@ -0,0 +1,736 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core.triggers;
+
+import java.util.Collection;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.apache.beam.runners.core.MergingStateAccessor;
+import org.apache.beam.runners.core.StateAccessor;
+import org.apache.beam.runners.core.StateMerging;
+import org.apache.beam.runners.core.triggers.AfterWatermarkStateMachine.AfterWatermarkEarlyAndLate;
+import org.apache.beam.runners.core.triggers.AfterWatermarkStateMachine.FromEndOfWindow;
+import org.apache.beam.sdk.state.TimeDomain;
+import org.apache.beam.sdk.state.Timers;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.joda.time.Instant;
+
+/**
+ * A specialized implementation of a common trigger shape, used by {@link
+ * TriggerStateMachineRunner} instead of interpreting the {@link ExecutableTriggerStateMachine}
+ * tree.
+ *
+ * <p>A compiled trigger keeps the same persistent state as the interpreted trigger, including the
+ * finished bits, which the runner reads and persists for both. The two can therefore be used
+ * interchangeably on existing state. A compiled trigger avoids building a context for each node of
+ * the tree on each call.
+ *
+ * <p>{@code Repeatedly.forever(AfterPane.elementCountAtLeast(n))} is compiled to a machine that
+ * only keeps the element count. Other trees are compiled node by node when they only consist of
+ * {@code AfterWatermark.pastEndOfWindow()}, with or without early and late firings, {@code
+ * OrFinally}, {@code Repeatedly}, {@code AfterPane.elementCountAtLeast(n)} and {@code Never}. Each
+ * compiled node sets the same finished bits as the interpreted trigger. Processing time triggers
+ * and {@code AfterFirst}, {@code AfterAll} and {@code AfterEach} are still interpreted.
+ *
+ * @param <W> The kind of windows being processed.
+ */
+abstract class CompiledTriggerStateMachine<W extends BoundedWindow> {
+
+  /**
+   * Returns a compiled trigger equivalent to {@code rootTrigger}, or {@code null} if its shape is
+   * not one that can be compiled.
+   */
+  @Nullable
+  static <W extends BoundedWindow> CompiledTriggerStateMachine<W> compile(
+      ExecutableTriggerStateMachine rootTrigger,
+      TriggerStateMachineContextFactory<W> contextFactory) {
+    if (rootTrigger.getSpec() instanceof RepeatedlyStateMachine) {
+      ExecutableTriggerStateMachine repeated = rootTrigger.subTriggers().get(0);
+      if (repeated.getSpec() instanceof AfterPaneStateMachine) {
+        return new RepeatedlyElementCount<>(repeated, contextFactory);
+      }
+    }
+    if (isCompilable(rootTrigger)) {
+      return new CompiledTree<>(rootTrigger, contextFactory);
+    }
+    return null;
+  }
+
+  private static boolean isCompilable(ExecutableTriggerStateMachine trigger) {
+    TriggerStateMachine spec = trigger.getSpec();
+    if (spec instanceof AfterPaneStateMachine
+        || spec instanceof NeverStateMachine
+        || spec instanceof FromEndOfWindow) {
+      return true;
+    }
+    if (spec instanceof RepeatedlyStateMachine
+        || spec instanceof OrFinallyStateMachine
+        || spec instanceof AfterWatermarkEarlyAndLate) {
+      for (ExecutableTriggerStateMachine subTrigger : trigger.subTriggers()) {
+        if (!isCompilable(subTrigger)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns whether the finished bits of {@code rootTrigger} are always empty once the trigger
+   * returns from any of its methods, so they never need to be read or persisted.
+   *
+   * <p>This holds for the default trigger, which never finishes, and for {@code Repeatedly} over
+   * triggers that finish whenever they fire, and not otherwise, since {@code Repeatedly} resets
+   * them when they finish.
+   */
+  static boolean isAlwaysUnfinished(ExecutableTriggerStateMachine rootTrigger) {
+    TriggerStateMachine spec = rootTrigger.getSpec();
+    if (spec instanceof DefaultTriggerStateMachine) {
+      return true;
+    }
+    return spec instanceof RepeatedlyStateMachine
+        && finishesOnlyWhenFired(rootTrigger.subTriggers().get(0));
+  }
+
+  private static boolean finishesOnlyWhenFired(ExecutableTriggerStateMachine trigger) {
+    TriggerStateMachine spec = trigger.getSpec();
+    if (spec instanceof AfterPaneStateMachine
+        || spec instanceof AfterDelayFromFirstElementStateMachine) {
+      return true;
+    }
+    if (spec instanceof AfterFirstStateMachine || spec instanceof AfterAllStateMachine) {
+      for (ExecutableTriggerStateMachine subTrigger : trigger.subTriggers()) {
+        if (!finishesOnlyWhenFired(subTrigger)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  abstract void prefetchForValue(W window);
+
+  abstract void prefetchOnFire(W window);
+
+  abstract void prefetchShouldFire(W window);
+
+  abstract void prefetchForMerge(W window, Collection<W> mergingWindows);
+
+  abstract void processValue(
+      W window, Instant timestamp, Timers timers, FinishedTriggers finishedSet) throws Exception;
+
+  abstract void onMerge(
+      W window,
+      Collection<W> mergingWindows,
+      Timers timers,
+      FinishedTriggers finishedSet,
+      Map<W, FinishedTriggers> mergingFinishedSets)
+      throws Exception;
+
+  abstract boolean shouldFire(W window, Timers timers, FinishedTriggers finishedSet)
+      throws Exception;
+
+  abstract void onFire(W window, Timers timers, FinishedTriggers finishedSet) throws Exception;
+
+  abstract void clearState(W window, Timers timers, FinishedTriggers finishedSet)
+      throws Exception;
+
+  /**
+   * {@code Repeatedly.forever(AfterPane.elementCountAtLeast(n))}, which only keeps the count of
+   * elements in the current pane. Its finished bits are always empty.
+   */
+  private static class RepeatedlyElementCount<W extends BoundedWindow>
+      extends CompiledTriggerStateMachine<W> {
+    private final ExecutableTriggerStateMachine countTrigger;
+    private final long countElems;
+    private final TriggerStateMachineContextFactory<W> contextFactory;
+
+    private RepeatedlyElementCount(
+        ExecutableTriggerStateMachine countTrigger,
+        TriggerStateMachineContextFactory<W> contextFactory) {
+      this.countTrigger = countTrigger;
+      this.countElems = ((AfterPaneStateMachine) countTrigger.getSpec()).getElementCount();
+      this.contextFactory = contextFactory;
+    }
+
+    private StateAccessor<?> state(W window) {
+      return contextFactory.createStateAccessor(window, countTrigger);
+    }
+
+    @Override
+    void prefetchForValue(W window) {}
+
+    @Override
+    void prefetchOnFire(W window) {}
+
+    @Override
+    void prefetchShouldFire(W window) {
+      state(window).access(AfterPaneStateMachine.ELEMENTS_IN_PANE_TAG).readLater();
+    }
+
+    @Override
+    void prefetchForMerge(W window, Collection<W> mergingWindows) {
+      StateMerging.prefetchCombiningValues(
+          contextFactory.createMergingStateAccessor(window, mergingWindows, countTrigger),
+          AfterPaneStateMachine.ELEMENTS_IN_PANE_TAG);
+    }
+
+    @Override
+    void processValue(
+        W window, Instant timestamp, Timers timers, FinishedTriggers finishedSet) {
+      state(window).access(AfterPaneStateMachine.ELEMENTS_IN_PANE_TAG).add(1L);
+    }
+
+    @Override
+    void onMerge(
+        W window,
+        Collection<W> mergingWindows,
+        Timers timers,
+        FinishedTriggers finishedSet,
+        Map<W, FinishedTriggers> mergingFinishedSets) {
+      MergingStateAccessor<?, W> state =
+          contextFactory.createMergingStateAccessor(window, mergingWindows, countTrigger);
+      StateMerging.mergeCombiningValues(state, AfterPaneStateMachine.ELEMENTS_IN_PANE_TAG);
+    }
+
+    @Override
+    boolean shouldFire(W window, Timers timers, FinishedTriggers finishedSet) {
+      return state(window).access(AfterPaneStateMachine.ELEMENTS_IN_PANE_TAG).read() >= countElems;
+    }
+
+    @Override
+    void onFire(W window, Timers timers, FinishedTriggers finishedSet) {
+      clearState(window, timers, finishedSet);
+    }
+
+    @Override
+    void clearState(W window, Timers timers, FinishedTriggers finishedSet) {
+      state(window).access(AfterPaneStateMachine.ELEMENTS_IN_PANE_TAG).clear();
+    }
+  }
+
+  /**
+   * A tree of compiled nodes, each of which mirrors the {@link TriggerStateMachine} of the same
+   * node in the interpreted tree, and keeps its state in the namespace of that node.
+   */
+  private static class CompiledTree<W extends BoundedWindow>
+      extends CompiledTriggerStateMachine<W> {
+    private final ExecutableTriggerStateMachine rootTrigger;
+    private final TriggerStateMachineContextFactory<W> contextFactory;
+    private final boolean isMerging;
+    private final Node<W> root;
+
+    private CompiledTree(
+        ExecutableTriggerStateMachine rootTrigger,
+        TriggerStateMachineContextFactory<W> contextFactory) {
+      this.rootTrigger = rootTrigger;
+      this.contextFactory = contextFactory;
+      this.isMerging = contextFactory.isMerging();
+      this.root = compileNode(rootTrigger);
+    }
+
+    private Node<W> compileNode(ExecutableTriggerStateMachine trigger) {
+      TriggerStateMachine spec = trigger.getSpec();
+      if (spec instanceof AfterPaneStateMachine) {
+        return new ElementCountNode<>(trigger, contextFactory);
+      } else if (spec instanceof NeverStateMachine) {
+        return new NeverNode<>(trigger, contextFactory);
+      } else if (spec instanceof FromEndOfWindow) {
+        return new EndOfWindowNode<>(trigger, contextFactory);
+      }
+      Node<W> first = compileNode(trigger.subTriggers().get(0));
+      if (spec instanceof RepeatedlyStateMachine) {
+        return new RepeatedlyNode<>(trigger, contextFactory, first);
+      } else if (spec instanceof OrFinallyStateMachine) {
+        return new OrFinallyNode<>(
+            trigger, contextFactory, first, compileNode(trigger.subTriggers().get(1)));
+      } else {
+        Node<W> late =
+            trigger.subTriggers().size() > 1 ? compileNode(trigger.subTriggers().get(1)) : null;
+        return new EarlyAndLateNode<>(trigger, contextFactory, isMerging, first, late);
+      }
+    }
+
+    @Override
+    void prefetchForValue(W window) {
+      rootTrigger.getSpec().prefetchOnElement(
+          contextFactory.createStateAccessor(window, rootTrigger));
+    }
+
+    @Override
+    void prefetchOnFire(W window) {
+      rootTrigger.getSpec().prefetchOnFire(
+          contextFactory.createStateAccessor(window, rootTrigger));
+    }
+
+    @Override
+    void prefetchShouldFire(W window) {
+      rootTrigger.getSpec().prefetchShouldFire(
+          contextFactory.createStateAccessor(window, rootTrigger));
+    }
+
+    @Override
+    void prefetchForMerge(W window, Collection<W> mergingWindows) {
+      rootTrigger.getSpec().prefetchOnMerge(
+          contextFactory.createMergingStateAccessor(window, mergingWindows, rootTrigger));
+    }
+
+    @Override
+    void processValue(W window, Instant timestamp, Timers timers, FinishedTriggers finishedSet)
+        throws Exception {
+      root.onElement(window, timers, finishedSet);
+    }
+
+    @Override
+    void onMerge(
+        W window,
+        Collection<W> mergingWindows,
+        Timers timers,
+        FinishedTriggers finishedSet,
+        Map<W, FinishedTriggers> mergingFinishedSets)
+        throws Exception {
+      root.onMerge(window, mergingWindows, timers, finishedSet, mergingFinishedSets);
+    }
+
+    @Override
+    boolean shouldFire(W window, Timers timers, FinishedTriggers finishedSet) throws Exception {
+      return root.shouldFire(window, timers, finishedSet);
+    }
+
+    @Override
+    void onFire(W window, Timers timers, FinishedTriggers finishedSet) throws Exception {
+      root.onFire(window, timers, finishedSet);
+    }
+
+    @Override
+    void clearState(W window, Timers timers, FinishedTriggers finishedSet) throws Exception {
+      root.clear(window, timers);
+    }
+  }
+
+  /** A compiled node of a trigger tree. */
+  private abstract static class Node<W extends BoundedWindow> {
+    final ExecutableTriggerStateMachine trigger;
+    final TriggerStateMachineContextFactory<W> contextFactory;
+
+    Node(
+        ExecutableTriggerStateMachine trigger,
+        TriggerStateMachineContextFactory<W> contextFactory) {
+      this.trigger = trigger;
+      this.contextFactory = contextFactory;
+    }
+
+    abstract void onElement(W window, Timers timers, FinishedTriggers finishedSet)
+        throws Exception;
+
+    abstract void onMerge(
+        W window,
+        Collection<W> mergingWindows,
+        Timers timers,
+        FinishedTriggers finishedSet,
+        Map<W, FinishedTriggers> mergingFinishedSets)
+        throws Exception;
+
+    abstract boolean shouldFire(W window, Timers timers, FinishedTriggers finishedSet)
+        throws Exception;
+
+    abstract void onFire(W window, Timers timers, FinishedTriggers finishedSet) throws Exception;
+
+    /** Clears the state of this node and of its subtriggers, but not their finished bits. */
+    abstract void clear(W window, Timers timers) throws Exception;
+
+    boolean finishedInAnyMergingWindow(Map<W, FinishedTriggers> mergingFinishedSets) {
+      for (FinishedTriggers finishedSet : mergingFinishedSets.values()) {
+        if (finishedSet.isFinished(trigger)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    boolean finishedInAllMergingWindows(Map<W, FinishedTriggers> mergingFinishedSets) {
+      for (FinishedTriggers finishedSet : mergingFinishedSets.values()) {
+        if (!finishedSet.isFinished(trigger)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    static boolean endOfWindowReached(BoundedWindow window, Timers timers) {
+      Instant eventTime = timers.currentEventTime();
+      return eventTime != null && eventTime.isAfter(window.maxTimestamp());
+    }
+  }
+
+  /** {@link AfterPaneStateMachine}. */
+  private static class ElementCountNode<W extends BoundedWindow> extends Node<W> {
+    private final long countElems;
+
+    ElementCountNode(
+        ExecutableTriggerStateMachine trigger,
+        TriggerStateMachineContextFactory<W> contextFactory) {
+      super(trigger, contextFactory);
+      this.countElems = ((AfterPaneStateMachine) trigger.getSpec()).getElementCount();
+    }
+
+    private StateAccessor<?> state(W window) {
+      return contextFactory.createStateAccessor(window, trigger);
+    }
+
+    @Override
+    void onElement(W window, Timers timers, FinishedTriggers finishedSet) {
+      state(window).access(AfterPaneStateMachine.ELEMENTS_IN_PANE_TAG).add(1L);
+    }
+
+    @Override
+    void onMerge(
+        W window,
+        Collection<W> mergingWindows,
+        Timers timers,
+        FinishedTriggers finishedSet,
+        Map<W, FinishedTriggers> mergingFinishedSets) {
+      MergingStateAccessor<?, W> state =
+          contextFactory.createMergingStateAccessor(window, mergingWindows, trigger);
+      if (finishedInAnyMergingWindow(mergingFinishedSets)) {
+        finishedSet.setFinished(trigger, true);
+        StateMerging.clear(state, AfterPaneStateMachine.ELEMENTS_IN_PANE_TAG);
+        return;
+      }
+      StateMerging.mergeCombiningValues(state, AfterPaneStateMachine.ELEMENTS_IN_PANE_TAG);
+    }
+
+    @Override
+    boolean shouldFire(W window, Timers timers, FinishedTriggers finishedSet) {
+      return state(window).access(AfterPaneStateMachine.ELEMENTS_IN_PANE_TAG).read() >= countElems;
+    }
+
+    @Override
+    void onFire(W window, Timers timers, FinishedTriggers finishedSet) {
+      clear(window, timers);
+      finishedSet.setFinished(trigger, true);
+    }
+
+    @Override
+    void clear(W window, Timers timers) {
+      state(window).access(AfterPaneStateMachine.ELEMENTS_IN_PANE_TAG).clear();
+    }
+  }
+
+  /** {@link NeverStateMachine}. */
+  private static class NeverNode<W extends BoundedWindow> extends Node<W> {
+    NeverNode(
+        ExecutableTriggerStateMachine trigger,
+        TriggerStateMachineContextFactory<W> contextFactory) {
+      super(trigger, contextFactory);
+    }
+
+    @Override
+    void onElement(W window, Timers timers, FinishedTriggers finishedSet) {}
+
+    @Override
+    void onMerge(
+        W window,
+        Collection<W> mergingWindows,
+        Timers timers,
+        FinishedTriggers finishedSet,
+        Map<W, FinishedTriggers> mergingFinishedSets) {}
+
+    @Override
+    boolean shouldFire(W window, Timers timers, FinishedTriggers finishedSet) {
+      return false;
+    }
+
+    @Override
+    void onFire(W window, Timers timers, FinishedTriggers finishedSet) {
+      throw new UnsupportedOperationException(
+          String.format("%s should never fire", NeverStateMachine.class.getSimpleName()));
+    }
+
+    @Override
+    void clear(W window, Timers timers) {}
+  }
+
+  /** {@link FromEndOfWindow}. */
+  private static class EndOfWindowNode<W extends BoundedWindow> extends Node<W> {
+    EndOfWindowNode(
+        ExecutableTriggerStateMachine trigger,
+        TriggerStateMachineContextFactory<W> contextFactory) {
+      super(trigger, contextFactory);
+    }
+
+    @Override
+    void onElement(W window, Timers timers, FinishedTriggers finishedSet) {
+      if (!endOfWindowReached(window, timers)) {
+        timers.setTimer(window.maxTimestamp(), TimeDomain.EVENT_TIME);
+      }
+    }
+
+    @Override
+    void onMerge(
+        W window,
+        Collection<W> mergingWindows,
+        Timers timers,
+        FinishedTriggers finishedSet,
+        Map<W, FinishedTriggers> mergingFinishedSets) {
+      finishedSet.setFinished(
+          trigger,
+          finishedInAllMergingWindows(mergingFinishedSets) && endOfWindowReached(window, timers));
+    }
+
+    @Override
+    boolean shouldFire(W window, Timers timers, FinishedTriggers finishedSet) {
+      return endOfWindowReached(window, timers);
+    }
+
+    @Override
+    void onFire(W window, Timers timers, FinishedTriggers finishedSet) {
+      finishedSet.setFinished(trigger, true);
+    }
+
+    @Override
+    void clear(W window, Timers timers) {}
+  }
+
+  /** {@link RepeatedlyStateMachine}. */
+  private static class RepeatedlyNode<W extends BoundedWindow> extends Node<W> {
+    private final Node<W> repeated;
+
+    RepeatedlyNode(
+        ExecutableTriggerStateMachine trigger,
+        TriggerStateMachineContextFactory<W> contextFactory,
+        Node<W> repeated) {
+      super(trigger, contextFactory);
+      this.repeated = repeated;
+    }
+
+    @Override
+    void onElement(W window, Timers timers, FinishedTriggers finishedSet) throws Exception {
+      repeated.onElement(window, timers, finishedSet);
+    }
+
+    @Override
+    void onMerge(
+        W window,
+        Collection<W> mergingWindows,
+        Timers timers,
+        FinishedTriggers finishedSet,
+        Map<W, FinishedTriggers> mergingFinishedSets)
+        throws Exception {
+      repeated.onMerge(window, mergingWindows, timers, finishedSet, mergingFinishedSets);
+    }
+
+    @Override
+    boolean shouldFire(W window, Timers timers, FinishedTriggers finishedSet) throws Exception {
+      return repeated.shouldFire(window, timers, finishedSet);
+    }
+
+    @Override
+    void onFire(W window, Timers timers, FinishedTriggers finishedSet) throws Exception {
+      repeated.onFire(window, timers, finishedSet);
+      if (finishedSet.isFinished(repeated.trigger)) {
+        finishedSet.clearRecursively(repeated.trigger);
+        repeated.clear(window, timers);
+      }
+    }
+
+    @Override
+    void clear(W window, Timers timers) throws Exception {
+      repeated.clear(window, timers);
+    }
+  }
+
+  /** {@link OrFinallyStateMachine}. */
+  private static class OrFinallyNode<W extends BoundedWindow> extends Node<W> {
+    private final Node<W> actual;
+    private final Node<W> until;
+
+    OrFinallyNode(
+        ExecutableTriggerStateMachine trigger,
+        TriggerStateMachineContextFactory<W> contextFactory,
+        Node<W> actual,
+        Node<W> until) {
+      super(trigger, contextFactory);
+      this.actual = actual;
+      this.until = until;
+    }
+
+    @Override
+    void onElement(W window, Timers timers, FinishedTriggers finishedSet) throws Exception {
+      actual.onElement(window, timers, finishedSet);
+      until.onElement(window, timers, finishedSet);
+    }
+
+    @Override
+    void onMerge(
+        W window,
+        Collection<W> mergingWindows,
+        Timers timers,
+        FinishedTriggers finishedSet,
+        Map<W, FinishedTriggers> mergingFinishedSets)
+        throws Exception {
+      actual.onMerge(window, mergingWindows, timers, finishedSet, mergingFinishedSets);
+      until.onMerge(window, mergingWindows, timers, finishedSet, mergingFinishedSets);
+      updateFinishedState(finishedSet);
+    }
+
+    @Override
+    boolean shouldFire(W window, Timers timers, FinishedTriggers finishedSet) throws Exception {
+      return actual.shouldFire(window, timers, finishedSet)
+          || until.shouldFire(window, timers, finishedSet);
+    }
+
+    @Override
+    void onFire(W window, Timers timers, FinishedTriggers finishedSet) throws Exception {
+      if (until.shouldFire(window, timers, finishedSet)) {
+        until.onFire(window, timers, finishedSet);
+        actual.clear(window, timers);
+      } else {
+        actual.onFire(window, timers, finishedSet);
+      }
+      updateFinishedState(finishedSet);
+    }
+
+    private void updateFinishedState(FinishedTriggers finishedSet) {
+      finishedSet.setFinished(
+          trigger,
+          finishedSet.isFinished(actual.trigger) || finishedSet.isFinished(until.trigger));
+    }
+
+    @Override
+    void clear(W window, Timers timers) throws Exception {
+      actual.clear(window, timers);
+      until.clear(window, timers);
+    }
+  }
+
+  /** {@link AfterWatermarkEarlyAndLate}. */
+  private static class EarlyAndLateNode<W extends BoundedWindow> extends Node<W> {
+    private final boolean isMerging;
+    private final Node<W> early;
+    @Nullable private final Node<W> late;
+
+    EarlyAndLateNode(
+        ExecutableTriggerStateMachine trigger,
+        TriggerStateMachineContextFactory<W> contextFactory,
+        boolean isMerging,
+        Node<W> early,
+        @Nullable Node<W> late) {
+      super(trigger, contextFactory);
+      this.isMerging = isMerging;
+      this.early = early;
+      this.late = late;
+    }
+
+    @Override
+    void onElement(W window, Timers timers, FinishedTriggers finishedSet) throws Exception {
+      if (!endOfWindowReached(window, timers)) {
+        timers.setTimer(window.maxTimestamp(), TimeDomain.EVENT_TIME);
+      }
+      if (!isMerging) {
+        // Only the first unfinished subtrigger runs if merges can never reactivate the other.
+        if (!finishedSet.isFinished(early.trigger)) {
+          early.onElement(window, timers, finishedSet);
+        } else if (late != null && !finishedSet.isFinished(late.trigger)) {
+          late.onElement(window, timers, finishedSet);
+        }
+      } else {
+        early.onElement(window, timers, finishedSet);
+        if (late != null) {
+          late.onElement(window, timers, finishedSet);
+        }
+      }
+    }
+
+    @Override
+    void onMerge(
+        W window,
+        Collection<W> mergingWindows,
+        Timers timers,
+        FinishedTriggers finishedSet,
+        Map<W, FinishedTriggers> mergingFinishedSets)
+        throws Exception {
+      if (!early.finishedInAllMergingWindows(mergingFinishedSets)
+          || !endOfWindowReached(window, timers)) {
+        early.onMerge(window, mergingWindows, timers, finishedSet, mergingFinishedSets);
+        finishedSet.setFinished(early.trigger, false);
+        if (late != null) {
+          finishedSet.setFinished(late.trigger, false);
+          late.clear(window, timers);
+        }
+      } else {
+        finishedSet.setFinished(early.trigger, true);
+        if (late != null) {
+          late.onMerge(window, mergingWindows, timers, finishedSet, mergingFinishedSets);
+        }
+      }
+    }
+
+    @Override
+    boolean shouldFire(W window, Timers timers, FinishedTriggers finishedSet) throws Exception {
+      if (!finishedSet.isFinished(early.trigger)) {
+        return early.shouldFire(window, timers, finishedSet) || endOfWindowReached(window, timers);
+      } else if (late == null) {
+        return false;
+      } else {
+        return late.shouldFire(window, timers, finishedSet);
+      }
+    }
+
+    @Override
+    void onFire(W window, Timers timers, FinishedTriggers finishedSet) throws Exception {
+      if (!finishedSet.isFinished(early.trigger)) {
+        if (!endOfWindowReached(window, timers)) {
+          // An early firing, which implicitly repeats.
+          early.onFire(window, timers, finishedSet);
+          early.clear(window, timers);
+          finishedSet.setFinished(early.trigger, false);
+        } else {
+          // The end of the window terminates the early trigger, and starts the late trigger.
+          if (early.shouldFire(window, timers, finishedSet)) {
+            early.onFire(window, timers, finishedSet);
+          }
+          finishedSet.setFinished(early.trigger, true);
+          early.clear(window, timers);
+          if (late == null) {
+            finishedSet.setFinished(trigger, true);
+          } else {
+            late.clear(window, timers);
+          }
+        }
+      } else if (late != null) {
+        // A late firing, which implicitly repeats.
+        late.onFire(window, timers, finishedSet);
+        late.clear(window, timers);
+        finishedSet.setFinished(late.trigger, false);
+      } else {
+        finishedSet.setFinished(trigger, true);
+      }
+    }
+
+    @Override
+    void clear(W window, Timers timers) throws Exception {
+      early.clear(window, timers);
+      if (late != null) {
+        late.clear(window, timers);
+      }
+    }
+  }
+}
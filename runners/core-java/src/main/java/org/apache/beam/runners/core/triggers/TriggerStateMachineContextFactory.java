@@ -60,6 +60,11 @@ public class TriggerStateMachineContextFactory<W extends BoundedWindow> {
     this.windowCoder = windowFn.windowCoder();
   }
 
+  /** Returns whether windows may be merged, as reported by {@link TriggerInfo#isMerging}. */
+  boolean isMerging() {
+    return !windowFn.isNonMerging();
+  }
+
   public TriggerStateMachine.TriggerContext base(W window, Timers timers,
       ExecutableTriggerStateMachine rootTrigger, FinishedTriggers finishedSet) {
     return new TriggerContextImpl(window, timers, rootTrigger, finishedSet);
@@ -54,6 +54,11 @@ import org.joda.time.Instant;
  * which subtriggers are finished. This class provides the information when building the contexts
  * and commits the information when the method of the {@link ExecutableTriggerStateMachine} returns.
  *
+ * <p>Common trigger shapes, including repeated element counts, event time triggers with early and
+ * late firings and {@code OrFinally}, are executed by a {@link CompiledTriggerStateMachine}
+ * instead, which uses the same persistent state, including the finished bits, without building
+ * contexts for each node of the trigger tree. Other triggers are interpreted.
+ *
  * @param <W> The kind of windows being processed.
  */
 public class TriggerStateMachineRunner<W extends BoundedWindow> {
@@ -63,13 +68,27 @@ public class TriggerStateMachineRunner<W extends BoundedWindow> {
 
   private final ExecutableTriggerStateMachine rootTrigger;
   private final TriggerStateMachineContextFactory<W> contextFactory;
+  @Nullable private final CompiledTriggerStateMachine<W> compiledTrigger;
+  private final boolean finishedSetNeeded;
 
   public TriggerStateMachineRunner(
       ExecutableTriggerStateMachine rootTrigger,
       TriggerStateMachineContextFactory<W> contextFactory) {
+    this(rootTrigger, contextFactory, true);
+  }
+
+  /** Creates a runner that only interprets the trigger tree if {@code compile} is false. */
+  @VisibleForTesting
+  TriggerStateMachineRunner(
+      ExecutableTriggerStateMachine rootTrigger,
+      TriggerStateMachineContextFactory<W> contextFactory,
+      boolean compile) {
     checkState(rootTrigger.getTriggerIndex() == 0);
     this.rootTrigger = rootTrigger;
     this.contextFactory = contextFactory;
+    this.compiledTrigger =
+        compile ? CompiledTriggerStateMachine.compile(rootTrigger, contextFactory) : null;
+    this.finishedSetNeeded = !CompiledTriggerStateMachine.isAlwaysUnfinished(rootTrigger);
   }
 
   private FinishedTriggersBitSet readFinishedBits(ValueState<BitSet> state) {
@@ -108,17 +127,29 @@ public class TriggerStateMachineRunner<W extends BoundedWindow> {
 
   public void prefetchForValue(W window, StateAccessor<?> state) {
     prefetchIsClosed(state);
+    if (compiledTrigger != null) {
+      compiledTrigger.prefetchForValue(window);
+      return;
+    }
     rootTrigger.getSpec().prefetchOnElement(
         contextFactory.createStateAccessor(window, rootTrigger));
   }
 
   public void prefetchOnFire(W window, StateAccessor<?> state) {
     prefetchIsClosed(state);
+    if (compiledTrigger != null) {
+      compiledTrigger.prefetchOnFire(window);
+      return;
+    }
     rootTrigger.getSpec().prefetchOnFire(contextFactory.createStateAccessor(window, rootTrigger));
   }
 
   public void prefetchShouldFire(W window, StateAccessor<?> state) {
     prefetchIsClosed(state);
+    if (compiledTrigger != null) {
+      compiledTrigger.prefetchShouldFire(window);
+      return;
+    }
     rootTrigger.getSpec().prefetchShouldFire(
         contextFactory.createStateAccessor(window, rootTrigger));
   }
@@ -131,9 +162,13 @@ public class TriggerStateMachineRunner<W extends BoundedWindow> {
     // Clone so that we can detect changes and so that changes here don't pollute merging.
     FinishedTriggersBitSet finishedSet =
         readFinishedBits(state.access(FINISHED_BITS_TAG)).copy();
-    TriggerStateMachine.OnElementContext triggerContext = contextFactory.createOnElementContext(
-        window, timers, timestamp, rootTrigger, finishedSet);
-    rootTrigger.invokeOnElement(triggerContext);
+    if (compiledTrigger != null) {
+      compiledTrigger.processValue(window, timestamp, timers, finishedSet);
+    } else {
+      TriggerStateMachine.OnElementContext triggerContext = contextFactory.createOnElementContext(
+          window, timers, timestamp, rootTrigger, finishedSet);
+      rootTrigger.invokeOnElement(triggerContext);
+    }
     persistFinishedSet(state, finishedSet);
   }
 
@@ -144,14 +179,21 @@ public class TriggerStateMachineRunner<W extends BoundedWindow> {
         value.readLater();
       }
     }
+    if (compiledTrigger != null) {
+      compiledTrigger.prefetchForMerge(window, mergingWindows);
+      return;
+    }
     rootTrigger.getSpec().prefetchOnMerge(contextFactory.createMergingStateAccessor(
         window, mergingWindows, rootTrigger));
   }
 
   /**
-   * Run the trigger merging logic as part of executing the specified merge.
+   * Run the trigger merging logic as part of executing the merge of {@code mergingWindows} into
+   * {@code window}.
    */
-  public void onMerge(W window, Timers timers, MergingStateAccessor<?, W> state) throws Exception {
+  public void onMerge(
+      W window, Collection<W> mergingWindows, Timers timers, MergingStateAccessor<?, W> state)
+      throws Exception {
     // Clone so that we can detect changes and so that changes here don't pollute merging.
     FinishedTriggersBitSet finishedSet =
         readFinishedBits(state.access(FINISHED_BITS_TAG)).copy();
@@ -167,17 +209,24 @@ public class TriggerStateMachineRunner<W extends BoundedWindow> {
     }
     ImmutableMap<W, FinishedTriggers> mergingFinishedSets = builder.build();
 
-    TriggerStateMachine.OnMergeContext mergeContext = contextFactory.createOnMergeContext(
-        window, timers, rootTrigger, finishedSet, mergingFinishedSets);
+    if (compiledTrigger != null) {
+      compiledTrigger.onMerge(window, mergingWindows, timers, finishedSet, mergingFinishedSets);
+    } else {
+      TriggerStateMachine.OnMergeContext mergeContext = contextFactory.createOnMergeContext(
+          window, timers, rootTrigger, finishedSet, mergingFinishedSets);
 
-    // Run the merge from the trigger
-    rootTrigger.invokeOnMerge(mergeContext);
+      // Run the merge from the trigger
+      rootTrigger.invokeOnMerge(mergeContext);
+    }
 
     persistFinishedSet(state, finishedSet);
   }
 
   public boolean shouldFire(W window, Timers timers, StateAccessor<?> state) throws Exception {
     FinishedTriggers finishedSet = readFinishedBits(state.access(FINISHED_BITS_TAG)).copy();
+    if (compiledTrigger != null) {
+      return compiledTrigger.shouldFire(window, timers, finishedSet);
+    }
     TriggerStateMachine.TriggerContext context = contextFactory.base(window, timers,
         rootTrigger, finishedSet);
     return rootTrigger.invokeShouldFire(context);
@@ -188,9 +237,13 @@ public class TriggerStateMachineRunner<W extends BoundedWindow> {
     // However it is too expensive to assert.
     FinishedTriggersBitSet finishedSet =
         readFinishedBits(state.access(FINISHED_BITS_TAG)).copy();
-    TriggerStateMachine.TriggerContext context = contextFactory.base(window, timers,
-        rootTrigger, finishedSet);
-    rootTrigger.invokeOnFire(context);
+    if (compiledTrigger != null) {
+      compiledTrigger.onFire(window, timers, finishedSet);
+    } else {
+      TriggerStateMachine.TriggerContext context = contextFactory.base(window, timers,
+          rootTrigger, finishedSet);
+      rootTrigger.invokeOnFire(context);
+    }
     persistFinishedSet(state, finishedSet);
   }
 
@@ -224,12 +277,15 @@ public class TriggerStateMachineRunner<W extends BoundedWindow> {
   public void clearState(W window, Timers timers, StateAccessor<?> state) throws Exception {
     // Don't need to clone, because we'll be clearing the finished bits anyways.
     FinishedTriggers finishedSet = readFinishedBits(state.access(FINISHED_BITS_TAG));
+    if (compiledTrigger != null) {
+      compiledTrigger.clearState(window, timers, finishedSet);
+      return;
+    }
     rootTrigger.invokeClear(contextFactory.base(window, timers, rootTrigger, finishedSet));
   }
 
   private boolean isFinishedSetNeeded() {
-    // TODO: If we know that no trigger in the tree will ever finish, we don't need to do the
-    // lookup. Right now, we special case this for the DefaultTrigger.
-    return !(rootTrigger.getSpec() instanceof DefaultTriggerStateMachine);
+    // If we know that no trigger in the tree will remain finished, we don't need to do the lookup.
+    return finishedSetNeeded;
   }
 }
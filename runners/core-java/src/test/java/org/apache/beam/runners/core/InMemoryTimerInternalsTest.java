@@ -17,6 +17,8 @@
  */
 package org.apache.beam.runners.core;
 
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
@@ -35,6 +37,7 @@ import org.junit.runners.JUnit4;
 public class InMemoryTimerInternalsTest {
 
   private static final StateNamespace NS1 = new StateNamespaceForTest("NS1");
+  private static final StateNamespace NS2 = new StateNamespaceForTest("NS2");
   private static final String ID1 = "id1";
   private static final String ID2 = "id2";
 
@@ -106,6 +109,83 @@ public class InMemoryTimerInternalsTest {
     assertThat(underTest.removeNextEventTimer(), nullValue());
   }
 
+  @Test
+  public void testDeletionByIdInDomain() throws Exception {
+    InMemoryTimerInternals underTest = new InMemoryTimerInternals();
+
+    underTest.setTimer(NS1, ID1, new Instant(42), TimeDomain.EVENT_TIME);
+    underTest.setTimer(NS1, ID2, new Instant(42), TimeDomain.EVENT_TIME);
+    underTest.deleteTimer(NS1, ID1, TimeDomain.EVENT_TIME);
+    underTest.advanceInputWatermark(new Instant(43));
+
+    assertThat(
+        underTest.removeNextEventTimer(),
+        equalTo(TimerData.of(ID2, NS1, new Instant(42), TimeDomain.EVENT_TIME)));
+    assertThat(underTest.removeNextEventTimer(), nullValue());
+  }
+
+  @Test
+  public void testResetManyTimes() throws Exception {
+    InMemoryTimerInternals underTest = new InMemoryTimerInternals();
+
+    // Enough resets to compact the replaced timers several times over.
+    for (int i = 0; i < 10000; i++) {
+      underTest.setTimer(NS1, ID1, new Instant(i), TimeDomain.EVENT_TIME);
+      underTest.setTimer(NS1, ID2, new Instant(20000 - i), TimeDomain.EVENT_TIME);
+    }
+    assertThat(underTest.getNextTimer(TimeDomain.EVENT_TIME), equalTo(new Instant(9999)));
+
+    underTest.advanceInputWatermark(new Instant(20000));
+    assertThat(
+        underTest.removeNextEventTimer(),
+        equalTo(TimerData.of(ID1, NS1, new Instant(9999), TimeDomain.EVENT_TIME)));
+    assertThat(
+        underTest.removeNextEventTimer(),
+        equalTo(TimerData.of(ID2, NS1, new Instant(10001), TimeDomain.EVENT_TIME)));
+    assertThat(underTest.removeNextEventTimer(), nullValue());
+    assertThat(underTest.getNextTimer(TimeDomain.EVENT_TIME), nullValue());
+  }
+
+  @Test
+  public void testResetToEarlierTimestamp() throws Exception {
+    InMemoryTimerInternals underTest = new InMemoryTimerInternals();
+
+    underTest.setTimer(NS1, ID1, new Instant(10), TimeDomain.EVENT_TIME);
+    underTest.setTimer(NS1, ID1, new Instant(30), TimeDomain.EVENT_TIME);
+    underTest.setTimer(NS1, ID1, new Instant(10), TimeDomain.EVENT_TIME);
+
+    underTest.advanceInputWatermark(new Instant(40));
+    assertThat(
+        underTest.removeNextEventTimer(),
+        equalTo(TimerData.of(ID1, NS1, new Instant(10), TimeDomain.EVENT_TIME)));
+    assertThat(underTest.removeNextEventTimer(), nullValue());
+  }
+
+  @Test
+  public void testRemoveEligibleTimers() throws Exception {
+    InMemoryTimerInternals underTest = new InMemoryTimerInternals();
+    TimerData eventTimer1 = TimerData.of(ID1, NS1, new Instant(19), TimeDomain.EVENT_TIME);
+    TimerData eventTimer2 = TimerData.of(ID2, NS1, new Instant(29), TimeDomain.EVENT_TIME);
+    TimerData processingTimer =
+        TimerData.of(ID1, NS2, new Instant(19), TimeDomain.PROCESSING_TIME);
+    TimerData synchronizedProcessingTimer =
+        TimerData.of(ID2, NS2, new Instant(19), TimeDomain.SYNCHRONIZED_PROCESSING_TIME);
+
+    underTest.setTimer(eventTimer2);
+    underTest.setTimer(eventTimer1);
+    underTest.setTimer(processingTimer);
+    underTest.setTimer(synchronizedProcessingTimer);
+    assertThat(underTest.removeEligibleTimers(), empty());
+
+    underTest.advanceInputWatermark(new Instant(30));
+    underTest.advanceProcessingTime(new Instant(20));
+    underTest.advanceSynchronizedProcessingTime(new Instant(20));
+    assertThat(
+        underTest.removeEligibleTimers(),
+        contains(eventTimer1, eventTimer2, processingTimer, synchronizedProcessingTimer));
+    assertThat(underTest.removeEligibleTimers(), empty());
+  }
+
   @Test
   public void testFiringProcessingTimeTimers() throws Exception {
     InMemoryTimerInternals underTest = new InMemoryTimerInternals();
@@ -24,13 +24,21 @@ import static org.mockito.Mockito.verify;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
 import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
 import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.MergeOverlappingIntervalWindows;
 import org.apache.beam.sdk.transforms.windowing.Sessions;
+import org.apache.beam.sdk.transforms.windowing.WindowFn;
+import org.apache.beam.sdk.transforms.windowing.WindowMappingFn;
+import org.apache.beam.sdk.values.KV;
 import org.joda.time.Duration;
 import org.joda.time.Instant;
 import org.junit.After;
@@ -257,4 +265,136 @@ public class MergingActiveWindowSetTest {
     // For then on we are back to the eager case.
     assertEquals(ImmutableSet.of(window(1, 10)), set.readStateAddresses(window(1, 12)));
   }
+
+  /**
+   * Merges many overlapping and non-overlapping sessions, and checks that merging only the NEW
+   * {@link Sessions} windows and the windows they overlap has the same result as merging all the
+   * windows using {@link MergeOverlappingIntervalWindows}.
+   */
+  @Test
+  public void testMergeNewWindowsOnlyMatchesMergeWindows() throws Exception {
+    WindowFn<Object, IntervalWindow> referenceWindowFn = new ReferenceSessions();
+    StateInternals referenceState = InMemoryStateInternals.forKey("dummyKey");
+    MergingActiveWindowSet<IntervalWindow> reference =
+        new MergingActiveWindowSet<>(referenceWindowFn, referenceState);
+    Random random = new Random(17);
+
+    for (int round = 0; round < 200; round++) {
+      List<IntervalWindow> newWindows = new ArrayList<>();
+      for (int i = 0; i < 1 + random.nextInt(20); i++) {
+        IntervalWindow window = window(random.nextInt(10000), 1 + random.nextInt(30));
+        newWindows.add(window);
+        set.ensureWindowExists(window);
+        reference.ensureWindowExists(window);
+      }
+
+      RecordingMergeCallback merges = new RecordingMergeCallback();
+      set.merge(merges);
+      RecordingMergeCallback referenceMerges = new RecordingMergeCallback();
+      reference.merge(referenceMerges);
+      assertEquals(referenceMerges.merges, merges.merges);
+
+      for (IntervalWindow window : newWindows) {
+        IntervalWindow active = merges.mergeResults.getOrDefault(window, window);
+        set.ensureWindowIsActive(active);
+        reference.ensureWindowIsActive(active);
+      }
+      // Occasionally garbage collect a window.
+      if (random.nextInt(4) == 0) {
+        IntervalWindow removed = newWindows.get(0);
+        removed = merges.mergeResults.getOrDefault(removed, removed);
+        set.remove(removed);
+        reference.remove(removed);
+      }
+      set.cleanupTemporaryWindows();
+      reference.cleanupTemporaryWindows();
+      assertEquals(reference.getActiveAndNewWindows(), set.getActiveAndNewWindows());
+      for (IntervalWindow window : set.getActiveAndNewWindows()) {
+        assertEquals(reference.readStateAddresses(window), set.readStateAddresses(window));
+      }
+
+      // Occasionally reload the sets from state.
+      if (random.nextInt(10) == 0) {
+        set.persist();
+        set = new MergingActiveWindowSet<>(windowFn, state);
+        reference.persist();
+        reference = new MergingActiveWindowSet<>(referenceWindowFn, referenceState);
+      }
+    }
+  }
+
+  /**
+   * Checks that after the set is reloaded from state, only the NEW window and the windows it
+   * overlaps are merged, rather than all the ACTIVE windows.
+   */
+  @Test
+  public void testMergesOnlyWindowsOverlappingNewWindows() throws Exception {
+    for (int i = 0; i < 10000; i++) {
+      set.addActiveForTesting(window(i * 100, 10));
+    }
+    set.persist();
+    set = new MergingActiveWindowSet<>(windowFn, state);
+
+    IntervalWindow bridge = window(505, 100);
+    set.ensureWindowExists(bridge);
+    set.ensureWindowExists(window(5000, 1));
+    assertEquals(
+        ImmutableSet.of(
+            bridge, window(5000, 1), window(500, 10), window(600, 10), window(5000, 10)),
+        ImmutableSet.copyOf(set.windowsOverlappingNewWindows()));
+
+    RecordingMergeCallback merges = new RecordingMergeCallback();
+    set.merge(merges);
+    assertEquals(
+        ImmutableList.of(
+            KV.of(ImmutableList.of(window(500, 10), bridge, window(600, 10)), window(500, 110)),
+            KV.of(ImmutableList.of(window(5000, 1), window(5000, 10)), window(5000, 10))),
+        merges.merges);
+  }
+
+  private static class RecordingMergeCallback
+      implements ActiveWindowSet.MergeCallback<IntervalWindow> {
+    private final List<KV<List<IntervalWindow>, IntervalWindow>> merges = new ArrayList<>();
+    private final Map<IntervalWindow, IntervalWindow> mergeResults = new HashMap<>();
+
+    @Override
+    public void prefetchOnMerge(Collection<IntervalWindow> toBeMerged, IntervalWindow mergeResult) {
+    }
+
+    @Override
+    public void onMerge(Collection<IntervalWindow> toBeMerged, IntervalWindow mergeResult) {
+      merges.add(KV.of(ImmutableList.copyOf(toBeMerged), mergeResult));
+      for (IntervalWindow window : toBeMerged) {
+        mergeResults.put(window, mergeResult);
+      }
+    }
+  }
+
+  /** Merges like {@link Sessions}, but is a different {@link WindowFn}. */
+  private static class ReferenceSessions extends WindowFn<Object, IntervalWindow> {
+    @Override
+    public Collection<IntervalWindow> assignWindows(AssignContext c) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void mergeWindows(MergeContext c) throws Exception {
+      MergeOverlappingIntervalWindows.mergeWindows(c);
+    }
+
+    @Override
+    public boolean isCompatible(WindowFn<?, ?> other) {
+      return other instanceof ReferenceSessions;
+    }
+
+    @Override
+    public Coder<IntervalWindow> windowCoder() {
+      return IntervalWindow.getCoder();
+    }
+
+    @Override
+    public WindowMappingFn<IntervalWindow> getDefaultWindowMappingFn() {
+      throw new UnsupportedOperationException();
+    }
+  }
 }
@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderRegistry;
+import org.apache.beam.sdk.coders.DoubleCoder;
+import org.apache.beam.sdk.coders.SerializableCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
+import org.apache.beam.sdk.transforms.Count;
+import org.apache.beam.sdk.transforms.Max;
+import org.apache.beam.sdk.transforms.Mean;
+import org.apache.beam.sdk.transforms.Min;
+import org.apache.beam.sdk.transforms.Sum;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link PartialCombineTable}. */
+@RunWith(JUnit4.class)
+public class PartialCombineTableTest {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testSumLongs() throws Exception {
+    List<Long> inputs = new ArrayList<>();
+    Random random = new Random(17);
+    for (int i = 0; i < 10000; i++) {
+      inputs.add((long) random.nextInt(1000) - 500);
+    }
+    checkCombinesLikeFn(Sum.ofLongs(), VarLongCoder.of(), inputs, 10);
+  }
+
+  @Test
+  public void testMaxAndMinLongs() throws Exception {
+    List<Long> inputs = new ArrayList<>();
+    Random random = new Random(23);
+    for (int i = 0; i < 10000; i++) {
+      inputs.add(random.nextLong());
+    }
+    checkCombinesLikeFn(Max.ofLongs(), VarLongCoder.of(), inputs, 10);
+    checkCombinesLikeFn(Min.ofLongs(), VarLongCoder.of(), inputs, 10);
+  }
+
+  @Test
+  public void testDoubles() throws Exception {
+    List<Double> inputs = new ArrayList<>();
+    Random random = new Random(29);
+    for (int i = 0; i < 10000; i++) {
+      // Quarters add up exactly, so the result does not depend on the order of additions.
+      inputs.add((random.nextInt(1000) - 500) / 4.0);
+    }
+    checkCombinesLikeFn(Sum.ofDoubles(), DoubleCoder.of(), inputs, 10);
+    checkCombinesLikeFn(Max.ofDoubles(), DoubleCoder.of(), inputs, 10);
+    checkCombinesLikeFn(Min.ofDoubles(), DoubleCoder.of(), inputs, 10);
+  }
+
+  @Test
+  public void testCount() throws Exception {
+    List<String> inputs = new ArrayList<>();
+    for (int i = 0; i < 10000; i++) {
+      inputs.add("element" + i);
+    }
+    checkCombinesLikeFn(Count.combineFn(), StringUtf8Coder.of(), inputs, 10);
+  }
+
+  @Test
+  public void testGenericCombineFn() throws Exception {
+    List<Integer> inputs = new ArrayList<>();
+    Random random = new Random(31);
+    for (int i = 0; i < 10000; i++) {
+      inputs.add(random.nextInt(100));
+    }
+    checkCombinesLikeFn(Mean.of(), VarIntCoder.of(), inputs, 10);
+  }
+
+  @Test
+  public void testFlushesLeastRecentlyUpdatedKeys() throws Exception {
+    List<String> flushedKeys = new ArrayList<>();
+    PartialCombineTable<String, Long, long[]> table =
+        PartialCombineTable.create(
+            StringUtf8Coder.of(),
+            Sum.ofLongs(),
+            null,
+            3,
+            Long.MAX_VALUE,
+            (key, accumulator) -> flushedKeys.add(key));
+
+    table.add("a", 1L);
+    table.add("b", 1L);
+    table.add("c", 1L);
+    table.add("a", 1L);
+    table.add("d", 1L);
+    assertThat(flushedKeys, contains("b"));
+    table.add("e", 1L);
+    assertThat(flushedKeys, contains("b", "c"));
+    assertEquals(3, table.size());
+
+    table.flush();
+    assertThat(flushedKeys, contains("b", "c", "a", "d", "e"));
+    assertEquals(0, table.size());
+    assertEquals(0L, table.getByteSize());
+  }
+
+  @Test
+  public void testFlushIf() throws Exception {
+    Map<Integer, Long> flushed = new LinkedHashMap<>();
+    PartialCombineTable<Integer, Long, long[]> table =
+        PartialCombineTable.create(
+            VarIntCoder.of(),
+            Sum.ofLongs(),
+            null,
+            1000,
+            Long.MAX_VALUE,
+            (key, accumulator) -> flushed.merge(key, accumulator[0], Long::sum));
+
+    for (int key = 0; key < 1000; key++) {
+      table.add(key, (long) key);
+    }
+    table.flushIf(key -> key % 2 == 0);
+    List<Integer> expectedKeys = new ArrayList<>();
+    for (int key = 0; key < 1000; key += 2) {
+      expectedKeys.add(key);
+    }
+    assertEquals(expectedKeys, new ArrayList<>(flushed.keySet()));
+    assertEquals(500, table.size());
+
+    // The remaining keys can still be found after the others were removed.
+    for (int key = 1; key < 1000; key += 2) {
+      table.add(key, 1L);
+    }
+    assertEquals(500, table.size());
+    flushed.clear();
+    table.flush();
+    for (int key = 1; key < 1000; key += 2) {
+      assertEquals(key + 1L, (long) flushed.get(key));
+    }
+    assertEquals(0L, table.getByteSize());
+  }
+
+  @Test
+  public void testBoundsByteSize() throws Exception {
+    long maxBytes = 1000;
+    List<String> flushedKeys = new ArrayList<>();
+    PartialCombineTable<String, Integer, ?> table =
+        createTable(Mean.of(), VarIntCoder.of(), maxBytes, flushedKeys);
+
+    for (int i = 0; i < 1000; i++) {
+      table.add("key" + i, i);
+      assertThat(table.getByteSize(), lessThanOrEqualTo(maxBytes));
+    }
+    assertEquals(1000, table.size() + flushedKeys.size());
+  }
+
+  @Test
+  public void testNonDeterministicKeyCoder() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("deterministic");
+    PartialCombineTable.create(
+        SerializableCoder.of(String.class), Sum.ofLongs(), null, 10, 1000, (key, accum) -> {});
+  }
+
+  private static <InputT, AccumT> PartialCombineTable<String, InputT, AccumT> createTable(
+      CombineFn<InputT, AccumT, ?> fn,
+      Coder<InputT> inputCoder,
+      long maxBytes,
+      List<String> flushedKeys)
+      throws Exception {
+    return PartialCombineTable.create(
+        StringUtf8Coder.of(),
+        fn,
+        fn.getAccumulatorCoder(CoderRegistry.createDefault(), inputCoder),
+        1000,
+        maxBytes,
+        (key, accumulator) -> flushedKeys.add(key));
+  }
+
+  /**
+   * Adds each input to a small table under one of many keys, and checks that merging the flushed
+   * accumulators per key gives the same result as combining all inputs for that key.
+   */
+  private static <InputT, AccumT, OutputT> void checkCombinesLikeFn(
+      CombineFn<InputT, AccumT, OutputT> fn,
+      Coder<InputT> inputCoder,
+      List<InputT> inputs,
+      int maxEntries)
+      throws Exception {
+    Map<Integer, List<AccumT>> flushed = new HashMap<>();
+    PartialCombineTable<Integer, InputT, AccumT> table =
+        PartialCombineTable.create(
+            VarIntCoder.of(),
+            fn,
+            fn.getAccumulatorCoder(CoderRegistry.createDefault(), inputCoder),
+            maxEntries,
+            Long.MAX_VALUE,
+            (key, accumulator) ->
+                flushed.computeIfAbsent(key, k -> new ArrayList<>()).add(accumulator));
+
+    Map<Integer, List<InputT>> expected = new HashMap<>();
+    Random random = new Random(37);
+    for (InputT input : inputs) {
+      // Skew the keys so that some stay in the table and others are flushed repeatedly.
+      int key = random.nextBoolean() ? random.nextInt(maxEntries / 2) : random.nextInt(1000);
+      table.add(key, input);
+      expected.computeIfAbsent(key, k -> new ArrayList<>()).add(input);
+      assertThat(table.size(), lessThanOrEqualTo(maxEntries));
+    }
+    table.flush();
+
+    assertEquals(expected.keySet(), flushed.keySet());
+    for (Map.Entry<Integer, List<InputT>> entry : expected.entrySet()) {
+      assertEquals(
+          fn.apply(entry.getValue()),
+          fn.extractOutput(fn.mergeAccumulators(flushed.get(entry.getKey()))));
+    }
+  }
+}
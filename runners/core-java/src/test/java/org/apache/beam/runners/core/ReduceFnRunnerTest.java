@@ -45,7 +45,9 @@ import java.util.List;
 import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 import org.apache.beam.runners.core.metrics.MetricsContainerImpl;
+import org.apache.beam.runners.core.triggers.AfterPaneStateMachine;
 import org.apache.beam.runners.core.triggers.DefaultTriggerStateMachine;
+import org.apache.beam.runners.core.triggers.RepeatedlyStateMachine;
 import org.apache.beam.runners.core.triggers.TriggerStateMachine;
 import org.apache.beam.sdk.coders.VarIntCoder;
 import org.apache.beam.sdk.metrics.MetricName;
@@ -79,6 +81,7 @@ import org.apache.beam.sdk.transforms.windowing.Window;
 import org.apache.beam.sdk.transforms.windowing.Window.ClosingBehavior;
 import org.apache.beam.sdk.transforms.windowing.WindowFn;
 import org.apache.beam.sdk.transforms.windowing.WindowMappingFn;
+import org.apache.beam.sdk.util.CombineFnUtil;
 import org.apache.beam.sdk.util.WindowedValue;
 import org.apache.beam.sdk.values.PCollectionView;
 import org.apache.beam.sdk.values.TimestampedValue;
@@ -400,6 +403,43 @@ public class ReduceFnRunnerTest {
         WindowMatchers.valueWithPaneInfo(PaneInfo.createPane(false, false, Timing.LATE, 1, 1)));
   }
 
+  /**
+   * Tests that when many elements for the same windows arrive in one bundle with the default
+   * trigger, the holds and output are the same as if they were processed one at a time.
+   */
+  @Test
+  public void testDefaultTriggerMultipleElementsPerWindow() throws Exception {
+    WindowingStrategy<?, IntervalWindow> strategy =
+        WindowingStrategy.of((WindowFn<?, IntervalWindow>) FixedWindows.of(Duration.millis(10)))
+            .withTrigger(DefaultTrigger.of())
+            .withTimestampCombiner(TimestampCombiner.EARLIEST)
+            .withAllowedLateness(Duration.millis(100));
+
+    ReduceFnTester<Integer, Integer, IntervalWindow> tester =
+        ReduceFnTester.combining(strategy, Sum.ofIntegers(), VarIntCoder.of());
+
+    tester.advanceInputWatermark(new Instant(0));
+    tester.injectElements(
+        TimestampedValue.of(1, new Instant(5)),
+        TimestampedValue.of(2, new Instant(2)),
+        TimestampedValue.of(3, new Instant(17)),
+        TimestampedValue.of(4, new Instant(7)),
+        TimestampedValue.of(5, new Instant(13)));
+    assertEquals(new Instant(2), tester.getWatermarkHold());
+
+    tester.advanceInputWatermark(new Instant(10));
+    assertEquals(new Instant(13), tester.getWatermarkHold());
+
+    tester.advanceInputWatermark(new Instant(20));
+    assertThat(
+        tester.extractOutput(),
+        contains(
+            isSingleWindowedValue(
+                equalTo(7), 2, 0, 10, PaneInfo.createPane(true, false, Timing.ON_TIME, 0, 0)),
+            isSingleWindowedValue(
+                equalTo(8), 13, 10, 20, PaneInfo.createPane(true, false, Timing.ON_TIME, 0, 0))));
+  }
+
   @Test
   public void testOnElementCombiningDiscarding() throws Exception {
     // Test basic execution of a trigger using a non-combining window set and discarding mode.
@@ -1478,6 +1518,47 @@ public class ReduceFnRunnerTest {
         equalTo(PaneInfo.createPane(true, true, Timing.ON_TIME, 0, 0)));
   }
 
+  /**
+   * Tests a repeated element count trigger, which is compiled rather than interpreted, with
+   * merging windows and garbage collection.
+   */
+  @Test
+  public void testRepeatedElementCountWithMerging() throws Exception {
+    ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester =
+        ReduceFnTester.nonCombining(
+            Sessions.withGapDuration(Duration.millis(10)),
+            RepeatedlyStateMachine.forever(AfterPaneStateMachine.elementCountAtLeast(2)),
+            AccumulationMode.DISCARDING_FIRED_PANES,
+            Duration.ZERO,
+            ClosingBehavior.FIRE_IF_NON_EMPTY);
+
+    tester.injectElements(TimestampedValue.of(1, new Instant(1)));
+    assertThat(tester.extractOutput(), emptyIterable());
+
+    // Merges into [1, 15) with two elements.
+    tester.injectElements(TimestampedValue.of(2, new Instant(5)));
+    tester.injectElements(
+        TimestampedValue.of(3, new Instant(30)), TimestampedValue.of(4, new Instant(8)));
+    List<WindowedValue<Iterable<Integer>>> output = tester.extractOutput();
+    assertThat(output, contains(isSingleWindowedValue(containsInAnyOrder(1, 2), 1, 1, 15)));
+
+    // The count was reset when firing, so a single element does not fire again.
+    tester.injectElements(TimestampedValue.of(5, new Instant(35)));
+    output = tester.extractOutput();
+    assertThat(output, contains(isSingleWindowedValue(containsInAnyOrder(3, 5), 30, 30, 45)));
+
+    // The remaining element is emitted in the on time pane, which is also emitted empty for the
+    // window that fired last.
+    tester.advanceInputWatermark(new Instant(100));
+    output = tester.extractOutput();
+    assertThat(
+        output,
+        containsInAnyOrder(
+            isSingleWindowedValue(containsInAnyOrder(4), 8, 1, 18),
+            isSingleWindowedValue(emptyIterable(), 44, 30, 45)));
+    tester.assertHasOnlyGlobalState();
+  }
+
   /**
    * It is possible for a session window's trigger to be closed at the point at which
    * the (merged) session window is garbage collected. Make sure we don't accidentally
@@ -2261,6 +2342,69 @@ public class ReduceFnRunnerTest {
     assertEquals(2, output.size());
   }
 
+  /**
+   * Tests that storing the bookkeeping of each window in a single value produces the same panes
+   * as the default state layout, and clears that value with the window.
+   */
+  @Test
+  public void testCompactWindowMetadataProducesSamePanes() throws Exception {
+    WindowingStrategy<?, IntervalWindow> strategy =
+        WindowingStrategy.of(FixedWindows.of(Duration.millis(10)))
+            .withTrigger(
+                AfterWatermark.pastEndOfWindow()
+                    .withEarlyFirings(AfterPane.elementCountAtLeast(2))
+                    .withLateFirings(AfterPane.elementCountAtLeast(1)))
+            .withMode(AccumulationMode.ACCUMULATING_FIRED_PANES)
+            .withAllowedLateness(Duration.millis(100))
+            .withClosingBehavior(ClosingBehavior.FIRE_IF_NON_EMPTY);
+    ReduceFnTester<Integer, Integer, IntervalWindow> tester =
+        ReduceFnTester.combining(
+            strategy,
+            CombineFnUtil.toFnWithContext(Sum.ofIntegers()),
+            VarIntCoder.of(),
+            PipelineOptionsFactory.create(),
+            NullSideInputReader.empty());
+    ReduceFnTester<Integer, Integer, IntervalWindow> compactTester =
+        ReduceFnTester.combining(
+            strategy,
+            CombineFnUtil.toFnWithContext(Sum.ofIntegers()),
+            VarIntCoder.of(),
+            PipelineOptionsFactory.fromArgs(
+                    "--experiments=" + ReduceFnRunner.COMPACT_WINDOW_METADATA_EXPERIMENT)
+                .create(),
+            NullSideInputReader.empty());
+    IntervalWindow window = new IntervalWindow(new Instant(0), new Instant(10));
+
+    for (ReduceFnTester<Integer, Integer, IntervalWindow> t :
+        Arrays.asList(tester, compactTester)) {
+      t.advanceInputWatermark(new Instant(0));
+      t.advanceOutputWatermark(new Instant(0));
+      // EARLY pane with 1 + 2, and one more element pending.
+      t.injectElements(
+          TimestampedValue.of(1, new Instant(1)),
+          TimestampedValue.of(2, new Instant(2)),
+          TimestampedValue.of(3, new Instant(3)));
+    }
+    compactTester.assertHasOnlyGlobalAndCompactStateFor(window);
+
+    for (ReduceFnTester<Integer, Integer, IntervalWindow> t :
+        Arrays.asList(tester, compactTester)) {
+      // ON_TIME pane, then a LATE pane for each late element, then the final pane.
+      t.advanceInputWatermark(new Instant(10));
+      t.advanceOutputWatermark(new Instant(10));
+      t.injectElements(TimestampedValue.of(4, new Instant(4)));
+      t.injectElements(TimestampedValue.of(5, new Instant(5)));
+      t.advanceInputWatermark(new Instant(200));
+      t.advanceOutputWatermark(new Instant(200));
+    }
+
+    List<WindowedValue<Integer>> output = tester.extractOutput();
+    assertEquals(4, output.size());
+    assertEquals(output, compactTester.extractOutput());
+    tester.assertHasOnlyGlobalState();
+    compactTester.assertHasOnlyGlobalState();
+  }
+
   private static class SumAndVerifyContextFn
       extends CombineFnWithContext<Integer, Integer, Integer> {
 
@@ -342,6 +342,22 @@ public class ReduceFnTester<InputT, OutputT, W extends BoundedWindow> {
             WatermarkHold.EXTRA_HOLD_TAG));
   }
 
+  /**
+   * Verifies that {@code expectedWindows} only hold their buffer, watermark holds and the single
+   * value written with {@link ReduceFnRunner#COMPACT_WINDOW_METADATA_EXPERIMENT}.
+   */
+  @SafeVarargs
+  public final void assertHasOnlyGlobalAndCompactStateFor(W... expectedWindows) {
+    assertHasOnlyGlobalAndAllowedTags(
+        ImmutableSet.copyOf(expectedWindows),
+        ImmutableSet.of(
+            ((SystemReduceFn<?, ?, ?, ?, ?>) reduceFn).getBufferTag(),
+            WindowMetadataStateInternals.WINDOW_METADATA_TAG,
+            WatermarkHold.watermarkHoldTagForTimestampCombiner(
+                objectStrategy.getTimestampCombiner()),
+            WatermarkHold.EXTRA_HOLD_TAG));
+  }
+
   public final void assertHasOnlyGlobalState() {
     assertHasOnlyGlobalAndAllowedTags(Collections.emptySet(), Collections.emptySet());
   }
@@ -557,7 +573,12 @@ public class ReduceFnTester<InputT, OutputT, W extends BoundedWindow> {
                   }
                 })
             .collect(Collectors.toList());
+    injectWindowedElements(inputs);
+  }
 
+  /** Injects elements that are already assigned to their windows. */
+  public final void injectWindowedElements(Iterable<WindowedValue<InputT>> inputs)
+      throws Exception {
     ReduceFnRunner<String, InputT, OutputT, W> runner = createRunner();
     runner.processElements(
         new LateDataDroppingDoFnRunner.LateDataFilter(objectStrategy, timerInternals)
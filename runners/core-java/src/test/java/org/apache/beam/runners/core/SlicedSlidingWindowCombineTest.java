@@ -0,0 +1,370 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.apache.beam.runners.core.SlicedSlidingWindowCombine.CombinePerKeyViaSlices;
+import org.apache.beam.runners.core.SlicedSlidingWindowCombine.MergeSlicesFn;
+import org.apache.beam.runners.core.SlicedSlidingWindowCombine.OverrideFactory;
+import org.apache.beam.runners.core.SlicedSlidingWindowCombine.SliceCombineFn;
+import org.apache.beam.runners.core.SlicedSlidingWindowCombine.SlidingWindowsOfSlices;
+import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.runners.PTransformOverride;
+import org.apache.beam.sdk.runners.TransformHierarchy;
+import org.apache.beam.sdk.testing.CombineFnTester;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.Combine;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
+import org.apache.beam.sdk.transforms.Create;
+import org.apache.beam.sdk.transforms.Mean;
+import org.apache.beam.sdk.transforms.Sum;
+import org.apache.beam.sdk.transforms.windowing.AfterPane;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.FixedWindows;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+import org.apache.beam.sdk.transforms.windowing.SlidingWindows;
+import org.apache.beam.sdk.transforms.windowing.TimestampCombiner;
+import org.apache.beam.sdk.transforms.windowing.Window;
+import org.apache.beam.sdk.transforms.windowing.WindowFn;
+import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.TimestampedValue;
+import org.apache.beam.sdk.values.WindowingStrategy;
+import org.apache.beam.sdk.values.WindowingStrategy.AccumulationMode;
+import org.hamcrest.Matchers;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SlicedSlidingWindowCombine}. */
+@RunWith(JUnit4.class)
+public class SlicedSlidingWindowCombineTest {
+  @Rule
+  public final transient TestPipeline p =
+      TestPipeline.create().enableAbandonedNodeEnforcement(false);
+
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private static final SlidingWindows SLIDING =
+      SlidingWindows.of(Duration.standardMinutes(10)).every(Duration.standardMinutes(2));
+
+  @Test
+  public void testCanExpand() {
+    assertTrue(SlicedSlidingWindowCombine.canExpand(WindowingStrategy.of(SLIDING), Sum.ofLongs()));
+    assertTrue(
+        SlicedSlidingWindowCombine.canExpand(
+            WindowingStrategy.of(SLIDING).withAllowedLateness(Duration.standardMinutes(1)),
+            Sum.ofLongs()));
+    assertTrue(
+        SlicedSlidingWindowCombine.canExpand(
+            WindowingStrategy.of(SLIDING.withOffset(Duration.standardSeconds(30))), Mean.of()));
+  }
+
+  @Test
+  public void testCannotExpandIncompatibleWindows() {
+    assertFalse(
+        SlicedSlidingWindowCombine.canExpand(
+            WindowingStrategy.of(FixedWindows.of(Duration.standardMinutes(10))), Sum.ofLongs()));
+    assertFalse(
+        SlicedSlidingWindowCombine.canExpand(
+            WindowingStrategy.of(
+                SlidingWindows.of(Duration.standardMinutes(10)).every(Duration.standardMinutes(3))),
+            Sum.ofLongs()));
+    assertFalse(
+        SlicedSlidingWindowCombine.canExpand(
+            WindowingStrategy.of(
+                SlidingWindows.of(Duration.standardMinutes(10))
+                    .every(Duration.standardMinutes(10))),
+            Sum.ofLongs()));
+  }
+
+  @Test
+  public void testCannotExpandIncompatibleStrategies() {
+    WindowingStrategy<?, ?> strategy = WindowingStrategy.of(SLIDING);
+    assertFalse(
+        SlicedSlidingWindowCombine.canExpand(
+            strategy.withTrigger(AfterPane.elementCountAtLeast(1)), Sum.ofLongs()));
+    assertFalse(
+        SlicedSlidingWindowCombine.canExpand(
+            strategy.withTimestampCombiner(TimestampCombiner.EARLIEST), Sum.ofLongs()));
+  }
+
+  @Test
+  public void testSlicesMergeToSameResult() throws Exception {
+    CombineFn<Integer, ?, Double> mean = Mean.of();
+    testSlicesMergeToSameResult(mean);
+  }
+
+  private static <AccumT> void testSlicesMergeToSameResult(CombineFn<Integer, AccumT, Double> fn)
+      throws Exception {
+    Coder<AccumT> accumCoder =
+        fn.getAccumulatorCoder(Pipeline.create().getCoderRegistry(), VarIntCoder.of());
+    SliceCombineFn<Integer, AccumT> sliceFn = new SliceCombineFn<>(fn, accumCoder);
+    List<AccumT> slices = new ArrayList<>();
+    List<Integer> all = new ArrayList<>();
+    for (int slice = 0; slice < 5; slice++) {
+      List<Integer> values = new ArrayList<>();
+      for (int i = 0; i <= slice * 3; i++) {
+        values.add(slice * 100 + i);
+      }
+      all.addAll(values);
+      slices.add(sliceFn.apply(values));
+    }
+
+    CombineFnTester.testCombineFn(
+        new MergeSlicesFn<>(fn, accumCoder, VarIntCoder.of()), slices, fn.apply(all));
+  }
+
+  @Test
+  public void testSameOutputAsCombineWithEarlyOnTimeAndLateData() throws Exception {
+    WindowingStrategy<?, IntervalWindow> strategy =
+        WindowingStrategy.of(SLIDING).withAllowedLateness(Duration.standardMinutes(3));
+    checkSameOutputAsCombine(strategy);
+    checkSameOutputAsCombine(strategy.withMode(AccumulationMode.ACCUMULATING_FIRED_PANES));
+  }
+
+  /**
+   * Runs the same elements and watermarks through a combine over the sliding windows of the given
+   * strategy, and through the slices of the expansion followed by the merge of the slices, which
+   * uses the original strategy again, and checks that both output the same panes.
+   */
+  @SuppressWarnings("unchecked")
+  private static void checkSameOutputAsCombine(WindowingStrategy<?, IntervalWindow> strategy)
+      throws Exception {
+    SumFn fn = new SumFn();
+    WindowingStrategy<?, IntervalWindow> sliceStrategy =
+        (WindowingStrategy<?, IntervalWindow>)
+            SlicedSlidingWindowCombine.assignSlices(strategy).getOutputStrategyInternal(strategy);
+    ReduceFnTester<Integer, Integer, IntervalWindow> expected =
+        ReduceFnTester.combining(strategy, fn, VarIntCoder.of());
+    ReduceFnTester<Integer, Integer, IntervalWindow> slices =
+        ReduceFnTester.combining(
+            sliceStrategy, new SliceCombineFn<>(fn, VarIntCoder.of()), VarIntCoder.of());
+    ReduceFnTester<Integer, Integer, IntervalWindow> merged =
+        ReduceFnTester.combining(
+            strategy,
+            new MergeSlicesFn<>(fn, VarIntCoder.of(), VarIntCoder.of()),
+            VarIntCoder.of());
+    List<String> expectedPanes = new ArrayList<>();
+    List<String> actualPanes = new ArrayList<>();
+
+    // Early data, far ahead of the watermark, and on-time data.
+    inject(expected, slices, merged, TimestampedValue.of(1, minutes(1)),
+        TimestampedValue.of(2, minutes(3)), TimestampedValue.of(3, minutes(9)),
+        TimestampedValue.of(7, minutes(30)));
+    advance(expected, slices, merged, minutes(6));
+    expectedPanes.addAll(describe(expected.extractOutput()));
+    actualPanes.addAll(describe(merged.extractOutput()));
+
+    // Late for its slice, but within the allowed lateness of some windows, and on time for others.
+    inject(expected, slices, merged, TimestampedValue.of(10, minutes(1)));
+    advance(expected, slices, merged, minutes(12));
+    // Late for all windows but one, and on time.
+    inject(expected, slices, merged, TimestampedValue.of(100, minutes(1)),
+        TimestampedValue.of(5, minutes(13)));
+    // Beyond the allowed lateness of all windows.
+    advance(expected, slices, merged, minutes(20));
+    inject(expected, slices, merged, TimestampedValue.of(1000, minutes(1)));
+    advance(expected, slices, merged, minutes(120));
+    expectedPanes.addAll(describe(expected.extractOutput()));
+    actualPanes.addAll(describe(merged.extractOutput()));
+
+    assertThat(actualPanes, containsInAnyOrder(expectedPanes.toArray()));
+  }
+
+  private static Instant minutes(int minutes) {
+    return new Instant(0).plus(Duration.standardMinutes(minutes));
+  }
+
+  @SafeVarargs
+  private static void inject(
+      ReduceFnTester<Integer, Integer, IntervalWindow> expected,
+      ReduceFnTester<Integer, Integer, IntervalWindow> slices,
+      ReduceFnTester<Integer, Integer, IntervalWindow> merged,
+      TimestampedValue<Integer>... values)
+      throws Exception {
+    expected.injectElements(values);
+    slices.injectElements(values);
+    forwardSlices(slices, merged);
+  }
+
+  private static void advance(
+      ReduceFnTester<Integer, Integer, IntervalWindow> expected,
+      ReduceFnTester<Integer, Integer, IntervalWindow> slices,
+      ReduceFnTester<Integer, Integer, IntervalWindow> merged,
+      Instant watermark)
+      throws Exception {
+    expected.advanceInputWatermark(watermark);
+    slices.advanceInputWatermark(watermark);
+    forwardSlices(slices, merged);
+    merged.advanceInputWatermark(slices.getOutputWatermark());
+  }
+
+  /** Passes the panes of the slices to the merge, windowed as by the expansion. */
+  private static void forwardSlices(
+      ReduceFnTester<Integer, Integer, IntervalWindow> slices,
+      ReduceFnTester<Integer, Integer, IntervalWindow> merged)
+      throws Exception {
+    SlidingWindowsOfSlices windowFn = new SlidingWindowsOfSlices(SLIDING);
+    List<WindowedValue<Integer>> windowedSlices = new ArrayList<>();
+    for (WindowedValue<Integer> slice : slices.extractOutput()) {
+      Collection<IntervalWindow> windows =
+          windowFn.assignWindows(
+              windowFn.new AssignContext() {
+                @Override
+                public Object element() {
+                  return slice.getValue();
+                }
+
+                @Override
+                public Instant timestamp() {
+                  return slice.getTimestamp();
+                }
+
+                @Override
+                public BoundedWindow window() {
+                  return Iterables.getOnlyElement(slice.getWindows());
+                }
+              });
+      windowedSlices.add(
+          WindowedValue.of(slice.getValue(), slice.getTimestamp(), windows, PaneInfo.NO_FIRING));
+    }
+    merged.injectWindowedElements(windowedSlices);
+  }
+
+  private static List<String> describe(List<WindowedValue<Integer>> panes) {
+    List<String> descriptions = new ArrayList<>();
+    for (WindowedValue<Integer> pane : panes) {
+      descriptions.add(
+          String.format(
+              "%s at %s: %s (%s)",
+              Iterables.getOnlyElement(pane.getWindows()),
+              pane.getTimestamp(),
+              pane.getValue(),
+              pane.getPane().getTiming()));
+    }
+    return descriptions;
+  }
+
+  /** A sum with an immutable accumulator, which is also the type of the slices. */
+  private static class SumFn extends CombineFn<Integer, Integer, Integer> {
+    @Override
+    public Integer createAccumulator() {
+      return 0;
+    }
+
+    @Override
+    public Integer addInput(Integer accumulator, Integer input) {
+      return accumulator + input;
+    }
+
+    @Override
+    public Integer mergeAccumulators(Iterable<Integer> accumulators) {
+      int sum = 0;
+      for (Integer accumulator : accumulators) {
+        sum += accumulator;
+      }
+      return sum;
+    }
+
+    @Override
+    public Integer extractOutput(Integer accumulator) {
+      return accumulator;
+    }
+  }
+
+  @Test
+  public void testExpandPreservesWindowingAndCoder() {
+    PCollection<KV<String, Integer>> input =
+        p.apply(Create.of(KV.of("a", 1), KV.of("b", 2))).apply(Window.into(SLIDING));
+    PCollection<KV<String, Integer>> output =
+        input.apply(new CombinePerKeyViaSlices<>(Sum.ofIntegers()));
+
+    assertEquals(KvCoder.of(StringUtf8Coder.of(), VarIntCoder.of()), output.getCoder());
+    assertEquals(SLIDING, output.getWindowingStrategy().getWindowFn());
+    assertEquals(
+        input.getWindowingStrategy().getTimestampCombiner(),
+        output.getWindowingStrategy().getTimestampCombiner());
+  }
+
+  @Test
+  public void testExpandIncompatibleWindowsThrows() {
+    PCollection<KV<String, Integer>> input =
+        p.apply(Create.of(KV.of("a", 1)))
+            .apply(Window.into(FixedWindows.of(Duration.standardMinutes(1))));
+
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("requires SlidingWindows");
+    input.apply(new CombinePerKeyViaSlices<>(Sum.ofIntegers()));
+  }
+
+  @Test
+  public void testOverrideReplacesOnlyMatchingCombines() {
+    applyCombine(SLIDING, "SlidingSum");
+    applyCombine(FixedWindows.of(Duration.standardMinutes(2)), "FixedSum");
+    // The sums are each in a single sliding window, not in all windows containing their timestamp.
+    applyCombine(SLIDING, "SummedSum").apply("ResumSum", Combine.perKey(Sum.ofIntegers()));
+
+    p.replaceAll(
+        ImmutableList.of(
+            PTransformOverride.of(
+                SlicedSlidingWindowCombine.matcher(), new OverrideFactory<>())));
+
+    List<String> names = new ArrayList<>();
+    p.traverseTopologically(
+        new Pipeline.PipelineVisitor.Defaults() {
+          @Override
+          public void visitPrimitiveTransform(TransformHierarchy.Node node) {
+            names.add(node.getFullName());
+          }
+        });
+    assertThat(names, hasItem(Matchers.startsWith("SlidingSum/MergeSlices/")));
+    assertThat(names, hasItem(Matchers.startsWith("SummedSum/MergeSlices/")));
+    assertThat(names, not(hasItem(Matchers.startsWith("FixedSum/MergeSlices/"))));
+    assertThat(names, not(hasItem(Matchers.startsWith("ResumSum/MergeSlices/"))));
+  }
+
+  private PCollection<KV<String, Integer>> applyCombine(
+      WindowFn<Object, ?> windowFn, String name) {
+    return p.apply(name + "Create", Create.of(KV.of("a", 1), KV.of("b", 2)))
+        .apply(name + "Window", Window.into(windowFn))
+        .apply(name, Combine.perKey(Sum.ofIntegers()));
+  }
+}
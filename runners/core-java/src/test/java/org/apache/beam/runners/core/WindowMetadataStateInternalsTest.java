@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core;
+
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import org.apache.beam.runners.core.WindowMetadataStateInternals.WindowMetadata;
+import org.apache.beam.runners.core.WindowMetadataStateInternals.WindowMetadataCoder;
+import org.apache.beam.runners.core.triggers.TriggerStateMachineRunner;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.state.CombiningState;
+import org.apache.beam.sdk.state.ValueState;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo.Timing;
+import org.apache.beam.sdk.util.CoderUtils;
+import org.joda.time.Instant;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link WindowMetadataStateInternals}. */
+@RunWith(JUnit4.class)
+public class WindowMetadataStateInternalsTest {
+  private static final StateNamespace WINDOW =
+      StateNamespaces.window(
+          IntervalWindow.getCoder(), new IntervalWindow(new Instant(0), new Instant(10)));
+
+  private final TestInMemoryStateInternals<String> underlying =
+      new TestInMemoryStateInternals<>("key");
+
+  @Test
+  public void testStoresMetadataInOneValueOnPersist() {
+    WindowMetadataStateInternals state = new WindowMetadataStateInternals(underlying);
+    PaneInfo pane = PaneInfo.createPane(true, false, Timing.EARLY, 0, -1);
+    BitSet finishedBits = new BitSet();
+    finishedBits.set(3);
+
+    state.state(WINDOW, PaneInfoTracker.PANE_INFO_TAG).write(pane);
+    state.state(WINDOW, TriggerStateMachineRunner.FINISHED_BITS_TAG).write(finishedBits);
+    state.state(WINDOW, NonEmptyPanes.PANE_ADDITIONS_TAG).add(1L);
+    state.state(WINDOW, NonEmptyPanes.PANE_ADDITIONS_TAG).add(1L);
+    assertThat(underlying.getTagsInUse(WINDOW), emptyIterable());
+
+    state.persist();
+    assertEquals(1, underlying.getTagsInUse(WINDOW).size());
+
+    WindowMetadataStateInternals reread = new WindowMetadataStateInternals(underlying);
+    assertEquals(pane, reread.state(WINDOW, PaneInfoTracker.PANE_INFO_TAG).read());
+    assertEquals(
+        finishedBits, reread.state(WINDOW, TriggerStateMachineRunner.FINISHED_BITS_TAG).read());
+    CombiningState<Long, long[], Long> paneAdditions =
+        reread.state(WINDOW, NonEmptyPanes.PANE_ADDITIONS_TAG);
+    assertEquals(2L, (long) paneAdditions.read());
+    assertFalse(paneAdditions.isEmpty().read());
+  }
+
+  @Test
+  public void testClearsValueWhenAllFieldsCleared() {
+    WindowMetadataStateInternals state = new WindowMetadataStateInternals(underlying);
+    state.state(WINDOW, NonEmptyPanes.PANE_ADDITIONS_TAG).add(1L);
+    state.persist();
+
+    state = new WindowMetadataStateInternals(underlying);
+    state.state(WINDOW, NonEmptyPanes.PANE_ADDITIONS_TAG).clear();
+    assertTrue(state.state(WINDOW, NonEmptyPanes.PANE_ADDITIONS_TAG).isEmpty().read());
+    state.persist();
+
+    assertThat(underlying.getTagsInUse(WINDOW), emptyIterable());
+    ValueState<PaneInfo> paneInfo =
+        new WindowMetadataStateInternals(underlying).state(WINDOW, PaneInfoTracker.PANE_INFO_TAG);
+    assertThat(paneInfo.read(), nullValue());
+  }
+
+  @Test
+  public void testDelegatesOtherNamespaces() {
+    WindowMetadataStateInternals state = new WindowMetadataStateInternals(underlying);
+    state.state(StateNamespaces.global(), PaneInfoTracker.PANE_INFO_TAG)
+        .write(PaneInfo.NO_FIRING);
+    assertEquals(
+        PaneInfo.NO_FIRING,
+        underlying.state(StateNamespaces.global(), PaneInfoTracker.PANE_INFO_TAG).read());
+  }
+
+  @Test
+  public void testCoderRoundTrip() throws Exception {
+    Coder<WindowMetadata> coder = WindowMetadataCoder.INSTANCE;
+    WindowMetadata empty = new WindowMetadata();
+    assertTrue(CoderUtils.clone(coder, empty).isEmpty());
+
+    WindowMetadata metadata = new WindowMetadata();
+    metadata.paneInfo = PaneInfo.createPane(false, true, Timing.LATE, 4, 2);
+    metadata.finishedBits = new BitSet();
+    metadata.finishedBits.set(0);
+    metadata.paneAdditions = 7L;
+    WindowMetadata decoded = CoderUtils.clone(coder, metadata);
+    assertEquals(metadata.paneInfo, decoded.paneInfo);
+    assertEquals(metadata.finishedBits, decoded.finishedBits);
+    assertEquals(7L, decoded.paneAdditions);
+  }
+}
@@ -0,0 +1,348 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.core.triggers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.beam.runners.core.InMemoryStateInternals;
+import org.apache.beam.runners.core.MergingStateAccessor;
+import org.apache.beam.runners.core.NonMergingActiveWindowSet;
+import org.apache.beam.runners.core.StateAccessor;
+import org.apache.beam.runners.core.StateNamespaces;
+import org.apache.beam.runners.core.StateTag;
+import org.apache.beam.sdk.state.State;
+import org.apache.beam.sdk.state.TimeDomain;
+import org.apache.beam.sdk.state.Timers;
+import org.apache.beam.sdk.transforms.windowing.FixedWindows;
+import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
+import org.apache.beam.sdk.transforms.windowing.GlobalWindows;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.Sessions;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CompiledTriggerStateMachine}. */
+@RunWith(JUnit4.class)
+public class CompiledTriggerStateMachineTest {
+
+  private static final TriggerStateMachineContextFactory<GlobalWindow> CONTEXT_FACTORY =
+      new TriggerStateMachineContextFactory<>(
+          new GlobalWindows(),
+          InMemoryStateInternals.forKey("key"),
+          new NonMergingActiveWindowSet<>());
+
+  private static ExecutableTriggerStateMachine executable(TriggerStateMachine trigger) {
+    return ExecutableTriggerStateMachine.create(trigger);
+  }
+
+  @Test
+  public void testCompilesRepeatedElementCount() {
+    assertNotNull(
+        CompiledTriggerStateMachine.compile(
+            executable(
+                RepeatedlyStateMachine.forever(AfterPaneStateMachine.elementCountAtLeast(3))),
+            CONTEXT_FACTORY));
+  }
+
+  @Test
+  public void testDoesNotCompileOtherShapes() {
+    assertNull(
+        CompiledTriggerStateMachine.compile(
+            executable(
+                RepeatedlyStateMachine.forever(
+                    AfterProcessingTimeStateMachine.pastFirstElementInPane())),
+            CONTEXT_FACTORY));
+    assertNull(
+        CompiledTriggerStateMachine.compile(
+            executable(
+                AfterWatermarkStateMachine.pastEndOfWindow()
+                    .withEarlyFirings(AfterProcessingTimeStateMachine.pastFirstElementInPane())),
+            CONTEXT_FACTORY));
+    assertNull(
+        CompiledTriggerStateMachine.compile(
+            executable(
+                AfterFirstStateMachine.of(
+                    AfterPaneStateMachine.elementCountAtLeast(3),
+                    AfterWatermarkStateMachine.pastEndOfWindow())),
+            CONTEXT_FACTORY));
+    assertNull(
+        CompiledTriggerStateMachine.compile(
+            executable(DefaultTriggerStateMachine.of()), CONTEXT_FACTORY));
+  }
+
+  @Test
+  public void testCompilesEventTimeShapes() {
+    for (TriggerStateMachine trigger : compiledTriggers()) {
+      assertNotNull(
+          trigger.toString(),
+          CompiledTriggerStateMachine.compile(executable(trigger), CONTEXT_FACTORY));
+    }
+  }
+
+  private static List<TriggerStateMachine> compiledTriggers() {
+    return Arrays.asList(
+        AfterPaneStateMachine.elementCountAtLeast(3),
+        AfterWatermarkStateMachine.pastEndOfWindow(),
+        AfterWatermarkStateMachine.pastEndOfWindow()
+            .withEarlyFirings(AfterPaneStateMachine.elementCountAtLeast(2)),
+        AfterWatermarkStateMachine.pastEndOfWindow()
+            .withLateFirings(AfterPaneStateMachine.elementCountAtLeast(1)),
+        AfterWatermarkStateMachine.pastEndOfWindow()
+            .withEarlyFirings(AfterPaneStateMachine.elementCountAtLeast(3))
+            .withLateFirings(AfterPaneStateMachine.elementCountAtLeast(2)),
+        RepeatedlyStateMachine.forever(AfterPaneStateMachine.elementCountAtLeast(2))
+            .orFinally(AfterWatermarkStateMachine.pastEndOfWindow()),
+        RepeatedlyStateMachine.forever(AfterPaneStateMachine.elementCountAtLeast(2))
+            .orFinally(AfterPaneStateMachine.elementCountAtLeast(5)),
+        RepeatedlyStateMachine.forever(
+            AfterWatermarkStateMachine.pastEndOfWindow()
+                .withLateFirings(AfterPaneStateMachine.elementCountAtLeast(2))));
+  }
+
+  /**
+   * Runs the same random elements, merges and watermarks through a compiled and an interpreted
+   * runner of each compiled trigger, and checks that they fire, finish and set timers alike.
+   */
+  @Test
+  public void testCompiledTriggersMatchInterpreted() throws Exception {
+    for (TriggerStateMachine trigger : compiledTriggers()) {
+      for (boolean merging : new boolean[] {false, true}) {
+        Random random = new Random(trigger.toString().hashCode());
+        Driver compiled = new Driver(trigger, merging, true);
+        Driver interpreted = new Driver(trigger, merging, false);
+        for (int step = 0; step < 300; step++) {
+          long timestamp = random.nextInt(200);
+          if (random.nextInt(4) == 0) {
+            long watermark = compiled.watermark + random.nextInt(20);
+            compiled.advanceWatermark(watermark);
+            interpreted.advanceWatermark(watermark);
+          } else {
+            compiled.processElement(timestamp);
+            interpreted.processElement(timestamp);
+          }
+          assertEquals(
+              String.format("%s with merging=%s at step %s", trigger, merging, step),
+              interpreted.log,
+              compiled.log);
+        }
+      }
+    }
+  }
+
+  /**
+   * Drives a {@link TriggerStateMachineRunner} like {@code ReduceFnRunner} does, and logs every
+   * firing, timer and change of the finished bits.
+   */
+  private static class Driver implements Timers {
+    private static final long GAP = 10;
+
+    private final boolean merging;
+    private final InMemoryStateInternals<String> stateInternals =
+        InMemoryStateInternals.forKey("key");
+    private final TriggerStateMachineRunner<IntervalWindow> runner;
+    private final Set<IntervalWindow> windows = new TreeSet<>();
+    private final List<String> log = new ArrayList<>();
+    private long watermark = -1;
+
+    private Driver(TriggerStateMachine trigger, boolean merging, boolean compile) {
+      this.merging = merging;
+      TriggerStateMachineContextFactory<IntervalWindow> contextFactory =
+          new TriggerStateMachineContextFactory<>(
+              merging
+                  ? Sessions.withGapDuration(Duration.millis(GAP))
+                  : FixedWindows.of(Duration.millis(GAP)),
+              stateInternals,
+              new NonMergingActiveWindowSet<>());
+      this.runner =
+          new TriggerStateMachineRunner<>(executable(trigger), contextFactory, compile);
+    }
+
+    void processElement(long timestamp) throws Exception {
+      IntervalWindow window =
+          merging
+              ? new IntervalWindow(new Instant(timestamp), new Instant(timestamp + GAP))
+              : new IntervalWindow(
+                  new Instant(timestamp - timestamp % GAP),
+                  new Instant(timestamp - timestamp % GAP + GAP));
+      if (merging) {
+        List<IntervalWindow> toBeMerged = new ArrayList<>();
+        for (IntervalWindow active : windows) {
+          if (active.intersects(window)) {
+            toBeMerged.add(active);
+            window = window.span(active);
+          }
+        }
+        if (!toBeMerged.isEmpty()) {
+          windows.removeAll(toBeMerged);
+          log.add("merge " + toBeMerged + " into " + window);
+          runner.onMerge(window, toBeMerged, this, mergingState(window, toBeMerged));
+          logFinishedBits(window);
+        }
+      }
+      windows.add(window);
+      if (runner.isClosed(state(window))) {
+        log.add("dropped " + timestamp);
+        return;
+      }
+      runner.processValue(window, new Instant(timestamp), this, state(window));
+      logFinishedBits(window);
+      maybeFire(window);
+    }
+
+    void advanceWatermark(long watermark) throws Exception {
+      this.watermark = watermark;
+      log.add("watermark " + watermark);
+      for (IntervalWindow window : windows) {
+        maybeFire(window);
+      }
+    }
+
+    private void maybeFire(IntervalWindow window) throws Exception {
+      if (runner.isClosed(state(window)) || !runner.shouldFire(window, this, state(window))) {
+        return;
+      }
+      log.add("fire " + window);
+      runner.onFire(window, this, state(window));
+      logFinishedBits(window);
+      if (runner.isClosed(state(window))) {
+        log.add("closed " + window);
+        runner.clearState(window, this, state(window));
+      }
+    }
+
+    private void logFinishedBits(IntervalWindow window) {
+      log.add(
+          "finished bits of "
+              + window
+              + ": "
+              + stateInternals
+                  .state(
+                      StateNamespaces.window(IntervalWindow.getCoder(), window),
+                      TriggerStateMachineRunner.FINISHED_BITS_TAG)
+                  .read());
+    }
+
+    private StateAccessor<?> state(IntervalWindow window) {
+      return new StateAccessor<Object>() {
+        @Override
+        public <StateT extends State> StateT access(StateTag<StateT> address) {
+          return stateInternals.state(
+              StateNamespaces.window(IntervalWindow.getCoder(), window), address);
+        }
+      };
+    }
+
+    private MergingStateAccessor<?, IntervalWindow> mergingState(
+        IntervalWindow window, Collection<IntervalWindow> toBeMerged) {
+      return new MergingStateAccessor<Object, IntervalWindow>() {
+        @Override
+        public <StateT extends State> StateT access(StateTag<StateT> address) {
+          return stateInternals.state(
+              StateNamespaces.window(IntervalWindow.getCoder(), window), address);
+        }
+
+        @Override
+        public <StateT extends State> Map<IntervalWindow, StateT> accessInEachMergingWindow(
+            StateTag<StateT> address) {
+          Map<IntervalWindow, StateT> states = new HashMap<>();
+          for (IntervalWindow mergingWindow : toBeMerged) {
+            states.put(
+                mergingWindow,
+                stateInternals.state(
+                    StateNamespaces.window(IntervalWindow.getCoder(), mergingWindow), address));
+          }
+          return states;
+        }
+      };
+    }
+
+    @Override
+    public void setTimer(Instant timestamp, TimeDomain timeDomain) {
+      log.add("set " + timeDomain + " timer at " + timestamp);
+    }
+
+    @Override
+    public void deleteTimer(Instant timestamp, TimeDomain timeDomain) {
+      log.add("delete " + timeDomain + " timer at " + timestamp);
+    }
+
+    @Override
+    public Instant currentProcessingTime() {
+      return new Instant(0);
+    }
+
+    @Override
+    public Instant currentSynchronizedProcessingTime() {
+      return new Instant(0);
+    }
+
+    @Override
+    public Instant currentEventTime() {
+      return new Instant(watermark);
+    }
+  }
+
+  @Test
+  public void testAlwaysUnfinished() {
+    assertTrue(
+        CompiledTriggerStateMachine.isAlwaysUnfinished(
+            executable(DefaultTriggerStateMachine.of())));
+    assertTrue(
+        CompiledTriggerStateMachine.isAlwaysUnfinished(
+            executable(
+                RepeatedlyStateMachine.forever(
+                    AfterFirstStateMachine.of(
+                        AfterProcessingTimeStateMachine.pastFirstElementInPane()
+                            .plusDelayOf(Duration.standardMinutes(1)),
+                        AfterPaneStateMachine.elementCountAtLeast(5))))));
+  }
+
+  @Test
+  public void testMayFinish() {
+    assertFalse(
+        CompiledTriggerStateMachine.isAlwaysUnfinished(
+            executable(AfterPaneStateMachine.elementCountAtLeast(5))));
+    assertFalse(
+        CompiledTriggerStateMachine.isAlwaysUnfinished(
+            executable(
+                RepeatedlyStateMachine.forever(
+                    AfterWatermarkStateMachine.pastEndOfWindow()
+                        .withEarlyFirings(AfterPaneStateMachine.elementCountAtLeast(1))))));
+    assertFalse(
+        CompiledTriggerStateMachine.isAlwaysUnfinished(
+            executable(
+                RepeatedlyStateMachine.forever(AfterPaneStateMachine.elementCountAtLeast(5))
+                    .orFinally(AfterWatermarkStateMachine.pastEndOfWindow()))));
+  }
+}
@@ -93,6 +93,18 @@ public interface FlinkPipelineOptions
   Long getExecutionRetryDelay();
   void setExecutionRetryDelay(Long delay);
 
+  /**
+   * Skips the deep copy that Flink makes of each element passed between chained operators of a
+   * streaming pipeline when object reuse is disabled. Elements output to several chained
+   * operators are then shared between them, which is safe because Beam transforms must not modify
+   * their inputs. State is still copied.
+   */
+  @Description("Remove the deep copy of elements passed between chained operators in streaming "
+      + "mode. Only safe if no DoFn modifies its input, as required by the Beam model.")
+  @Default.Boolean(false)
+  Boolean getFasterCopy();
+  void setFasterCopy(Boolean fasterCopy);
+
   @Description("Sets the behavior of reusing objects.")
   @Default.Boolean(false)
   Boolean getObjectReuse();
@@ -137,6 +149,42 @@ public interface FlinkPipelineOptions
   Long getMaxBundleTimeMills();
   void setMaxBundleTimeMills(Long time);
 
+  /**
+   * Lets streaming operators choose the size of their bundles between {@link #getMinBundleSize()}
+   * and {@link #getMaxBundleSize()}. Bundles grow while that improves throughput, and shrink when
+   * processing them takes longer than {@link #getMaxBundleTimeMills()} or they delay checkpoints.
+   */
+  @Description("Adapt the number of elements in a bundle between minBundleSize and maxBundleSize "
+      + "to the observed throughput, bundle latency and checkpoint delays.")
+  @Default.Boolean(false)
+  Boolean getAdaptiveBundleSize();
+  void setAdaptiveBundleSize(Boolean adaptiveBundleSize);
+
+  @Description("The minimum number of elements in a bundle if adaptiveBundleSize is set.")
+  @Default.Long(10)
+  Long getMinBundleSize();
+  void setMinBundleSize(Long size);
+
+  /**
+   * The number of keys and windows for which a streaming {@code Combine.perKey} keeps partial
+   * results before the shuffle. This is only done for windowing strategies that fire at the end of
+   * the window and output at the end of the window.
+   *
+   * <p>This is disabled by default, because it adds an operator to the job, so savepoints taken
+   * with it enabled cannot be restored with it disabled, and the other way around.
+   */
+  @Description("The maximum number of keys and windows for which a streaming Combine keeps "
+      + "partial results before the shuffle. Disabled if 0, which is the default.")
+  @Default.Integer(0)
+  Integer getMaxPartialCombineKeys();
+  void setMaxPartialCombineKeys(Integer maxKeys);
+
+  @Description("The maximum size in bytes of the partial results which a streaming Combine keeps "
+      + "before the shuffle, if maxPartialCombineKeys is set.")
+  @Default.Long(64L << 20)
+  Long getMaxPartialCombineBytes();
+  void setMaxPartialCombineBytes(Long maxBytes);
+
   /**
    * Whether to shutdown sources when their watermark reaches {@code +Inf}. For production use
    * cases you want this to be disabled because Flink will currently (versions {@literal <=} 1.5)
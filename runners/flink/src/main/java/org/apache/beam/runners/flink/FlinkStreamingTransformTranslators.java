@@ -47,6 +47,7 @@ import org.apache.beam.runners.flink.translation.functions.FlinkAssignWindows;
 import org.apache.beam.runners.flink.translation.types.CoderTypeInformation;
 import org.apache.beam.runners.flink.translation.wrappers.streaming.DoFnOperator;
 import org.apache.beam.runners.flink.translation.wrappers.streaming.KvToByteBufferKeySelector;
+import org.apache.beam.runners.flink.translation.wrappers.streaming.PartialCombineOperator;
 import org.apache.beam.runners.flink.translation.wrappers.streaming.SingletonKeyedWorkItem;
 import org.apache.beam.runners.flink.translation.wrappers.streaming.SingletonKeyedWorkItemCoder;
 import org.apache.beam.runners.flink.translation.wrappers.streaming.SplittableDoFnOperator;
@@ -54,6 +55,7 @@ import org.apache.beam.runners.flink.translation.wrappers.streaming.WindowDoFnOp
 import org.apache.beam.runners.flink.translation.wrappers.streaming.WorkItemKeySelector;
 import org.apache.beam.runners.flink.translation.wrappers.streaming.io.DedupingOperator;
 import org.apache.beam.runners.flink.translation.wrappers.streaming.io.UnboundedSourceWrapper;
+import org.apache.beam.sdk.coders.CannotProvideCoderException;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.KvCoder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
@@ -61,6 +63,7 @@ import org.apache.beam.sdk.coders.VoidCoder;
 import org.apache.beam.sdk.io.BoundedSource;
 import org.apache.beam.sdk.io.UnboundedSource;
 import org.apache.beam.sdk.runners.AppliedPTransform;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
 import org.apache.beam.sdk.transforms.CombineFnBase.GlobalCombineFn;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.PTransform;
@@ -70,7 +73,9 @@ import org.apache.beam.sdk.transforms.reflect.DoFnSignature;
 import org.apache.beam.sdk.transforms.reflect.DoFnSignatures;
 import org.apache.beam.sdk.transforms.splittabledofn.RestrictionTracker;
 import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.DefaultTrigger;
 import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
+import org.apache.beam.sdk.transforms.windowing.TimestampCombiner;
 import org.apache.beam.sdk.transforms.windowing.WindowFn;
 import org.apache.beam.sdk.util.AppliedCombineFn;
 import org.apache.beam.sdk.util.WindowedValue;
@@ -874,23 +879,148 @@ class FlinkStreamingTransformTranslators {
 
       KvCoder<K, InputT> inputKvCoder = (KvCoder<K, InputT>) input.getCoder();
 
-      SingletonKeyedWorkItemCoder<K, InputT> workItemCoder = SingletonKeyedWorkItemCoder.of(
+      DataStream<WindowedValue<KV<K, InputT>>> inputDataStream = context.getInputDataStream(input);
+
+      GlobalCombineFn<? super InputT, ?, OutputT> combineFn;
+      try {
+        combineFn = (GlobalCombineFn<? super InputT, ?, OutputT>)
+            CombineTranslation.getCombineFn(context.getCurrentTransform())
+                .orElseThrow(() -> new IOException("CombineFn not found in node."));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+
+      FlinkPipelineOptions options = context.getPipelineOptions().as(FlinkPipelineOptions.class);
+      if (canCombineBeforeShuffle(
+          options, combineFn, inputKvCoder.getKeyCoder(), windowingStrategy)) {
+        translateWithPartialCombine(
+            fullName,
+            (CombineFn<InputT, ?, OutputT>) combineFn,
+            inputDataStream,
+            inputKvCoder,
+            windowingStrategy,
+            options,
+            transform,
+            context);
+        return;
+      }
+
+      SystemReduceFn<K, InputT, ?, OutputT, BoundedWindow> reduceFn = SystemReduceFn.combining(
           inputKvCoder.getKeyCoder(),
-          inputKvCoder.getValueCoder(),
-          input.getWindowingStrategy().getWindowFn().windowCoder());
+          AppliedCombineFn.withInputCoder(
+              combineFn, input.getPipeline().getCoderRegistry(), inputKvCoder));
 
-      DataStream<WindowedValue<KV<K, InputT>>> inputDataStream = context.getInputDataStream(input);
+      translateCombine(
+          fullName, inputDataStream, inputKvCoder, windowingStrategy, reduceFn, transform, context);
+    }
+
+    /**
+     * Whether the inputs should be combined per key and window before the shuffle, and the
+     * accumulators output at the end of the window. This must be enabled in the options. It keeps
+     * the panes and timestamps of the output the same, because the default trigger only fires once
+     * the watermark passes the end of the window, and the accumulators of a window are output
+     * before a watermark past its end is forwarded.
+     */
+    private boolean canCombineBeforeShuffle(
+        FlinkPipelineOptions options,
+        GlobalCombineFn<?, ?, ?> combineFn,
+        Coder<K> keyCoder,
+        WindowingStrategy<?, BoundedWindow> windowingStrategy) {
+      if (options.getMaxPartialCombineKeys() <= 0
+          || !(combineFn instanceof CombineFn)
+          || !windowingStrategy.getWindowFn().isNonMerging()
+          || !(windowingStrategy.getTrigger() instanceof DefaultTrigger)
+          || windowingStrategy.getTimestampCombiner() != TimestampCombiner.END_OF_WINDOW) {
+        return false;
+      }
+      try {
+        KvCoder.of(keyCoder, windowingStrategy.getWindowFn().windowCoder()).verifyDeterministic();
+        return true;
+      } catch (Coder.NonDeterministicException e) {
+        return false;
+      }
+    }
+
+    private <AccumT> void translateWithPartialCombine(
+        String fullName,
+        CombineFn<InputT, AccumT, OutputT> combineFn,
+        DataStream<WindowedValue<KV<K, InputT>>> inputDataStream,
+        KvCoder<K, InputT> inputKvCoder,
+        WindowingStrategy<?, BoundedWindow> windowingStrategy,
+        FlinkPipelineOptions options,
+        PTransform<PCollection<KV<K, InputT>>, PCollection<KV<K, OutputT>>> transform,
+        FlinkStreamingTranslationContext context) {
+      Coder<AccumT> accumulatorCoder;
+      try {
+        accumulatorCoder =
+            combineFn.getAccumulatorCoder(
+                context.getInput(transform).getPipeline().getCoderRegistry(),
+                inputKvCoder.getValueCoder());
+      } catch (CannotProvideCoderException e) {
+        throw new RuntimeException(e);
+      }
+      @SuppressWarnings("unchecked")
+      Coder<BoundedWindow> windowCoder =
+          (Coder<BoundedWindow>) windowingStrategy.getWindowFn().windowCoder();
+      KvCoder<K, AccumT> accumulatorKvCoder =
+          KvCoder.of(inputKvCoder.getKeyCoder(), accumulatorCoder);
+
+      String partialName = "PartialCombine: " + fullName;
+      DataStream<WindowedValue<KV<K, AccumT>>> partialDataStream =
+          inputDataStream
+              .transform(
+                  partialName,
+                  new CoderTypeInformation<>(
+                      WindowedValue.getFullCoder(accumulatorKvCoder, windowCoder)),
+                  new PartialCombineOperator<>(
+                      combineFn,
+                      inputKvCoder.getKeyCoder(),
+                      accumulatorCoder,
+                      windowCoder,
+                      options.getMaxPartialCombineKeys(),
+                      options.getMaxPartialCombineBytes()))
+              .uid(partialName);
+
+      SystemReduceFn<K, AccumT, ?, OutputT, BoundedWindow> reduceFn = SystemReduceFn.combining(
+          inputKvCoder.getKeyCoder(),
+          AppliedCombineFn.withAccumulatorCoder(
+              new PartialCombineOperator.MergeAccumulatorsFn<>(
+                  combineFn, accumulatorCoder, inputKvCoder.getValueCoder()),
+              accumulatorCoder));
+
+      translateCombine(
+          fullName,
+          partialDataStream,
+          accumulatorKvCoder,
+          windowingStrategy,
+          reduceFn,
+          transform,
+          context);
+    }
+
+    private <V> void translateCombine(
+        String fullName,
+        DataStream<WindowedValue<KV<K, V>>> inputDataStream,
+        KvCoder<K, V> inputKvCoder,
+        WindowingStrategy<?, BoundedWindow> windowingStrategy,
+        SystemReduceFn<K, V, ?, OutputT, BoundedWindow> reduceFn,
+        PTransform<PCollection<KV<K, InputT>>, PCollection<KV<K, OutputT>>> transform,
+        FlinkStreamingTranslationContext context) {
+      SingletonKeyedWorkItemCoder<K, V> workItemCoder = SingletonKeyedWorkItemCoder.of(
+          inputKvCoder.getKeyCoder(),
+          inputKvCoder.getValueCoder(),
+          windowingStrategy.getWindowFn().windowCoder());
 
       WindowedValue.
-          FullWindowedValueCoder<SingletonKeyedWorkItem<K, InputT>> windowedWorkItemCoder =
+          FullWindowedValueCoder<SingletonKeyedWorkItem<K, V>> windowedWorkItemCoder =
             WindowedValue.getFullCoder(
                 workItemCoder,
-                input.getWindowingStrategy().getWindowFn().windowCoder());
+                windowingStrategy.getWindowFn().windowCoder());
 
-      CoderTypeInformation<WindowedValue<SingletonKeyedWorkItem<K, InputT>>> workItemTypeInfo =
+      CoderTypeInformation<WindowedValue<SingletonKeyedWorkItem<K, V>>> workItemTypeInfo =
           new CoderTypeInformation<>(windowedWorkItemCoder);
 
-      DataStream<WindowedValue<SingletonKeyedWorkItem<K, InputT>>> workItemStream =
+      DataStream<WindowedValue<SingletonKeyedWorkItem<K, V>>> workItemStream =
           inputDataStream
               .flatMap(new ToKeyedWorkItem<>())
               .returns(workItemTypeInfo)
@@ -898,30 +1028,17 @@ class FlinkStreamingTransformTranslators {
 
       WorkItemKeySelector keySelector = new WorkItemKeySelector<>(
           inputKvCoder.getKeyCoder());
-      KeyedStream<WindowedValue<SingletonKeyedWorkItem<K, InputT>>, ByteBuffer>
+      KeyedStream<WindowedValue<SingletonKeyedWorkItem<K, V>>, ByteBuffer>
           keyedWorkItemStream =
               workItemStream.keyBy(keySelector);
 
-      GlobalCombineFn<? super InputT, ?, OutputT> combineFn;
-      try {
-        combineFn = (GlobalCombineFn<? super InputT, ?, OutputT>)
-            CombineTranslation.getCombineFn(context.getCurrentTransform())
-                .orElseThrow(() -> new IOException("CombineFn not found in node."));
-      } catch (IOException e) {
-        throw new RuntimeException(e);
-      }
-      SystemReduceFn<K, InputT, ?, OutputT, BoundedWindow> reduceFn = SystemReduceFn.combining(
-          inputKvCoder.getKeyCoder(),
-          AppliedCombineFn.withInputCoder(
-              combineFn, input.getPipeline().getCoderRegistry(), inputKvCoder));
-
       Coder<WindowedValue<KV<K, OutputT>>> outputCoder =
           context.getCoder(context.getOutput(transform));
       TypeInformation<WindowedValue<KV<K, OutputT>>> outputTypeInfo =
           context.getTypeInfo(context.getOutput(transform));
 
       TupleTag<KV<K, OutputT>> mainTag = new TupleTag<>("main output");
-      WindowDoFnOperator<K, InputT, OutputT> doFnOperator =
+      WindowDoFnOperator<K, V, OutputT> doFnOperator =
           new WindowDoFnOperator<>(
               reduceFn,
               fullName,
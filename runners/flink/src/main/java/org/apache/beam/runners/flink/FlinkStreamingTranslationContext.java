@@ -105,7 +105,8 @@ class FlinkStreamingTranslationContext {
             valueCoder,
             collection.getWindowingStrategy().getWindowFn().windowCoder());
 
-    return new CoderTypeInformation<>(windowedValueCoder);
+    return new CoderTypeInformation<>(
+        windowedValueCoder, options.as(FlinkPipelineOptions.class).getFasterCopy());
   }
 
   public AppliedPTransform<?, ?, ?> getCurrentTransform() {
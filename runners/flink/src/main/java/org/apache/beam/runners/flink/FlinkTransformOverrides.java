@@ -19,6 +19,7 @@ package org.apache.beam.runners.flink;
 
 import com.google.common.collect.ImmutableList;
 import java.util.List;
+import org.apache.beam.runners.core.SlicedSlidingWindowCombine;
 import org.apache.beam.runners.core.SplittableParDoViaKeyedWorkItems;
 import org.apache.beam.runners.core.construction.PTransformMatchers;
 import org.apache.beam.runners.core.construction.PTransformTranslation;
@@ -45,6 +46,10 @@ public class FlinkTransformOverrides {
               PTransformOverride.of(
                   PTransformMatchers.urnEqualTo(PTransformTranslation.CREATE_VIEW_TRANSFORM_URN),
                   new CreateStreamingFlinkView.Factory()))
+          .add(
+              PTransformOverride.of(
+                  SlicedSlidingWindowCombine.matcher(),
+                  new SlicedSlidingWindowCombine.OverrideFactory()))
           .build();
     } else {
       return ImmutableList.of();
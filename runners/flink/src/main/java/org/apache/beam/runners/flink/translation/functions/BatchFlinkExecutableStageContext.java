@@ -17,13 +17,21 @@
  */
 package org.apache.beam.runners.flink.translation.functions;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.cache.RemovalNotification;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.concurrent.GuardedBy;
 import org.apache.beam.runners.core.construction.graph.ExecutableStage;
+import org.apache.beam.runners.fnexecution.control.BundleProgressHandler;
 import org.apache.beam.runners.fnexecution.control.DockerJobBundleFactory;
 import org.apache.beam.runners.fnexecution.control.JobBundleFactory;
+import org.apache.beam.runners.fnexecution.control.OutputReceiverFactory;
+import org.apache.beam.runners.fnexecution.control.RemoteBundle;
 import org.apache.beam.runners.fnexecution.control.StageBundleFactory;
 import org.apache.beam.runners.fnexecution.provisioning.JobInfo;
 import org.apache.beam.runners.fnexecution.state.StateRequestHandler;
@@ -31,24 +39,43 @@ import org.apache.flink.api.common.functions.RuntimeContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** Implementation of a {@link FlinkExecutableStageContext} for batch jobs. */
+/**
+ * Implementation of a {@link FlinkExecutableStageContext} for batch jobs.
+ *
+ * <p>Contexts are shared by all tasks of a job in the same TaskManager, and so are the {@link
+ * StageBundleFactory StageBundleFactories} of each stage, so that the parallel instances of a stage
+ * use the same process bundle descriptor in the SDK harness. A stage's bundle factory is closed
+ * when all instances have closed it.
+ */
 class BatchFlinkExecutableStageContext implements FlinkExecutableStageContext {
   private static final Logger LOG = LoggerFactory.getLogger(BatchFlinkExecutableStageContext.class);
 
   private final JobBundleFactory jobBundleFactory;
 
+  @GuardedBy("this")
+  private final Map<ExecutableStage, SharedStageBundleFactory<?>> stageBundleFactories =
+      new HashMap<>();
+
   private static BatchFlinkExecutableStageContext create(JobInfo jobInfo) throws Exception {
     JobBundleFactory jobBundleFactory = DockerJobBundleFactory.create(jobInfo);
     return new BatchFlinkExecutableStageContext(jobBundleFactory);
   }
 
-  private BatchFlinkExecutableStageContext(JobBundleFactory jobBundleFactory) {
+  @VisibleForTesting
+  BatchFlinkExecutableStageContext(JobBundleFactory jobBundleFactory) {
     this.jobBundleFactory = jobBundleFactory;
   }
 
   @Override
-  public <InputT> StageBundleFactory getStageBundleFactory(ExecutableStage executableStage) {
-    return jobBundleFactory.<InputT>forStage(executableStage);
+  @SuppressWarnings("unchecked")
+  public synchronized <InputT> StageBundleFactory<InputT> getStageBundleFactory(
+      ExecutableStage executableStage) {
+    SharedStageBundleFactory<InputT> shared =
+        (SharedStageBundleFactory<InputT>)
+            stageBundleFactories.computeIfAbsent(
+                executableStage,
+                stage -> new SharedStageBundleFactory<>(stage, jobBundleFactory.forStage(stage)));
+    return shared.acquire();
   }
 
   @Override
@@ -61,6 +88,54 @@ class BatchFlinkExecutableStageContext implements FlinkExecutableStageContext {
     jobBundleFactory.close();
   }
 
+  /** A {@link StageBundleFactory} that is closed when its last reference is closed. */
+  private class SharedStageBundleFactory<InputT> {
+    private final ExecutableStage executableStage;
+    private final StageBundleFactory<InputT> stageBundleFactory;
+
+    @GuardedBy("BatchFlinkExecutableStageContext.this")
+    private int references;
+
+    private SharedStageBundleFactory(
+        ExecutableStage executableStage, StageBundleFactory<InputT> stageBundleFactory) {
+      this.executableStage = executableStage;
+      this.stageBundleFactory = stageBundleFactory;
+    }
+
+    private StageBundleFactory<InputT> acquire() {
+      references++;
+      AtomicBoolean closed = new AtomicBoolean();
+      return new StageBundleFactory<InputT>() {
+        @Override
+        public RemoteBundle<InputT> getBundle(
+            OutputReceiverFactory outputReceiverFactory,
+            StateRequestHandler stateRequestHandler,
+            BundleProgressHandler progressHandler)
+            throws Exception {
+          return stageBundleFactory.getBundle(
+              outputReceiverFactory, stateRequestHandler, progressHandler);
+        }
+
+        @Override
+        public void close() throws Exception {
+          if (closed.compareAndSet(false, true)) {
+            release();
+          }
+        }
+      };
+    }
+
+    private void release() throws Exception {
+      synchronized (BatchFlinkExecutableStageContext.this) {
+        if (--references > 0) {
+          return;
+        }
+        stageBundleFactories.remove(executableStage);
+      }
+      stageBundleFactory.close();
+    }
+  }
+
   enum BatchFactory implements Factory {
     INSTANCE;
 
@@ -36,6 +36,9 @@ import org.apache.beam.sdk.util.WindowedValue;
 import org.apache.flink.api.common.functions.RichMapPartitionFunction;
 import org.apache.flink.api.common.functions.RuntimeContext;
 import org.apache.flink.configuration.Configuration;
+import org.apache.flink.metrics.Counter;
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MetricGroup;
 import org.apache.flink.util.Collector;
 
 /**
@@ -65,6 +68,9 @@ public class FlinkExecutableStageFunction<InputT>
   private transient StateRequestHandler stateRequestHandler;
   private transient StageBundleFactory<InputT> stageBundleFactory;
   private transient BundleProgressHandler progressHandler;
+  private transient Counter bundleCounter;
+  private transient Counter bundleElementCounter;
+  private transient volatile long lastBundleMillis;
 
   public FlinkExecutableStageFunction(
       RunnerApi.ExecutableStagePayload stagePayload,
@@ -89,6 +95,11 @@ public class FlinkExecutableStageFunction<InputT>
     stateRequestHandler = stageContext.getStateRequestHandler(executableStage, runtimeContext);
     stageBundleFactory = stageContext.getStageBundleFactory(executableStage);
     progressHandler = BundleProgressHandler.unsupported();
+
+    MetricGroup metricGroup = runtimeContext.getMetricGroup();
+    bundleCounter = metricGroup.counter("sdkHarnessBundles");
+    bundleElementCounter = metricGroup.counter("sdkHarnessBundleElements");
+    metricGroup.gauge("sdkHarnessBundleMillis", (Gauge<Long>) () -> lastBundleMillis);
   }
 
   @Override
@@ -103,16 +114,20 @@ public class FlinkExecutableStageFunction<InputT>
     checkState(
         stateRequestHandler != null, "%s not yet prepared", StateRequestHandler.class.getName());
 
+    long bundleStartTime = System.currentTimeMillis();
     try (RemoteBundle<InputT> bundle =
         stageBundleFactory.getBundle(
             new ReceiverFactory(collector, outputMap), stateRequestHandler, progressHandler)) {
       FnDataReceiver<WindowedValue<InputT>> receiver = bundle.getInputReceiver();
       for (WindowedValue<InputT> input : iterable) {
         receiver.accept(input);
+        bundleElementCounter.inc();
       }
     }
     // NOTE: RemoteBundle.close() blocks on completion of all data receivers. This is necessary to
     // safely reference the partition-scoped Collector from receivers.
+    lastBundleMillis = System.currentTimeMillis() - bundleStartTime;
+    bundleCounter.inc();
   }
 
   @Override
@@ -164,6 +164,8 @@ public class FlinkStatefulDoFnFunction<K, V, OutputT>
       InMemoryTimerInternals timerInternals, DoFnRunner<KV<K, V>, OutputT> runner)
       throws Exception {
 
+    // Timers are removed one at a time rather than with removeEligibleTimers(), since a timer
+    // callback may delete or reset another timer that is due.
     while (true) {
 
       TimerInternals.TimerData timer;
@@ -34,9 +34,17 @@ public class CoderTypeInformation<T> extends TypeInformation<T> implements Atomi
 
   private final Coder<T> coder;
 
+  /** Whether serializers skip deep copies, see {@link CoderTypeSerializer}. */
+  private final boolean fasterCopy;
+
   public CoderTypeInformation(Coder<T> coder) {
+    this(coder, false);
+  }
+
+  public CoderTypeInformation(Coder<T> coder, boolean fasterCopy) {
     checkNotNull(coder);
     this.coder = coder;
+    this.fasterCopy = fasterCopy;
   }
 
   public Coder<T> getCoder() {
@@ -73,7 +81,7 @@ public class CoderTypeInformation<T> extends TypeInformation<T> implements Atomi
   @Override
   @SuppressWarnings("unchecked")
   public TypeSerializer<T> createSerializer(ExecutionConfig config) {
-    return new CoderTypeSerializer<>(coder);
+    return new CoderTypeSerializer<>(coder, fasterCopy);
   }
 
   @Override
@@ -92,7 +100,7 @@ public class CoderTypeInformation<T> extends TypeInformation<T> implements Atomi
 
     CoderTypeInformation that = (CoderTypeInformation) o;
 
-    return coder.equals(that.coder);
+    return coder.equals(that.coder) && fasterCopy == that.fasterCopy;
 
   }
 
@@ -108,7 +116,7 @@ public class CoderTypeInformation<T> extends TypeInformation<T> implements Atomi
 
   @Override
   public String toString() {
-    return "CoderTypeInformation{coder=" + coder + '}';
+    return "CoderTypeInformation{coder=" + coder + ", fasterCopy=" + fasterCopy + '}';
   }
 
   @Override
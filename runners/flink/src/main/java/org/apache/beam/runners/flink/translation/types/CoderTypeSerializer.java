@@ -34,13 +34,25 @@ import org.apache.flink.core.memory.DataOutputView;
 /**
  * Flink {@link org.apache.flink.api.common.typeutils.TypeSerializer} for
  * Dataflow {@link org.apache.beam.sdk.coders.Coder Coders}.
+ *
+ * <p>If {@code fasterCopy} is set, {@link #copy(Object)} returns the value itself instead of a
+ * deep copy. Beam transforms must not modify their inputs, so values passed between chained
+ * operators do not need to be copied. Serializers of state must always copy, because accumulators
+ * are modified in place.
  */
 public class CoderTypeSerializer<T> extends TypeSerializer<T> {
 
   private Coder<T> coder;
 
+  private final boolean fasterCopy;
+
   public CoderTypeSerializer(Coder<T> coder) {
+    this(coder, false);
+  }
+
+  public CoderTypeSerializer(Coder<T> coder, boolean fasterCopy) {
     this.coder = coder;
+    this.fasterCopy = fasterCopy;
   }
 
   @Override
@@ -50,7 +62,7 @@ public class CoderTypeSerializer<T> extends TypeSerializer<T> {
 
   @Override
   public CoderTypeSerializer<T> duplicate() {
-    return new CoderTypeSerializer<>(coder);
+    return new CoderTypeSerializer<>(coder, fasterCopy);
   }
 
   @Override
@@ -60,6 +72,9 @@ public class CoderTypeSerializer<T> extends TypeSerializer<T> {
 
   @Override
   public T copy(T t) {
+    if (fasterCopy) {
+      return t;
+    }
     try {
       return CoderUtils.clone(coder, t);
     } catch (CoderException e) {
@@ -120,7 +135,7 @@ public class CoderTypeSerializer<T> extends TypeSerializer<T> {
     }
 
     CoderTypeSerializer that = (CoderTypeSerializer) o;
-    return coder.equals(that.coder);
+    return coder.equals(that.coder) && fasterCopy == that.fasterCopy;
   }
 
   @Override
@@ -205,6 +220,7 @@ public class CoderTypeSerializer<T> extends TypeSerializer<T> {
   public String toString() {
     return "CoderTypeSerializer{"
         + "coder=" + coder
+        + ", fasterCopy=" + fasterCopy
         + '}';
   }
 }
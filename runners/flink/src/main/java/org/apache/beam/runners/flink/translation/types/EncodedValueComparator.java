@@ -28,6 +28,11 @@ import org.apache.flink.core.memory.MemorySegment;
 /**
  * Flink {@link org.apache.flink.api.common.typeutils.TypeComparator} for Beam values that have
  * been encoded to byte data by a {@link Coder}.
+ *
+ * <p>Values are compared as unsigned bytes in lexicographic order, which is also the order of
+ * their normalized keys, so Flink can sort them in managed memory. If all values have the same
+ * length, as with keys encoded by an {@link OrderedKeyEncoder} for integers, a normalized key of
+ * that length determines the order on its own.
  */
 public class EncodedValueComparator extends TypeComparator<byte[]> {
 
@@ -36,8 +41,16 @@ public class EncodedValueComparator extends TypeComparator<byte[]> {
 
   private final boolean ascending;
 
+  /** The length of every value, or {@link OrderedKeyEncoder#VARIABLE_LENGTH}. */
+  private final int encodedLength;
+
   public EncodedValueComparator(boolean ascending) {
+    this(ascending, OrderedKeyEncoder.VARIABLE_LENGTH);
+  }
+
+  public EncodedValueComparator(boolean ascending, int encodedLength) {
     this.ascending = ascending;
+    this.encodedLength = encodedLength;
   }
 
   @Override
@@ -76,9 +89,8 @@ public class EncodedValueComparator extends TypeComparator<byte[]> {
         otherEncodedValueComparator.encodedReferenceKey.length);
 
     for (int i = 0; i < len; i++) {
-      byte b1 = encodedReferenceKey[i];
-      byte b2 = otherEncodedValueComparator.encodedReferenceKey[i];
-      int result = (b1 < b2 ? -1 : (b1 == b2 ? 0 : 1));
+      int result = compareUnsigned(
+          encodedReferenceKey[i], otherEncodedValueComparator.encodedReferenceKey[i]);
       if (result != 0) {
         return ascending ? -result : result;
       }
@@ -93,9 +105,7 @@ public class EncodedValueComparator extends TypeComparator<byte[]> {
   public int compare(byte[] first, byte[] second) {
     int len = Math.min(first.length, second.length);
     for (int i = 0; i < len; i++) {
-      byte b1 = first[i];
-      byte b2 = second[i];
-      int result = (b1 < b2 ? -1 : (b1 == b2 ? 0 : 1));
+      int result = compareUnsigned(first[i], second[i]);
       if (result != 0) {
         return ascending ? result : -result;
       }
@@ -113,9 +123,7 @@ public class EncodedValueComparator extends TypeComparator<byte[]> {
 
     int len = Math.min(lengthFirst, lengthSecond);
     for (int i = 0; i < len; i++) {
-      byte b1 = firstSource.readByte();
-      byte b2 = secondSource.readByte();
-      int result = (b1 < b2 ? -1 : (b1 == b2 ? 0 : 1));
+      int result = firstSource.readUnsignedByte() - secondSource.readUnsignedByte();
       if (result != 0) {
         return ascending ? result : -result;
       }
@@ -125,13 +133,17 @@ public class EncodedValueComparator extends TypeComparator<byte[]> {
     return ascending ? result : -result;
   }
 
-
+  /**
+   * Compares bytes as unsigned values, like {@link MemorySegment#compare} does for normalized
+   * keys.
+   */
+  private static int compareUnsigned(byte b1, byte b2) {
+    return (b1 & 0xff) - (b2 & 0xff);
+  }
 
   @Override
   public boolean supportsNormalizedKey() {
-    // disabled because this seems to not work with some coders,
-    // such as the AvroCoder
-    return false;
+    return true;
   }
 
   @Override
@@ -141,12 +153,12 @@ public class EncodedValueComparator extends TypeComparator<byte[]> {
 
   @Override
   public int getNormalizeKeyLen() {
-    return Integer.MAX_VALUE;
+    return encodedLength == OrderedKeyEncoder.VARIABLE_LENGTH ? Integer.MAX_VALUE : encodedLength;
   }
 
   @Override
   public boolean isNormalizedKeyPrefixOnly(int keyBytes) {
-    return true;
+    return encodedLength == OrderedKeyEncoder.VARIABLE_LENGTH || keyBytes < encodedLength;
   }
 
   @Override
@@ -155,7 +167,8 @@ public class EncodedValueComparator extends TypeComparator<byte[]> {
 
     target.put(offset, record, 0, Math.min(numBytes, record.length));
 
-    offset += record.length;
+    // Shorter values sort first, so padding with the smallest byte keeps the order.
+    offset += Math.min(numBytes, record.length);
 
     while (offset < limit) {
       target.put(offset++, (byte) 0);
@@ -179,7 +192,7 @@ public class EncodedValueComparator extends TypeComparator<byte[]> {
 
   @Override
   public TypeComparator<byte[]> duplicate() {
-    return new EncodedValueComparator(ascending);
+    return new EncodedValueComparator(ascending, encodedLength);
   }
 
   @Override
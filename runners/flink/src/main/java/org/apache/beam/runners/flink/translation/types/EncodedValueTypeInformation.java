@@ -34,6 +34,17 @@ public class EncodedValueTypeInformation
 
   private static final long serialVersionUID = 1L;
 
+  /** The length of every value, or {@link OrderedKeyEncoder#VARIABLE_LENGTH}. */
+  private final int encodedLength;
+
+  public EncodedValueTypeInformation() {
+    this(OrderedKeyEncoder.VARIABLE_LENGTH);
+  }
+
+  public EncodedValueTypeInformation(int encodedLength) {
+    this.encodedLength = encodedLength;
+  }
+
   @Override
   public boolean isBasicType() {
     return false;
@@ -71,12 +82,13 @@ public class EncodedValueTypeInformation
 
   @Override
   public boolean equals(Object other) {
-    return other instanceof EncodedValueTypeInformation;
+    return other instanceof EncodedValueTypeInformation
+        && ((EncodedValueTypeInformation) other).encodedLength == encodedLength;
   }
 
   @Override
   public int hashCode() {
-    return this.getClass().hashCode();
+    return 31 * this.getClass().hashCode() + encodedLength;
   }
 
   @Override
@@ -86,13 +98,13 @@ public class EncodedValueTypeInformation
 
   @Override
   public String toString() {
-    return "EncodedValueTypeInformation";
+    return "EncodedValueTypeInformation{encodedLength=" + encodedLength + '}';
   }
 
   @Override
   public TypeComparator<byte[]> createComparator(
       boolean sortOrderAscending,
       ExecutionConfig executionConfig) {
-    return new EncodedValueComparator(sortOrderAscending);
+    return new EncodedValueComparator(sortOrderAscending, encodedLength);
   }
 }
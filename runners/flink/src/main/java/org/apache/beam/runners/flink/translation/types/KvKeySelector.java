@@ -18,7 +18,6 @@
 package org.apache.beam.runners.flink.translation.types;
 
 import org.apache.beam.sdk.coders.Coder;
-import org.apache.beam.sdk.util.CoderUtils;
 import org.apache.beam.sdk.util.WindowedValue;
 import org.apache.beam.sdk.values.KV;
 import org.apache.flink.api.common.typeinfo.TypeInformation;
@@ -28,23 +27,26 @@ import org.apache.flink.api.java.typeutils.ResultTypeQueryable;
 /**
  * {@link KeySelector} that extracts the key from a {@link KV} and returns
  * it in encoded form as a {@code byte} array.
+ *
+ * <p>Keys are encoded with an {@link OrderedKeyEncoder}, so that Flink can sort and group them
+ * on their serialized form.
  */
 public class KvKeySelector<InputT, K>
     implements KeySelector<WindowedValue<KV<K, InputT>>, byte[]>, ResultTypeQueryable<byte[]> {
 
-  private final Coder<K> keyCoder;
+  private final OrderedKeyEncoder<K> keyEncoder;
 
   public KvKeySelector(Coder<K> keyCoder) {
-    this.keyCoder = keyCoder;
+    this.keyEncoder = OrderedKeyEncoder.of(keyCoder);
   }
 
   @Override
   public byte[] getKey(WindowedValue<KV<K, InputT>> value) throws Exception {
-    return CoderUtils.encodeToByteArray(keyCoder, value.getValue().getKey());
+    return keyEncoder.encode(value.getValue().getKey());
   }
 
   @Override
   public TypeInformation<byte[]> getProducedType() {
-    return new EncodedValueTypeInformation();
+    return new EncodedValueTypeInformation(keyEncoder.getEncodedLength());
   }
 }
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.flink.translation.types;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import org.apache.beam.sdk.coders.BigEndianIntegerCoder;
+import org.apache.beam.sdk.coders.BigEndianLongCoder;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderException;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.util.CoderUtils;
+
+/**
+ * Encodes keys to {@code byte} arrays that can be grouped and sorted by {@link
+ * EncodedValueComparator} without decoding them.
+ *
+ * <p>Keys of common coders are encoded such that the unsigned lexicographic order of the bytes
+ * matches the natural order of the keys, in the style of {@code OrderedCode}: integers are written
+ * big-endian with the sign bit flipped and strings as their UTF-8 bytes. Integer keys have a
+ * fixed length, so their normalized key is the whole key and the sorter never has to compare the
+ * records themselves. All other keys are encoded with their {@link Coder}, which groups them
+ * correctly but in no particular order.
+ *
+ * <p>Two keys have the same encoding if and only if they have the same encoding with their {@link
+ * Coder}, so grouping by the encoded bytes is unchanged.
+ */
+public abstract class OrderedKeyEncoder<K> implements Serializable {
+
+  /** Returned by {@link #getEncodedLength()} if encoded keys differ in length. */
+  public static final int VARIABLE_LENGTH = -1;
+
+  /** Returns an {@link OrderedKeyEncoder} for keys encoded with the given {@link Coder}. */
+  @SuppressWarnings("unchecked")
+  public static <K> OrderedKeyEncoder<K> of(Coder<K> keyCoder) {
+    Class<?> coderClass = keyCoder.getClass();
+    if (coderClass == VarLongCoder.class || coderClass == BigEndianLongCoder.class) {
+      return (OrderedKeyEncoder<K>) new LongKeyEncoder((Coder<Long>) keyCoder);
+    } else if (coderClass == VarIntCoder.class || coderClass == BigEndianIntegerCoder.class) {
+      return (OrderedKeyEncoder<K>) new IntegerKeyEncoder((Coder<Integer>) keyCoder);
+    } else if (coderClass == StringUtf8Coder.class) {
+      return (OrderedKeyEncoder<K>) new StringKeyEncoder((Coder<String>) keyCoder);
+    }
+    return new CoderKeyEncoder<>(keyCoder);
+  }
+
+  private final Coder<K> keyCoder;
+
+  private OrderedKeyEncoder(Coder<K> keyCoder) {
+    this.keyCoder = keyCoder;
+  }
+
+  Coder<K> getKeyCoder() {
+    return keyCoder;
+  }
+
+  /** Returns the encoding of the given key. */
+  public byte[] encode(K key) throws CoderException {
+    if (key == null) {
+      // Let the coder decide whether null keys are supported.
+      return CoderUtils.encodeToByteArray(keyCoder, null);
+    }
+    return encodeNonNull(key);
+  }
+
+  /** Returns the length of every encoded key, or {@link #VARIABLE_LENGTH}. */
+  public abstract int getEncodedLength();
+
+  abstract byte[] encodeNonNull(K key) throws CoderException;
+
+  private static class LongKeyEncoder extends OrderedKeyEncoder<Long> {
+    private LongKeyEncoder(Coder<Long> keyCoder) {
+      super(keyCoder);
+    }
+
+    @Override
+    public int getEncodedLength() {
+      return 8;
+    }
+
+    @Override
+    byte[] encodeNonNull(Long key) {
+      long value = key ^ Long.MIN_VALUE;
+      byte[] result = new byte[8];
+      for (int i = 7; i >= 0; i--) {
+        result[i] = (byte) value;
+        value >>>= 8;
+      }
+      return result;
+    }
+  }
+
+  private static class IntegerKeyEncoder extends OrderedKeyEncoder<Integer> {
+    private IntegerKeyEncoder(Coder<Integer> keyCoder) {
+      super(keyCoder);
+    }
+
+    @Override
+    public int getEncodedLength() {
+      return 4;
+    }
+
+    @Override
+    byte[] encodeNonNull(Integer key) {
+      int value = key ^ Integer.MIN_VALUE;
+      return new byte[] {
+        (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value
+      };
+    }
+  }
+
+  private static class StringKeyEncoder extends OrderedKeyEncoder<String> {
+    private StringKeyEncoder(Coder<String> keyCoder) {
+      super(keyCoder);
+    }
+
+    @Override
+    public int getEncodedLength() {
+      return VARIABLE_LENGTH;
+    }
+
+    @Override
+    byte[] encodeNonNull(String key) {
+      return key.getBytes(StandardCharsets.UTF_8);
+    }
+  }
+
+  private static class CoderKeyEncoder<K> extends OrderedKeyEncoder<K> {
+    private CoderKeyEncoder(Coder<K> keyCoder) {
+      super(keyCoder);
+    }
+
+    @Override
+    public int getEncodedLength() {
+      return VARIABLE_LENGTH;
+    }
+
+    @Override
+    byte[] encodeNonNull(K key) throws CoderException {
+      return CoderUtils.encodeToByteArray(getKeyCoder(), key);
+    }
+  }
+}
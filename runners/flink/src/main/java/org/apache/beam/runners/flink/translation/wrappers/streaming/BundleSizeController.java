@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.flink.translation.wrappers.streaming;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses the number of elements after which {@link DoFnOperator} finishes a bundle.
+ *
+ * <p>A fixed controller always returns the maximum bundle size. An adaptive controller starts at
+ * the minimum bundle size and measures the throughput of bundles that were finished because they
+ * were full, which are the bundles that a larger size could have made cheaper. After {@link
+ * #SAMPLES} of them, it doubles the size while the throughput improves and goes back to the
+ * previous size once it does not, so that larger sizes are probed again from time to time.
+ *
+ * <p>It halves the size when processing and finishing a bundle takes longer than the latency
+ * target, or when finishing the bundle for a checkpoint takes more than twice as long as it
+ * usually does, because that delays the checkpoint barrier.
+ *
+ * <p>Times are measured in nanoseconds, so that bundles which take less than a millisecond are
+ * compared by their actual cost.
+ */
+class BundleSizeController {
+
+  /** The number of full bundles over which throughput is measured. */
+  @VisibleForTesting static final int SAMPLES = 4;
+
+  /** The relative throughput improvement for which a larger size is kept. */
+  private static final double MIN_IMPROVEMENT = 1.05;
+
+  /** Checkpoint flushes shorter than this never shrink bundles. */
+  private static final long MIN_CHECKPOINT_FLUSH_NANOS = TimeUnit.MILLISECONDS.toNanos(10L);
+
+  static BundleSizeController fixed(long maxBundleSize) {
+    return new BundleSizeController(false, maxBundleSize, maxBundleSize, Long.MAX_VALUE);
+  }
+
+  static BundleSizeController adaptive(
+      long minBundleSize, long maxBundleSize, long targetLatencyMillis) {
+    checkArgument(
+        minBundleSize > 0 && minBundleSize <= maxBundleSize,
+        "The minimum bundle size must be positive and at most the maximum bundle size %s, "
+            + "but was %s.",
+        maxBundleSize,
+        minBundleSize);
+    return new BundleSizeController(true, minBundleSize, maxBundleSize, targetLatencyMillis);
+  }
+
+  private final boolean adaptive;
+  private final long minBundleSize;
+  private final long maxBundleSize;
+  private final long targetLatencyNanos;
+
+  private long bundleSize;
+
+  // the size before the last increase, and the throughput measured at it
+  private long previousBundleSize;
+  private double previousThroughput;
+
+  // the full bundles measured at the current size
+  private int samples;
+  private long sampledElements;
+  private long sampledNanos;
+
+  private double averageCheckpointFlushNanos = -1;
+
+  private BundleSizeController(
+      boolean adaptive, long minBundleSize, long maxBundleSize, long targetLatencyMillis) {
+    this.adaptive = adaptive;
+    this.minBundleSize = minBundleSize;
+    this.maxBundleSize = maxBundleSize;
+    this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+    this.bundleSize = minBundleSize;
+    this.previousBundleSize = minBundleSize;
+  }
+
+  /** Returns the number of elements after which to finish the current bundle. */
+  long getBundleSize() {
+    return bundleSize;
+  }
+
+  /**
+   * Records a finished bundle of the given number of elements, which took the given number of
+   * nanoseconds to process and finish. This must not include the time the bundle was waiting for
+   * input, which says nothing about the cost of the bundle.
+   */
+  void bundleFinished(long elements, long busyNanos) {
+    if (!adaptive) {
+      return;
+    }
+    if (busyNanos > targetLatencyNanos) {
+      shrink();
+    } else if (elements >= bundleSize) {
+      sample(elements, busyNanos);
+    }
+  }
+
+  /** Records how many nanoseconds finishing the bundle for a checkpoint took. */
+  void checkpointFlushed(long flushNanos) {
+    if (!adaptive) {
+      return;
+    }
+    if (averageCheckpointFlushNanos >= 0
+        && flushNanos >= MIN_CHECKPOINT_FLUSH_NANOS
+        && flushNanos > 2 * averageCheckpointFlushNanos) {
+      shrink();
+    }
+    averageCheckpointFlushNanos =
+        averageCheckpointFlushNanos < 0
+            ? flushNanos
+            : 0.8 * averageCheckpointFlushNanos + 0.2 * flushNanos;
+  }
+
+  private void sample(long elements, long busyNanos) {
+    samples++;
+    sampledElements += elements;
+    sampledNanos += busyNanos;
+    if (samples < SAMPLES) {
+      return;
+    }
+
+    double throughput = (double) sampledElements / Math.max(1L, sampledNanos);
+    if (bundleSize > previousBundleSize && throughput < previousThroughput * MIN_IMPROVEMENT) {
+      // the last increase did not pay off
+      setBundleSize(previousBundleSize);
+    } else if (bundleSize < maxBundleSize) {
+      previousBundleSize = bundleSize;
+      setBundleSize(Math.min(maxBundleSize, 2 * bundleSize));
+    } else {
+      resetSamples();
+    }
+    previousThroughput = throughput;
+  }
+
+  private void shrink() {
+    long shrunk = Math.max(minBundleSize, bundleSize / 2);
+    previousBundleSize = shrunk;
+    previousThroughput = 0;
+    setBundleSize(shrunk);
+  }
+
+  private void setBundleSize(long bundleSize) {
+    this.bundleSize = bundleSize;
+    resetSamples();
+  }
+
+  private void resetSamples() {
+    samples = 0;
+    sampledElements = 0L;
+    sampledNanos = 0L;
+  }
+}
@@ -21,20 +21,20 @@ import static org.apache.flink.util.Preconditions.checkArgument;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Iterables;
+import com.google.common.io.BaseEncoding;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ScheduledFuture;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import javax.annotation.Nullable;
 import org.apache.beam.runners.core.DoFnRunner;
 import org.apache.beam.runners.core.DoFnRunners;
@@ -64,6 +64,7 @@ import org.apache.beam.runners.flink.translation.wrappers.streaming.state.FlinkK
 import org.apache.beam.runners.flink.translation.wrappers.streaming.state.FlinkSplitStateInternals;
 import org.apache.beam.runners.flink.translation.wrappers.streaming.state.FlinkStateInternals;
 import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderException;
 import org.apache.beam.sdk.coders.StructuredCoder;
 import org.apache.beam.sdk.coders.VarIntCoder;
 import org.apache.beam.sdk.io.FileSystems;
@@ -75,6 +76,7 @@ import org.apache.beam.sdk.transforms.join.RawUnionValue;
 import org.apache.beam.sdk.transforms.reflect.DoFnInvoker;
 import org.apache.beam.sdk.transforms.reflect.DoFnInvokers;
 import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.util.CoderUtils;
 import org.apache.beam.sdk.util.WindowedValue;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollectionView;
@@ -83,6 +85,7 @@ import org.apache.beam.sdk.values.WindowingStrategy;
 import org.apache.flink.api.common.state.ListState;
 import org.apache.flink.api.common.state.ListStateDescriptor;
 import org.apache.flink.api.java.functions.KeySelector;
+import org.apache.flink.metrics.Gauge;
 import org.apache.flink.runtime.state.KeyedStateBackend;
 import org.apache.flink.runtime.state.StateInitializationContext;
 import org.apache.flink.runtime.state.StateSnapshotContext;
@@ -160,6 +163,10 @@ public class DoFnOperator<InputT, OutputT>
 
   private final long maxBundleTimeMills;
 
+  private final boolean adaptiveBundleSize;
+
+  private final long minBundleSize;
+
   protected transient InternalTimerService<TimerData> timerService;
 
   protected transient FlinkTimerInternals timerInternals;
@@ -170,10 +177,20 @@ public class DoFnOperator<InputT, OutputT>
 
   private transient PushedBackElementsHandler<WindowedValue<InputT>> pushedBackElementsHandler;
 
+  /** The pushed-back elements, by the side input window they are waiting on. */
+  private transient Map<String, PushedBackElements> pushedBackElements;
+
+  // read by the metric gauges
+  private transient volatile long pushedBackElementCount;
+  private transient volatile long oldestPushedBackTime;
+
   // bundle control
   private transient boolean bundleStarted = false;
   private transient long elementCount;
+  // the time spent processing the current bundle, excluding the time waiting for input
+  private transient long bundleBusyNanos;
   private transient long lastFinishBundleTime;
+  private transient BundleSizeController bundleSizeController;
   private transient ScheduledFuture<?> checkFinishBundleTimer;
 
   public DoFnOperator(
@@ -212,6 +229,8 @@ public class DoFnOperator<InputT, OutputT>
 
     this.maxBundleSize = flinkOptions.getMaxBundleSize();
     this.maxBundleTimeMills = flinkOptions.getMaxBundleTimeMills();
+    this.adaptiveBundleSize = flinkOptions.getAdaptiveBundleSize();
+    this.minBundleSize = Math.min(flinkOptions.getMinBundleSize(), maxBundleSize);
   }
 
   // allow overriding this in WindowDoFnOperator because this one dynamically creates
@@ -280,6 +299,7 @@ public class DoFnOperator<InputT, OutputT>
       pushedBackElementsHandler = KeyedPushedBackElementsHandler.create(
           keySelector,
           getKeyedStateBackend(),
+          getOperatorStateBackend(),
           pushedBackStateDescriptor);
     } else {
       ListState<WindowedValue<InputT>> listState = getOperatorStateBackend()
@@ -315,11 +335,24 @@ public class DoFnOperator<InputT, OutputT>
       sideInputHandler = new SideInputHandler(sideInputs, sideInputStateInternals);
       sideInputReader = sideInputHandler;
 
-      Stream<WindowedValue<InputT>> pushedBack = pushedBackElementsHandler.getElements();
-      long min = pushedBack
-          .map(v -> v.getTimestamp().getMillis())
-          .reduce(Long.MAX_VALUE, Math::min);
-      setPushedBackWatermark(min);
+      pushedBackElements = new HashMap<>();
+      setPushedBackWatermark(Long.MAX_VALUE);
+      oldestPushedBackTime = Long.MAX_VALUE;
+      List<WindowedValue<InputT>> unindexed =
+          pushedBackElementsHandler.removeElements(PushedBackElementsHandler.UNINDEXED);
+      for (String waitingOn : pushedBackElementsHandler.getWaitingOn()) {
+        Iterator<WindowedValue<InputT>> it =
+            pushedBackElementsHandler.getElements(waitingOn).iterator();
+        while (it.hasNext()) {
+          recordPushBack(waitingOn, it.next());
+        }
+      }
+      for (WindowedValue<InputT> element : unindexed) {
+        pushBack(element);
+      }
+
+      getMetricGroup().gauge("pushedBackElements", (Gauge<Long>) () -> pushedBackElementCount);
+      getMetricGroup().gauge("pushedBackWaitMillis", (Gauge<Long>) this::getPushedBackWaitMillis);
     } else {
       setPushedBackWatermark(Long.MAX_VALUE);
     }
@@ -366,7 +399,13 @@ public class DoFnOperator<InputT, OutputT>
     }
 
     elementCount = 0L;
+    bundleBusyNanos = 0L;
     lastFinishBundleTime = getProcessingTimeService().getCurrentProcessingTime();
+    bundleSizeController =
+        adaptiveBundleSize
+            ? BundleSizeController.adaptive(minBundleSize, maxBundleSize, maxBundleTimeMills)
+            : BundleSizeController.fixed(maxBundleSize);
+    getMetricGroup().gauge("bundleSize", (Gauge<Long>) () -> bundleSizeController.getBundleSize());
 
     // Schedule timer to check timeout of finish bundle.
     long bundleCheckPeriod = (maxBundleTimeMills + 1) / 2;
@@ -452,7 +491,9 @@ public class DoFnOperator<InputT, OutputT>
   public final void processElement(
       StreamRecord<WindowedValue<InputT>> streamRecord) throws Exception {
     checkInvokeStartBundle();
+    long startNanos = System.nanoTime();
     doFnRunner.processElement(streamRecord.getValue());
+    addBusyTime(startNanos);
     checkInvokeFinishBundleByCount();
   }
 
@@ -464,15 +505,14 @@ public class DoFnOperator<InputT, OutputT>
   public final void processElement1(
       StreamRecord<WindowedValue<InputT>> streamRecord) throws Exception {
     checkInvokeStartBundle();
+    long startNanos = System.nanoTime();
     Iterable<WindowedValue<InputT>> justPushedBack =
         pushbackDoFnRunner.processElementInReadyWindows(streamRecord.getValue());
 
-    long min = pushedBackWatermark;
     for (WindowedValue<InputT> pushedBackValue : justPushedBack) {
-      min = Math.min(min, pushedBackValue.getTimestamp().getMillis());
-      pushedBackElementsHandler.pushBack(pushedBackValue);
+      pushBack(pushedBackValue);
     }
-    setPushedBackWatermark(min);
+    addBusyTime(startNanos);
 
     checkInvokeFinishBundleByCount();
   }
@@ -494,28 +534,26 @@ public class DoFnOperator<InputT, OutputT>
     PCollectionView<?> sideInput = sideInputTagMapping.get(streamRecord.getValue().getUnionTag());
     sideInputHandler.addSideInputValue(sideInput, value);
 
-    List<WindowedValue<InputT>> newPushedBack = new ArrayList<>();
-
-    Iterator<WindowedValue<InputT>> it = pushedBackElementsHandler.getElements().iterator();
+    // only retry the elements that were waiting on the windows of the new side input value
+    List<WindowedValue<InputT>> retried =
+        new ArrayList<>(removePushedBack(PushedBackElementsHandler.UNINDEXED));
+    for (BoundedWindow window : value.getWindows()) {
+      retried.addAll(removePushedBack(getWaitingOn(sideInput, window)));
+    }
 
-    while (it.hasNext()) {
-      WindowedValue<InputT> element = it.next();
+    long startNanos = System.nanoTime();
+    for (WindowedValue<InputT> element : retried) {
       // we need to set the correct key in case the operator is
       // a (keyed) window operator
       setKeyContextElement1(new StreamRecord<>(element));
 
-      Iterable<WindowedValue<InputT>> justPushedBack =
-          pushbackDoFnRunner.processElementInReadyWindows(element);
-      Iterables.addAll(newPushedBack, justPushedBack);
-    }
-
-    pushedBackElementsHandler.clear();
-    long min = Long.MAX_VALUE;
-    for (WindowedValue<InputT> pushedBackValue : newPushedBack) {
-      min = Math.min(min, pushedBackValue.getTimestamp().getMillis());
-      pushedBackElementsHandler.pushBack(pushedBackValue);
+      for (WindowedValue<InputT> pushedBackValue :
+          pushbackDoFnRunner.processElementInReadyWindows(element)) {
+        pushBack(pushedBackValue);
+      }
     }
-    setPushedBackWatermark(min);
+    updatePushedBackWatermark();
+    addBusyTime(startNanos);
 
     checkInvokeFinishBundleByCount();
 
@@ -624,11 +662,103 @@ public class DoFnOperator<InputT, OutputT>
     }
 
     pushedBackElementsHandler.clear();
+    pushedBackElements.clear();
+    pushedBackElementCount = 0;
+    oldestPushedBackTime = Long.MAX_VALUE;
 
     setPushedBackWatermark(Long.MAX_VALUE);
 
   }
 
+  /**
+   * Pushes back the given element, indexed by the first side input window that it is waiting on.
+   */
+  private void pushBack(WindowedValue<InputT> element) throws Exception {
+    String waitingOn = getWaitingOn(element);
+    pushedBackElementsHandler.pushBack(waitingOn, element);
+    recordPushBack(waitingOn, element);
+  }
+
+  private void recordPushBack(String waitingOn, WindowedValue<InputT> element) {
+    long now = getProcessingTimeService().getCurrentProcessingTime();
+    PushedBackElements stats =
+        pushedBackElements.computeIfAbsent(waitingOn, k -> new PushedBackElements(now));
+    stats.minTimestamp = Math.min(stats.minTimestamp, element.getTimestamp().getMillis());
+
+    pushedBackElementCount++;
+    oldestPushedBackTime = Math.min(oldestPushedBackTime, stats.firstPushBackTime);
+    setPushedBackWatermark(Math.min(pushedBackWatermark, stats.minTimestamp));
+  }
+
+  /**
+   * Removes the elements that were waiting on the given side input window. The pushback watermark
+   * hold is kept until {@link #updatePushedBackWatermark()}, so that the removed elements are not
+   * late when they are retried.
+   */
+  private List<WindowedValue<InputT>> removePushedBack(String waitingOn) throws Exception {
+    if (pushedBackElements.remove(waitingOn) == null) {
+      return Collections.emptyList();
+    }
+    List<WindowedValue<InputT>> removed = pushedBackElementsHandler.removeElements(waitingOn);
+    pushedBackElementCount -= removed.size();
+    return removed;
+  }
+
+  /** Recomputes the pushback watermark hold from the elements that are still pushed back. */
+  private void updatePushedBackWatermark() {
+    long minTimestamp = Long.MAX_VALUE;
+    long firstPushBackTime = Long.MAX_VALUE;
+    for (PushedBackElements stats : pushedBackElements.values()) {
+      minTimestamp = Math.min(minTimestamp, stats.minTimestamp);
+      firstPushBackTime = Math.min(firstPushBackTime, stats.firstPushBackTime);
+    }
+    oldestPushedBackTime = firstPushBackTime;
+    setPushedBackWatermark(minTimestamp);
+  }
+
+  private String getWaitingOn(WindowedValue<InputT> element) throws CoderException {
+    // the ProcessFn pushes back work items that are not waiting on their own (global) window
+    if (!(doFn instanceof SplittableParDoViaKeyedWorkItems.ProcessFn)) {
+      for (BoundedWindow window : element.getWindows()) {
+        for (PCollectionView<?> view : sideInputs) {
+          BoundedWindow sideInputWindow = view.getWindowMappingFn().getSideInputWindow(window);
+          if (!sideInputHandler.isReady(view, sideInputWindow)) {
+            return getWaitingOn(view, sideInputWindow);
+          }
+        }
+      }
+    }
+    // retried whenever any side input arrives
+    return PushedBackElementsHandler.UNINDEXED;
+  }
+
+  private static String getWaitingOn(PCollectionView<?> view, BoundedWindow sideInputWindow)
+      throws CoderException {
+    @SuppressWarnings("unchecked")
+    Coder<BoundedWindow> windowCoder =
+        (Coder<BoundedWindow>) view.getWindowingStrategyInternal().getWindowFn().windowCoder();
+    return view.getTagInternal().getId()
+        + "/"
+        + BaseEncoding.base64().encode(CoderUtils.encodeToByteArray(windowCoder, sideInputWindow));
+  }
+
+  private long getPushedBackWaitMillis() {
+    long oldest = oldestPushedBackTime;
+    return oldest == Long.MAX_VALUE
+        ? 0L
+        : getProcessingTimeService().getCurrentProcessingTime() - oldest;
+  }
+
+  /** Bookkeeping of the pushed-back elements that wait on the same side input window. */
+  private static class PushedBackElements {
+    private final long firstPushBackTime;
+    private long minTimestamp = Long.MAX_VALUE;
+
+    private PushedBackElements(long firstPushBackTime) {
+      this.firstPushBackTime = firstPushBackTime;
+    }
+  }
+
   /**
    * Check whether invoke startBundle, if it is, need to output elements that were
    * buffered as part of finishing a bundle in snapshot() first.
@@ -647,12 +777,16 @@ public class DoFnOperator<InputT, OutputT>
     }
   }
 
+  private void addBusyTime(long startNanos) {
+    bundleBusyNanos += System.nanoTime() - startNanos;
+  }
+
   /**
    * Check whether invoke finishBundle by elements count. Called in processElement.
    */
   private void checkInvokeFinishBundleByCount() {
     elementCount++;
-    if (elementCount >= maxBundleSize) {
+    if (elementCount >= bundleSizeController.getBundleSize()) {
       invokeFinishBundle();
     }
   }
@@ -669,10 +803,19 @@ public class DoFnOperator<InputT, OutputT>
 
   private void invokeFinishBundle() {
     if (bundleStarted) {
+      long startNanos = System.nanoTime();
       pushbackDoFnRunner.finishBundle();
+      addBusyTime(startNanos);
       bundleStarted = false;
-      elementCount = 0L;
       lastFinishBundleTime = getProcessingTimeService().getCurrentProcessingTime();
+      // only the time spent on the bundle, a bundle that waited for input is not too large
+      bundleSizeController.bundleFinished(elementCount, bundleBusyNanos);
+      elementCount = 0L;
+      bundleBusyNanos = 0L;
+    }
+    if (keyedStateInternals != null) {
+      // Write back the accumulators of combining states, also before each checkpoint.
+      keyedStateInternals.flush();
     }
   }
 
@@ -683,9 +826,13 @@ public class DoFnOperator<InputT, OutputT>
     // Careful, it use OperatorState or KeyGroupState to store outputs, So it
     // must be called before their snapshot.
     outputManager.openBuffer();
+    long flushStartNanos = System.nanoTime();
     invokeFinishBundle();
+    bundleSizeController.checkpointFlushed(System.nanoTime() - flushStartNanos);
     outputManager.closeBuffer();
 
+    pushedBackElementsHandler.prepareSnapshot();
+
     super.snapshotState(context);
   }
 
@@ -693,13 +840,17 @@ public class DoFnOperator<InputT, OutputT>
   public void onEventTime(InternalTimer<Object, TimerData> timer) throws Exception {
     // We don't have to cal checkInvokeStartBundle() because it's already called in
     // processWatermark*().
+    long startNanos = System.nanoTime();
     fireTimer(timer);
+    addBusyTime(startNanos);
   }
 
   @Override
   public void onProcessingTime(InternalTimer<Object, TimerData> timer) throws Exception {
     checkInvokeStartBundle();
+    long startNanos = System.nanoTime();
     fireTimer(timer);
+    addBusyTime(startNanos);
   }
 
   // allow overriding this in WindowDoFnOperator
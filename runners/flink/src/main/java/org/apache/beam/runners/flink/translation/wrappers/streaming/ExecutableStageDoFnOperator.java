@@ -19,12 +19,19 @@ package org.apache.beam.runners.flink.translation.wrappers.streaming;
 
 import static org.apache.flink.util.Preconditions.checkState;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
 import java.util.logging.Logger;
-import javax.annotation.concurrent.GuardedBy;
 import org.apache.beam.model.pipeline.v1.RunnerApi;
 import org.apache.beam.runners.core.DoFnRunner;
 import org.apache.beam.runners.core.construction.graph.ExecutableStage;
@@ -40,12 +47,16 @@ import org.apache.beam.sdk.fn.data.FnDataReceiver;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.state.TimeDomain;
 import org.apache.beam.sdk.transforms.DoFn;
-import org.apache.beam.sdk.transforms.join.RawUnionValue;
 import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
 import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollectionView;
 import org.apache.beam.sdk.values.TupleTag;
 import org.apache.beam.sdk.values.WindowingStrategy;
+import org.apache.flink.metrics.Counter;
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.runtime.state.StateSnapshotContext;
+import org.apache.flink.streaming.api.watermark.Watermark;
 import org.joda.time.Instant;
 
 /**
@@ -55,17 +66,28 @@ import org.joda.time.Instant;
  * TODO: Evaluate reuse
  * All operators in the non-portable streaming translation are based on {@link DoFnOperator}.
  * This implies dependency on {@link DoFnRunner}, which is not required for portable pipeline.
- * TODO: Multiple element bundle execution
- * The operator (like old non-portable runner) executes every element as separate bundle,
- * which will be even more expensive with SDK harness container.
- * Refactor for above should be looked into once streaming side inputs (and push back) take
- * shape.
+ *
+ * <p>The elements of a bundle of the operator are sent to the SDK harness as one remote bundle.
+ * When a bundle finishes, its remote bundle is closed in the background while the next one is
+ * already started, so that the operator does not wait for the SDK harness between bundles. At most
+ * one remote bundle is closing at a time. Outputs are emitted from the operator thread, and all
+ * remote bundles are complete before a watermark is forwarded or a checkpoint is taken.
+ *
+ * <p>Outputs are handed to the operator thread without ever blocking the data plane, whose
+ * threads are shared by all stages of the job, so that a slow stage cannot stall the others. The
+ * outputs waiting for the operator thread are instead bounded per bundle: they belong to at most
+ * the open and the closing remote bundle, whose sizes are bounded by the bundle size. They are
+ * emitted for each input element, while waiting for a remote bundle to close, and periodically in
+ * processing time in between.
  */
 public class ExecutableStageDoFnOperator<InputT, OutputT> extends DoFnOperator<InputT, OutputT> {
 
   private static final Logger logger =
           Logger.getLogger(ExecutableStageDoFnOperator.class.getName());
 
+  /** How often queued outputs are emitted when no elements arrive. */
+  private static final long OUTPUT_DRAIN_PERIOD_MILLIS = 100L;
+
   private final RunnerApi.ExecutableStagePayload payload;
   private final JobInfo jobInfo;
   private final FlinkExecutableStageContext.Factory contextFactory;
@@ -74,6 +96,17 @@ public class ExecutableStageDoFnOperator<InputT, OutputT> extends DoFnOperator<I
   private transient StateRequestHandler stateRequestHandler;
   private transient BundleProgressHandler progressHandler;
   private transient StageBundleFactory stageBundleFactory;
+  private transient ReceiverFactory receiverFactory;
+  private transient ScheduledFuture<?> outputDrainTimer;
+
+  private transient ExecutorService bundleCloser;
+  private transient RemoteBundle<InputT> remoteBundle;
+  private transient long remoteBundleStartTime;
+  private transient FutureTask<Void> closingBundle;
+
+  private transient Counter bundleCounter;
+  private transient Counter bundleElementCounter;
+  private transient volatile long lastBundleMillis;
 
   public ExecutableStageDoFnOperator(String stepName,
                                      Coder<WindowedValue<InputT>> inputCoder,
@@ -126,27 +159,129 @@ public class ExecutableStageDoFnOperator<InputT, OutputT> extends DoFnOperator<I
     stateRequestHandler = stageContext.getStateRequestHandler(executableStage, getRuntimeContext());
     stageBundleFactory = stageContext.getStageBundleFactory(executableStage);
     progressHandler = BundleProgressHandler.unsupported();
+    receiverFactory = new ReceiverFactory(outputMap);
+    outputDrainTimer =
+        getProcessingTimeService()
+            .scheduleAtFixedRate(
+                timestamp -> receiverFactory.emit(outputManager),
+                OUTPUT_DRAIN_PERIOD_MILLIS,
+                OUTPUT_DRAIN_PERIOD_MILLIS);
+
+    bundleCloser =
+        Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("sdk-harness-bundle-closer-%d")
+                .setDaemon(true)
+                .build());
+
+    bundleCounter = getMetricGroup().counter("sdkHarnessBundles");
+    bundleElementCounter = getMetricGroup().counter("sdkHarnessBundleElements");
+    getMetricGroup().gauge("sdkHarnessBundleMillis", (Gauge<Long>) () -> lastBundleMillis);
   }
 
-  // TODO: currently assumes that every element is a separate bundle,
-  // but this can be changed by pushing some of this logic into the "DoFnRunner"
   private void processElementWithSdkHarness(WindowedValue<InputT> element) throws Exception {
     checkState(stageBundleFactory != null, "%s not yet prepared",
             StageBundleFactory.class.getName());
     checkState(stateRequestHandler != null, "%s not yet prepared",
             StateRequestHandler.class.getName());
 
-    try (RemoteBundle<InputT> bundle =
-        stageBundleFactory.getBundle(
-            new ReceiverFactory(outputManager, outputMap), stateRequestHandler, progressHandler)) {
-      logger.finer(String.format("Sending value: %s", element));
-      bundle.getInputReceiver().accept(element);
+    if (remoteBundle == null) {
+      remoteBundle =
+          stageBundleFactory.getBundle(receiverFactory, stateRequestHandler, progressHandler);
+      remoteBundleStartTime = System.currentTimeMillis();
+    }
+    logger.finer(String.format("Sending value: %s", element));
+    remoteBundle.getInputReceiver().accept(element);
+    bundleElementCounter.inc();
+    receiverFactory.emit(outputManager);
+  }
+
+  /**
+   * Closes the current remote bundle in the background, once the previous one has been closed.
+   */
+  private void finishRemoteBundle() {
+    awaitClosingBundle();
+    if (remoteBundle != null) {
+      RemoteBundle<InputT> bundle = remoteBundle;
+      long bundleStartTime = remoteBundleStartTime;
+      remoteBundle = null;
+      closingBundle =
+          new FutureTask<Void>(
+              () -> {
+                // NOTE: RemoteBundle.close() blocks on completion of all data receivers.
+                bundle.close();
+                lastBundleMillis = System.currentTimeMillis() - bundleStartTime;
+                bundleCounter.inc();
+                return null;
+              }) {
+            @Override
+            protected void done() {
+              // called once the task is done, so the operator thread sees it done when woken up
+              receiverFactory.wakeUp();
+            }
+          };
+      bundleCloser.execute(closingBundle);
+    }
+  }
+
+  /**
+   * Waits until the closing remote bundle is complete and emits its outputs. The outputs are
+   * emitted as they arrive while waiting, so that they are not all held until the bundle is done.
+   */
+  private void awaitClosingBundle() {
+    if (closingBundle != null) {
+      FutureTask<Void> bundle = closingBundle;
+      closingBundle = null;
+      try {
+        while (!bundle.isDone()) {
+          receiverFactory.awaitAndEmit(outputManager);
+        }
+        bundle.get();
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      } finally {
+        receiverFactory.emit(outputManager);
+      }
     }
   }
 
+  /** Completes all remote bundles. */
+  private void awaitRemoteBundles() {
+    finishRemoteBundle();
+    awaitClosingBundle();
+  }
+
+  @Override
+  public void processWatermark1(Watermark mark) throws Exception {
+    // the outputs of all remote bundles must be emitted before the watermark
+    awaitRemoteBundles();
+    super.processWatermark1(mark);
+  }
+
+  @Override
+  public void snapshotState(StateSnapshotContext context) throws Exception {
+    // buffer the outputs of all remote bundles, like those of finishing a bundle for a checkpoint
+    outputManager.openBuffer();
+    try {
+      awaitRemoteBundles();
+    } finally {
+      outputManager.closeBuffer();
+    }
+    super.snapshotState(context);
+  }
+
   @Override
   public void close() throws Exception {
-    try (AutoCloseable bundleFactoryCloser = stageBundleFactory) {}
+    try {
+      awaitRemoteBundles();
+    } finally {
+      outputDrainTimer.cancel(true);
+      bundleCloser.shutdownNow();
+      try (AutoCloseable bundleFactoryCloser = stageBundleFactory) {}
+    }
     super.close();
   }
 
@@ -176,7 +311,9 @@ public class ExecutableStageDoFnOperator<InputT, OutputT> extends DoFnOperator<I
     }
 
     @Override
-    public void finishBundle() {}
+    public void finishBundle() {
+      finishRemoteBundle();
+    }
 
     @Override
     public DoFn<InputT, OutputT> getFn() {
@@ -190,30 +327,58 @@ public class ExecutableStageDoFnOperator<InputT, OutputT> extends DoFnOperator<I
   }
 
   /**
-   * Receiver factory that wraps outgoing elements with the corresponding union tag for a
-   * multiplexed PCollection.
+   * Receiver factory that tags outgoing elements with the output they belong to. The elements are
+   * received on the threads of the data plane and queued until the operator thread emits them.
+   * Queueing never blocks the threads of the data plane.
    */
   private static class ReceiverFactory implements OutputReceiverFactory {
 
-    private final Object collectorLock = new Object();
+    /** Queued to wake up the operator thread when a remote bundle is closed. */
+    private static final KV<TupleTag<?>, WindowedValue<?>> WAKE_UP = KV.of(null, null);
 
-    @GuardedBy("collectorLock")
-    private final BufferedOutputManager<RawUnionValue> collector;
+    private final BlockingQueue<KV<TupleTag<?>, WindowedValue<?>>> outputs =
+        new LinkedBlockingQueue<>();
 
     private final Map<String, TupleTag<?>> outputMap;
 
-    ReceiverFactory(BufferedOutputManager collector, Map<String, TupleTag<?>> outputMap) {
-      this.collector = collector;
+    ReceiverFactory(Map<String, TupleTag<?>> outputMap) {
       this.outputMap = outputMap;
     }
 
     @Override
     public <OutputT> FnDataReceiver<OutputT> create(String collectionId) {
-      return (receivedElement) -> {
-        synchronized (collectorLock) {
-          collector.output(outputMap.get(collectionId), (WindowedValue) receivedElement);
-        }
-      };
+      TupleTag<?> tag = outputMap.get(collectionId);
+      return (receivedElement) -> outputs.add(KV.of(tag, (WindowedValue<?>) receivedElement));
+    }
+
+    /** Wakes up the operator thread if it is waiting in {@link #awaitAndEmit}. */
+    void wakeUp() {
+      outputs.add(WAKE_UP);
+    }
+
+    /** Emits the outputs received so far. Must be called from the operator thread. */
+    void emit(BufferedOutputManager<?> outputManager) {
+      KV<TupleTag<?>, WindowedValue<?>> output;
+      while ((output = outputs.poll()) != null) {
+        emit(output, outputManager);
+      }
+    }
+
+    /**
+     * Waits for the next output or wake up, and emits it with any further outputs received so
+     * far. Must be called from the operator thread.
+     */
+    void awaitAndEmit(BufferedOutputManager<?> outputManager) throws InterruptedException {
+      emit(outputs.take(), outputManager);
+      emit(outputManager);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void emit(
+        KV<TupleTag<?>, WindowedValue<?>> output, BufferedOutputManager<?> outputManager) {
+      if (output != WAKE_UP) {
+        outputManager.output((TupleTag) output.getKey(), (WindowedValue) output.getValue());
+      }
     }
   }
 
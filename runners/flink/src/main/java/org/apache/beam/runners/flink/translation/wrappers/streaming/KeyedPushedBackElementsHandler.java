@@ -17,14 +17,25 @@
  */
 package org.apache.beam.runners.flink.translation.wrappers.streaming;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 import org.apache.flink.api.common.state.ListState;
 import org.apache.flink.api.common.state.ListStateDescriptor;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+import org.apache.flink.api.common.typeutils.base.StringSerializer;
 import org.apache.flink.api.java.functions.KeySelector;
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.api.java.typeutils.runtime.TupleSerializer;
+import org.apache.flink.runtime.state.KeyGroupRangeAssignment;
 import org.apache.flink.runtime.state.KeyedStateBackend;
+import org.apache.flink.runtime.state.OperatorStateBackend;
 import org.apache.flink.runtime.state.VoidNamespace;
 import org.apache.flink.runtime.state.VoidNamespaceSerializer;
 
@@ -32,39 +43,74 @@ import org.apache.flink.runtime.state.VoidNamespaceSerializer;
  * {@link PushedBackElementsHandler} that stores elements in Flink keyed state, for use when an
  * operation is keyed and pushed-back data needs to stay in the correct partition when they get
  * moved.
+ *
+ * <p>The elements of each key are stored in a list in the namespace of what they are waiting on,
+ * so that they stay in the state backend, which may spill them to disk, until they are removed.
+ * The keys that have elements in each namespace are indexed in memory, so that reading or
+ * removing the elements of one namespace only visits its own keys rather than every entry of the
+ * state. The index is written to union operator state before each snapshot, and each parallel
+ * instance keeps the keys of its own key groups when it is restored.
  */
 class KeyedPushedBackElementsHandler<K, T> implements PushedBackElementsHandler<T> {
 
   static <K, T> KeyedPushedBackElementsHandler<K, T> create(
       KeySelector<T, K> keySelector,
       KeyedStateBackend<K> backend,
-      ListStateDescriptor<T> stateDescriptor) {
-    return new KeyedPushedBackElementsHandler<>(keySelector, backend, stateDescriptor);
+      OperatorStateBackend operatorBackend,
+      ListStateDescriptor<T> stateDescriptor) throws Exception {
+    KeyedPushedBackElementsHandler<K, T> handler =
+        new KeyedPushedBackElementsHandler<>(
+            keySelector, backend, operatorBackend, stateDescriptor);
+    handler.restoreKeysWaitingOn();
+    handler.migrateUnindexedElements(stateDescriptor);
+    return handler;
   }
 
   private final KeySelector<T, K> keySelector;
   private final KeyedStateBackend<K> backend;
   private final ListStateDescriptor<T> stateDescriptor;
+  private final ListState<Tuple2<String, K>> keysWaitingOnState;
+  private final Map<String, Set<K>> keysWaitingOn = new HashMap<>();
 
+  @SuppressWarnings("unchecked")
   private KeyedPushedBackElementsHandler(
       KeySelector<T, K> keySelector,
       KeyedStateBackend<K> backend,
-      ListStateDescriptor<T> stateDescriptor) {
+      OperatorStateBackend operatorBackend,
+      ListStateDescriptor<T> stateDescriptor) throws Exception {
     this.keySelector = keySelector;
     this.backend = backend;
-    this.stateDescriptor = stateDescriptor;
+    this.stateDescriptor =
+        new ListStateDescriptor<>(
+            stateDescriptor.getName() + "-by-waiting-on", stateDescriptor.getElementSerializer());
+    this.keysWaitingOnState =
+        operatorBackend.getUnionListState(
+            new ListStateDescriptor<>(
+                stateDescriptor.getName() + "-keys-waiting-on",
+                new TupleSerializer<>(
+                    (Class<Tuple2<String, K>>) (Class<?>) Tuple2.class,
+                    new TypeSerializer<?>[] {
+                        StringSerializer.INSTANCE, backend.getKeySerializer()
+                    })));
   }
 
   @Override
   public Stream<T> getElements() {
+    return new ArrayList<>(keysWaitingOn.keySet()).stream().flatMap(this::getElements);
+  }
 
-    return backend.getKeys(stateDescriptor.getName(), VoidNamespace.INSTANCE)
+  @Override
+  public Stream<T> getElements(String waitingOn) {
+    Set<K> keys = keysWaitingOn.get(waitingOn);
+    if (keys == null) {
+      return Stream.empty();
+    }
+    return new ArrayList<>(keys).stream()
         .flatMap((key) -> {
           try {
             backend.setCurrentKey(key);
 
-            ListState<T> state = backend.getPartitionedState(
-                VoidNamespace.INSTANCE, VoidNamespaceSerializer.INSTANCE, stateDescriptor);
+            ListState<T> state = getState(waitingOn);
 
             return StreamSupport.stream(state.get().spliterator(), false);
           } catch (Exception e) {
@@ -74,38 +120,100 @@ class KeyedPushedBackElementsHandler<K, T> implements PushedBackElementsHandler<
         });
   }
 
+  @Override
+  public Set<String> getWaitingOn() {
+    return new HashSet<>(keysWaitingOn.keySet());
+  }
+
   @Override
   public void clear() throws Exception {
-    // TODO we have to collect all keys because otherwise we get ConcurrentModificationExceptions
-    // from flink. We can change this once it's fixed in Flink
+    for (String index : new ArrayList<>(keysWaitingOn.keySet())) {
+      removeElements(index);
+    }
+  }
 
-    List<K> keys = backend
-        .getKeys(stateDescriptor.getName(), VoidNamespace.INSTANCE)
-        .collect(Collectors.toList());
+  @Override
+  public void pushBack(String waitingOn, T element) throws Exception {
+    K key = keySelector.getKey(element);
+    backend.setCurrentKey(key);
+    getState(waitingOn).add(element);
+    keysWaitingOn.computeIfAbsent(waitingOn, k -> new HashSet<>()).add(key);
+  }
 
+  @Override
+  public List<T> removeElements(String waitingOn) throws Exception {
+    Set<K> keys = keysWaitingOn.remove(waitingOn);
+    if (keys == null) {
+      return new ArrayList<>();
+    }
+
+    List<T> removed = new ArrayList<>();
     for (K key : keys) {
       backend.setCurrentKey(key);
 
-      ListState<T> state = backend.getPartitionedState(
-          VoidNamespace.INSTANCE, VoidNamespaceSerializer.INSTANCE, stateDescriptor);
-
+      ListState<T> state = getState(waitingOn);
+      for (T element : state.get()) {
+        removed.add(element);
+      }
       state.clear();
     }
+    return removed;
   }
 
   @Override
-  public void pushBack(T element) throws Exception {
-    ListState<T> state = backend.getPartitionedState(
-        VoidNamespace.INSTANCE, VoidNamespaceSerializer.INSTANCE, stateDescriptor);
+  public void prepareSnapshot() throws Exception {
+    List<Tuple2<String, K>> entries = new ArrayList<>();
+    for (Map.Entry<String, Set<K>> index : keysWaitingOn.entrySet()) {
+      for (K key : index.getValue()) {
+        entries.add(Tuple2.of(index.getKey(), key));
+      }
+    }
+    keysWaitingOnState.update(entries);
+  }
 
-    backend.setCurrentKey(keySelector.getKey(element));
-    state.add(element);
+  private ListState<T> getState(String waitingOn) throws Exception {
+    return backend.getPartitionedState(waitingOn, StringSerializer.INSTANCE, stateDescriptor);
   }
 
-  @Override
-  public void pushBackAll(Iterable<T> elements) throws Exception {
-    for (T e : elements) {
-      pushBack(e);
+  /**
+   * Keeps the restored keys that belong to this operator's key groups. Each parallel instance
+   * restores the keys of all of them.
+   */
+  private void restoreKeysWaitingOn() throws Exception {
+    for (Tuple2<String, K> entry : keysWaitingOnState.get()) {
+      int keyGroup =
+          KeyGroupRangeAssignment.assignToKeyGroup(entry.f1, backend.getNumberOfKeyGroups());
+      if (backend.getKeyGroupRange().contains(keyGroup)) {
+        keysWaitingOn.computeIfAbsent(entry.f0, k -> new HashSet<>()).add(entry.f1);
+      }
+    }
+  }
+
+  /**
+   * Moves the elements that were pushed back before elements were indexed to the
+   * {@link #UNINDEXED} elements.
+   */
+  private void migrateUnindexedElements(ListStateDescriptor<T> legacyDescriptor)
+      throws Exception {
+    ListState<T> legacyState = backend.getPartitionedState(
+        VoidNamespace.INSTANCE, VoidNamespaceSerializer.INSTANCE, legacyDescriptor);
+
+    List<K> keys;
+    try (Stream<K> keyStream =
+        backend.getKeys(legacyDescriptor.getName(), VoidNamespace.INSTANCE)) {
+      keys = keyStream.collect(Collectors.toList());
+    }
+
+    for (K key : keys) {
+      backend.setCurrentKey(key);
+      List<T> elements = new ArrayList<>();
+      for (T element : legacyState.get()) {
+        elements.add(element);
+      }
+      legacyState.clear();
+      for (T element : elements) {
+        pushBack(UNINDEXED, element);
+      }
     }
   }
 }
@@ -19,45 +19,81 @@ package org.apache.beam.runners.flink.translation.wrappers.streaming;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 import org.apache.flink.api.common.state.ListState;
 
 /**
  * {@link PushedBackElementsHandler} that stores elements in a Flink operator state list.
+ *
+ * <p>Operator state is kept on the heap, so the elements are kept in an in-memory index instead,
+ * and only written to the operator state before a snapshot. The index is rebuilt after a restore:
+ * all restored elements are {@link #UNINDEXED}.
  */
 class NonKeyedPushedBackElementsHandler<T> implements PushedBackElementsHandler<T> {
 
-  static <T> NonKeyedPushedBackElementsHandler<T> create(ListState<T> elementState) {
-    return new NonKeyedPushedBackElementsHandler<>(elementState);
+  static <T> NonKeyedPushedBackElementsHandler<T> create(ListState<T> elementState)
+      throws Exception {
+    NonKeyedPushedBackElementsHandler<T> handler =
+        new NonKeyedPushedBackElementsHandler<>(elementState);
+    for (T element : elementState.get()) {
+      handler.index(UNINDEXED, element);
+    }
+    return handler;
   }
 
   private final ListState<T> elementState;
+  private final Map<String, List<T>> elementsByWaitingOn = new LinkedHashMap<>();
 
   private NonKeyedPushedBackElementsHandler(ListState<T> elementState) {
     this.elementState = checkNotNull(elementState);
   }
 
   @Override
-  public Stream<T> getElements() throws Exception {
-    return StreamSupport.stream(elementState.get().spliterator(), false);
+  public Stream<T> getElements() {
+    return elementsByWaitingOn.values().stream().flatMap(List::stream);
+  }
+
+  @Override
+  public Stream<T> getElements(String waitingOn) {
+    return elementsByWaitingOn.getOrDefault(waitingOn, Collections.emptyList()).stream();
+  }
+
+  @Override
+  public Set<String> getWaitingOn() {
+    return new HashSet<>(elementsByWaitingOn.keySet());
   }
 
   @Override
   public void clear() {
+    elementsByWaitingOn.clear();
     elementState.clear();
   }
 
   @Override
-  public void pushBack(T element) throws Exception {
-    elementState.add(element);
+  public void pushBack(String waitingOn, T element) {
+    index(waitingOn, element);
   }
 
   @Override
-  public void pushBackAll(Iterable<T> elements) throws Exception {
-    for (T e : elements) {
-      // TODO: use addAll() once Flink has addAll(Iterable<T>)
-      elementState.add(e);
-    }
+  public List<T> removeElements(String waitingOn) {
+    List<T> removed = elementsByWaitingOn.remove(waitingOn);
+    return removed != null ? removed : Collections.emptyList();
+  }
+
+  @Override
+  public void prepareSnapshot() throws Exception {
+    elementState.update(getElements().collect(Collectors.toList()));
+  }
+
+  private void index(String waitingOn, T element) {
+    elementsByWaitingOn.computeIfAbsent(waitingOn, k -> new ArrayList<>()).add(element);
   }
 }
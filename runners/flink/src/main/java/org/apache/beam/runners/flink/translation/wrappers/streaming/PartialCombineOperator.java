@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.flink.translation.wrappers.streaming;
+
+import com.google.common.collect.ImmutableList;
+import javax.annotation.Nullable;
+import org.apache.beam.runners.core.PartialCombineTable;
+import org.apache.beam.runners.flink.translation.types.CoderTypeSerializer;
+import org.apache.beam.sdk.coders.CannotProvideCoderException;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderRegistry;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.beam.sdk.values.KV;
+import org.apache.flink.api.common.state.ListState;
+import org.apache.flink.api.common.state.ListStateDescriptor;
+import org.apache.flink.runtime.state.StateInitializationContext;
+import org.apache.flink.runtime.state.StateSnapshotContext;
+import org.apache.flink.streaming.api.operators.AbstractStreamOperator;
+import org.apache.flink.streaming.api.operators.ChainingStrategy;
+import org.apache.flink.streaming.api.operators.OneInputStreamOperator;
+import org.apache.flink.streaming.api.watermark.Watermark;
+import org.apache.flink.streaming.runtime.streamrecord.StreamRecord;
+import org.joda.time.Instant;
+
+/**
+ * Flink operator that combines the inputs of a {@code Combine.perKey} per key and window before
+ * they are shuffled, and outputs the partial accumulators instead.
+ *
+ * <p>The accumulators are kept in a bounded {@link PartialCombineTable}. They are flushed when the
+ * table is full, when a checkpoint is taken and when the operator is closed. Before a watermark is
+ * forwarded, the accumulators of the windows which end at or before it are flushed. Accumulators
+ * that are flushed for a checkpoint are output after its barrier, so they are also stored in the
+ * checkpoint and output again when restoring from it.
+ *
+ * <p>The accumulators are output at the end of their window, which is only correct if the output of
+ * the combine is not affected by the timestamps of its inputs. {@link MergeAccumulatorsFn} combines
+ * them after the shuffle.
+ */
+public class PartialCombineOperator<K, InputT, AccumT>
+    extends AbstractStreamOperator<WindowedValue<KV<K, AccumT>>>
+    implements OneInputStreamOperator<WindowedValue<KV<K, InputT>>, WindowedValue<KV<K, AccumT>>> {
+
+  private final CombineFn<InputT, AccumT, ?> combineFn;
+  private final Coder<K> keyCoder;
+  private final Coder<AccumT> accumulatorCoder;
+  private final Coder<BoundedWindow> windowCoder;
+  private final int maxEntries;
+  private final long maxBytes;
+
+  private transient PartialCombineTable<KV<K, BoundedWindow>, InputT, AccumT> table;
+
+  private transient ListState<WindowedValue<KV<K, AccumT>>> checkpointedAccumulators;
+
+  /** Where accumulators are stored while they are flushed for a checkpoint. */
+  @Nullable
+  private transient ListState<WindowedValue<KV<K, AccumT>>> snapshotTarget;
+
+  public PartialCombineOperator(
+      CombineFn<InputT, AccumT, ?> combineFn,
+      Coder<K> keyCoder,
+      Coder<AccumT> accumulatorCoder,
+      Coder<BoundedWindow> windowCoder,
+      int maxEntries,
+      long maxBytes) {
+    this.combineFn = combineFn;
+    this.keyCoder = keyCoder;
+    this.accumulatorCoder = accumulatorCoder;
+    this.windowCoder = windowCoder;
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+
+    setChainingStrategy(ChainingStrategy.ALWAYS);
+  }
+
+  @Override
+  public void initializeState(StateInitializationContext context) throws Exception {
+    super.initializeState(context);
+
+    ListStateDescriptor<WindowedValue<KV<K, AccumT>>> descriptor =
+        new ListStateDescriptor<>(
+            "partial-accumulators",
+            new CoderTypeSerializer<>(
+                WindowedValue.getFullCoder(
+                    KvCoder.of(keyCoder, accumulatorCoder), windowCoder)));
+    checkpointedAccumulators = getOperatorStateBackend().getListState(descriptor);
+  }
+
+  @Override
+  public void open() throws Exception {
+    super.open();
+
+    table =
+        PartialCombineTable.create(
+            KvCoder.of(keyCoder, windowCoder),
+            combineFn,
+            accumulatorCoder,
+            maxEntries,
+            maxBytes,
+            this::outputAccumulator);
+
+    // These were flushed for the checkpoint we restored from, but output after its barrier.
+    for (WindowedValue<KV<K, AccumT>> accumulator : checkpointedAccumulators.get()) {
+      output.collect(new StreamRecord<>(accumulator));
+    }
+  }
+
+  @Override
+  public void processElement(StreamRecord<WindowedValue<KV<K, InputT>>> streamRecord)
+      throws Exception {
+    WindowedValue<KV<K, InputT>> element = streamRecord.getValue();
+    K key = element.getValue().getKey();
+    InputT input = element.getValue().getValue();
+    for (BoundedWindow window : element.getWindows()) {
+      table.add(KV.of(key, window), input);
+    }
+  }
+
+  @Override
+  public void processWatermark(Watermark mark) throws Exception {
+    // Output the accumulators of the windows that ended first, so that they are not late
+    // downstream.
+    Instant watermark = new Instant(mark.getTimestamp());
+    table.flushIf(keyAndWindow -> !keyAndWindow.getValue().maxTimestamp().isAfter(watermark));
+    super.processWatermark(mark);
+  }
+
+  @Override
+  public void snapshotState(StateSnapshotContext context) throws Exception {
+    super.snapshotState(context);
+
+    checkpointedAccumulators.clear();
+    snapshotTarget = checkpointedAccumulators;
+    try {
+      table.flush();
+    } finally {
+      snapshotTarget = null;
+    }
+  }
+
+  @Override
+  public void close() throws Exception {
+    table.flush();
+    super.close();
+  }
+
+  private void outputAccumulator(KV<K, BoundedWindow> keyAndWindow, AccumT accumulator)
+      throws Exception {
+    BoundedWindow window = keyAndWindow.getValue();
+    WindowedValue<KV<K, AccumT>> value =
+        WindowedValue.of(
+            KV.of(keyAndWindow.getKey(), accumulator),
+            window.maxTimestamp(),
+            window,
+            PaneInfo.NO_FIRING);
+    if (snapshotTarget != null) {
+      snapshotTarget.add(value);
+    }
+    output.collect(new StreamRecord<>(value));
+  }
+
+  /**
+   * Merges the accumulators output by a {@link PartialCombineOperator}, and extracts the output
+   * from them.
+   */
+  public static class MergeAccumulatorsFn<InputT, AccumT, OutputT>
+      extends CombineFn<AccumT, AccumT, OutputT> {
+    private final CombineFn<InputT, AccumT, OutputT> fn;
+    private final Coder<AccumT> accumulatorCoder;
+    private final Coder<InputT> inputCoder;
+
+    public MergeAccumulatorsFn(
+        CombineFn<InputT, AccumT, OutputT> fn,
+        Coder<AccumT> accumulatorCoder,
+        Coder<InputT> inputCoder) {
+      this.fn = fn;
+      this.accumulatorCoder = accumulatorCoder;
+      this.inputCoder = inputCoder;
+    }
+
+    @Override
+    public AccumT createAccumulator() {
+      return fn.createAccumulator();
+    }
+
+    @Override
+    public AccumT addInput(AccumT accumulator, AccumT partial) {
+      // Merging conventionally only modifies the first accumulator, which is ours.
+      return fn.mergeAccumulators(ImmutableList.of(accumulator, partial));
+    }
+
+    @Override
+    public AccumT mergeAccumulators(Iterable<AccumT> accumulators) {
+      return fn.mergeAccumulators(accumulators);
+    }
+
+    @Override
+    public OutputT extractOutput(AccumT accumulator) {
+      return fn.extractOutput(accumulator);
+    }
+
+    @Override
+    public AccumT compact(AccumT accumulator) {
+      return fn.compact(accumulator);
+    }
+
+    @Override
+    public Coder<AccumT> getAccumulatorCoder(CoderRegistry registry, Coder<AccumT> partialCoder) {
+      return accumulatorCoder;
+    }
+
+    @Override
+    public Coder<OutputT> getDefaultOutputCoder(CoderRegistry registry, Coder<AccumT> partialCoder)
+        throws CannotProvideCoderException {
+      return fn.getDefaultOutputCoder(registry, inputCoder);
+    }
+  }
+}
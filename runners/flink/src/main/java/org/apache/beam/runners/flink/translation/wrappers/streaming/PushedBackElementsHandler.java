@@ -17,34 +17,60 @@
  */
 package org.apache.beam.runners.flink.translation.wrappers.streaming;
 
+import java.util.List;
+import java.util.Set;
 import java.util.stream.Stream;
 
 /**
  * Helper that keeps pushed-back data, most likely due to side inputs that are not available.
  *
+ * <p>Elements are indexed by what they are waiting on, for example the side input window that is
+ * not yet ready, so that only the elements that may have become ready need to be retried.
+ *
  * <p>Implementations of this must use Flink state to make sure pushed-back data is fault tolerant.
  *
  * @param <T> The type of pushed back elements.
  */
 interface PushedBackElementsHandler<T> {
 
+  /**
+   * The index of elements that were restored without a record of what they are waiting on, which
+   * must be pushed back again.
+   */
+  String UNINDEXED = "";
+
   /**
    * Returns all pushed back elements.
    */
   Stream<T> getElements() throws Exception;
 
+  /**
+   * Returns the pushed back elements that are waiting on the given index.
+   */
+  Stream<T> getElements(String waitingOn) throws Exception;
+
+  /**
+   * Returns the indices that pushed back elements may be waiting on.
+   */
+  Set<String> getWaitingOn();
+
   /**
    * Clears the pushed back elements.
    */
   void clear() throws Exception;
 
   /**
-   * Adds the given element to the pushed back elements.
+   * Adds the given element to the pushed back elements that are waiting on the given index.
+   */
+  void pushBack(String waitingOn, T element) throws Exception;
+
+  /**
+   * Removes and returns the pushed back elements that are waiting on the given index.
    */
-  void pushBack(T element) throws Exception;
+  List<T> removeElements(String waitingOn) throws Exception;
 
   /**
-   * Adds all the given element to the pushed back elements.
+   * Writes what is only kept in memory to Flink state. This is called before each snapshot.
    */
-  void pushBackAll(Iterable<T> elements) throws Exception;
+  void prepareSnapshot() throws Exception;
 }
@@ -17,13 +17,18 @@
  */
 package org.apache.beam.runners.flink.translation.wrappers.streaming.state;
 
+import static com.google.common.base.Preconditions.checkElementIndex;
+
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import java.nio.ByteBuffer;
+import java.util.AbstractList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 import org.apache.beam.runners.core.StateInternals;
 import org.apache.beam.runners.core.StateNamespace;
 import org.apache.beam.runners.core.StateTag;
@@ -60,6 +65,11 @@ import org.joda.time.Instant;
  *
  * <p>Note: In the Flink streaming runner the key is always encoded
  * using an {@link Coder} and stored in a {@link ByteBuffer}.
+ *
+ * <p>Inputs added to a {@link CombiningState} are combined into an accumulator that is cached per
+ * key until {@link #flush()}, instead of reading and writing the stored accumulator for each input.
+ * The cached accumulator is merged into the stored one when the state is read, or when the cache is
+ * flushed, which must happen at the end of each bundle and before each checkpoint.
  */
 public class FlinkStateInternals<K> implements StateInternals {
 
@@ -70,6 +80,10 @@ public class FlinkStateInternals<K> implements StateInternals {
   // know which watermark hold states there are in the Flink State Backend
   private final Map<String, Instant> watermarkHolds = new HashMap<>();
 
+  /** Accumulators that were not yet merged into the accumulators of the state backend. */
+  private final Map<CachedAccumulatorKey, CachedAccumulator<?>> cachedAccumulators =
+      new HashMap<>();
+
   public FlinkStateInternals(KeyedStateBackend<ByteBuffer> flinkStateBackend, Coder<K> keyCoder) {
     this.flinkStateBackend = flinkStateBackend;
     this.keyCoder = keyCoder;
@@ -86,6 +100,28 @@ public class FlinkStateInternals<K> implements StateInternals {
     return new Instant(min);
   }
 
+  /**
+   * Merges all cached accumulators into the accumulators of the state backend.
+   */
+  public void flush() {
+    if (cachedAccumulators.isEmpty()) {
+      return;
+    }
+    ByteBuffer currentKey = flinkStateBackend.getCurrentKey();
+    try {
+      for (Map.Entry<CachedAccumulatorKey, CachedAccumulator<?>> entry
+          : cachedAccumulators.entrySet()) {
+        flinkStateBackend.setCurrentKey(entry.getKey().key);
+        entry.getValue().writeTo(flinkStateBackend, entry.getKey().namespace);
+      }
+    } catch (Exception e) {
+      throw new RuntimeException("Error writing cached accumulators.", e);
+    } finally {
+      cachedAccumulators.clear();
+      flinkStateBackend.setCurrentKey(currentKey);
+    }
+  }
+
   @Override
   public K getKey() {
     ByteBuffer keyBytes = flinkStateBackend.getCurrentKey();
@@ -146,7 +182,12 @@ public class FlinkStateInternals<K> implements StateInternals {
                   Combine.CombineFn<InputT, AccumT, OutputT> combineFn) {
 
             return new FlinkCombiningState<>(
-                flinkStateBackend, address, combineFn, namespace, accumCoder);
+                flinkStateBackend,
+                address,
+                combineFn,
+                namespace,
+                accumCoder,
+                FlinkStateInternals.this);
           }
 
           @Override
@@ -307,7 +348,17 @@ public class FlinkStateInternals<K> implements StateInternals {
             StringSerializer.INSTANCE,
             flinkStateDescriptor).get();
 
-        return result != null ? ImmutableList.copyOf(result) : Collections.emptyList();
+        if (result == null) {
+          return Collections.emptyList();
+        } else if (result instanceof List && result instanceof RandomAccess) {
+          // The heap backend returns its live list, which it only ever appends to in place;
+          // clearing or replacing the bag swaps in a new list. Reading by index up to the size
+          // at the time of the read therefore sees exactly the elements added before it, like
+          // InMemoryBag, without copying them and without failing on later adds.
+          List<T> list = (List<T>) result;
+          return new ListPrefix<>(list, list.size());
+        }
+        return ImmutableList.copyOf(result);
       } catch (Exception e) {
         throw new RuntimeException("Error reading state.", e);
       }
@@ -372,6 +423,28 @@ public class FlinkStateInternals<K> implements StateInternals {
     }
   }
 
+  /** A view of the first elements of a list, which may be appended to after it was taken. */
+  private static class ListPrefix<T> extends AbstractList<T> implements RandomAccess {
+    private final List<T> list;
+    private final int size;
+
+    private ListPrefix(List<T> list, int size) {
+      this.list = list;
+      this.size = size;
+    }
+
+    @Override
+    public T get(int index) {
+      checkElementIndex(index, size);
+      return list.get(index);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
   private static class FlinkCombiningState<K, InputT, AccumT, OutputT>
       implements CombiningState<InputT, AccumT, OutputT> {
 
@@ -380,18 +453,21 @@ public class FlinkStateInternals<K> implements StateInternals {
     private final Combine.CombineFn<InputT, AccumT, OutputT> combineFn;
     private final ValueStateDescriptor<AccumT> flinkStateDescriptor;
     private final KeyedStateBackend<ByteBuffer> flinkStateBackend;
+    private final FlinkStateInternals<K> flinkStateInternals;
 
     FlinkCombiningState(
         KeyedStateBackend<ByteBuffer> flinkStateBackend,
         StateTag<CombiningState<InputT, AccumT, OutputT>> address,
         Combine.CombineFn<InputT, AccumT, OutputT> combineFn,
         StateNamespace namespace,
-        Coder<AccumT> accumCoder) {
+        Coder<AccumT> accumCoder,
+        FlinkStateInternals<K> flinkStateInternals) {
 
       this.namespace = namespace;
       this.address = address;
       this.combineFn = combineFn;
       this.flinkStateBackend = flinkStateBackend;
+      this.flinkStateInternals = flinkStateInternals;
 
       flinkStateDescriptor = new ValueStateDescriptor<>(
           address.getId(), new CoderTypeSerializer<>(accumCoder));
@@ -404,52 +480,44 @@ public class FlinkStateInternals<K> implements StateInternals {
 
     @Override
     public void add(InputT value) {
-      try {
-        org.apache.flink.api.common.state.ValueState<AccumT> state =
-            flinkStateBackend.getPartitionedState(
-                namespace.stringKey(),
-                StringSerializer.INSTANCE,
-                flinkStateDescriptor);
-
-        AccumT current = state.value();
-        if (current == null) {
-          current = combineFn.createAccumulator();
-        }
-        current = combineFn.addInput(current, value);
-        state.update(current);
-      } catch (Exception e) {
-        throw new RuntimeException("Error adding to state." , e);
-      }
+      CachedAccumulator<AccumT> cached = getCachedAccumulator();
+      cached.accumulator = combineFn.addInput(cached.accumulator, value);
     }
 
     @Override
     public void addAccum(AccumT accum) {
-      try {
-        org.apache.flink.api.common.state.ValueState<AccumT> state =
-            flinkStateBackend.getPartitionedState(
-              namespace.stringKey(),
-              StringSerializer.INSTANCE,
-              flinkStateDescriptor);
+      CachedAccumulator<AccumT> cached = getCachedAccumulator();
+      cached.accumulator =
+          combineFn.mergeAccumulators(Lists.newArrayList(cached.accumulator, accum));
+    }
 
-        AccumT current = state.value();
-        if (current == null) {
-          state.update(accum);
-        } else {
-          current = combineFn.mergeAccumulators(Lists.newArrayList(current, accum));
-          state.update(current);
-        }
-      } catch (Exception e) {
-        throw new RuntimeException("Error adding to state.", e);
-      }
+    @SuppressWarnings("unchecked")
+    private CachedAccumulator<AccumT> getCachedAccumulator() {
+      return (CachedAccumulator<AccumT>) flinkStateInternals.cachedAccumulators.computeIfAbsent(
+          cacheKey(),
+          k -> new CachedAccumulator<>(
+              flinkStateDescriptor, combineFn, combineFn.createAccumulator()));
+    }
+
+    private CachedAccumulatorKey cacheKey() {
+      return new CachedAccumulatorKey(
+          flinkStateBackend.getCurrentKey(), namespace.stringKey(), address.getId());
     }
 
     @Override
     public AccumT getAccum() {
       try {
-        return flinkStateBackend.getPartitionedState(
-            namespace.stringKey(),
-            StringSerializer.INSTANCE,
-            flinkStateDescriptor).value();
+        org.apache.flink.api.common.state.ValueState<AccumT> state =
+            flinkStateBackend.getPartitionedState(
+                namespace.stringKey(),
+                StringSerializer.INSTANCE,
+                flinkStateDescriptor);
+
+        CachedAccumulator<?> cached = flinkStateInternals.cachedAccumulators.remove(cacheKey());
+        if (cached != null) {
+          cached.writeTo(flinkStateBackend, namespace.stringKey());
+        }
+        return state.value();
       } catch (Exception e) {
         throw new RuntimeException("Error reading state.", e);
       }
@@ -462,21 +530,11 @@ public class FlinkStateInternals<K> implements StateInternals {
 
     @Override
     public OutputT read() {
-      try {
-        org.apache.flink.api.common.state.ValueState<AccumT> state =
-            flinkStateBackend.getPartitionedState(
-                namespace.stringKey(),
-                StringSerializer.INSTANCE,
-                flinkStateDescriptor);
-
-        AccumT accum = state.value();
-        if (accum != null) {
-          return combineFn.extractOutput(accum);
-        } else {
-          return combineFn.extractOutput(combineFn.createAccumulator());
-        }
-      } catch (Exception e) {
-        throw new RuntimeException("Error reading state.", e);
+      AccumT accum = getAccum();
+      if (accum != null) {
+        return combineFn.extractOutput(accum);
+      } else {
+        return combineFn.extractOutput(combineFn.createAccumulator());
       }
     }
 
@@ -485,6 +543,9 @@ public class FlinkStateInternals<K> implements StateInternals {
       return new ReadableState<Boolean>() {
         @Override
         public Boolean read() {
+          if (flinkStateInternals.cachedAccumulators.containsKey(cacheKey())) {
+            return false;
+          }
           try {
             return flinkStateBackend.getPartitionedState(
                 namespace.stringKey(),
@@ -505,6 +566,7 @@ public class FlinkStateInternals<K> implements StateInternals {
 
     @Override
     public void clear() {
+      flinkStateInternals.cachedAccumulators.remove(cacheKey());
       try {
         flinkStateBackend.getPartitionedState(
             namespace.stringKey(),
@@ -539,6 +601,71 @@ public class FlinkStateInternals<K> implements StateInternals {
     }
   }
 
+  /** Identifies the accumulator of a {@link CombiningState} for a key. */
+  private static class CachedAccumulatorKey {
+    private final ByteBuffer key;
+    private final String namespace;
+    private final String stateId;
+
+    CachedAccumulatorKey(ByteBuffer key, String namespace, String stateId) {
+      this.key = key;
+      this.namespace = namespace;
+      this.stateId = stateId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof CachedAccumulatorKey)) {
+        return false;
+      }
+      CachedAccumulatorKey that = (CachedAccumulatorKey) o;
+      return key.equals(that.key)
+          && namespace.equals(that.namespace)
+          && stateId.equals(that.stateId);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = key.hashCode();
+      result = 31 * result + namespace.hashCode();
+      result = 31 * result + stateId.hashCode();
+      return result;
+    }
+  }
+
+  /** An accumulator of the inputs added to a {@link CombiningState} since it was last written. */
+  private static class CachedAccumulator<AccumT> {
+    private final ValueStateDescriptor<AccumT> flinkStateDescriptor;
+    private final Combine.CombineFn<?, AccumT, ?> combineFn;
+    private AccumT accumulator;
+
+    CachedAccumulator(
+        ValueStateDescriptor<AccumT> flinkStateDescriptor,
+        Combine.CombineFn<?, AccumT, ?> combineFn,
+        AccumT accumulator) {
+      this.flinkStateDescriptor = flinkStateDescriptor;
+      this.combineFn = combineFn;
+      this.accumulator = accumulator;
+    }
+
+    /** Merges this into the stored accumulator of the current key. */
+    void writeTo(KeyedStateBackend<ByteBuffer> flinkStateBackend, String namespace)
+        throws Exception {
+      org.apache.flink.api.common.state.ValueState<AccumT> state =
+          flinkStateBackend.getPartitionedState(
+              namespace, StringSerializer.INSTANCE, flinkStateDescriptor);
+      AccumT current = state.value();
+      if (current == null) {
+        state.update(accumulator);
+      } else {
+        state.update(combineFn.mergeAccumulators(Lists.newArrayList(current, accumulator)));
+      }
+    }
+  }
+
   private static class FlinkCombiningStateWithContext<K, InputT, AccumT, OutputT>
       implements CombiningState<InputT, AccumT, OutputT> {
 
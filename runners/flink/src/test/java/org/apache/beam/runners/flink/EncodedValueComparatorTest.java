@@ -61,7 +61,9 @@ public class EncodedValueComparatorTest extends ComparatorTestBase<byte[]> {
           CoderUtils.encodeToByteArray(coder, "abce"),
           CoderUtils.encodeToByteArray(coder, "abdd"),
           CoderUtils.encodeToByteArray(coder, "accd"),
-          CoderUtils.encodeToByteArray(coder, "bbcd")
+          CoderUtils.encodeToByteArray(coder, "bbcd"),
+          // Encoded with bytes that are negative when signed.
+          CoderUtils.encodeToByteArray(coder, "\u00e9t\u00e9")
       };
     } catch (CoderException e) {
       throw new RuntimeException("Could not encode values.", e);
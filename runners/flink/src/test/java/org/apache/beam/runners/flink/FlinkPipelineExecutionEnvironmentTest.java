@@ -17,14 +17,23 @@
  */
 package org.apache.beam.runners.flink;
 
+import static org.hamcrest.Matchers.hasItem;
+import static org.junit.Assert.assertThat;
+
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.io.GenerateSequence;
 import org.apache.beam.sdk.io.TextIO;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.runners.TransformHierarchy;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.Sum;
+import org.apache.beam.sdk.transforms.WithKeys;
 import org.apache.beam.sdk.transforms.windowing.FixedWindows;
+import org.apache.beam.sdk.transforms.windowing.SlidingWindows;
 import org.apache.beam.sdk.transforms.windowing.Window;
 import org.joda.time.Duration;
 import org.junit.Test;
@@ -63,6 +72,39 @@ public class FlinkPipelineExecutionEnvironmentTest implements Serializable {
     // no exception should be thrown
   }
 
+  @Test
+  public void shouldCombineSlidingWindowsViaSlicesInStreaming() {
+    FlinkPipelineOptions options = PipelineOptionsFactory.as(FlinkPipelineOptions.class);
+    options.setRunner(TestFlinkRunner.class);
+    options.setFlinkMaster("[auto]");
+
+    FlinkRunner flinkRunner = FlinkRunner.fromOptions(options);
+    FlinkPipelineExecutionEnvironment flinkEnv = new FlinkPipelineExecutionEnvironment(options);
+    Pipeline pipeline = Pipeline.create();
+
+    pipeline
+        .apply(GenerateSequence.from(0).withRate(1, Duration.standardSeconds(1)))
+        .apply(WithKeys.of("key"))
+        .apply(
+            Window.into(
+                SlidingWindows.of(Duration.standardMinutes(10)).every(Duration.standardMinutes(1))))
+        .apply("SlidingSum", Sum.longsPerKey());
+
+    pipeline.replaceAll(FlinkTransformOverrides.getDefaultOverrides(true));
+    flinkEnv.translate(flinkRunner, pipeline);
+
+    List<String> names = new ArrayList<>();
+    pipeline.traverseTopologically(
+        new Pipeline.PipelineVisitor.Defaults() {
+          @Override
+          public CompositeBehavior enterCompositeTransform(TransformHierarchy.Node node) {
+            names.add(node.getFullName());
+            return CompositeBehavior.ENTER_TRANSFORM;
+          }
+        });
+    assertThat(names, hasItem("SlidingSum/MergeSlices"));
+  }
+
 }
 
 
@@ -18,6 +18,7 @@
 package org.apache.beam.runners.flink.streaming;
 
 import static org.apache.beam.runners.flink.streaming.StreamRecordStripper.stripStreamRecordFromWindowedValue;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.emptyIterable;
 import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
 import static org.junit.Assert.assertEquals;
@@ -27,8 +28,11 @@ import com.google.common.base.Function;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Optional;
 import javax.annotation.Nullable;
 import org.apache.beam.runners.core.StatefulDoFnRunner;
@@ -71,6 +75,7 @@ import org.apache.flink.api.common.typeinfo.BasicTypeInfo;
 import org.apache.flink.api.common.typeinfo.TypeInformation;
 import org.apache.flink.api.java.functions.KeySelector;
 import org.apache.flink.runtime.checkpoint.OperatorSubtaskState;
+import org.apache.flink.streaming.api.watermark.Watermark;
 import org.apache.flink.streaming.runtime.streamrecord.StreamRecord;
 import org.apache.flink.streaming.util.KeyedOneInputStreamOperatorTestHarness;
 import org.apache.flink.streaming.util.KeyedTwoInputStreamOperatorTestHarness;
@@ -629,6 +634,226 @@ public class DoFnOperatorTest {
 
   }
 
+  @Test
+  public void testNormalParDoReleasesPushedBackElementsBySideInputWindow() throws Exception {
+    testReleasesPushedBackElementsBySideInputWindow(false);
+  }
+
+  @Test
+  public void testKeyedParDoReleasesPushedBackElementsBySideInputWindow() throws Exception {
+    testReleasesPushedBackElementsBySideInputWindow(true);
+  }
+
+  void testReleasesPushedBackElementsBySideInputWindow(boolean keyed) throws Exception {
+    TestHarnessFactory<
+            TwoInputStreamOperatorTestHarness<
+                WindowedValue<String>, RawUnionValue, WindowedValue<String>>>
+        harnessFactory =
+            () -> {
+              Coder<WindowedValue<String>> coder =
+                  WindowedValue.getFullCoder(StringUtf8Coder.of(), IntervalWindow.getCoder());
+
+              TupleTag<String> outputTag = new TupleTag<>("main-output");
+
+              DoFnOperator<String, String> doFnOperator =
+                  new DoFnOperator<>(
+                      new IdentityDoFn<>(),
+                      "stepName",
+                      coder,
+                      outputTag,
+                      Collections.emptyList(),
+                      new DoFnOperator.MultiOutputOutputManagerFactory<>(outputTag, coder),
+                      WindowingStrategy.of(FixedWindows.of(Duration.millis(100))),
+                      ImmutableMap.of(1, view1), /* side-input mapping */
+                      ImmutableList.of(view1), /* side inputs */
+                      PipelineOptionsFactory.as(FlinkPipelineOptions.class),
+                      keyed ? StringUtf8Coder.of() : null,
+                      keyed ? WindowedValue::getValue : null);
+
+              if (keyed) {
+                // we use a dummy key for the second input since it is considered to be broadcast
+                return new KeyedTwoInputStreamOperatorTestHarness<>(
+                    doFnOperator, WindowedValue::getValue, null, BasicTypeInfo.STRING_TYPE_INFO);
+              }
+              return new TwoInputStreamOperatorTestHarness<>(doFnOperator);
+            };
+
+    TwoInputStreamOperatorTestHarness<WindowedValue<String>, RawUnionValue, WindowedValue<String>>
+        testHarness = harnessFactory.create();
+    testHarness.open();
+
+    IntervalWindow firstWindow = new IntervalWindow(new Instant(0), new Instant(100));
+    IntervalWindow secondWindow = new IntervalWindow(new Instant(100), new Instant(200));
+
+    WindowedValue<String> helloElement = valueInWindow("Hello", new Instant(0), firstWindow);
+    WindowedValue<String> worldElement = valueInWindow("World", new Instant(100), secondWindow);
+    testHarness.processElement1(new StreamRecord<>(helloElement));
+    testHarness.processElement1(new StreamRecord<>(worldElement));
+    assertThat(testHarness.getOutput(), emptyIterable());
+
+    // the pushed-back elements are re-indexed after a restore
+    OperatorSubtaskState snapshot = testHarness.snapshot(0, 0);
+    testHarness = harnessFactory.create();
+    testHarness.initializeState(snapshot);
+    testHarness.open();
+
+    // only the element waiting on the second window is ready
+    testHarness.processElement2(
+        new StreamRecord<>(
+            new RawUnionValue(
+                1,
+                valuesInWindow(
+                    ImmutableList.of(KV.of((Void) null, "foo")), new Instant(100), secondWindow))));
+    assertThat(
+        stripStreamRecordFromWindowedValue(testHarness.getOutput()), contains(worldElement));
+
+    // released elements are not stored in later snapshots
+    snapshot = testHarness.snapshot(1, 1);
+    testHarness = harnessFactory.create();
+    testHarness.initializeState(snapshot);
+    testHarness.open();
+
+    testHarness.processElement2(
+        new StreamRecord<>(
+            new RawUnionValue(
+                1,
+                valuesInWindow(
+                    ImmutableList.of(KV.of((Void) null, "bar")), new Instant(0), firstWindow))));
+    assertThat(
+        stripStreamRecordFromWindowedValue(testHarness.getOutput()), contains(helloElement));
+
+    testHarness.close();
+  }
+
+  @Test
+  public void testKeyedStatefulParDoRetriesPushedBackElementsBehindWatermark() throws Exception {
+    DoFn<String, String> fn = new DoFn<String, String>() {
+
+      @StateId("state")
+      private final StateSpec<ValueState<String>> stateSpec =
+          StateSpecs.value(StringUtf8Coder.of());
+
+      @ProcessElement
+      public void processElement(ProcessContext context) {
+        context.output(context.element());
+      }
+    };
+
+    Coder<WindowedValue<String>> coder =
+        WindowedValue.getFullCoder(StringUtf8Coder.of(), IntervalWindow.getCoder());
+
+    TupleTag<String> outputTag = new TupleTag<>("main-output");
+
+    DoFnOperator<String, String> doFnOperator =
+        new DoFnOperator<>(
+            fn,
+            "stepName",
+            coder,
+            outputTag,
+            Collections.emptyList(),
+            new DoFnOperator.MultiOutputOutputManagerFactory<>(outputTag, coder),
+            WindowingStrategy.of(FixedWindows.of(Duration.millis(100))),
+            ImmutableMap.of(1, view1), /* side-input mapping */
+            ImmutableList.of(view1), /* side inputs */
+            PipelineOptionsFactory.as(FlinkPipelineOptions.class),
+            StringUtf8Coder.of(),
+            WindowedValue::getValue);
+
+    // we use a dummy key for the second input since it is considered to be broadcast
+    TwoInputStreamOperatorTestHarness<WindowedValue<String>, RawUnionValue, WindowedValue<String>>
+        testHarness = new KeyedTwoInputStreamOperatorTestHarness<>(
+            doFnOperator, WindowedValue::getValue, null, BasicTypeInfo.STRING_TYPE_INFO);
+    testHarness.open();
+
+    IntervalWindow window = new IntervalWindow(new Instant(0), new Instant(100));
+    WindowedValue<String> helloElement = valueInWindow("Hello", new Instant(0), window);
+    testHarness.processElement1(new StreamRecord<>(helloElement));
+
+    // the pushed-back element holds the input watermark, so it is not late when it is retried
+    testHarness.processWatermark1(new Watermark(1000));
+    testHarness.processElement2(
+        new StreamRecord<>(
+            new RawUnionValue(
+                1,
+                valuesInWindow(
+                    ImmutableList.of(KV.of((Void) null, "foo")), new Instant(0), window))));
+
+    assertThat(
+        stripStreamRecordFromWindowedValue(testHarness.getOutput()), contains(helloElement));
+
+    testHarness.close();
+  }
+
+  @Test
+  public void testKeyedParDoPushbackDataRescaling() throws Exception {
+    int maxParallelism = 10;
+    Coder<WindowedValue<String>> coder =
+        WindowedValue.getFullCoder(StringUtf8Coder.of(), IntervalWindow.getCoder());
+    TupleTag<String> outputTag = new TupleTag<>("main-output");
+
+    List<TwoInputStreamOperatorTestHarness<
+        WindowedValue<String>, RawUnionValue, WindowedValue<String>>> harnesses =
+        new ArrayList<>();
+    for (int parallelism : new int[] {1, 2, 2}) {
+      DoFnOperator<String, String> doFnOperator =
+          new DoFnOperator<>(
+              new IdentityDoFn<>(),
+              "stepName",
+              coder,
+              outputTag,
+              Collections.emptyList(),
+              new DoFnOperator.MultiOutputOutputManagerFactory<>(outputTag, coder),
+              WindowingStrategy.of(FixedWindows.of(Duration.millis(100))),
+              ImmutableMap.of(1, view1), /* side-input mapping */
+              ImmutableList.of(view1), /* side inputs */
+              PipelineOptionsFactory.as(FlinkPipelineOptions.class),
+              StringUtf8Coder.of(),
+              WindowedValue::getValue);
+      // we use a dummy key for the second input since it is considered to be broadcast
+      harnesses.add(
+          new KeyedTwoInputStreamOperatorTestHarness<>(
+              doFnOperator,
+              WindowedValue::getValue,
+              null,
+              BasicTypeInfo.STRING_TYPE_INFO,
+              maxParallelism,
+              parallelism,
+              harnesses.size() % 2));
+    }
+
+    IntervalWindow window = new IntervalWindow(new Instant(0), new Instant(100));
+    List<WindowedValue<String>> elements = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      elements.add(valueInWindow("key" + i, new Instant(i), window));
+    }
+
+    TwoInputStreamOperatorTestHarness<WindowedValue<String>, RawUnionValue, WindowedValue<String>>
+        testHarness = harnesses.get(0);
+    testHarness.open();
+    for (WindowedValue<String> element : elements) {
+      testHarness.processElement1(new StreamRecord<>(element));
+    }
+    OperatorSubtaskState snapshot = testHarness.snapshot(0, 0);
+
+    // each instance only restores and releases the keys of its own key groups
+    List<WindowedValue<String>> released = new ArrayList<>();
+    for (TwoInputStreamOperatorTestHarness<
+        WindowedValue<String>, RawUnionValue, WindowedValue<String>> restored :
+        harnesses.subList(1, 3)) {
+      restored.initializeState(snapshot);
+      restored.open();
+      restored.processElement2(
+          new StreamRecord<>(
+              new RawUnionValue(
+                  1,
+                  valuesInWindow(
+                      ImmutableList.of(KV.of((Void) null, "foo")), new Instant(0), window))));
+      Iterables.addAll(released, stripStreamRecordFromWindowedValue(restored.getOutput()));
+      restored.close();
+    }
+    assertThat(released, containsInAnyOrder(elements.toArray()));
+  }
+
   @Test
   public void testStateRestore() throws Exception {
     DoFn<KV<String, Long>, KV<String, Long>> filterElementsEqualToCountFn =
@@ -946,9 +1171,10 @@ public class DoFnOperatorTest {
                     new Instant(0),
                     secondWindow))));
 
+    // the elements have different keys, keyed state does not keep them in order
     assertThat(
         stripStreamRecordFromWindowedValue(testHarness.getOutput()),
-        contains(helloElement, worldElement));
+        containsInAnyOrder(helloElement, worldElement));
 
     testHarness.close();
   }
@@ -1165,6 +1391,84 @@ public class DoFnOperatorTest {
     newHarness.close();
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testAdaptiveBundleSizeIgnoresIdleTime() throws Exception {
+
+    WindowedValue.ValueOnlyWindowedValueCoder<String> windowedValueCoder =
+        WindowedValue.getValueOnlyCoder(StringUtf8Coder.of());
+
+    TupleTag<String> outputTag = new TupleTag<>("main-output");
+    FlinkPipelineOptions options = PipelineOptionsFactory.as(FlinkPipelineOptions.class);
+    options.setAdaptiveBundleSize(true);
+    options.setMinBundleSize(2L);
+    options.setMaxBundleSize(4L);
+    options.setMaxBundleTimeMills(100L);
+
+    IdentityDoFn<String> doFn = new IdentityDoFn<String>() {
+      @FinishBundle
+      public void finishBundle(FinishBundleContext context) {
+        context.output(
+            "finishBundle", BoundedWindow.TIMESTAMP_MIN_VALUE, GlobalWindow.INSTANCE);
+      }
+    };
+
+    DoFnOperator.MultiOutputOutputManagerFactory<String> outputManagerFactory =
+        new DoFnOperator.MultiOutputOutputManagerFactory(
+            outputTag,
+            WindowedValue.getFullCoder(StringUtf8Coder.of(), GlobalWindow.Coder.INSTANCE));
+
+    DoFnOperator<String, String> doFnOperator =
+        new DoFnOperator<>(
+            doFn,
+            "stepName",
+            windowedValueCoder,
+            outputTag,
+            Collections.emptyList(),
+            outputManagerFactory,
+            WindowingStrategy.globalDefault(),
+            new HashMap<>(), /* side-input mapping */
+            Collections.emptyList(), /* side inputs */
+            options,
+            null,
+            null);
+
+    OneInputStreamOperatorTestHarness<WindowedValue<String>, WindowedValue<String>> testHarness =
+        new OneInputStreamOperatorTestHarness<>(doFnOperator);
+
+    testHarness.open();
+
+    // fast input grows the bundles from 2 to 4 elements
+    for (int i = 0; i < 8; i++) {
+      testHarness.processElement(new StreamRecord<>(WindowedValue.valueInGlobalWindow("fast")));
+    }
+
+    // slow input, bundles are finished by time after waiting longer than the latency target
+    long time = 0;
+    for (int i = 0; i < 8; i++) {
+      testHarness.processElement(new StreamRecord<>(WindowedValue.valueInGlobalWindow("slow")));
+      time += 70;
+      testHarness.setProcessingTime(time);
+    }
+    testHarness.setProcessingTime(time + 200);
+    testHarness.getOutput().clear();
+
+    // the waiting did not shrink the bundles
+    for (int i = 0; i < 4; i++) {
+      testHarness.processElement(new StreamRecord<>(WindowedValue.valueInGlobalWindow("fast")));
+    }
+    assertThat(
+        stripStreamRecordFromWindowedValue(testHarness.getOutput()),
+        contains(
+            WindowedValue.valueInGlobalWindow("fast"),
+            WindowedValue.valueInGlobalWindow("fast"),
+            WindowedValue.valueInGlobalWindow("fast"),
+            WindowedValue.valueInGlobalWindow("fast"),
+            WindowedValue.valueInGlobalWindow("finishBundle")));
+
+    testHarness.close();
+  }
+
   private Iterable<WindowedValue<String>> stripStreamRecord(Iterable<?> input) {
     return FluentIterable.from(input)
         .filter(o -> o instanceof StreamRecord)
@@ -24,6 +24,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -31,6 +32,7 @@ import static org.mockito.Mockito.when;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.protobuf.Struct;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import org.apache.beam.model.pipeline.v1.RunnerApi.Components;
@@ -57,6 +59,7 @@ import org.apache.commons.lang3.SerializationUtils;
 import org.apache.flink.api.common.cache.DistributedCache;
 import org.apache.flink.api.common.functions.RuntimeContext;
 import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.streaming.api.watermark.Watermark;
 import org.apache.flink.streaming.runtime.streamrecord.StreamRecord;
 import org.apache.flink.streaming.util.OneInputStreamOperatorTestHarness;
 import org.apache.flink.util.OutputTag;
@@ -66,6 +69,7 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -129,6 +133,45 @@ public class ExecutableStageDoFnOperatorTest {
     thrown.expectCause(is(expected));
 
     operator.processElement(new StreamRecord<>(WindowedValue.valueInGlobalWindow(0)));
+    testHarness.close();
+  }
+
+  @Test
+  public void elementsOfABundleAreSentInOneRemoteBundle() throws Exception {
+    TupleTag<Integer> mainOutput = new TupleTag<>("main-output");
+    DoFnOperator.MultiOutputOutputManagerFactory<Integer> outputManagerFactory =
+            new DoFnOperator.MultiOutputOutputManagerFactory(
+                    mainOutput, VoidCoder.of());
+    FlinkPipelineOptions options = PipelineOptionsFactory.as(FlinkPipelineOptions.class);
+    options.setMaxBundleSize(2L);
+    ExecutableStageDoFnOperator<Integer, Integer> operator = getOperator(mainOutput,
+            Collections.emptyList(),
+            outputManagerFactory,
+            options);
+
+    @SuppressWarnings("unchecked")
+    RemoteBundle<Integer> bundle = Mockito.mock(RemoteBundle.class);
+    when(stageBundleFactory.getBundle(any(), any(), any())).thenReturn(bundle);
+
+    @SuppressWarnings("unchecked")
+    FnDataReceiver<WindowedValue<Integer>> receiver = Mockito.mock(FnDataReceiver.class);
+    when(bundle.getInputReceiver()).thenReturn(receiver);
+
+    OneInputStreamOperatorTestHarness<WindowedValue<Integer>, WindowedValue<Integer>> testHarness =
+            new OneInputStreamOperatorTestHarness<>(operator);
+    testHarness.open();
+
+    testHarness.processElement(new StreamRecord<>(WindowedValue.valueInGlobalWindow(1)));
+    testHarness.processElement(new StreamRecord<>(WindowedValue.valueInGlobalWindow(2)));
+    testHarness.processElement(new StreamRecord<>(WindowedValue.valueInGlobalWindow(3)));
+    // the first bundle was closed when it was full, the second one is closed by the watermark
+    testHarness.processWatermark(0);
+
+    verify(stageBundleFactory, times(2)).getBundle(any(), any(), any());
+    verify(bundle, times(2)).close();
+    verify(receiver, times(3)).accept(any());
+
+    testHarness.close();
   }
 
   @Test
@@ -252,9 +295,11 @@ public class ExecutableStageDoFnOperatorTest {
     testHarness.open();
 
     testHarness.processElement(new StreamRecord<>(zero));
+    // outputs are emitted once the remote bundle is complete, before the watermark
+    testHarness.processWatermark(0);
 
     assertThat(testHarness.getOutput(),
-            contains(new StreamRecord<>(three)));
+            contains(new StreamRecord<>(three), new Watermark(0)));
 
     assertThat(testHarness.getSideOutput(tagsToOutputTags.get(additionalOutput1)),
             contains(new StreamRecord<>(four)));
@@ -266,6 +311,158 @@ public class ExecutableStageDoFnOperatorTest {
 
   }
 
+  @Test(timeout = 60_000)
+  public void outputsOfAClosingBundleAreEmittedWhileWaiting() throws Exception {
+    WindowedValue.ValueOnlyWindowedValueCoder<Integer> coder =
+            WindowedValue.getValueOnlyCoder(VarIntCoder.of());
+
+    TupleTag<Integer> mainOutput = new TupleTag<>("main-output");
+    DoFnOperator.MultiOutputOutputManagerFactory<Integer> outputManagerFactory =
+            new DoFnOperator.MultiOutputOutputManagerFactory(mainOutput, coder);
+
+    // the outputs of the bundle arrive while the operator waits for it to close
+    int numOutputs = 5000;
+    StageBundleFactory<Void> stageBundleFactory =
+        new StageBundleFactory<Void>() {
+          @Override
+          public RemoteBundle<Void> getBundle(
+              OutputReceiverFactory receiverFactory, StateRequestHandler stateRequestHandler,
+              BundleProgressHandler progressHandler) {
+            return new RemoteBundle<Void>() {
+              @Override
+              public String getId() {
+                return "bundle-id";
+              }
+
+              @Override
+              public FnDataReceiver<WindowedValue<Void>> getInputReceiver() {
+                return input -> {/* Ignore input*/};
+              }
+
+              @Override
+              public void close() throws Exception {
+                FnDataReceiver<WindowedValue<Integer>> receiver =
+                    receiverFactory.create(mainOutput.getId());
+                for (int i = 0; i < numOutputs; i++) {
+                  receiver.accept(WindowedValue.valueInGlobalWindow(i));
+                }
+              }
+            };
+          }
+
+          @Override
+          public void close() {}
+        };
+    when(stageContext.<Void>getStageBundleFactory(any())).thenReturn(stageBundleFactory);
+
+    ExecutableStageDoFnOperator<Integer, Integer> operator = getOperator(mainOutput,
+            Collections.emptyList(),
+            outputManagerFactory
+    );
+
+    OneInputStreamOperatorTestHarness<WindowedValue<Integer>, WindowedValue<Integer>> testHarness =
+            new OneInputStreamOperatorTestHarness<>(operator);
+
+    testHarness.open();
+
+    testHarness.processElement(new StreamRecord<>(WindowedValue.valueInGlobalWindow(0)));
+    testHarness.processWatermark(0);
+
+    List<Object> output = new ArrayList<>(testHarness.getOutput());
+    assertThat(output.size(), is(numOutputs + 1));
+    assertThat(output.get(numOutputs), is(new Watermark(0)));
+
+    testHarness.close();
+  }
+
+  @Test
+  public void outputsAreEmittedInProcessingTime() throws Exception {
+    WindowedValue.ValueOnlyWindowedValueCoder<Integer> coder =
+            WindowedValue.getValueOnlyCoder(VarIntCoder.of());
+
+    TupleTag<Integer> mainOutput = new TupleTag<>("main-output");
+    DoFnOperator.MultiOutputOutputManagerFactory<Integer> outputManagerFactory =
+            new DoFnOperator.MultiOutputOutputManagerFactory(mainOutput, coder);
+
+    @SuppressWarnings("unchecked")
+    RemoteBundle<Integer> bundle = Mockito.mock(RemoteBundle.class);
+    ArgumentCaptor<OutputReceiverFactory> receiverFactory =
+            ArgumentCaptor.forClass(OutputReceiverFactory.class);
+    when(stageBundleFactory.getBundle(receiverFactory.capture(), any(), any())).thenReturn(bundle);
+
+    @SuppressWarnings("unchecked")
+    FnDataReceiver<WindowedValue<Integer>> receiver = Mockito.mock(FnDataReceiver.class);
+    when(bundle.getInputReceiver()).thenReturn(receiver);
+
+    ExecutableStageDoFnOperator<Integer, Integer> operator = getOperator(mainOutput,
+            Collections.emptyList(),
+            outputManagerFactory
+    );
+
+    OneInputStreamOperatorTestHarness<WindowedValue<Integer>, WindowedValue<Integer>> testHarness =
+            new OneInputStreamOperatorTestHarness<>(operator);
+
+    testHarness.open();
+
+    testHarness.processElement(new StreamRecord<>(WindowedValue.valueInGlobalWindow(0)));
+
+    // the SDK harness outputs while the bundle is still open and no more elements arrive
+    WindowedValue<Integer> one = WindowedValue.valueInGlobalWindow(1);
+    receiverFactory.getValue().<WindowedValue<Integer>>create(mainOutput.getId()).accept(one);
+    assertThat(testHarness.getOutput().isEmpty(), is(true));
+
+    testHarness.setProcessingTime(100);
+    assertThat(testHarness.getOutput(), contains(new StreamRecord<>(one)));
+
+    testHarness.close();
+  }
+
+  @Test(timeout = 60_000)
+  public void outputsNeverBlockTheDataPlane() throws Exception {
+    WindowedValue.ValueOnlyWindowedValueCoder<Integer> coder =
+            WindowedValue.getValueOnlyCoder(VarIntCoder.of());
+
+    TupleTag<Integer> mainOutput = new TupleTag<>("main-output");
+    DoFnOperator.MultiOutputOutputManagerFactory<Integer> outputManagerFactory =
+            new DoFnOperator.MultiOutputOutputManagerFactory(mainOutput, coder);
+
+    @SuppressWarnings("unchecked")
+    RemoteBundle<Integer> bundle = Mockito.mock(RemoteBundle.class);
+    ArgumentCaptor<OutputReceiverFactory> receiverFactory =
+            ArgumentCaptor.forClass(OutputReceiverFactory.class);
+    when(stageBundleFactory.getBundle(receiverFactory.capture(), any(), any())).thenReturn(bundle);
+
+    @SuppressWarnings("unchecked")
+    FnDataReceiver<WindowedValue<Integer>> receiver = Mockito.mock(FnDataReceiver.class);
+    when(bundle.getInputReceiver()).thenReturn(receiver);
+
+    ExecutableStageDoFnOperator<Integer, Integer> operator = getOperator(mainOutput,
+            Collections.emptyList(),
+            outputManagerFactory
+    );
+
+    OneInputStreamOperatorTestHarness<WindowedValue<Integer>, WindowedValue<Integer>> testHarness =
+            new OneInputStreamOperatorTestHarness<>(operator);
+
+    testHarness.open();
+
+    testHarness.processElement(new StreamRecord<>(WindowedValue.valueInGlobalWindow(0)));
+
+    // the data plane is shared by all stages, it must not wait for this operator to emit
+    int numOutputs = 5000;
+    FnDataReceiver<WindowedValue<Integer>> output =
+        receiverFactory.getValue().create(mainOutput.getId());
+    for (int i = 0; i < numOutputs; i++) {
+      output.accept(WindowedValue.valueInGlobalWindow(i));
+    }
+    assertThat(testHarness.getOutput().isEmpty(), is(true));
+
+    testHarness.setProcessingTime(100);
+    assertThat(testHarness.getOutput().size(), is(numOutputs));
+
+    testHarness.close();
+  }
+
   @Test
   public void testStageBundleClosed() throws Exception {
     TupleTag<Integer> mainOutput = new TupleTag<>("main-output");
@@ -343,6 +540,14 @@ public class ExecutableStageDoFnOperatorTest {
   private ExecutableStageDoFnOperator<Integer, Integer> getOperator(TupleTag<Integer> mainOutput,
                   List<TupleTag<?>> additionalOutputs,
                   DoFnOperator.MultiOutputOutputManagerFactory<Integer> outputManagerFactory) {
+    return getOperator(mainOutput, additionalOutputs, outputManagerFactory,
+            PipelineOptionsFactory.as(FlinkPipelineOptions.class));
+  }
+
+  private ExecutableStageDoFnOperator<Integer, Integer> getOperator(TupleTag<Integer> mainOutput,
+                  List<TupleTag<?>> additionalOutputs,
+                  DoFnOperator.MultiOutputOutputManagerFactory<Integer> outputManagerFactory,
+                  FlinkPipelineOptions options) {
 
     FlinkExecutableStageContext.Factory contextFactory =
             Mockito.mock(FlinkExecutableStageContext.Factory.class);
@@ -357,7 +562,7 @@ public class ExecutableStageDoFnOperatorTest {
                     outputManagerFactory,
                     Collections.emptyMap() /* sideInputTagMapping */,
                     Collections.emptyList() /* sideInputs */,
-                    PipelineOptionsFactory.as(FlinkPipelineOptions.class),
+                    options,
                     stagePayload,
                     jobInfo,
                     contextFactory
@@ -17,11 +17,26 @@
  */
 package org.apache.beam.runners.flink.streaming;
 
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import org.apache.beam.runners.core.StateInternals;
 import org.apache.beam.runners.core.StateInternalsTest;
+import org.apache.beam.runners.core.StateNamespaces;
+import org.apache.beam.runners.core.StateTag;
+import org.apache.beam.runners.core.StateTags;
 import org.apache.beam.runners.flink.translation.wrappers.streaming.state.FlinkStateInternals;
+import org.apache.beam.sdk.coders.CoderException;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.state.BagState;
+import org.apache.beam.sdk.state.CombiningState;
+import org.apache.beam.sdk.transforms.Sum;
 import org.apache.beam.sdk.util.CoderUtils;
 import org.apache.flink.api.common.ExecutionConfig;
 import org.apache.flink.api.common.JobID;
@@ -32,6 +47,7 @@ import org.apache.flink.runtime.query.KvStateRegistry;
 import org.apache.flink.runtime.state.AbstractKeyedStateBackend;
 import org.apache.flink.runtime.state.KeyGroupRange;
 import org.apache.flink.runtime.state.memory.MemoryStateBackend;
+import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
@@ -41,11 +57,85 @@ import org.junit.runners.JUnit4;
 @RunWith(JUnit4.class)
 public class FlinkStateInternalsTest extends StateInternalsTest {
 
+  private static final StateTag<BagState<String>> STRING_BAG_ADDR =
+      StateTags.bag("stringBag", StringUtf8Coder.of());
+  private static final StateTag<CombiningState<Integer, int[], Integer>> SUM_INTEGER_ADDR =
+      StateTags.combiningValueFromInputInternal("sumInteger", VarIntCoder.of(), Sum.ofIntegers());
+
   @Override
   protected StateInternals createStateInternals() {
+    AbstractKeyedStateBackend<ByteBuffer> keyedStateBackend = createStateBackend();
+    keyedStateBackend.setCurrentKey(encodeKey("Hello"));
+    return new FlinkStateInternals<>(keyedStateBackend, StringUtf8Coder.of());
+  }
+
+  @Test
+  public void testBagAddWhileIterating() throws Exception {
+    StateInternals stateInternals = createStateInternals();
+    BagState<String> bag = stateInternals.state(StateNamespaces.global(), STRING_BAG_ADDR);
+    bag.add("a");
+    bag.add("b");
+
+    List<String> read = new ArrayList<>();
+    for (String value : bag.read()) {
+      read.add(value);
+      bag.add(value + "'");
+    }
+    assertThat(read, contains("a", "b"));
+    assertThat(bag.read(), contains("a", "b", "a'", "b'"));
+  }
+
+  @Test
+  public void testBagClearAfterRead() throws Exception {
+    StateInternals stateInternals = createStateInternals();
+    BagState<String> bag = stateInternals.state(StateNamespaces.global(), STRING_BAG_ADDR);
+    bag.add("a");
+    bag.add("b");
+
+    Iterable<String> read = bag.read();
+    bag.clear();
+    bag.add("c");
+    assertThat(read, contains("a", "b"));
+    assertThat(bag.read(), contains("c"));
+  }
+
+  @Test
+  public void testCombiningStateIsCachedUntilFlush() throws Exception {
+    AbstractKeyedStateBackend<ByteBuffer> keyedStateBackend = createStateBackend();
+    FlinkStateInternals<String> stateInternals =
+        new FlinkStateInternals<>(keyedStateBackend, StringUtf8Coder.of());
+    // Reads the state backend directly, as the cache is per instance.
+    FlinkStateInternals<String> uncached =
+        new FlinkStateInternals<>(keyedStateBackend, StringUtf8Coder.of());
+
+    keyedStateBackend.setCurrentKey(encodeKey("a"));
+    stateInternals.state(StateNamespaces.global(), SUM_INTEGER_ADDR).add(1);
+    stateInternals.state(StateNamespaces.global(), SUM_INTEGER_ADDR).add(2);
+    keyedStateBackend.setCurrentKey(encodeKey("b"));
+    stateInternals.state(StateNamespaces.global(), SUM_INTEGER_ADDR).add(10);
+    assertThat(
+        uncached.state(StateNamespaces.global(), SUM_INTEGER_ADDR).isEmpty().read(), is(true));
+    assertThat(
+        stateInternals.state(StateNamespaces.global(), SUM_INTEGER_ADDR).isEmpty().read(),
+        is(false));
+
+    stateInternals.flush();
+    assertThat(keyedStateBackend.getCurrentKey(), equalTo(encodeKey("b")));
+    assertThat(uncached.state(StateNamespaces.global(), SUM_INTEGER_ADDR).read(), equalTo(10));
+    keyedStateBackend.setCurrentKey(encodeKey("a"));
+    assertThat(uncached.state(StateNamespaces.global(), SUM_INTEGER_ADDR).read(), equalTo(3));
+
+    // Reading merges the cached accumulator into the stored one.
+    stateInternals.state(StateNamespaces.global(), SUM_INTEGER_ADDR).add(4);
+    assertThat(
+        stateInternals.state(StateNamespaces.global(), SUM_INTEGER_ADDR).read(), equalTo(7));
+    assertThat(uncached.state(StateNamespaces.global(), SUM_INTEGER_ADDR).read(), equalTo(7));
+  }
+
+  private static AbstractKeyedStateBackend<ByteBuffer> createStateBackend() {
     MemoryStateBackend backend = new MemoryStateBackend();
     try {
-      AbstractKeyedStateBackend<ByteBuffer> keyedStateBackend = backend.createKeyedStateBackend(
+      return backend.createKeyedStateBackend(
           new DummyEnvironment("test", 1, 0),
           new JobID(),
           "test_op",
@@ -53,14 +143,16 @@ public class FlinkStateInternalsTest extends StateInternalsTest {
           1,
           new KeyGroupRange(0, 0),
           new KvStateRegistry().createTaskRegistry(new JobID(), new JobVertexID()));
-
-      keyedStateBackend.setCurrentKey(
-          ByteBuffer.wrap(CoderUtils.encodeToByteArray(StringUtf8Coder.of(), "Hello")));
-
-      return new FlinkStateInternals<>(keyedStateBackend, StringUtf8Coder.of());
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
   }
 
+  private static ByteBuffer encodeKey(String key) {
+    try {
+      return ByteBuffer.wrap(CoderUtils.encodeToByteArray(StringUtf8Coder.of(), key));
+    } catch (CoderException e) {
+      throw new RuntimeException(e);
+    }
+  }
 }
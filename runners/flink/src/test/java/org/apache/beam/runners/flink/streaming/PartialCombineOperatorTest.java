@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.flink.streaming;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.beam.runners.flink.translation.wrappers.streaming.PartialCombineOperator;
+import org.apache.beam.runners.flink.translation.wrappers.streaming.PartialCombineOperator.MergeAccumulatorsFn;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderRegistry;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
+import org.apache.beam.sdk.transforms.Sum;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.beam.sdk.values.KV;
+import org.apache.flink.runtime.checkpoint.OperatorSubtaskState;
+import org.apache.flink.streaming.api.watermark.Watermark;
+import org.apache.flink.streaming.runtime.streamrecord.StreamRecord;
+import org.apache.flink.streaming.util.OneInputStreamOperatorTestHarness;
+import org.joda.time.Instant;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link PartialCombineOperator}.
+ */
+@RunWith(JUnit4.class)
+public class PartialCombineOperatorTest {
+
+  private static final IntervalWindow WINDOW_1 =
+      new IntervalWindow(new Instant(0), new Instant(10));
+  private static final IntervalWindow WINDOW_2 =
+      new IntervalWindow(new Instant(10), new Instant(20));
+
+  private final CombineFn<Long, long[], Long> combineFn = Sum.ofLongs();
+
+  @Test
+  public void testCombinesPerKeyAndWindowBeforeWatermark() throws Exception {
+    OneInputStreamOperatorTestHarness<WindowedValue<KV<String, Long>>,
+        WindowedValue<KV<String, long[]>>> testHarness = createTestHarness(100);
+    testHarness.open();
+
+    testHarness.processElement(element("a", 1L, WINDOW_1));
+    testHarness.processElement(element("a", 2L, WINDOW_1));
+    testHarness.processElement(element("b", 3L, WINDOW_1));
+    testHarness.processElement(element("a", 4L, WINDOW_2));
+    assertThat(testHarness.getOutput(), emptyIterable());
+
+    // Only the accumulators of windows that ended are output.
+    testHarness.processWatermark(new Watermark(5));
+    assertThat(sums(testHarness), emptyIterable());
+    testHarness.processWatermark(new Watermark(WINDOW_1.maxTimestamp().getMillis()));
+    assertThat(
+        sums(testHarness), containsInAnyOrder(sum("a", 3L, WINDOW_1), sum("b", 3L, WINDOW_1)));
+    // The watermark is only forwarded after the accumulators.
+    List<Object> output = new ArrayList<>(testHarness.getOutput());
+    assertThat(output.get(output.size() - 1), instanceOf(Watermark.class));
+
+    testHarness.processElement(element("a", 5L, WINDOW_2));
+    testHarness.processWatermark(new Watermark(WINDOW_2.maxTimestamp().getMillis()));
+    assertThat(
+        sums(testHarness),
+        containsInAnyOrder(sum("a", 3L, WINDOW_1), sum("b", 3L, WINDOW_1), sum("a", 9L, WINDOW_2)));
+
+    testHarness.close();
+  }
+
+  @Test
+  public void testFlushesWhenFull() throws Exception {
+    OneInputStreamOperatorTestHarness<WindowedValue<KV<String, Long>>,
+        WindowedValue<KV<String, long[]>>> testHarness = createTestHarness(1);
+    testHarness.open();
+
+    testHarness.processElement(element("a", 1L, WINDOW_1));
+    testHarness.processElement(element("a", 2L, WINDOW_1));
+    testHarness.processElement(element("b", 3L, WINDOW_1));
+    assertThat(sums(testHarness), contains(sum("a", 3L, WINDOW_1)));
+
+    testHarness.close();
+    assertThat(sums(testHarness), contains(sum("a", 3L, WINDOW_1), sum("b", 3L, WINDOW_1)));
+  }
+
+  @Test
+  public void testOutputsCheckpointedAccumulatorsOnRestore() throws Exception {
+    OneInputStreamOperatorTestHarness<WindowedValue<KV<String, Long>>,
+        WindowedValue<KV<String, long[]>>> testHarness = createTestHarness(100);
+    testHarness.open();
+
+    testHarness.processElement(element("a", 1L, WINDOW_1));
+    testHarness.processElement(element("a", 2L, WINDOW_1));
+    OperatorSubtaskState snapshot = testHarness.snapshot(0, 0);
+    // The accumulators are output when the checkpoint is taken.
+    assertThat(sums(testHarness), contains(sum("a", 3L, WINDOW_1)));
+    testHarness.close();
+
+    testHarness = createTestHarness(100);
+    testHarness.initializeState(snapshot);
+    testHarness.open();
+    assertThat(sums(testHarness), contains(sum("a", 3L, WINDOW_1)));
+
+    // They are not stored in later checkpoints.
+    snapshot = testHarness.snapshot(1, 1);
+    testHarness.close();
+    testHarness = createTestHarness(100);
+    testHarness.initializeState(snapshot);
+    testHarness.open();
+    assertThat(sums(testHarness), emptyIterable());
+    testHarness.close();
+  }
+
+  @Test
+  public void testMergeAccumulatorsFn() throws Exception {
+    MergeAccumulatorsFn<Long, long[], Long> mergeFn =
+        new MergeAccumulatorsFn<>(
+            combineFn, accumulatorCoder(), VarLongCoder.of());
+    long[] accumulator = mergeFn.createAccumulator();
+    accumulator = mergeFn.addInput(accumulator, new long[] {3L});
+    accumulator = mergeFn.addInput(accumulator, new long[] {4L});
+    assertEquals(7L, (long) mergeFn.extractOutput(accumulator));
+  }
+
+  private OneInputStreamOperatorTestHarness<WindowedValue<KV<String, Long>>,
+      WindowedValue<KV<String, long[]>>> createTestHarness(int maxEntries) throws Exception {
+    @SuppressWarnings("unchecked")
+    Coder<BoundedWindow> windowCoder = (Coder) IntervalWindow.getCoder();
+    return new OneInputStreamOperatorTestHarness<>(
+        new PartialCombineOperator<>(
+            combineFn,
+            StringUtf8Coder.of(),
+            accumulatorCoder(),
+            windowCoder,
+            maxEntries,
+            Long.MAX_VALUE));
+  }
+
+  private Coder<long[]> accumulatorCoder() throws Exception {
+    return combineFn.getAccumulatorCoder(CoderRegistry.createDefault(), VarLongCoder.of());
+  }
+
+  private static StreamRecord<WindowedValue<KV<String, Long>>> element(
+      String key, long value, IntervalWindow window) {
+    return new StreamRecord<>(
+        WindowedValue.of(KV.of(key, value), window.start(), window, PaneInfo.NO_FIRING));
+  }
+
+  private static WindowedValue<KV<String, Long>> sum(
+      String key, long value, IntervalWindow window) {
+    return WindowedValue.of(KV.of(key, value), window.maxTimestamp(), window, PaneInfo.NO_FIRING);
+  }
+
+  private static List<WindowedValue<KV<String, Long>>> sums(
+      OneInputStreamOperatorTestHarness<?, WindowedValue<KV<String, long[]>>> testHarness) {
+    List<WindowedValue<KV<String, Long>>> sums = new ArrayList<>();
+    for (WindowedValue<KV<String, long[]>> accumulator :
+        StreamRecordStripper.<KV<String, long[]>>stripStreamRecordFromWindowedValue(
+            testHarness.getOutput())) {
+      KV<String, long[]> kv = accumulator.getValue();
+      sums.add(accumulator.withValue(KV.of(kv.getKey(), kv.getValue()[0])));
+    }
+    return sums;
+  }
+}
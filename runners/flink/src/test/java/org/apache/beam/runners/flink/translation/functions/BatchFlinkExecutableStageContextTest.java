@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.flink.translation.functions;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.apache.beam.runners.core.construction.graph.ExecutableStage;
+import org.apache.beam.runners.fnexecution.control.JobBundleFactory;
+import org.apache.beam.runners.fnexecution.control.StageBundleFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/** Tests for {@link BatchFlinkExecutableStageContext}. */
+@RunWith(JUnit4.class)
+public class BatchFlinkExecutableStageContextTest {
+
+  @Mock private JobBundleFactory jobBundleFactory;
+  @Mock private StageBundleFactory<Object> stageBundleFactory;
+  @Mock private ExecutableStage executableStage;
+
+  private BatchFlinkExecutableStageContext context;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    when(jobBundleFactory.<Object>forStage(executableStage)).thenReturn(stageBundleFactory);
+    context = new BatchFlinkExecutableStageContext(jobBundleFactory);
+  }
+
+  @Test
+  public void testStageBundleFactoryClosedAfterLastReference() throws Exception {
+    StageBundleFactory<Object> first = context.getStageBundleFactory(executableStage);
+    StageBundleFactory<Object> second = context.getStageBundleFactory(executableStage);
+    verify(jobBundleFactory, times(1)).forStage(executableStage);
+
+    first.close();
+    // closing a reference again does not release another one
+    first.close();
+    verify(stageBundleFactory, never()).close();
+
+    second.close();
+    verify(stageBundleFactory, times(1)).close();
+  }
+
+  @Test
+  public void testStageBundleFactoryRecreatedAfterClose() throws Exception {
+    @SuppressWarnings("unchecked")
+    StageBundleFactory<Object> stageBundleFactory2 = mock(StageBundleFactory.class);
+    when(jobBundleFactory.<Object>forStage(executableStage))
+        .thenReturn(stageBundleFactory, stageBundleFactory2);
+
+    context.getStageBundleFactory(executableStage).close();
+    verify(stageBundleFactory, times(1)).close();
+
+    StageBundleFactory<Object> second = context.getStageBundleFactory(executableStage);
+    verify(jobBundleFactory, times(2)).forStage(executableStage);
+    second.close();
+    verify(stageBundleFactory2, times(1)).close();
+  }
+}
@@ -44,6 +44,7 @@ import org.apache.beam.sdk.util.WindowedValue;
 import org.apache.flink.api.common.cache.DistributedCache;
 import org.apache.flink.api.common.functions.RuntimeContext;
 import org.apache.flink.configuration.Configuration;
+import org.apache.flink.metrics.groups.UnregisteredMetricsGroup;
 import org.apache.flink.util.Collector;
 import org.hamcrest.Matchers;
 import org.junit.Before;
@@ -84,6 +85,7 @@ public class FlinkExecutableStageFunctionTest {
   public void setUpMocks() {
     MockitoAnnotations.initMocks(this);
     when(runtimeContext.getDistributedCache()).thenReturn(distributedCache);
+    when(runtimeContext.getMetricGroup()).thenReturn(new UnregisteredMetricsGroup());
     when(stageContext.getStateRequestHandler(any(), any())).thenReturn(stateRequestHandler);
     when(stageContext.<Integer>getStageBundleFactory(any())).thenReturn(stageBundleFactory);
   }
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.flink.translation.functions;
+
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.beam.runners.core.construction.SerializablePipelineOptions;
+import org.apache.beam.runners.flink.FlinkPipelineOptions;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.state.TimeDomain;
+import org.apache.beam.sdk.state.Timer;
+import org.apache.beam.sdk.state.TimerSpec;
+import org.apache.beam.sdk.state.TimerSpecs;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.join.RawUnionValue;
+import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.TupleTag;
+import org.apache.beam.sdk.values.WindowingStrategy;
+import org.apache.flink.api.common.functions.RuntimeContext;
+import org.apache.flink.api.common.functions.util.ListCollector;
+import org.apache.flink.configuration.Configuration;
+import org.joda.time.Instant;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+/** Tests for {@link FlinkStatefulDoFnFunction}. */
+@RunWith(JUnit4.class)
+public class FlinkStatefulDoFnFunctionTest {
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void timerResetByAnotherTimerFiresOnce() throws Exception {
+    FlinkPipelineOptions options = PipelineOptionsFactory.as(FlinkPipelineOptions.class);
+    options.setEnableMetrics(false);
+    TupleTag<String> mainOutput = new TupleTag<>("main");
+    FlinkStatefulDoFnFunction<String, Integer, String> function =
+        new FlinkStatefulDoFnFunction<>(
+            new ResetTimerFn(),
+            "step",
+            WindowingStrategy.globalDefault(),
+            Collections.emptyMap(),
+            new SerializablePipelineOptions(options).get(),
+            Collections.singletonMap(mainOutput, 0),
+            mainOutput);
+    function.setRuntimeContext(Mockito.mock(RuntimeContext.class));
+    function.open(new Configuration());
+
+    List<WindowedValue<RawUnionValue>> output = new ArrayList<>();
+    function.reduce(
+        Collections.singletonList(WindowedValue.valueInGlobalWindow(KV.of("key", 1))),
+        (ListCollector) new ListCollector<>(output));
+    function.close();
+
+    List<Object> values = new ArrayList<>();
+    for (WindowedValue<RawUnionValue> value : output) {
+      values.add(value.getValue().getValue());
+    }
+    // The second timer was reset by the first, so it only fires at its new time.
+    assertThat(values, contains("first@1", "second@3"));
+  }
+
+  private static class ResetTimerFn extends DoFn<KV<String, Integer>, String> {
+    @TimerId("first")
+    private final TimerSpec firstSpec = TimerSpecs.timer(TimeDomain.EVENT_TIME);
+
+    @TimerId("second")
+    private final TimerSpec secondSpec = TimerSpecs.timer(TimeDomain.EVENT_TIME);
+
+    @ProcessElement
+    public void processElement(@TimerId("first") Timer first, @TimerId("second") Timer second) {
+      first.set(new Instant(1));
+      second.set(new Instant(2));
+    }
+
+    @OnTimer("first")
+    public void onFirst(OnTimerContext c, @TimerId("second") Timer second) {
+      c.output("first@" + c.timestamp().getMillis());
+      second.set(new Instant(3));
+    }
+
+    @OnTimer("second")
+    public void onSecond(OnTimerContext c) {
+      c.output("second@" + c.timestamp().getMillis());
+    }
+  }
+}
@@ -17,16 +17,22 @@
  */
 package org.apache.beam.runners.flink.translation.types;
 
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import org.apache.beam.runners.flink.translation.types.CoderTypeSerializer.CoderTypeSerializerConfigSnapshot;
 import org.apache.beam.sdk.coders.AtomicCoder;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.CoderException;
+import org.apache.beam.sdk.coders.ListCoder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.flink.api.common.typeutils.ComparatorTestBase;
 import org.apache.flink.api.common.typeutils.TypeSerializerConfigSnapshot;
@@ -62,6 +68,29 @@ public class CoderTypeSerializerTest {
     testWriteAndReadConfigSnapshot(concreteClassCoder);
   }
 
+  @Test
+  public void shouldCopyDeeplyByDefault() {
+    List<String> value = new ArrayList<>(Arrays.asList("a", "b"));
+    CoderTypeSerializer<List<String>> serializer =
+        new CoderTypeSerializer<>(ListCoder.of(StringUtf8Coder.of()));
+
+    List<String> copy = serializer.copy(value);
+    assertThat(copy, is(value));
+    assertThat(copy, not(sameInstance(value)));
+  }
+
+  @Test
+  public void shouldNotCopyWithFasterCopy() {
+    List<String> value = new ArrayList<>(Arrays.asList("a", "b"));
+    CoderTypeSerializer<List<String>> serializer =
+        new CoderTypeSerializer<>(ListCoder.of(StringUtf8Coder.of()), true);
+
+    assertThat(serializer.copy(value), sameInstance(value));
+    assertThat(serializer.duplicate().copy(value), sameInstance(value));
+    assertThat(
+        serializer, not(new CoderTypeSerializer<>(ListCoder.of(StringUtf8Coder.of()))));
+  }
+
   private void testWriteAndReadConfigSnapshot(Coder<String> coder) throws IOException {
     CoderTypeSerializer<String> serializer = new CoderTypeSerializer<>(coder);
 
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.flink.translation.types;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+import org.apache.beam.sdk.coders.BigEndianLongCoder;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.util.CoderUtils;
+import org.apache.beam.sdk.values.KV;
+import org.junit.Test;
+
+/**
+ * Tests {@link OrderedKeyEncoder}.
+ */
+public class OrderedKeyEncoderTest {
+
+  private final EncodedValueComparator comparator = new EncodedValueComparator(true);
+
+  @Test
+  public void shouldPreserveOrderOfLongs() throws Exception {
+    List<Long> sorted = Arrays.asList(
+        Long.MIN_VALUE, -1000000000000L, -256L, -1L, 0L, 1L, 255L, 256L, Long.MAX_VALUE);
+    checkPreservesOrder(VarLongCoder.of(), sorted, 8);
+    checkPreservesOrder(BigEndianLongCoder.of(), sorted, 8);
+  }
+
+  @Test
+  public void shouldPreserveOrderOfIntegers() throws Exception {
+    checkPreservesOrder(
+        VarIntCoder.of(),
+        Arrays.asList(Integer.MIN_VALUE, -65536, -1, 0, 1, 127, 128, Integer.MAX_VALUE),
+        4);
+  }
+
+  @Test
+  public void shouldPreserveOrderOfStrings() throws Exception {
+    checkPreservesOrder(
+        StringUtf8Coder.of(),
+        Arrays.asList("", "a", "a\u0000", "ab", "b", "\u00e9", "\uffff"),
+        OrderedKeyEncoder.VARIABLE_LENGTH);
+  }
+
+  @Test
+  public void shouldUseCoderForOtherKeys() throws Exception {
+    KvCoder<String, Long> coder = KvCoder.of(StringUtf8Coder.of(), VarLongCoder.of());
+    OrderedKeyEncoder<KV<String, Long>> encoder = OrderedKeyEncoder.of(coder);
+    KV<String, Long> key = KV.of("key", 17L);
+
+    assertArrayEquals(CoderUtils.encodeToByteArray(coder, key), encoder.encode(key));
+    assertEquals(OrderedKeyEncoder.VARIABLE_LENGTH, encoder.getEncodedLength());
+  }
+
+  private <T> void checkPreservesOrder(Coder<T> coder, List<T> sorted, int encodedLength)
+      throws Exception {
+    OrderedKeyEncoder<T> encoder = OrderedKeyEncoder.of(coder);
+    assertEquals(encodedLength, encoder.getEncodedLength());
+    for (int i = 0; i < sorted.size(); i++) {
+      byte[] encoded = encoder.encode(sorted.get(i));
+      if (encodedLength != OrderedKeyEncoder.VARIABLE_LENGTH) {
+        assertEquals(encodedLength, encoded.length);
+      }
+      for (int j = 0; j < sorted.size(); j++) {
+        int result = comparator.compare(encoded, encoder.encode(sorted.get(j)));
+        if (i < j) {
+          assertThat(result, lessThan(0));
+        } else if (i > j) {
+          assertThat(result, greaterThan(0));
+        } else {
+          assertEquals(0, result);
+        }
+      }
+    }
+  }
+}
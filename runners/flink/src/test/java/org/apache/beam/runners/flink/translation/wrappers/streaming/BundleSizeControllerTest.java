@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.flink.translation.wrappers.streaming;
+
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link BundleSizeController}. */
+@RunWith(JUnit4.class)
+public class BundleSizeControllerTest {
+
+  @Test
+  public void testFixedSizeNeverChanges() {
+    BundleSizeController controller = BundleSizeController.fixed(1000);
+    for (int i = 0; i < 100; i++) {
+      controller.bundleFinished(1000, millis(1));
+      controller.checkpointFlushed(millis(i * 100));
+    }
+    assertEquals(1000L, controller.getBundleSize());
+  }
+
+  @Test
+  public void testGrowsWhileThroughputImproves() {
+    BundleSizeController controller = BundleSizeController.adaptive(10, 100, 1000);
+    assertEquals(10L, controller.getBundleSize());
+
+    // each bundle costs a fixed 10ms plus 1ms per 10 elements
+    finishFullBundles(controller, 10);
+    assertEquals(20L, controller.getBundleSize());
+    finishFullBundles(controller, 10);
+    assertEquals(40L, controller.getBundleSize());
+    finishFullBundles(controller, 10);
+    finishFullBundles(controller, 10);
+    assertEquals(100L, controller.getBundleSize());
+    finishFullBundles(controller, 10);
+    assertEquals(100L, controller.getBundleSize());
+  }
+
+  @Test
+  public void testGoesBackWhenThroughputDoesNotImprove() {
+    BundleSizeController controller = BundleSizeController.adaptive(10, 1000, 1000);
+    for (int i = 0; i < BundleSizeController.SAMPLES; i++) {
+      controller.bundleFinished(10, millis(10));
+    }
+    assertEquals(20L, controller.getBundleSize());
+
+    // twice the elements take twice as long
+    for (int i = 0; i < BundleSizeController.SAMPLES; i++) {
+      controller.bundleFinished(20, millis(20));
+    }
+    assertEquals(10L, controller.getBundleSize());
+  }
+
+  @Test
+  public void testOnlySamplesFullBundles() {
+    BundleSizeController controller = BundleSizeController.adaptive(10, 100, 1000);
+    for (int i = 0; i < 10 * BundleSizeController.SAMPLES; i++) {
+      controller.bundleFinished(5, millis(1));
+    }
+    assertEquals(10L, controller.getBundleSize());
+  }
+
+  @Test
+  public void testShrinksWhenLatencyExceedsTarget() {
+    BundleSizeController controller = BundleSizeController.adaptive(10, 100, 1000);
+    finishFullBundles(controller, 10);
+    finishFullBundles(controller, 10);
+    assertEquals(40L, controller.getBundleSize());
+
+    controller.bundleFinished(40, millis(1001));
+    assertEquals(20L, controller.getBundleSize());
+    controller.bundleFinished(20, millis(1001));
+    controller.bundleFinished(10, millis(1001));
+    assertEquals(10L, controller.getBundleSize());
+  }
+
+  @Test
+  public void testShrinksWhenCheckpointFlushRises() {
+    BundleSizeController controller = BundleSizeController.adaptive(10, 100, 1000);
+    finishFullBundles(controller, 10);
+    finishFullBundles(controller, 10);
+    assertEquals(40L, controller.getBundleSize());
+
+    for (int i = 0; i < 5; i++) {
+      controller.checkpointFlushed(millis(20));
+    }
+    assertEquals(40L, controller.getBundleSize());
+    controller.checkpointFlushed(millis(100));
+    assertEquals(20L, controller.getBundleSize());
+  }
+
+  @Test
+  public void testDoesNotGrowSubMillisecondBundlesWithoutImprovement() {
+    BundleSizeController controller = BundleSizeController.adaptive(10, 1000, 1000);
+    // every element costs 2 microseconds and a bundle has no fixed cost
+    for (int round = 0; round < 10; round++) {
+      long size = controller.getBundleSize();
+      for (int i = 0; i < BundleSizeController.SAMPLES; i++) {
+        controller.bundleFinished(size, size * 2000);
+      }
+      assertThat(controller.getBundleSize(), lessThanOrEqualTo(20L));
+    }
+  }
+
+  private static void finishFullBundles(BundleSizeController controller, long fixedCostMillis) {
+    long size = controller.getBundleSize();
+    for (int i = 0; i < BundleSizeController.SAMPLES; i++) {
+      controller.bundleFinished(size, millis(fixedCostMillis) + millis(size) / 10);
+    }
+  }
+
+  private static long millis(long millis) {
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+}
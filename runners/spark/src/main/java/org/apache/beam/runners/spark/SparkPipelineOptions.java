@@ -48,6 +48,26 @@ public interface SparkPipelineOptions
   String getStorageLevel();
   void setStorageLevel(String storageLevel);
 
+  @Description("Choose whether and how to cache each batch PCollection that is used more than once "
+      + "from a sample of its partitions, instead of caching it at the storage level. PCollections "
+      + "that are cheap to compute again are not cached, large ones are cached serialized in "
+      + "memory and on disk, small ones are cached deserialized in memory.")
+  @Default.Boolean(false)
+  Boolean getCostBasedCaching();
+  void setCostBasedCaching(Boolean costBasedCaching);
+
+  @Description("With cost based caching, the estimated time to compute all partitions of a "
+      + "PCollection under which it is computed again rather than cached.")
+  @Default.Long(1000)
+  Long getCheapRecomputationMillis();
+  void setCheapRecomputationMillis(Long cheapRecomputationMillis);
+
+  @Description("With cost based caching, the estimated encoded size of a PCollection above which "
+      + "it is cached serialized in memory and on disk.")
+  @Default.Long(64 * 1024 * 1024)
+  Long getMaxDeserializedCacheBytes();
+  void setMaxDeserializedCacheBytes(Long maxDeserializedCacheBytes);
+
   @Description("Minimum time to spend on read, for each micro-batch.")
   @Default.Long(200)
   Long getMinReadTimeMillis();
@@ -89,6 +109,13 @@ public interface SparkPipelineOptions
   Long getCheckpointDurationMillis();
   void setCheckpointDurationMillis(Long durationMillis);
 
+  @Description("Group by windows in streaming with Spark's mapWithState, which only visits the "
+      + "keys with new data or due timers in each micro-batch, instead of updateStateByKey, which "
+      + "visits every key in the state. The state is not compatible between the two.")
+  @Default.Boolean(false)
+  Boolean getGroupAlsoByWindowViaMapWithState();
+  void setGroupAlsoByWindowViaMapWithState(Boolean groupAlsoByWindowViaMapWithState);
+
   @Description("Enable/disable sending aggregator values to Spark's metric sinks")
   @Default.Boolean(true)
   Boolean getEnableSparkMetricSinks();
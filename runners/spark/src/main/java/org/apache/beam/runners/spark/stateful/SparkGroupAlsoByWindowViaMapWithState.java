@@ -0,0 +1,505 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.spark.stateful;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.beam.runners.core.GroupAlsoByWindowsAggregators;
+import org.apache.beam.runners.core.GroupByKeyViaGroupByKeyOnly.GroupAlsoByWindow;
+import org.apache.beam.runners.core.LateDataUtils;
+import org.apache.beam.runners.core.ReduceFnRunner;
+import org.apache.beam.runners.core.SystemReduceFn;
+import org.apache.beam.runners.core.TimerInternals;
+import org.apache.beam.runners.core.UnsupportedSideInputReader;
+import org.apache.beam.runners.core.construction.SerializablePipelineOptions;
+import org.apache.beam.runners.core.construction.TriggerTranslation;
+import org.apache.beam.runners.core.metrics.CounterCell;
+import org.apache.beam.runners.core.metrics.MetricsContainerImpl;
+import org.apache.beam.runners.core.triggers.ExecutableTriggerStateMachine;
+import org.apache.beam.runners.core.triggers.TriggerStateMachines;
+import org.apache.beam.runners.spark.SparkPipelineOptions;
+import org.apache.beam.runners.spark.coders.CoderHelpers;
+import org.apache.beam.runners.spark.stateful.SparkGroupAlsoByWindowViaWindowSet.OutputWindowedValueHolder;
+import org.apache.beam.runners.spark.stateful.SparkGroupAlsoByWindowViaWindowSet.StateAndTimers;
+import org.apache.beam.runners.spark.util.ByteArray;
+import org.apache.beam.runners.spark.util.GlobalWatermarkHolder;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.IterableCoder;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.metrics.MetricName;
+import org.apache.beam.sdk.state.TimeDomain;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.beam.sdk.util.WindowedValue.FullWindowedValueCoder;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.WindowingStrategy;
+import org.apache.spark.HashPartitioner;
+import org.apache.spark.Partitioner;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.JavaSparkContext$;
+import org.apache.spark.api.java.Optional;
+import org.apache.spark.api.java.function.Function3;
+import org.apache.spark.streaming.Duration;
+import org.apache.spark.streaming.State;
+import org.apache.spark.streaming.StateSpec;
+import org.apache.spark.streaming.Time;
+import org.apache.spark.streaming.api.java.JavaDStream;
+import org.apache.spark.streaming.api.java.JavaMapWithStateDStream;
+import org.apache.spark.streaming.api.java.JavaPairDStream;
+import org.joda.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.Tuple2;
+
+/**
+ * An implementation of {@link GroupAlsoByWindow} logic for grouping by windows and controlling
+ * trigger firings and pane accumulation, which only visits the keys with new data or due timers.
+ *
+ * <p>Unlike {@link SparkGroupAlsoByWindowViaWindowSet}, which evaluates the state of every key in
+ * every micro-batch, this implementation keeps the state of each key with Spark's {@link
+ * JavaPairDStream#mapWithState(StateSpec)}, which only calls its function for keys with records in
+ * the micro-batch.
+ *
+ * <p>The timers are indexed separately, by the time bucket of the earliest event time timer of each
+ * key, in a second mapWithState keyed by bucket. Keys with processing time timers, which are
+ * eligible in every micro-batch, are indexed in a bucket that is always due. Each micro-batch reads
+ * the buckets that are due according to the watermarks from the index of the previous micro-batch,
+ * and adds a wake-up record for each of their keys to its input. Visited keys are indexed again
+ * under the bucket of their current timers.
+ *
+ * <p>Keys are woken up at least when their timers are due, and possibly more often, since a key
+ * stays indexed under buckets of timers that were deleted since. A key that is woken up without due
+ * timers is only indexed again.
+ */
+public class SparkGroupAlsoByWindowViaMapWithState implements Serializable {
+  private static final Logger LOG =
+      LoggerFactory.getLogger(SparkGroupAlsoByWindowViaMapWithState.class);
+
+  /** The value of a record that wakes a key up for its timers, without new data. */
+  private static final byte[] WAKE_UP = new byte[0];
+
+  /** The bucket of keys with processing time timers, which is due in every micro-batch. */
+  private static final long PROCESSING_TIME_BUCKET = Long.MIN_VALUE;
+
+  /** The keys to add to a bucket of the timer index, and whether the bucket was due. */
+  private static class BucketUpdate implements Serializable {
+    private boolean due;
+    private final Set<ByteArray> keys = new HashSet<>();
+
+    private static BucketUpdate due() {
+      BucketUpdate update = new BucketUpdate();
+      update.due = true;
+      return update;
+    }
+
+    private static BucketUpdate add(ByteArray key) {
+      BucketUpdate update = new BucketUpdate();
+      update.keys.add(key);
+      return update;
+    }
+
+    private BucketUpdate merge(BucketUpdate other) {
+      due |= other.due;
+      keys.addAll(other.keys);
+      return this;
+    }
+  }
+
+  /**
+   * A reference to the snapshots of the timer index, which can only be created after the streams
+   * that read it.
+   */
+  private static class TimerIndexReference implements Serializable {
+    private JavaPairDStream<Long, Set<ByteArray>> snapshots;
+  }
+
+  /**
+   * The function of the keyed state, which processes the new data and the due timers of a key, and
+   * outputs its firings and the buckets under which it has to be indexed.
+   */
+  private static class KeyStateFunction<K, InputT, W extends BoundedWindow>
+      implements Function3<
+          /*K*/ ByteArray,
+          Optional</*KV<Long(Time), Itr<WV<I>>>*/ byte[]>,
+          State<StateAndTimers>,
+          Tuple2<
+              /*K*/ ByteArray,
+              Tuple2</*buckets*/ List<Long>, /*WV<KV<K, Itr<I>>>*/ List<byte[]>>>> {
+
+    private final FullWindowedValueCoder<InputT> wvCoder;
+    private final Coder<K> keyCoder;
+    private final List<Integer> sourceIds;
+    private final TimerInternals.TimerDataCoder timerDataCoder;
+    private final WindowingStrategy<?, W> windowingStrategy;
+    private final SerializablePipelineOptions options;
+    private final IterableCoder<WindowedValue<InputT>> itrWvCoder;
+    private final Coder<WindowedValue<KV<K, Iterable<InputT>>>> wvKvIterCoder;
+    private final long bucketMillis;
+    private final String logPrefix;
+
+    KeyStateFunction(
+        final List<Integer> sourceIds,
+        final WindowingStrategy<?, W> windowingStrategy,
+        final FullWindowedValueCoder<InputT> wvCoder,
+        final Coder<K> keyCoder,
+        final SerializablePipelineOptions options,
+        final long bucketMillis,
+        final String logPrefix) {
+      this.wvCoder = wvCoder;
+      this.keyCoder = keyCoder;
+      this.sourceIds = sourceIds;
+      this.timerDataCoder = SparkGroupAlsoByWindowViaWindowSet.timerDataCoderOf(windowingStrategy);
+      this.windowingStrategy = windowingStrategy;
+      this.options = options;
+      this.itrWvCoder = IterableCoder.of(wvCoder);
+      this.wvKvIterCoder =
+          SparkGroupAlsoByWindowViaWindowSet.windowedValueKeyValueCoderOf(
+              keyCoder, wvCoder.getValueCoder(), wvCoder.getWindowCoder());
+      this.bucketMillis = bucketMillis;
+      this.logPrefix = logPrefix;
+    }
+
+    @Override
+    public Tuple2<ByteArray, Tuple2<List<Long>, List<byte[]>>> call(
+        final ByteArray encodedKey,
+        final Optional<byte[]> encodedKeyedElements,
+        final State<StateAndTimers> state) {
+      final boolean hasData = encodedKeyedElements.get().length > 0;
+      if (!hasData && !state.exists()) {
+        // woken up for timers of a key that was evicted since.
+        return new Tuple2<>(encodedKey, new Tuple2<>(Collections.emptyList(), new ArrayList<>()));
+      }
+
+      final K key = CoderHelpers.fromByteArray(encodedKey.getValue(), keyCoder);
+
+      final Map<Integer, GlobalWatermarkHolder.SparkWatermarks> watermarks =
+          GlobalWatermarkHolder.get(SparkGroupAlsoByWindowViaWindowSet.getBatchDuration(options));
+
+      final SparkTimerInternals timerInternals =
+          SparkTimerInternals.forStreamFromSources(sourceIds, watermarks);
+
+      final SparkStateInternals<K> stateInternals;
+      if (state.exists()) {
+        stateInternals = SparkStateInternals.forKeyAndState(key, state.get().getState());
+        timerInternals.addTimers(
+            SparkTimerInternals.deserializeTimers(state.get().getTimers(), timerDataCoder));
+      } else {
+        stateInternals = SparkStateInternals.forKey(key);
+      }
+
+      final OutputWindowedValueHolder<K, InputT> outputHolder = new OutputWindowedValueHolder<>();
+
+      final ReduceFnRunner<K, InputT, Iterable<InputT>, W> reduceFnRunner =
+          new ReduceFnRunner<>(
+              key,
+              windowingStrategy,
+              ExecutableTriggerStateMachine.create(
+                  TriggerStateMachines.stateMachineForTrigger(
+                      TriggerTranslation.toProto(windowingStrategy.getTrigger()))),
+              stateInternals,
+              timerInternals,
+              outputHolder,
+              new UnsupportedSideInputReader("GroupAlsoByWindow"),
+              SystemReduceFn.buffering(wvCoder.getValueCoder()),
+              options.get());
+
+      if (hasData) {
+        try {
+          final KV<Long, Iterable<WindowedValue<InputT>>> keyedElements =
+              CoderHelpers.fromByteArray(
+                  encodedKeyedElements.get(), KvCoder.of(VarLongCoder.of(), itrWvCoder));
+
+          LOG.debug(
+              logPrefix + ": processing RDD with timestamp: {}, watermarks: {}",
+              keyedElements.getKey(),
+              watermarks);
+
+          // Expired windows are filtered against the watermark of the previous batch, before it
+          // is advanced, as in SparkGroupAlsoByWindowViaWindowSet.
+          final Iterable<WindowedValue<InputT>> nonExpiredElements =
+              Lists.newArrayList(
+                  LateDataUtils.dropExpiredWindows(
+                      key,
+                      keyedElements.getValue(),
+                      timerInternals,
+                      windowingStrategy,
+                      droppedDueToLateness()));
+
+          reduceFnRunner.processElements(nonExpiredElements);
+        } catch (final Exception e) {
+          throw new RuntimeException("Failed to process element with ReduceFnRunner", e);
+        }
+      }
+
+      try {
+        timerInternals.advanceWatermark();
+        final Instant inputWatermark = timerInternals.currentInputWatermarkTime();
+
+        final List<TimerInternals.TimerData> timersEligibleForProcessing = new ArrayList<>();
+        for (final TimerInternals.TimerData timer : timerInternals.getTimers()) {
+          if (!timer.getDomain().equals(TimeDomain.EVENT_TIME)) {
+            timersEligibleForProcessing.add(timer);
+          } else if (inputWatermark.isAfter(timer.getTimestamp())) {
+            timersEligibleForProcessing.add(timer);
+          }
+        }
+        // Event time timers are deleted once they are delivered, otherwise the key would stay
+        // due in every following micro-batch. They are deleted before delivering them, so that
+        // timers that are set again by the ReduceFnRunner are kept. Processing time timers stay,
+        // and are offered again in every micro-batch, as in SparkGroupAlsoByWindowViaWindowSet.
+        for (final TimerInternals.TimerData timer : timersEligibleForProcessing) {
+          if (timer.getDomain().equals(TimeDomain.EVENT_TIME)) {
+            timerInternals.deleteTimer(timer);
+          }
+        }
+
+        LOG.debug(
+            logPrefix + ": timers eligible for processing are {}", timersEligibleForProcessing);
+
+        reduceFnRunner.onTimers(timersEligibleForProcessing);
+      } catch (final Exception e) {
+        throw new RuntimeException("Failed to process ReduceFnRunner onTimer.", e);
+      }
+      reduceFnRunner.persist();
+
+      final List<byte[]> serOutput =
+          CoderHelpers.toByteArrays(outputHolder.getWindowedValues(), wvKvIterCoder);
+
+      if (stateInternals.getState().isEmpty()) {
+        // an empty state can be evicted, along with its timers.
+        state.remove();
+        return new Tuple2<>(encodedKey, new Tuple2<>(Collections.emptyList(), serOutput));
+      }
+
+      final Collection<TimerInternals.TimerData> timers = timerInternals.getTimers();
+      state.update(
+          new StateAndTimers(
+              stateInternals.getState(),
+              SparkTimerInternals.serializeTimers(timers, timerDataCoder)));
+      return new Tuple2<>(encodedKey, new Tuple2<>(bucketsOf(timers), serOutput));
+    }
+
+    /** Returns the buckets of the timer index under which a key with the given timers goes. */
+    private List<Long> bucketsOf(final Collection<TimerInternals.TimerData> timers) {
+      boolean hasProcessingTimeTimers = false;
+      Long earliestEventTime = null;
+      for (final TimerInternals.TimerData timer : timers) {
+        if (!timer.getDomain().equals(TimeDomain.EVENT_TIME)) {
+          hasProcessingTimeTimers = true;
+        } else if (earliestEventTime == null
+            || timer.getTimestamp().getMillis() < earliestEventTime) {
+          earliestEventTime = timer.getTimestamp().getMillis();
+        }
+      }
+      final List<Long> buckets = new ArrayList<>(2);
+      if (hasProcessingTimeTimers) {
+        buckets.add(PROCESSING_TIME_BUCKET);
+      }
+      if (earliestEventTime != null) {
+        buckets.add(earliestEventTime - Math.floorMod(earliestEventTime, bucketMillis));
+      }
+      return buckets;
+    }
+
+    private CounterCell droppedDueToLateness() {
+      return new MetricsContainerImpl("cellProvider")
+          .getCounter(
+              MetricName.named(
+                  SparkGroupAlsoByWindowViaMapWithState.class,
+                  GroupAlsoByWindowsAggregators.DROPPED_DUE_TO_LATENESS_COUNTER));
+    }
+  }
+
+  /**
+   * The function of the timer index, which replaces the keys of a bucket that was due with the
+   * keys that were indexed under it again, and adds newly indexed keys to other buckets.
+   */
+  private static class TimerIndexFunction
+      implements Function3<Long, Optional<BucketUpdate>, State<Set<ByteArray>>, Long> {
+
+    @Override
+    public Long call(
+        final Long bucket, final Optional<BucketUpdate> update, final State<Set<ByteArray>> state) {
+      // the set of the state is copied, because it is also part of the snapshot of the previous
+      // micro-batch, which the current micro-batch may still read.
+      final Set<ByteArray> keys =
+          update.get().due || !state.exists() ? new HashSet<>() : new HashSet<>(state.get());
+      keys.addAll(update.get().keys);
+      if (keys.isEmpty()) {
+        state.remove();
+      } else {
+        state.update(keys);
+      }
+      return bucket;
+    }
+  }
+
+  /** Returns the keys of the buckets that are due according to the current watermarks. */
+  private static JavaPairRDD</*bucket*/ Long, /*K*/ ByteArray> dueKeys(
+      final TimerIndexReference timerIndex,
+      final Time time,
+      final List<Integer> sourceIds,
+      final SerializablePipelineOptions options) {
+    // the snapshot of the previous micro-batch, which is empty in the first micro-batch.
+    final Time previousTime = time.minus(timerIndex.snapshots.dstream().slideDuration());
+    final List<JavaPairRDD<Long, Set<ByteArray>>> previousIndex =
+        timerIndex.snapshots.slice(previousTime, previousTime);
+    if (previousIndex.isEmpty()) {
+      return JavaPairRDD.fromJavaRDD(
+          JavaSparkContext.fromSparkContext(timerIndex.snapshots.context().sparkContext())
+              .emptyRDD());
+    }
+    return previousIndex
+        .get(0)
+        .flatMapToPair(
+            bucketAndKeys -> {
+              final SparkTimerInternals timerInternals =
+                  SparkTimerInternals.forStreamFromSources(
+                      sourceIds,
+                      GlobalWatermarkHolder.get(
+                          SparkGroupAlsoByWindowViaWindowSet.getBatchDuration(options)));
+              // the keys see the high watermark as their input watermark.
+              timerInternals.advanceWatermark();
+              final Long bucket = bucketAndKeys._1();
+              if (bucket >= timerInternals.currentInputWatermarkTime().getMillis()) {
+                return Collections.emptyIterator();
+              }
+              final List<Tuple2<Long, ByteArray>> due = new ArrayList<>();
+              for (final ByteArray key : bucketAndKeys._2()) {
+                due.add(new Tuple2<>(bucket, key));
+              }
+              return due.iterator();
+            });
+  }
+
+  public static <K, InputT, W extends BoundedWindow>
+      JavaDStream<WindowedValue<KV<K, Iterable<InputT>>>> groupAlsoByWindow(
+          final JavaDStream<WindowedValue<KV<K, Iterable<WindowedValue<InputT>>>>> inputDStream,
+          final Coder<K> keyCoder,
+          final Coder<WindowedValue<InputT>> wvCoder,
+          final WindowingStrategy<?, W> windowingStrategy,
+          final SerializablePipelineOptions options,
+          final List<Integer> sourceIds,
+          final String transformFullName) {
+    final SparkPipelineOptions sparkOptions = options.get().as(SparkPipelineOptions.class);
+    // the keys are partitioned like the output of GroupCombineFunctions#groupByKeyOnly, so that
+    // neither the wake-ups nor the state require to shuffle the input again.
+    final Partitioner partitioner =
+        new HashPartitioner(inputDStream.context().sparkContext().defaultParallelism());
+    final TimerIndexReference timerIndex = new TimerIndexReference();
+
+    final JavaPairDStream</*K*/ ByteArray, /*KV<Long(Time), Itr<WV<I>>>*/ byte[]> pairDStream =
+        JavaPairDStream.fromPairDStream(
+            SparkGroupAlsoByWindowViaWindowSet.buildTupleDStream(inputDStream, keyCoder, wvCoder),
+            JavaSparkContext$.MODULE$.fakeClassTag(),
+            JavaSparkContext$.MODULE$.fakeClassTag());
+
+    // the keys of the due buckets of the timer index of the previous micro-batch.
+    final JavaPairDStream</*bucket*/ Long, /*K*/ ByteArray> dueKeys =
+        pairDStream.transformToPair((rdd, time) -> dueKeys(timerIndex, time, sourceIds, options));
+    dueKeys.cache();
+
+    // the new data of each key, and a wake-up for each key with due timers.
+    final JavaPairDStream</*K*/ ByteArray, /*KV<Long(Time), Itr<WV<I>>>*/ byte[]> input =
+        pairDStream.transformWithToPair(
+            dueKeys,
+            (data, due, time) ->
+                data.union(
+                        due.mapToPair(bucketAndKey -> new Tuple2<>(bucketAndKey._2(), WAKE_UP))
+                            .partitionBy(partitioner))
+                    // a key with new data does not need another wake-up.
+                    .reduceByKey(
+                        partitioner, (first, second) -> first.length > 0 ? first : second));
+
+    final JavaMapWithStateDStream<
+            ByteArray,
+            byte[],
+            StateAndTimers,
+            Tuple2</*K*/ ByteArray, Tuple2<List<Long>, /*WV<KV<K, Itr<I>>>*/ List<byte[]>>>>
+        fired =
+            input.mapWithState(
+                StateSpec.function(
+                        new KeyStateFunction<>(
+                            sourceIds,
+                            windowingStrategy,
+                            (FullWindowedValueCoder<InputT>) wvCoder,
+                            keyCoder,
+                            options,
+                            sparkOptions.getBatchIntervalMillis(),
+                            transformFullName))
+                    .partitioner(partitioner));
+
+    // index the visited keys again, and clear the buckets that were due.
+    final JavaMapWithStateDStream<Long, BucketUpdate, Set<ByteArray>, Long> timerIndexStream =
+        fired
+            .flatMapToPair(
+                keyAndFired -> {
+                  final List<Tuple2<Long, BucketUpdate>> updates = new ArrayList<>();
+                  for (final Long bucket : keyAndFired._2()._1()) {
+                    updates.add(new Tuple2<>(bucket, BucketUpdate.add(keyAndFired._1())));
+                  }
+                  return updates.iterator();
+                })
+            .union(dueKeys.mapValues(key -> BucketUpdate.due()))
+            .reduceByKey(BucketUpdate::merge)
+            .mapWithState(StateSpec.function(new TimerIndexFunction()));
+
+    final JavaPairDStream<Long, Set<ByteArray>> snapshots = timerIndexStream.stateSnapshots();
+    timerIndex.snapshots = snapshots;
+
+    final Long checkpointDurationMillis =
+        SparkGroupAlsoByWindowViaWindowSet.getBatchDuration(options);
+    if (checkpointDurationMillis > 0) {
+      fired.checkpoint(new Duration(checkpointDurationMillis));
+      timerIndexStream.checkpoint(new Duration(checkpointDurationMillis));
+    }
+
+    final FullWindowedValueCoder<KV<K, Iterable<InputT>>> windowedValueKeyValueCoder =
+        SparkGroupAlsoByWindowViaWindowSet.windowedValueKeyValueCoderOf(
+            keyCoder,
+            ((FullWindowedValueCoder<InputT>) wvCoder).getValueCoder(),
+            ((FullWindowedValueCoder<InputT>) wvCoder).getWindowCoder());
+    final JavaDStream<WindowedValue<KV<K, Iterable<InputT>>>> outputs =
+        fired.flatMap(
+            keyAndFired ->
+                CoderHelpers.fromByteArrays(keyAndFired._2()._2(), windowedValueKeyValueCoder)
+                    .iterator());
+    // the outputs depend on the (empty) partitions of the index, so that the index is initialized,
+    // computed and checkpointed by the output action of every micro-batch, in the same job, rather
+    // than by the next micro-batch reading it.
+    return outputs.transformWith(
+        snapshots,
+        (outputsRdd, snapshotsRdd, time) ->
+            outputsRdd.union(
+                snapshotsRdd.mapPartitions(
+                    bucketsAndKeys -> {
+                      Iterators.advance(bucketsAndKeys, Integer.MAX_VALUE);
+                      return Collections.emptyIterator();
+                    })));
+  }
+}
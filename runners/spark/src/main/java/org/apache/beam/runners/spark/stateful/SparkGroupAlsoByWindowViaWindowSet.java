@@ -97,12 +97,12 @@ public class SparkGroupAlsoByWindowViaWindowSet implements Serializable {
   private static final Logger LOG =
       LoggerFactory.getLogger(SparkGroupAlsoByWindowViaWindowSet.class);
 
-  private static class StateAndTimers implements Serializable {
+  static class StateAndTimers implements Serializable {
     //Serializable state for internals (namespace to state tag to coded value).
     private final Table<String, String, byte[]> state;
     private final Collection<byte[]> serTimers;
 
-    private StateAndTimers(
+    StateAndTimers(
         final Table<String, String, byte[]> state, final Collection<byte[]> timers) {
       this.state = state;
       this.serTimers = timers;
@@ -117,7 +117,7 @@ public class SparkGroupAlsoByWindowViaWindowSet implements Serializable {
     }
   }
 
-  private static class OutputWindowedValueHolder<K, V>
+  static class OutputWindowedValueHolder<K, V>
       implements OutputWindowedValue<KV<K, Iterable<V>>> {
     private final List<WindowedValue<KV<K, Iterable<V>>>> windowedValues = new ArrayList<>();
 
@@ -130,7 +130,7 @@ public class SparkGroupAlsoByWindowViaWindowSet implements Serializable {
       windowedValues.add(WindowedValue.of(output, timestamp, windows, pane));
     }
 
-    private List<WindowedValue<KV<K, Iterable<V>>>> getWindowedValues() {
+    List<WindowedValue<KV<K, Iterable<V>>>> getWindowedValues() {
       return windowedValues;
     }
 
@@ -464,7 +464,7 @@ public class SparkGroupAlsoByWindowViaWindowSet implements Serializable {
     }
   }
 
-  private static <K, InputT>
+  static <K, InputT>
       FullWindowedValueCoder<KV<K, Iterable<InputT>>> windowedValueKeyValueCoderOf(
           final Coder<K> keyCoder,
           final Coder<InputT> iCoder,
@@ -472,7 +472,7 @@ public class SparkGroupAlsoByWindowViaWindowSet implements Serializable {
     return FullWindowedValueCoder.of(KvCoder.of(keyCoder, IterableCoder.of(iCoder)), wCoder);
   }
 
-  private static <W extends BoundedWindow> TimerInternals.TimerDataCoder timerDataCoderOf(
+  static <W extends BoundedWindow> TimerInternals.TimerDataCoder timerDataCoderOf(
       final WindowingStrategy<?, W> windowingStrategy) {
     return TimerInternals.TimerDataCoder.of(windowingStrategy.getWindowFn().windowCoder());
   }
@@ -489,7 +489,7 @@ public class SparkGroupAlsoByWindowViaWindowSet implements Serializable {
     }
   }
 
-  private static Long getBatchDuration(final SerializablePipelineOptions options) {
+  static Long getBatchDuration(final SerializablePipelineOptions options) {
     return options.get().as(SparkPipelineOptions.class).getCheckpointDurationMillis();
   }
 
@@ -542,6 +542,18 @@ public class SparkGroupAlsoByWindowViaWindowSet implements Serializable {
 
     // we have to switch to Scala API to avoid Optional in the Java API, see: SPARK-4819.
     // we also have a broader API for Scala (access to the actual key and entire iterator).
+    return DStream.toPairDStreamFunctions(
+        buildTupleDStream(inputDStream, keyCoder, wvCoder),
+        JavaSparkContext$.MODULE$.fakeClassTag(),
+        JavaSparkContext$.MODULE$.fakeClassTag(),
+        null);
+  }
+
+  static <K, InputT> DStream<Tuple2<ByteArray, byte[]>> buildTupleDStream(
+      final JavaDStream<WindowedValue<KV<K, Iterable<WindowedValue<InputT>>>>> inputDStream,
+      final Coder<K> keyCoder,
+      final Coder<WindowedValue<InputT>> wvCoder) {
+
     // we use coders to convert objects in the PCollection to byte arrays, so they
     // can be transferred over the network for the shuffle and be in serialized form
     // for checkpointing.
@@ -553,34 +565,27 @@ public class SparkGroupAlsoByWindowViaWindowSet implements Serializable {
     // ---- InputT: I
     // we use mapPartitions with the RDD API because its the only available API
     // that allows to preserve partitioning.
-    final DStream<Tuple2<ByteArray, byte[]>> tupleDStream =
-        inputDStream
-            .transformToPair(
-                (rdd, time) ->
-                    rdd.mapPartitions(
-                            TranslationUtils.functionToFlatMapFunction(
-                                WindowingHelpers.unwindowFunction()),
-                            true)
-                        .mapPartitionsToPair(TranslationUtils.toPairFlatMapFunction(), true)
-                        .mapValues(
-                            // add the batch timestamp for visibility (e.g., debugging)
-                            values -> KV.of(time.milliseconds(), values)
-                            )
-                        // move to bytes representation and use coders for deserialization
-                        // because of checkpointing.
-                        .mapPartitionsToPair(
-                            TranslationUtils.pairFunctionToPairFlatMapFunction(
-                                CoderHelpers.toByteFunction(
-                                    keyCoder,
-                                    KvCoder.of(VarLongCoder.of(), IterableCoder.of(wvCoder)))),
-                            true))
-            .dstream();
-
-    return DStream.toPairDStreamFunctions(
-        tupleDStream,
-        JavaSparkContext$.MODULE$.fakeClassTag(),
-        JavaSparkContext$.MODULE$.fakeClassTag(),
-        null);
+    return inputDStream
+        .transformToPair(
+            (rdd, time) ->
+                rdd.mapPartitions(
+                        TranslationUtils.functionToFlatMapFunction(
+                            WindowingHelpers.unwindowFunction()),
+                        true)
+                    .mapPartitionsToPair(TranslationUtils.toPairFlatMapFunction(), true)
+                    .mapValues(
+                        // add the batch timestamp for visibility (e.g., debugging)
+                        values -> KV.of(time.milliseconds(), values)
+                        )
+                    // move to bytes representation and use coders for deserialization
+                    // because of checkpointing.
+                    .mapPartitionsToPair(
+                        TranslationUtils.pairFunctionToPairFlatMapFunction(
+                            CoderHelpers.toByteFunction(
+                                keyCoder,
+                                KvCoder.of(VarLongCoder.of(), IterableCoder.of(wvCoder)))),
+                        true))
+        .dstream();
   }
 
   public static <K, InputT, W extends BoundedWindow>
@@ -47,6 +47,8 @@ public class BoundedDataset<T> implements Dataset {
   private Iterable<WindowedValue<T>> windowedValues;
   private Coder<T> coder;
   private JavaRDD<WindowedValue<T>> rdd;
+  // only set while cached, this is the persisted RDD, which may hold encoded values
+  @Nullable private JavaRDD<?> cachedRdd;
 
   BoundedDataset(JavaRDD<WindowedValue<T>> rdd) {
     this.rdd = rdd;
@@ -101,13 +103,28 @@ public class BoundedDataset<T> implements Dataset {
     if (TranslationUtils.avoidRddSerialization(level)) {
       // if it is memory only reduce the overhead of moving to bytes
       this.rdd = getRDD().persist(level);
+      this.cachedRdd = rdd;
     } else {
       // Caching can cause Serialization, we need to code to bytes
       // more details in https://issues.apache.org/jira/browse/BEAM-2669
       Coder<WindowedValue<T>> windowedValueCoder = (Coder<WindowedValue<T>>) coder;
-      this.rdd = getRDD().map(CoderHelpers.toByteFunction(windowedValueCoder))
-          .persist(level)
-          .map(CoderHelpers.fromByteFunction(windowedValueCoder));
+      JavaRDD<byte[]> bytesRdd =
+          getRDD().map(CoderHelpers.toByteFunction(windowedValueCoder)).persist(level);
+      this.cachedRdd = bytesRdd;
+      this.rdd = bytesRdd.map(CoderHelpers.fromByteFunction(windowedValueCoder));
+    }
+  }
+
+  @Nullable
+  JavaRDD<?> getCachedRDD() {
+    return cachedRdd;
+  }
+
+  /** Removes the cached blocks, the RDD is computed again if it is used after this. */
+  void unpersist() {
+    if (cachedRdd != null) {
+      cachedRdd.unpersist(false);
+      cachedRdd = null;
     }
   }
 
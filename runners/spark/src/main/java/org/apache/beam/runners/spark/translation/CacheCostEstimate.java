@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.beam.runners.spark.translation;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.apache.beam.runners.spark.SparkPipelineOptions;
+import org.apache.beam.runners.spark.coders.CoderHelpers;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.util.WindowedValue;
+import org.apache.spark.api.java.JavaRDD;
+
+/**
+ * The estimated cost of keeping the RDD of a {@link org.apache.beam.sdk.values.PCollection} that is
+ * used more than once, against computing it again for each use.
+ *
+ * <p>The estimate is extrapolated from a few partitions of the RDD, which are computed while
+ * encoding a sample of their elements. Parent stages of the RDD are computed in full, but Spark
+ * keeps their shuffle output, so only the sampled partitions are computed once more.
+ */
+class CacheCostEstimate {
+  private static final int SAMPLED_PARTITIONS = 2;
+  private static final int SAMPLED_ELEMENTS_PER_PARTITION = 1000;
+
+  private final long bytes;
+  private final long computeMillis;
+
+  @VisibleForTesting
+  CacheCostEstimate(long bytes, long computeMillis) {
+    this.bytes = bytes;
+    this.computeMillis = computeMillis;
+  }
+
+  /** Estimates the encoded size of the RDD and the time it takes to compute all its partitions. */
+  static <T> CacheCostEstimate sample(
+      JavaRDD<WindowedValue<T>> rdd, Coder<WindowedValue<T>> coder) {
+    int numPartitions = rdd.getNumPartitions();
+    if (numPartitions == 0) {
+      return new CacheCostEstimate(0L, 0L);
+    }
+    // spread the sampled partitions, as the first ones may not be representative.
+    List<Integer> sampledPartitions = new ArrayList<>();
+    for (int i = 0; i < Math.min(SAMPLED_PARTITIONS, numPartitions); i++) {
+      sampledPartitions.add(i * numPartitions / SAMPLED_PARTITIONS);
+    }
+    List<long[]> samples =
+        rdd.mapPartitionsWithIndex(
+                (index, iter) -> {
+                  if (!sampledPartitions.contains(index)) {
+                    return Collections.<long[]>emptyIterator();
+                  }
+                  long start = System.nanoTime();
+                  long encodeNanos = 0L;
+                  long elements = 0L;
+                  long sampledElements = 0L;
+                  long sampledBytes = 0L;
+                  while (iter.hasNext()) {
+                    WindowedValue<T> value = iter.next();
+                    elements++;
+                    if (sampledElements < SAMPLED_ELEMENTS_PER_PARTITION) {
+                      long encodeStart = System.nanoTime();
+                      sampledBytes += CoderHelpers.toByteArray(value, coder).length;
+                      encodeNanos += System.nanoTime() - encodeStart;
+                      sampledElements++;
+                    }
+                  }
+                  long bytes =
+                      sampledElements == 0 ? 0L : sampledBytes * elements / sampledElements;
+                  long computeNanos = System.nanoTime() - start - encodeNanos;
+                  return Collections.singletonList(new long[] {bytes, computeNanos}).iterator();
+                },
+                false)
+            .collect();
+    long bytes = 0L;
+    long computeNanos = 0L;
+    for (long[] sample : samples) {
+      bytes += sample[0];
+      computeNanos += sample[1];
+    }
+    return new CacheCostEstimate(
+        bytes * numPartitions / sampledPartitions.size(),
+        computeNanos * numPartitions / sampledPartitions.size() / 1000000L);
+  }
+
+  long getBytes() {
+    return bytes;
+  }
+
+  long getComputeMillis() {
+    return computeMillis;
+  }
+
+  /**
+   * Returns the storage level to cache the RDD at, or null if computing it again is cheaper than
+   * caching it. Large RDDs are kept encoded, and may spill to disk, small ones are kept as objects.
+   */
+  @Nullable
+  String storageLevel(SparkPipelineOptions options) {
+    if (computeMillis < options.getCheapRecomputationMillis()) {
+      return null;
+    }
+    return bytes > options.getMaxDeserializedCacheBytes()
+        ? "MEMORY_AND_DISK_SER"
+        : "MEMORY_ONLY";
+  }
+}
@@ -21,11 +21,16 @@ package org.apache.beam.runners.spark.translation;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.common.collect.Iterables;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import javax.annotation.Nullable;
 import org.apache.beam.runners.core.construction.SerializablePipelineOptions;
 import org.apache.beam.runners.core.construction.TransformInputs;
 import org.apache.beam.runners.spark.SparkPipelineOptions;
@@ -41,15 +46,22 @@ import org.apache.beam.sdk.values.PCollection;
 import org.apache.beam.sdk.values.PCollectionView;
 import org.apache.beam.sdk.values.PValue;
 import org.apache.beam.sdk.values.TupleTag;
+import org.apache.spark.Dependency;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.rdd.RDD;
 import org.apache.spark.streaming.api.java.JavaStreamingContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.collection.JavaConversions;
 
 /**
  * The EvaluationContext allows us to define pipeline instructions and translate between
  * {@code PObject<T>}s or {@code PCollection<T>}s and Ts or DStreams/RDDs of Ts.
  */
 public class EvaluationContext {
+  private static final Logger LOG = LoggerFactory.getLogger(EvaluationContext.class);
+
   private final JavaSparkContext jsc;
   private JavaStreamingContext jssc;
   private final Pipeline pipeline;
@@ -60,6 +72,7 @@ public class EvaluationContext {
   private AppliedPTransform<?, ?, ?> currentTransform;
   private final SparkPCollectionView pviews = new SparkPCollectionView();
   private final Map<PCollection, Long> cacheCandidates = new HashMap<>();
+  private final List<BoundedDataset<?>> cachedDatasets = new ArrayList<>();
   private final PipelineOptions options;
   private final SerializablePipelineOptions serializableOptions;
 
@@ -159,12 +172,44 @@ public class EvaluationContext {
       Coder<?> coder = ((PCollection<?>) pvalue).getCoder();
       Coder<? extends BoundedWindow> wCoder =
           ((PCollection<?>) pvalue).getWindowingStrategy().getWindowFn().windowCoder();
-      dataset.cache(storageLevel(), WindowedValue.getFullCoder(coder, wCoder));
+      Coder<?> windowedValueCoder = WindowedValue.getFullCoder(coder, wCoder);
+      String storageLevel =
+          forceCache ? storageLevel() : cacheStorageLevel(pvalue, dataset, windowedValueCoder);
+      if (storageLevel != null) {
+        dataset.cache(storageLevel, windowedValueCoder);
+        if (dataset instanceof BoundedDataset) {
+          cachedDatasets.add((BoundedDataset<?>) dataset);
+        }
+      }
     }
     datasets.put(pvalue, dataset);
     leaves.add(dataset);
   }
 
+  /**
+   * Returns the storage level to cache a dataset that is used more than once at, or null if it is
+   * cheaper to compute it again. With cost based caching, bounded datasets are sampled to choose
+   * it, see {@link CacheCostEstimate}.
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  private String cacheStorageLevel(PValue pvalue, Dataset dataset, Coder<?> coder) {
+    SparkPipelineOptions sparkOptions = serializableOptions.get().as(SparkPipelineOptions.class);
+    if (!sparkOptions.getCostBasedCaching() || !(dataset instanceof BoundedDataset)) {
+      return storageLevel();
+    }
+    CacheCostEstimate estimate =
+        CacheCostEstimate.sample(((BoundedDataset) dataset).getRDD(), (Coder) coder);
+    String storageLevel = estimate.storageLevel(sparkOptions);
+    LOG.info(
+        "Estimated {} to be {} bytes, computed in {} ms, caching at {}.",
+        pvalue.getName(),
+        estimate.getBytes(),
+        estimate.getComputeMillis(),
+        storageLevel == null ? "no storage level" : storageLevel);
+    return storageLevel;
+  }
+
   <T> void putBoundedDatasetFromValues(
       PTransform<?, ? extends PValue> transform, Iterable<T> values, Coder<T> coder) {
     PValue output = getOutput(transform);
@@ -199,8 +244,46 @@ public class EvaluationContext {
    * saving to a file) registered on them (i.e. they are performed for side effects).
    */
   public void computeOutputs() {
-    for (Dataset dataset : leaves) {
-      dataset.action(); // force computation.
+    List<Dataset> pending = new ArrayList<>(leaves);
+    for (int i = 0; i < pending.size(); i++) {
+      pending.get(i).action(); // force computation.
+      if (jssc == null) {
+        // in streaming, the datasets are used again by each micro-batch.
+        unpersistUnused(pending.subList(i + 1, pending.size()));
+      }
+    }
+  }
+
+  /**
+   * Unpersists the cached datasets that none of the given leaves depends on. All consumers of a
+   * dataset have run once the leaves that depend on it are computed, as they are only computed
+   * from the leaves or by actions in the translation, which happen before.
+   */
+  private void unpersistUnused(List<Dataset> pendingLeaves) {
+    if (cachedDatasets.isEmpty()) {
+      return;
+    }
+    Set<Integer> used = new HashSet<>();
+    for (Dataset dataset : pendingLeaves) {
+      if (dataset instanceof BoundedDataset) {
+        collectLineage(((BoundedDataset<?>) dataset).getRDD().rdd(), used);
+      }
+    }
+    for (Iterator<BoundedDataset<?>> iter = cachedDatasets.iterator(); iter.hasNext(); ) {
+      BoundedDataset<?> dataset = iter.next();
+      JavaRDD<?> cachedRdd = dataset.getCachedRDD();
+      if (cachedRdd == null || !used.contains(cachedRdd.id())) {
+        dataset.unpersist();
+        iter.remove();
+      }
+    }
+  }
+
+  private static void collectLineage(RDD<?> rdd, Set<Integer> lineage) {
+    if (lineage.add(rdd.id())) {
+      for (Dependency<?> dependency : JavaConversions.seqAsJavaList(rdd.dependencies())) {
+        collectLineage(dependency.rdd(), lineage);
+      }
     }
   }
 
@@ -34,11 +34,13 @@ import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 import org.apache.beam.runners.core.construction.SerializablePipelineOptions;
 import org.apache.beam.runners.core.metrics.MetricsContainerStepMap;
+import org.apache.beam.runners.spark.SparkPipelineOptions;
 import org.apache.beam.runners.spark.coders.CoderHelpers;
 import org.apache.beam.runners.spark.io.ConsoleIO;
 import org.apache.beam.runners.spark.io.CreateStream;
 import org.apache.beam.runners.spark.io.SparkUnboundedSource;
 import org.apache.beam.runners.spark.metrics.MetricsAccumulator;
+import org.apache.beam.runners.spark.stateful.SparkGroupAlsoByWindowViaMapWithState;
 import org.apache.beam.runners.spark.stateful.SparkGroupAlsoByWindowViaWindowSet;
 import org.apache.beam.runners.spark.translation.BoundedDataset;
 import org.apache.beam.runners.spark.translation.Dataset;
@@ -306,15 +308,31 @@ public final class StreamingTransformTranslator {
                 rdd -> GroupCombineFunctions.groupByKeyOnly(rdd, coder.getKeyCoder(), wvCoder));
 
         // --- now group also by window.
-        JavaDStream<WindowedValue<KV<K, Iterable<V>>>> outStream =
-            SparkGroupAlsoByWindowViaWindowSet.groupAlsoByWindow(
-                groupedByKeyStream,
-                coder.getKeyCoder(),
-                wvCoder,
-                windowingStrategy,
-                context.getSerializableOptions(),
-                streamSources,
-                context.getCurrentTransform().getFullName());
+        JavaDStream<WindowedValue<KV<K, Iterable<V>>>> outStream;
+        if (context
+            .getOptions()
+            .as(SparkPipelineOptions.class)
+            .getGroupAlsoByWindowViaMapWithState()) {
+          outStream =
+              SparkGroupAlsoByWindowViaMapWithState.groupAlsoByWindow(
+                  groupedByKeyStream,
+                  coder.getKeyCoder(),
+                  wvCoder,
+                  windowingStrategy,
+                  context.getSerializableOptions(),
+                  streamSources,
+                  context.getCurrentTransform().getFullName());
+        } else {
+          outStream =
+              SparkGroupAlsoByWindowViaWindowSet.groupAlsoByWindow(
+                  groupedByKeyStream,
+                  coder.getKeyCoder(),
+                  wvCoder,
+                  windowingStrategy,
+                  context.getSerializableOptions(),
+                  streamSources,
+                  context.getCurrentTransform().getFullName());
+        }
 
         context.putDataset(transform, new UnboundedDataset<>(outStream, streamSources));
       }
@@ -18,7 +18,12 @@
 package org.apache.beam.runners.spark;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import org.apache.beam.runners.spark.translation.EvaluationContext;
 import org.apache.beam.runners.spark.translation.SparkContextFactory;
 import org.apache.beam.runners.spark.translation.TransformTranslator;
@@ -27,7 +32,9 @@ import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.transforms.Count;
 import org.apache.beam.sdk.transforms.Create;
 import org.apache.beam.sdk.values.PCollection;
+import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.storage.StorageLevel;
 import org.junit.Test;
 
 /**
@@ -58,4 +65,97 @@ public class CacheTest {
     assertEquals(2L, (long) ctxt.getCacheCandidates().get(pCollection));
   }
 
+  @Test
+  public void unpersistsAfterLastConsumerTest() throws Exception {
+    SparkPipelineOptions options = createOptions();
+    EvaluationContext ctxt = translate(options);
+    Map<Integer, StorageLevel> cached = newPersistentRdds(ctxt.getSparkContext());
+    assertEquals(1, cached.size());
+    assertEquals(StorageLevel.MEMORY_ONLY(), cached.values().iterator().next());
+
+    ctxt.computeOutputs();
+    assertTrue(newPersistentRdds(ctxt.getSparkContext()).isEmpty());
+  }
+
+  @Test
+  public void costBasedCachingSkipsCheapRecomputationTest() throws Exception {
+    SparkPipelineOptions options = createOptions();
+    options.setCostBasedCaching(true);
+    options.setCheapRecomputationMillis(Long.MAX_VALUE);
+    EvaluationContext ctxt = translate(options);
+    assertTrue(newPersistentRdds(ctxt.getSparkContext()).isEmpty());
+    ctxt.computeOutputs();
+  }
+
+  @Test
+  public void costBasedCachingSerializesLargeDatasetsTest() throws Exception {
+    SparkPipelineOptions options = createOptions();
+    options.setCostBasedCaching(true);
+    options.setCheapRecomputationMillis(0L);
+    options.setMaxDeserializedCacheBytes(0L);
+    EvaluationContext ctxt = translate(options);
+    Map<Integer, StorageLevel> cached = newPersistentRdds(ctxt.getSparkContext());
+    assertEquals(1, cached.size());
+    assertEquals(StorageLevel.MEMORY_AND_DISK_SER(), cached.values().iterator().next());
+    ctxt.computeOutputs();
+    assertTrue(newPersistentRdds(ctxt.getSparkContext()).isEmpty());
+  }
+
+  @Test
+  public void costBasedCachingKeepsSmallDatasetsDeserializedTest() throws Exception {
+    SparkPipelineOptions options = createOptions();
+    options.setCostBasedCaching(true);
+    options.setCheapRecomputationMillis(0L);
+    EvaluationContext ctxt = translate(options);
+    Map<Integer, StorageLevel> cached = newPersistentRdds(ctxt.getSparkContext());
+    assertEquals(1, cached.size());
+    assertEquals(StorageLevel.MEMORY_ONLY(), cached.values().iterator().next());
+    ctxt.computeOutputs();
+  }
+
+  private Map<Integer, StorageLevel> persistentRddsBefore = new HashMap<>();
+
+  private SparkPipelineOptions createOptions() {
+    SparkPipelineOptions options =
+        PipelineOptionsFactory.create().as(TestSparkPipelineOptions.class);
+    options.setRunner(TestSparkRunner.class);
+    persistentRddsBefore = persistentRdds(SparkContextFactory.getSparkContext(options));
+    return options;
+  }
+
+  /** Translates a pipeline that reads a {@link PCollection} twice. */
+  private static EvaluationContext translate(SparkPipelineOptions options) {
+    List<String> values = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      values.add("value" + i);
+    }
+    Pipeline pipeline = Pipeline.create(options);
+    PCollection<String> pCollection = pipeline.apply(Create.of(values));
+    pCollection.apply(Count.globally());
+    pCollection.apply(Count.perElement());
+
+    JavaSparkContext jsc = SparkContextFactory.getSparkContext(options);
+    SparkRunner.initAccumulators(options, jsc);
+    EvaluationContext ctxt = new EvaluationContext(jsc, pipeline, options);
+    TransformTranslator.Translator translator = new TransformTranslator.Translator();
+    pipeline.traverseTopologically(new SparkRunner.CacheVisitor(translator, ctxt));
+    pipeline.traverseTopologically(new SparkRunner.Evaluator(translator, ctxt));
+    return ctxt;
+  }
+
+  private static Map<Integer, StorageLevel> persistentRdds(JavaSparkContext jsc) {
+    Map<Integer, StorageLevel> persistentRdds = new HashMap<>();
+    for (Map.Entry<Integer, JavaRDD<?>> entry : jsc.getPersistentRDDs().entrySet()) {
+      persistentRdds.put(entry.getKey(), entry.getValue().getStorageLevel());
+    }
+    return persistentRdds;
+  }
+
+  /** The RDDs persisted since the options were created, with their storage levels. */
+  private Map<Integer, StorageLevel> newPersistentRdds(JavaSparkContext jsc) {
+    Map<Integer, StorageLevel> persistentRdds = persistentRdds(jsc);
+    persistentRdds.keySet().removeAll(persistentRddsBefore.keySet());
+    return persistentRdds;
+  }
+
 }
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.spark.stateful;
+
+import java.io.IOException;
+import java.io.Serializable;
+import org.apache.beam.runners.spark.ReuseSparkContextRule;
+import org.apache.beam.runners.spark.SparkPipelineOptions;
+import org.apache.beam.runners.spark.StreamingTest;
+import org.apache.beam.runners.spark.TestSparkPipelineOptions;
+import org.apache.beam.runners.spark.TestSparkRunner;
+import org.apache.beam.runners.spark.io.CreateStream;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.options.PipelineOptions;
+import org.apache.beam.sdk.testing.PAssert;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.Flatten;
+import org.apache.beam.sdk.transforms.GroupByKey;
+import org.apache.beam.sdk.transforms.Values;
+import org.apache.beam.sdk.transforms.WithKeys;
+import org.apache.beam.sdk.transforms.windowing.DefaultTrigger;
+import org.apache.beam.sdk.transforms.windowing.FixedWindows;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.Window;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.TimestampedValue;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests for {@link SparkGroupAlsoByWindowViaMapWithState}, which only visits the keys with new data
+ * or due timers.
+ */
+@Category(StreamingTest.class)
+public class SparkGroupAlsoByWindowViaMapWithStateTest implements Serializable {
+
+  @Rule
+  public final transient TestPipeline p = TestPipeline.fromOptions(streamingOptions());
+  @Rule
+  public final transient ReuseSparkContextRule noContextReuse = ReuseSparkContextRule.no();
+
+  private final FixedWindows windowFn = FixedWindows.of(Duration.millis(1000L));
+  private final IntervalWindow window = windowFn.assignWindow(new Instant(0));
+
+  @Test
+  public void testTimerFiresWithoutNewInput() throws IOException {
+    CreateStream<String> source =
+        CreateStream.of(StringUtf8Coder.of(), batchDuration())
+            .nextBatch(TimestampedValue.of("onTime", new Instant(100)))
+            // the key has no data in these batches, only its end of window timer is due.
+            .advanceWatermarkForNextBatch(new Instant(1500L))
+            .emptyBatch()
+            .advanceWatermarkForNextBatch(new Instant(1500L))
+            .emptyBatch()
+            .advanceWatermarkForNextBatch(new Instant(1500L))
+            .emptyBatch()
+            .advanceWatermarkForNextBatch(new Instant(1500L))
+            .nextBatch(TimestampedValue.of("late", new Instant(200)))
+            .advanceNextBatchWatermarkToInfinity();
+
+    PCollection<String> values = groupByWindow(source, Duration.millis(5000L));
+
+    PAssert.that(values).inWindow(window).containsInAnyOrder("onTime", "late");
+    // the on time pane fired before the late element arrived, otherwise it would contain it.
+    PAssert.that(values).inOnTimePane(window).containsInAnyOrder("onTime");
+
+    p.run();
+  }
+
+  @Test
+  public void testLateData() throws IOException {
+    CreateStream<String> source =
+        CreateStream.of(StringUtf8Coder.of(), batchDuration())
+            .nextBatch(TimestampedValue.of("onTime", new Instant(100)))
+            .advanceWatermarkForNextBatch(new Instant(1500L))
+            .emptyBatch()
+            .advanceWatermarkForNextBatch(new Instant(1500L))
+            .emptyBatch()
+            .advanceWatermarkForNextBatch(new Instant(1500L))
+            // within the allowed lateness, which ends at 1999.
+            .nextBatch(TimestampedValue.of("late", new Instant(200)))
+            .advanceWatermarkForNextBatch(new Instant(3000L))
+            .emptyBatch()
+            .advanceWatermarkForNextBatch(new Instant(3000L))
+            .emptyBatch()
+            .advanceWatermarkForNextBatch(new Instant(3000L))
+            // past the allowed lateness, after the state of the window was cleared.
+            .nextBatch(TimestampedValue.of("droppablyLate", new Instant(300)))
+            .advanceNextBatchWatermarkToInfinity();
+
+    PCollection<String> values = groupByWindow(source, Duration.millis(1000L));
+
+    PAssert.that(values).inWindow(window).containsInAnyOrder("onTime", "late");
+    PAssert.that(values).inOnTimePane(window).containsInAnyOrder("onTime");
+
+    p.run();
+  }
+
+  private PCollection<String> groupByWindow(
+      CreateStream<String> source, Duration allowedLateness) {
+    return p.apply(source)
+        .apply(
+            Window.<String>into(windowFn)
+                .triggering(DefaultTrigger.of())
+                .discardingFiredPanes()
+                .withAllowedLateness(allowedLateness))
+        .apply(WithKeys.of(1))
+        .apply(GroupByKey.create())
+        .apply(Values.create())
+        .apply(Flatten.iterables());
+  }
+
+  private static PipelineOptions streamingOptions() {
+    TestSparkPipelineOptions options =
+        TestPipeline.testingPipelineOptions().as(TestSparkPipelineOptions.class);
+    options.setRunner(TestSparkRunner.class);
+    options.setForceStreaming(true);
+    options.setGroupAlsoByWindowViaMapWithState(true);
+    return options;
+  }
+
+  private Duration batchDuration() {
+    return Duration.millis(
+        (p.getOptions().as(SparkPipelineOptions.class)).getBatchIntervalMillis());
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.runners.spark.translation.streaming;
+
+import org.apache.beam.runners.spark.SparkPipelineOptions;
+import org.apache.beam.runners.spark.StreamingTest;
+import org.apache.beam.runners.spark.stateful.SparkGroupAlsoByWindowViaMapWithState;
+import org.junit.Before;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Runs the tests of {@link CreateStreamTest} with {@link SparkGroupAlsoByWindowViaMapWithState},
+ * which only wakes keys up for their timers when the watermark passes them.
+ */
+@Category(StreamingTest.class)
+public class CreateStreamViaMapWithStateTest extends CreateStreamTest {
+
+  @Before
+  public void groupAlsoByWindowViaMapWithState() {
+    p.getOptions().as(SparkPipelineOptions.class).setGroupAlsoByWindowViaMapWithState(true);
+  }
+}
@@ -42,6 +42,7 @@ import org.apache.beam.runners.spark.UsesCheckpointRecovery;
 import org.apache.beam.runners.spark.aggregators.AggregatorsAccumulator;
 import org.apache.beam.runners.spark.io.MicrobatchSource;
 import org.apache.beam.runners.spark.metrics.MetricsAccumulator;
+import org.apache.beam.runners.spark.stateful.SparkGroupAlsoByWindowViaMapWithState;
 import org.apache.beam.runners.spark.translation.streaming.utils.EmbeddedKafkaCluster;
 import org.apache.beam.runners.spark.util.GlobalWatermarkHolder;
 import org.apache.beam.sdk.Pipeline;
@@ -127,7 +128,7 @@ public class ResumeFromCheckpointStreamingTest implements Serializable {
   }
 
   @SuppressWarnings("FutureReturnValueIgnored")
-  private static void produce(Map<String, Instant> messages) {
+  private static void produce(String topic, Map<String, Instant> messages) {
     Properties producerProps = new Properties();
     producerProps.putAll(EMBEDDED_KAFKA_CLUSTER.getProps());
     producerProps.put("request.required.acks", 1);
@@ -138,7 +139,7 @@ public class ResumeFromCheckpointStreamingTest implements Serializable {
     try (@SuppressWarnings("unchecked") KafkaProducer<String, Instant> kafkaProducer =
         new KafkaProducer(producerProps, stringSerializer, instantSerializer)) {
           for (Map.Entry<String, Instant> en : messages.entrySet()) {
-            kafkaProducer.send(new ProducerRecord<>(TOPIC, en.getKey(), en.getValue()));
+            kafkaProducer.send(new ProducerRecord<>(topic, en.getKey(), en.getValue()));
           }
           kafkaProducer.close();
         }
@@ -147,8 +148,20 @@ public class ResumeFromCheckpointStreamingTest implements Serializable {
   @Test
   @Category(UsesCheckpointRecovery.class)
   public void testWithResume() throws Exception {
+    testWithResume(TOPIC, false);
+  }
+
+  /** Resumes the state and the timer index of {@link SparkGroupAlsoByWindowViaMapWithState}. */
+  @Test
+  @Category(UsesCheckpointRecovery.class)
+  public void testWithResumeViaMapWithState() throws Exception {
+    testWithResume(TOPIC + "_map_with_state", true);
+  }
+
+  private void testWithResume(String topic, boolean groupAlsoByWindowViaMapWithState)
+      throws Exception {
     // write to Kafka
-    produce(ImmutableMap.of(
+    produce(topic, ImmutableMap.of(
         "k1", new Instant(100),
         "k2", new Instant(200),
         "k3", new Instant(300),
@@ -161,7 +174,8 @@ public class ResumeFromCheckpointStreamingTest implements Serializable {
             .build();
 
     // first run should expect EOT matching the last injected element.
-    SparkPipelineResult res = run(Optional.of(new Instant(400)), 0);
+    SparkPipelineResult res =
+        run(topic, groupAlsoByWindowViaMapWithState, Optional.of(new Instant(400)), 0);
 
     assertThat(res.metrics().queryMetrics(metricsFilter).getCounters(),
         hasItem(attemptedMetricsResult(ResumeFromCheckpointStreamingTest.class.getName(),
@@ -176,13 +190,13 @@ public class ResumeFromCheckpointStreamingTest implements Serializable {
     clean();
 
     //- write a bit more.
-    produce(ImmutableMap.of(
+    produce(topic, ImmutableMap.of(
         "k5", new Instant(499),
         "EOF", new Instant(500) // to be dropped from [0, 500).
     ));
 
     // recovery should resume from last read offset, and read the second batch of input.
-    res = runAgain(1);
+    res = runAgain(topic, groupAlsoByWindowViaMapWithState, 1);
     // assertions 2:
     assertThat(res.metrics().queryMetrics(metricsFilter).getCounters(),
         hasItem(attemptedMetricsResult(ResumeFromCheckpointStreamingTest.class.getName(),
@@ -224,20 +238,23 @@ public class ResumeFromCheckpointStreamingTest implements Serializable {
         is(0L));
   }
 
-  private SparkPipelineResult runAgain(int expectedAssertions) {
+  private SparkPipelineResult runAgain(
+      String topic, boolean groupAlsoByWindowViaMapWithState, int expectedAssertions) {
     // sleep before next run.
     Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
-    return run(Optional.absent(), expectedAssertions);
+    return run(topic, groupAlsoByWindowViaMapWithState, Optional.absent(), expectedAssertions);
   }
 
   @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
   private SparkPipelineResult run(
+      String topic,
+      boolean groupAlsoByWindowViaMapWithState,
       Optional<Instant> stopWatermarkOption,
       int expectedAssertions) {
     KafkaIO.Read<String, Instant> read =
         KafkaIO.<String, Instant>read()
             .withBootstrapServers(EMBEDDED_KAFKA_CLUSTER.getBrokerList())
-            .withTopics(Collections.singletonList(TOPIC))
+            .withTopics(Collections.singletonList(topic))
             .withKeyDeserializer(StringDeserializer.class)
             .withValueDeserializer(InstantDeserializer.class)
             .updateConsumerProperties(ImmutableMap.of("auto.offset.reset", "earliest"))
@@ -259,6 +276,7 @@ public class ResumeFromCheckpointStreamingTest implements Serializable {
     options.setEnableSparkMetricSinks(false);
     options.setForceStreaming(true);
     options.setCheckpointDir(temporaryFolder.getRoot().getPath());
+    options.setGroupAlsoByWindowViaMapWithState(groupAlsoByWindowViaMapWithState);
     // timeout is per execution so it can be injected by the caller.
     if (stopWatermarkOption.isPresent()) {
       options.setStopPipelineWatermark(stopWatermarkOption.get().getMillis());
@@ -57,6 +57,7 @@ import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
 import org.apache.beam.sdk.util.CoderUtils;
 import org.apache.beam.sdk.util.common.ReflectHelpers;
 import org.apache.beam.sdk.util.common.ReflectHelpers.ObjectsClassComparator;
+import org.apache.beam.sdk.values.Delta;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.TimestampedValue;
 import org.apache.beam.sdk.values.TypeDescriptor;
@@ -106,6 +107,8 @@ public class CoderRegistry {
           CoderProviders.fromStaticMethods(BitSet.class, BitSetCoder.class));
       builder.put(FloatCoder.class,
           CoderProviders.fromStaticMethods(Float.class, FloatCoder.class));
+      builder.put(Delta.class,
+          CoderProviders.fromStaticMethods(Delta.class, Delta.DeltaCoder.class));
       builder.put(Double.class,
           CoderProviders.fromStaticMethods(Double.class, DoubleCoder.class));
       builder.put(Instant.class,
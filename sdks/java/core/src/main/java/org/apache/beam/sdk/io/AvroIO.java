@@ -137,6 +137,14 @@ import org.joda.time.Duration;
  *     }));
  * }</pre>
  *
+ * <h3>Projection and record reuse</h3>
+ *
+ * <p>To decode only some of the fields of a wide schema, use {@link Read#withProjection} or {@link
+ * Parse#withProjection} with a reader schema containing only the needed fields. The other fields
+ * are skipped at decode time. When parsing, {@link Parse#withRecordReuse} additionally decodes
+ * every record into the same {@link GenericRecord}, as long as the parse function does not retain
+ * it.
+ *
  * <h3>Reading from a {@link PCollection} of filepatterns</h3>
  *
  * <pre>{@code
@@ -342,6 +350,7 @@ public class AvroIO {
     return new AutoValue_AvroIO_Parse.Builder<T>()
         .setMatchConfiguration(MatchConfiguration.create(EmptyMatchTreatment.DISALLOW))
         .setParseFn(parseFn)
+        .setReuseRecords(false)
         .setHintMatchesManyFiles(false)
         .build();
   }
@@ -355,6 +364,7 @@ public class AvroIO {
     return new AutoValue_AvroIO_ParseAll.Builder<T>()
         .setMatchConfiguration(MatchConfiguration.create(EmptyMatchTreatment.ALLOW_IF_WILDCARD))
         .setParseFn(parseFn)
+        .setReuseRecords(false)
         .setDesiredBundleSizeBytes(64 * 1024 * 1024L)
         .build();
   }
@@ -505,6 +515,18 @@ public class AvroIO {
       return toBuilder().setHintMatchesManyFiles(true).build();
     }
 
+    /**
+     * Decodes records using the given reader schema, which may contain only a subset of the fields
+     * in the files. Fields that are not in the projection are skipped at decode time.
+     *
+     * <p>When reading generated classes, the projection must have the same full name as the class,
+     * and fields that are not in the projection are left at their default values.
+     */
+    public Read<T> withProjection(Schema projection) {
+      checkArgument(projection != null, "projection can not be null");
+      return toBuilder().setSchema(projection).build();
+    }
+
     @Override
     public PCollection<T> expand(PBegin input) {
       checkNotNull(getFilepattern(), "filepattern");
@@ -525,7 +547,7 @@ public class AvroIO {
       ReadAll<T> readAll =
           (getRecordClass() == GenericRecord.class)
               ? (ReadAll<T>) readAllGenericRecords(getSchema())
-              : readAll(getRecordClass());
+              : readAll(getRecordClass()).withProjection(getSchema());
       readAll = readAll.withMatchConfiguration(getMatchConfiguration());
       return input
           .apply("Create filepattern", Create.ofProvider(getFilepattern(), StringUtf8Coder.of()))
@@ -551,7 +573,7 @@ public class AvroIO {
           AvroSource.from(filepattern).withEmptyMatchTreatment(emptyMatchTreatment);
       return recordClass == GenericRecord.class
           ? (AvroSource<T>) source.withSchema(schema)
-          : source.withSchema(recordClass);
+          : source.withSchema(recordClass).withProjection(schema);
     }
   }
 
@@ -596,6 +618,12 @@ public class AvroIO {
           getMatchConfiguration().continuously(pollInterval, terminationCondition));
     }
 
+    /** Like {@link Read#withProjection}. */
+    public ReadAll<T> withProjection(Schema projection) {
+      checkArgument(projection != null, "projection can not be null");
+      return toBuilder().setSchema(projection).build();
+    }
+
     @VisibleForTesting
     ReadAll<T> withDesiredBundleSizeBytes(long desiredBundleSizeBytes) {
       return toBuilder().setDesiredBundleSizeBytes(desiredBundleSizeBytes).build();
@@ -651,6 +679,8 @@ public class AvroIO {
     abstract MatchConfiguration getMatchConfiguration();
     abstract SerializableFunction<GenericRecord, T> getParseFn();
     @Nullable abstract Coder<T> getCoder();
+    @Nullable abstract Schema getProjection();
+    abstract boolean getReuseRecords();
     abstract boolean getHintMatchesManyFiles();
 
     abstract Builder<T> toBuilder();
@@ -661,6 +691,8 @@ public class AvroIO {
       abstract Builder<T> setMatchConfiguration(MatchConfiguration matchConfiguration);
       abstract Builder<T> setParseFn(SerializableFunction<GenericRecord, T> parseFn);
       abstract Builder<T> setCoder(Coder<T> coder);
+      abstract Builder<T> setProjection(Schema projection);
+      abstract Builder<T> setReuseRecords(boolean reuseRecords);
       abstract Builder<T> setHintMatchesManyFiles(boolean hintMatchesManyFiles);
 
       abstract Parse<T> build();
@@ -704,6 +736,25 @@ public class AvroIO {
       return toBuilder().setHintMatchesManyFiles(true).build();
     }
 
+    /**
+     * Passes records decoded with the given reader schema to the parse function. The projection
+     * may contain only a subset of the fields in the files, in which case the other fields are
+     * skipped at decode time.
+     */
+    public Parse<T> withProjection(Schema projection) {
+      checkArgument(projection != null, "projection can not be null");
+      return toBuilder().setProjection(projection).build();
+    }
+
+    /**
+     * Decodes every record into the {@link GenericRecord} previously passed to the parse function,
+     * instead of allocating a new one per record. The parse function must not return or retain
+     * the record, or any object reachable from it.
+     */
+    public Parse<T> withRecordReuse() {
+      return toBuilder().setReuseRecords(true).build();
+    }
+
     @Override
     public PCollection<T> expand(PBegin input) {
       checkNotNull(getFilepattern(), "filepattern");
@@ -711,17 +762,24 @@ public class AvroIO {
 
       if (getMatchConfiguration().getWatchInterval() == null && !getHintMatchesManyFiles()) {
         return input.apply(
-                org.apache.beam.sdk.io.Read.from(
-                        AvroSource.from(getFilepattern()).withParseFn(getParseFn(), coder)));
+            org.apache.beam.sdk.io.Read.from(
+                ParseAll.createSource(
+                    getFilepattern(), getParseFn(), coder, getProjection(), getReuseRecords())));
       }
       // All other cases go through ParseAllGenericRecords.
+      ParseAll<T> parseAll =
+          parseAllGenericRecords(getParseFn())
+              .withCoder(coder)
+              .withMatchConfiguration(getMatchConfiguration());
+      if (getProjection() != null) {
+        parseAll = parseAll.withProjection(getProjection());
+      }
+      if (getReuseRecords()) {
+        parseAll = parseAll.withRecordReuse();
+      }
       return input
           .apply("Create filepattern", Create.ofProvider(getFilepattern(), StringUtf8Coder.of()))
-          .apply(
-              "Via ParseAll",
-              parseAllGenericRecords(getParseFn())
-                  .withCoder(coder)
-                  .withMatchConfiguration(getMatchConfiguration()));
+          .apply("Via ParseAll", parseAll);
     }
 
     private static <T> Coder<T> inferCoder(
@@ -748,6 +806,12 @@ public class AvroIO {
           .addIfNotNull(
               DisplayData.item("filePattern", getFilepattern()).withLabel("Input File Pattern"))
           .add(DisplayData.item("parseFn", getParseFn().getClass()).withLabel("Parse function"))
+          .addIfNotNull(
+              DisplayData.item(
+                      "projection", getProjection() == null ? null : getProjection().toString())
+                  .withLabel("Projection"))
+          .addIfNotDefault(
+              DisplayData.item("reuseRecords", getReuseRecords()).withLabel("Reuse records"), false)
           .include("matchConfiguration", getMatchConfiguration());
     }
   }
@@ -760,6 +824,8 @@ public class AvroIO {
     abstract MatchConfiguration getMatchConfiguration();
     abstract SerializableFunction<GenericRecord, T> getParseFn();
     @Nullable abstract Coder<T> getCoder();
+    @Nullable abstract Schema getProjection();
+    abstract boolean getReuseRecords();
     abstract long getDesiredBundleSizeBytes();
 
     abstract Builder<T> toBuilder();
@@ -769,6 +835,8 @@ public class AvroIO {
       abstract Builder<T> setMatchConfiguration(MatchConfiguration matchConfiguration);
       abstract Builder<T> setParseFn(SerializableFunction<GenericRecord, T> parseFn);
       abstract Builder<T> setCoder(Coder<T> coder);
+      abstract Builder<T> setProjection(Schema projection);
+      abstract Builder<T> setReuseRecords(boolean reuseRecords);
       abstract Builder<T> setDesiredBundleSizeBytes(long desiredBundleSizeBytes);
 
       abstract ParseAll<T> build();
@@ -797,6 +865,17 @@ public class AvroIO {
       return toBuilder().setCoder(coder).build();
     }
 
+    /** Like {@link Parse#withProjection}. */
+    public ParseAll<T> withProjection(Schema projection) {
+      checkArgument(projection != null, "projection can not be null");
+      return toBuilder().setProjection(projection).build();
+    }
+
+    /** Like {@link Parse#withRecordReuse}. */
+    public ParseAll<T> withRecordReuse() {
+      return toBuilder().setReuseRecords(true).build();
+    }
+
     @VisibleForTesting
     ParseAll<T> withDesiredBundleSizeBytes(long desiredBundleSizeBytes) {
       return toBuilder().setDesiredBundleSizeBytes(desiredBundleSizeBytes).build();
@@ -808,7 +887,11 @@ public class AvroIO {
           Parse.inferCoder(getCoder(), getParseFn(), input.getPipeline().getCoderRegistry());
       final SerializableFunction<GenericRecord, T> parseFn = getParseFn();
       final SerializableFunction<String, FileBasedSource<T>> createSource =
-              new CreateParseSourceFn<>(parseFn, coder);
+          new CreateParseSourceFn<>(
+              parseFn,
+              coder,
+              getProjection() == null ? null : getProjection().toString(),
+              getReuseRecords());
       return input
           .apply(FileIO.matchAll().withConfiguration(getMatchConfiguration()))
           .apply(FileIO.readMatches().withDirectoryTreatment(DirectoryTreatment.PROHIBIT))
@@ -822,22 +905,55 @@ public class AvroIO {
       super.populateDisplayData(builder);
       builder
           .add(DisplayData.item("parseFn", getParseFn().getClass()).withLabel("Parse function"))
+          .addIfNotNull(
+              DisplayData.item(
+                      "projection", getProjection() == null ? null : getProjection().toString())
+                  .withLabel("Projection"))
+          .addIfNotDefault(
+              DisplayData.item("reuseRecords", getReuseRecords()).withLabel("Reuse records"), false)
           .include("matchConfiguration", getMatchConfiguration());
     }
 
+    private static <T> AvroSource<T> createSource(
+        ValueProvider<String> filepattern,
+        SerializableFunction<GenericRecord, T> parseFn,
+        Coder<T> coder,
+        @Nullable Schema projection,
+        boolean reuseRecords) {
+      AvroSource<T> source = AvroSource.from(filepattern).withParseFn(parseFn, coder);
+      if (projection != null) {
+        source = source.withProjection(projection);
+      }
+      return reuseRecords ? source.withRecordReuse() : source;
+    }
+
     private static class CreateParseSourceFn<T>
         implements SerializableFunction<String, FileBasedSource<T>> {
       private final SerializableFunction<GenericRecord, T> parseFn;
       private final Coder<T> coder;
-
-      public CreateParseSourceFn(SerializableFunction<GenericRecord, T> parseFn, Coder<T> coder) {
+      @Nullable private final Supplier<Schema> projectionSupplier;
+      private final boolean reuseRecords;
+
+      public CreateParseSourceFn(
+          SerializableFunction<GenericRecord, T> parseFn,
+          Coder<T> coder,
+          @Nullable String jsonProjection,
+          boolean reuseRecords) {
         this.parseFn = parseFn;
         this.coder = coder;
+        this.projectionSupplier =
+            (jsonProjection == null) ? null : AvroUtils.serializableSchemaSupplier(jsonProjection);
+        this.reuseRecords = reuseRecords;
       }
 
       @Override
       public FileBasedSource<T> apply(String input) {
-        return AvroSource.from(input).withParseFn(parseFn, coder);
+        return createSource(
+            StaticValueProvider.of(input),
+            parseFn,
+            coder,
+            (projectionSupplier == null) ? null : projectionSupplier.get(),
+            reuseRecords);
       }
     }
   }
@@ -23,6 +23,9 @@ import static com.google.common.base.Preconditions.checkState;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Throwables;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
@@ -40,6 +43,10 @@ import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 import javax.annotation.Nullable;
@@ -64,6 +71,7 @@ import org.apache.beam.sdk.io.fs.ResourceId;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.options.ValueProvider;
 import org.apache.beam.sdk.transforms.SerializableFunction;
+import org.apache.beam.sdk.util.MoreFutures;
 import org.apache.beam.sdk.values.PCollection;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.apache.commons.compress.compressors.snappy.SnappyCompressorInputStream;
@@ -144,9 +152,12 @@ public class AvroSource<T> extends BlockBasedSource<T> {
   //    and converting them to type T.
   //                     |    Case 1     |    Case 2   |     Case 3    |
   // type                | GenericRecord |     Foo     | GenericRecord |
-  // readerSchemaString  |    non-null   |   non-null  |     null      |
+  // readerSchemaString  |    non-null   |   non-null  |   nullable    |
   // parseFn             |      null     |     null    |   non-null    |
   // outputCoder         |      null     |     null    |   non-null    |
+  // reuseRecords        |     false     |    false    |     any       |
+  // In case 3, a non-null readerSchemaString is a projection of the writer schema, and
+  // reuseRecords allows decoding each record into the previously parsed one.
   private static class Mode<T> implements Serializable {
     private final Class<?> type;
 
@@ -160,15 +171,27 @@ public class AvroSource<T> extends BlockBasedSource<T> {
     @Nullable
     private final Coder<T> outputCoder;
 
+    private final boolean reuseRecords;
+
     private Mode(
         Class<?> type,
         @Nullable String readerSchemaString,
         @Nullable SerializableFunction<GenericRecord, T> parseFn,
-        @Nullable Coder<T> outputCoder) {
+        @Nullable Coder<T> outputCoder,
+        boolean reuseRecords) {
       this.type = type;
       this.readerSchemaString = internSchemaString(readerSchemaString);
       this.parseFn = parseFn;
       this.outputCoder = outputCoder;
+      this.reuseRecords = reuseRecords;
+    }
+
+    private Mode<T> withReaderSchemaString(String readerSchemaString) {
+      return new Mode<>(type, readerSchemaString, parseFn, outputCoder, reuseRecords);
+    }
+
+    private Mode<T> withReuseRecords() {
+      return new Mode<>(type, readerSchemaString, parseFn, outputCoder, true);
     }
 
     private void readObject(ObjectInputStream is) throws IOException, ClassNotFoundException {
@@ -194,14 +217,14 @@ public class AvroSource<T> extends BlockBasedSource<T> {
   }
 
   private static Mode<GenericRecord> readGenericRecordsWithSchema(String schema) {
-    return new Mode<>(GenericRecord.class, schema, null, null);
+    return new Mode<>(GenericRecord.class, schema, null, null, false);
   }
   private static <T> Mode<T> readGeneratedClasses(Class<T> clazz) {
-    return new Mode<>(clazz, ReflectData.get().getSchema(clazz).toString(), null, null);
+    return new Mode<>(clazz, ReflectData.get().getSchema(clazz).toString(), null, null, false);
   }
   private static <T> Mode<T> parseGenericRecords(
       SerializableFunction<GenericRecord, T> parseFn, Coder<T> outputCoder) {
-    return new Mode<>(GenericRecord.class, null, parseFn, outputCoder);
+    return new Mode<>(GenericRecord.class, null, parseFn, outputCoder, false);
   }
 
   private final Mode<T> mode;
@@ -269,6 +292,41 @@ public class AvroSource<T> extends BlockBasedSource<T> {
         parseGenericRecords(parseFn, coder));
   }
 
+  /**
+   * Decodes records using the given reader schema, which may contain only a subset of the fields
+   * of the schema the files were written with. Fields that are not in the projection are skipped
+   * at decode time, which avoids most of the decoding cost of wide schemas.
+   *
+   * <p>Must be called after {@link #withSchema} or {@link #withParseFn}. When reading generated
+   * classes, the projection must have the same full name as the class, and fields that are not in
+   * the projection are left at their default values.
+   */
+  public AvroSource<T> withProjection(Schema projection) {
+    checkArgument(projection != null, "projection can not be null");
+    return new AvroSource<>(
+        getFileOrPatternSpecProvider(),
+        getEmptyMatchTreatment(),
+        getMinBundleSize(),
+        mode.withReaderSchemaString(projection.toString()));
+  }
+
+  /**
+   * Decodes each {@link GenericRecord} into the one previously passed to the {@code parseFn},
+   * instead of allocating a new record per element.
+   *
+   * <p>Only valid after {@link #withParseFn}, and only if the {@code parseFn} does not retain or
+   * return the record, or any object reachable from it, since they will be overwritten when
+   * decoding the next record.
+   */
+  public AvroSource<T> withRecordReuse() {
+    checkState(mode.parseFn != null, "withRecordReuse() requires withParseFn()");
+    return new AvroSource<>(
+        getFileOrPatternSpecProvider(),
+        getEmptyMatchTreatment(),
+        getMinBundleSize(),
+        mode.withReuseRecords());
+  }
+
   /**
    * Sets the minimum bundle size. Refer to {@link OffsetBasedSource} for a description of {@code
    * minBundleSize} and its use.
@@ -499,11 +557,14 @@ public class AvroSource<T> extends BlockBasedSource<T> {
     // The current record in the block. Initialized in readNextRecord.
     @Nullable private T currentRecord;
 
+    // The last decoded record, decoded into again for the next record if the mode reuses records.
+    @Nullable private Object decodedRecord;
+
     // The index of the current record in the block.
     private long currentRecordIndex = 0;
 
     // A DatumReader to read records from the block.
-    private final DatumReader<?> reader;
+    private final DatumReader<Object> reader;
 
     // A BinaryDecoder used by the reader to decode records.
     private final BinaryDecoder decoder;
@@ -543,6 +604,22 @@ public class AvroSource<T> extends BlockBasedSource<T> {
       }
     }
 
+    /**
+     * Creates a {@link DatumReader} resolving records written with the given schema against the
+     * reader schema of the given mode. The reader may be shared by all blocks of a file.
+     */
+    private static DatumReader<Object> createDatumReader(
+        Mode<?> mode, String writerSchemaString) {
+      checkNotNull(writerSchemaString, "writerSchemaString");
+      Schema writerSchema = internOrParseSchemaString(writerSchemaString);
+      Schema readerSchema =
+          internOrParseSchemaString(
+              MoreObjects.firstNonNull(mode.readerSchemaString, writerSchemaString));
+      return (mode.type == GenericRecord.class)
+          ? new GenericDatumReader<>(writerSchema, readerSchema)
+          : new ReflectDatumReader<>(writerSchema, readerSchema);
+    }
+
     AvroBlock(
         byte[] data,
         long numRecords,
@@ -550,18 +627,30 @@ public class AvroSource<T> extends BlockBasedSource<T> {
         String writerSchemaString,
         String codec)
         throws IOException {
+      this(data, numRecords, mode, createDatumReader(mode, writerSchemaString), codec, null, null);
+    }
+
+    /**
+     * Creates a block decoding records with the given {@link DatumReader}, reusing the given
+     * decoder and, if the mode allows it, decoding the first record into {@code reuseRecord}.
+     */
+    AvroBlock(
+        byte[] data,
+        long numRecords,
+        Mode<T> mode,
+        DatumReader<Object> reader,
+        String codec,
+        @Nullable BinaryDecoder reuseDecoder,
+        @Nullable Object reuseRecord)
+        throws IOException {
       this.mode = mode;
       this.numRecords = numRecords;
-      checkNotNull(writerSchemaString, "writerSchemaString");
-      Schema writerSchema = internOrParseSchemaString(writerSchemaString);
-      Schema readerSchema =
-          internOrParseSchemaString(
-              MoreObjects.firstNonNull(mode.readerSchemaString, writerSchemaString));
-      this.reader =
-          (mode.type == GenericRecord.class)
-              ? new GenericDatumReader<T>(writerSchema, readerSchema)
-              : new ReflectDatumReader<T>(writerSchema, readerSchema);
-      this.decoder = DecoderFactory.get().binaryDecoder(decodeAsInputStream(data, codec), null);
+      this.reader = reader;
+      this.decoder =
+          DataFileConstants.NULL_CODEC.equals(codec)
+              ? DecoderFactory.get().binaryDecoder(data, reuseDecoder)
+              : DecoderFactory.get().binaryDecoder(decodeAsInputStream(data, codec), reuseDecoder);
+      this.decodedRecord = reuseRecord;
     }
 
     @Override
@@ -574,7 +663,10 @@ public class AvroSource<T> extends BlockBasedSource<T> {
       if (currentRecordIndex >= numRecords) {
         return false;
       }
-      Object record = reader.read(null, decoder);
+      Object record = reader.read(mode.reuseRecords ? decodedRecord : null, decoder);
+      if (mode.reuseRecords) {
+        decodedRecord = record;
+      }
       currentRecord =
           (mode.parseFn == null) ? ((T) record) : mode.parseFn.apply((GenericRecord) record);
       currentRecordIndex++;
@@ -599,9 +691,31 @@ public class AvroSource<T> extends BlockBasedSource<T> {
    */
   @Experimental(Experimental.Kind.SOURCE_SINK)
   public static class AvroReader<T> extends BlockBasedReader<T> {
+    // Reads and decompresses the blocks of compressed files ahead of decoding. Each reader has at
+    // most one block being read ahead at a time.
+    private static final ExecutorService READ_AHEAD_EXECUTOR =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("AvroSource-read-ahead-%d")
+                .build());
+
     // Initialized in startReading.
     @Nullable private AvroMetadata metadata;
 
+    // Resolves the file's writer schema against the reader schema. Shared by all blocks.
+    // Initialized in startReading.
+    @Nullable private DatumReader<Object> datumReader;
+
+    // Whether the next block is read and decompressed on a separate thread while the current
+    // block is being decoded. Only done for compressed files. Initialized in startReading.
+    private boolean readAhead;
+
+    // The block following the current one, if it is being read ahead.
+    // Only one thread reads from the stream at a time: a new block is read ahead only after the
+    // previous one has been retrieved.
+    @Nullable private CompletionStage<RawBlock> nextBlock;
+
     // The current block.
     // Initialized in readNextRecord.
     @Nullable private AvroBlock<T> currentBlock;
@@ -643,11 +757,28 @@ public class AvroSource<T> extends BlockBasedSource<T> {
       return (AvroSource<T>) super.getCurrentSource();
     }
 
+    /** The contents of a block as read from the file, possibly already decompressed. */
+    private static class RawBlock {
+      private final long numRecords;
+      private final byte[] data;
+      private final boolean decompressed;
+      // Total size of the block in the file, including the header and trailing sync marker.
+      private final long sizeBytes;
+
+      private RawBlock(long numRecords, byte[] data, boolean decompressed, long sizeBytes) {
+        this.numRecords = numRecords;
+        this.data = data;
+        this.decompressed = decompressed;
+        this.sizeBytes = sizeBytes;
+      }
+    }
+
     // Precondition: the stream is positioned after the sync marker in the current (about to be
     // previous) block. currentBlockSize equals the size of the current block, or zero if this
     // reader was just started.
     //
-    // Postcondition: same as above, but for the new current (formerly next) block.
+    // Postcondition: same as above, but for the new current (formerly next) block. If reading
+    // ahead, the stream may additionally be positioned after the block following it.
     @Override
     public boolean readNextBlock() throws IOException {
       long startOfNextBlock;
@@ -655,6 +786,45 @@ public class AvroSource<T> extends BlockBasedSource<T> {
         startOfNextBlock = currentBlockOffset + currentBlockSizeBytes;
       }
 
+      RawBlock block = (nextBlock != null) ? awaitNextBlock() : readBlock(startOfNextBlock, false);
+      if (block == null) {
+        return false;
+      }
+
+      // Blocks starting at or after the end of the range will not be returned by this reader.
+      long startOfFollowingBlock = startOfNextBlock + block.sizeBytes;
+      if (readAhead && startOfFollowingBlock < getCurrentSource().getEndOffset()) {
+        nextBlock =
+            MoreFutures.supplyAsync(
+                () -> readBlock(startOfFollowingBlock, true), READ_AHEAD_EXECUTOR);
+      }
+
+      Mode<T> mode = getCurrentSource().mode;
+      currentBlock =
+          new AvroBlock<>(
+              block.data,
+              block.numRecords,
+              mode,
+              datumReader,
+              block.decompressed ? DataFileConstants.NULL_CODEC : metadata.getCodec(),
+              (currentBlock == null) ? null : currentBlock.decoder,
+              (currentBlock == null) ? null : currentBlock.decodedRecord);
+
+      // Atomically update both the position and offset of the new block.
+      synchronized (progressLock) {
+        currentBlockOffset = startOfNextBlock;
+        currentBlockSizeBytes = block.sizeBytes;
+      }
+
+      return true;
+    }
+
+    /**
+     * Reads the block starting at the current position of the stream, which must be {@code
+     * blockOffset}, and the sync marker following it. Returns {@code null} at the end of the file.
+     */
+    @Nullable
+    private RawBlock readBlock(long blockOffset, boolean decompress) throws IOException {
       // Before reading the variable-sized block header, record the current number of bytes read.
       long preHeaderCount = countStream.getBytesRead();
       decoder = DecoderFactory.get().directBinaryDecoder(countStream, decoder);
@@ -664,15 +834,15 @@ public class AvroSource<T> extends BlockBasedSource<T> {
       } catch (EOFException e) {
         // Expected for the last block, at which the start position is the EOF. The way to detect
         // stream ending is to try reading from it.
-        return false;
+        return null;
       }
       long blockSize = decoder.readLong();
 
       // Mark header size as the change in the number of bytes read.
       long headerSize = countStream.getBytesRead() - preHeaderCount;
 
-      // Create the current block by reading blockSize bytes. Block sizes permitted by the Avro
-      // specification are [32, 2^30], so the cast is safe.
+      // Read blockSize bytes of block data. Block sizes permitted by the Avro specification are
+      // [32, 2^30], so the cast is safe.
       byte[] data = new byte[(int) blockSize];
       int bytesRead = IOUtils.readFully(stream, data);
       checkState(
@@ -680,18 +850,11 @@ public class AvroSource<T> extends BlockBasedSource<T> {
           "Only able to read %s/%s bytes in the block before EOF reached.",
           bytesRead,
           blockSize);
-      currentBlock =
-          new AvroBlock<>(
-              data,
-              numRecords,
-              getCurrentSource().mode,
-              metadata.getSchemaString(),
-              metadata.getCodec());
 
       // Read the end of this block, which MUST be a sync marker for correctness.
       byte[] syncMarker = metadata.getSyncMarker();
       byte[] readSyncMarker = new byte[syncMarker.length];
-      long syncMarkerOffset = startOfNextBlock + headerSize + blockSize;
+      long syncMarkerOffset = blockOffset + headerSize + blockSize;
       bytesRead = IOUtils.readFully(stream, readSyncMarker);
       checkState(
           bytesRead == syncMarker.length,
@@ -710,14 +873,45 @@ public class AvroSource<T> extends BlockBasedSource<T> {
             ));
       }
 
-      // Atomically update both the position and offset of the new block.
-      synchronized (progressLock) {
-        currentBlockOffset = startOfNextBlock;
-        // Total block size includes the header, block content, and trailing sync marker.
-        currentBlockSizeBytes = headerSize + blockSize + syncMarker.length;
+      if (decompress) {
+        data = ByteStreams.toByteArray(AvroBlock.decodeAsInputStream(data, metadata.getCodec()));
       }
+      // Total block size includes the header, block content, and trailing sync marker.
+      return new RawBlock(
+          numRecords, data, decompress, headerSize + blockSize + syncMarker.length);
+    }
 
-      return true;
+    @Nullable
+    private RawBlock awaitNextBlock() throws IOException {
+      try {
+        return MoreFutures.get(nextBlock);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(
+            "Interrupted while reading ahead in " + getCurrentSource().getFileOrPatternSpec(), e);
+      } catch (ExecutionException e) {
+        Throwables.propagateIfPossible(e.getCause(), IOException.class);
+        throw new IOException(e.getCause());
+      } finally {
+        nextBlock = null;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      // The stream must not be closed while a block is being read from it.
+      if (nextBlock != null) {
+        try {
+          MoreFutures.get(nextBlock);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+          // The block was not going to be returned by this reader anyway.
+        } finally {
+          nextBlock = null;
+        }
+      }
+      super.close();
     }
 
     @Override
@@ -786,6 +980,10 @@ public class AvroSource<T> extends BlockBasedSource<T> {
         startOffset = position;
       }
 
+      datumReader =
+          AvroBlock.createDatumReader(getCurrentSource().mode, metadata.getSchemaString());
+      readAhead = !DataFileConstants.NULL_CODEC.equals(metadata.getCodec());
+
       // Satisfy the post condition.
       stream = createStream(channel);
       countStream = new CountingInputStream(stream);
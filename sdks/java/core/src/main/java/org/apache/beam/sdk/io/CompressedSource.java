@@ -48,15 +48,18 @@ import org.joda.time.Instant;
  * } </pre>
  *
  * <p>Supported compression algorithms are {@link Compression#GZIP},
- * {@link Compression#BZIP2}, {@link Compression#ZIP} and {@link Compression#DEFLATE}.
+ * {@link Compression#BZIP2}, {@link Compression#ZIP}, {@link Compression#DEFLATE},
+ * {@link Compression#LZ4} and {@link Compression#SNAPPY}.
  * User-defined compression types are supported by implementing a
  * {@link DecompressingChannelFactory}.
  *
  * <p>By default, the compression algorithm is selected from those supported in
  * {@link Compression} based on the file name provided to the source, namely
  * {@code ".bz2"} indicates {@link Compression#BZIP2}, {@code ".gz"} indicates
- * {@link Compression#GZIP}, {@code ".zip"} indicates {@link Compression#ZIP} and
- * {@code ".deflate"} indicates {@link Compression#DEFLATE}. If the file name does not match
+ * {@link Compression#GZIP}, {@code ".zip"} indicates {@link Compression#ZIP},
+ * {@code ".deflate"} indicates {@link Compression#DEFLATE}, {@code ".lz4"} indicates
+ * {@link Compression#LZ4} and {@code ".sz"} indicates {@link Compression#SNAPPY}. If the file
+ * name does not match
  * any of the supported algorithms, it is assumed to be uncompressed data.
  *
  * @param <T> The type to read from the compressed file.
@@ -93,7 +96,13 @@ public class CompressedSource<T> extends FileBasedSource<T> {
     ZIP(Compression.ZIP),
 
     /** @see Compression#DEFLATE */
-    DEFLATE(Compression.DEFLATE);
+    DEFLATE(Compression.DEFLATE),
+
+    /** @see Compression#LZ4 */
+    LZ4(Compression.LZ4),
+
+    /** @see Compression#SNAPPY */
+    SNAPPY(Compression.SNAPPY);
 
     private final Compression canonical;
 
@@ -140,6 +149,12 @@ public class CompressedSource<T> extends FileBasedSource<T> {
         case DEFLATE:
           return DEFLATE;
 
+        case LZ4:
+          return LZ4;
+
+        case SNAPPY:
+          return SNAPPY;
+
         default:
           throw new IllegalArgumentException("Unsupported compression type: " + compression);
       }
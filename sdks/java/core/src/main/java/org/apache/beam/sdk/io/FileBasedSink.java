@@ -33,6 +33,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -48,6 +49,10 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 import org.apache.beam.sdk.annotations.Experimental;
@@ -65,6 +70,9 @@ import org.apache.beam.sdk.io.fs.MatchResult.Metadata;
 import org.apache.beam.sdk.io.fs.MoveOptions.StandardMoveOptions;
 import org.apache.beam.sdk.io.fs.ResolveOptions.StandardResolveOptions;
 import org.apache.beam.sdk.io.fs.ResourceId;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Distribution;
+import org.apache.beam.sdk.metrics.Metrics;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.options.ValueProvider;
 import org.apache.beam.sdk.options.ValueProvider.NestedValueProvider;
@@ -77,11 +85,17 @@ import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
 import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
 import org.apache.beam.sdk.transforms.windowing.PaneInfo;
 import org.apache.beam.sdk.transforms.windowing.PaneInfo.PaneInfoCoder;
+import org.apache.beam.sdk.util.BackOff;
+import org.apache.beam.sdk.util.BackOffUtils;
+import org.apache.beam.sdk.util.FluentBackoff;
 import org.apache.beam.sdk.util.MimeTypes;
+import org.apache.beam.sdk.util.MoreFutures;
+import org.apache.beam.sdk.util.Sleeper;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollectionView;
 import org.apache.beam.sdk.values.TypeDescriptor;
 import org.apache.beam.sdk.values.TypeDescriptors.TypeVariableExtractor;
+import org.joda.time.Duration;
 import org.joda.time.Instant;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
@@ -142,7 +156,13 @@ public abstract class FileBasedSink<UserT, DestinationT, OutputT>
     BZIP2(Compression.BZIP2),
 
     /** @see Compression#DEFLATE */
-    DEFLATE(Compression.DEFLATE);
+    DEFLATE(Compression.DEFLATE),
+
+    /** @see Compression#LZ4 */
+    LZ4(Compression.LZ4),
+
+    /** @see Compression#SNAPPY */
+    SNAPPY(Compression.SNAPPY);
 
     private final Compression canonical;
 
@@ -186,6 +206,12 @@ public abstract class FileBasedSink<UserT, DestinationT, OutputT>
         case DEFLATE:
           return DEFLATE;
 
+        case LZ4:
+          return LZ4;
+
+        case SNAPPY:
+          return SNAPPY;
+
         default:
           throw new UnsupportedOperationException("Unsupported compression type: " + canonical);
       }
@@ -480,6 +506,23 @@ public abstract class FileBasedSink<UserT, DestinationT, OutputT>
    * @param <OutputT> the type of values written to the sink.
    */
   public abstract static class WriteOperation<DestinationT, OutputT> implements Serializable {
+    // Maximum number of files copied or removed by a single call to FileSystems when finalizing
+    // with more than one thread.
+    private static final int FINALIZE_BATCH_SIZE = 100;
+
+    // Backoff for retrying individual files of a batch that failed during finalization.
+    private static final FluentBackoff FINALIZE_BACKOFF_FACTORY =
+        FluentBackoff.DEFAULT
+            .withMaxRetries(3)
+            .withInitialBackoff(Duration.standardSeconds(1));
+
+    private static final Counter FILES_FINALIZED =
+        Metrics.counter(WriteOperation.class, "filesFinalized");
+    private static final Counter FINALIZE_FILE_RETRIES =
+        Metrics.counter(WriteOperation.class, "finalizeFileRetries");
+    private static final Distribution FINALIZE_BATCH_MILLIS =
+        Metrics.distribution(WriteOperation.class, "finalizeBatchMillis");
+
     /** The Sink that this WriteOperation will write to. */
     protected final FileBasedSink<?, DestinationT, OutputT> sink;
 
@@ -490,6 +533,13 @@ public abstract class FileBasedSink<UserT, DestinationT, OutputT>
     @Experimental(Kind.FILESYSTEM)
     protected boolean windowedWrites;
 
+    /**
+     * Number of threads used to remove temporary files. Only greater than 1 while {@link
+     * #moveToOutputFiles(List, int)} calls {@link #removeTemporaryFiles(Collection)}, so that
+     * overrides of the latter apply to parallel finalization as well.
+     */
+    private int removeParallelism = 1;
+
     /** Constructs a temporary file resource given the temporary directory and a filename. */
     @Experimental(Kind.FILESYSTEM)
     protected static ResourceId buildTemporaryFilename(ResourceId tempDirectory, String filename)
@@ -740,6 +790,21 @@ public abstract class FileBasedSink<UserT, DestinationT, OutputT>
     @Experimental(Kind.FILESYSTEM)
     final void moveToOutputFiles(
         List<KV<FileResult<DestinationT>, ResourceId>> resultsToFinalFilenames) throws IOException {
+      moveToOutputFiles(resultsToFinalFilenames, 1);
+    }
+
+    /**
+     * Like {@link #moveToOutputFiles(List)}, but if {@code parallelism} is greater than 1, copies
+     * and then removes the files in batches, using up to {@code parallelism} threads. A batch that
+     * fails is retried one file at a time, so that a single failing file neither fails nor repeats
+     * the rest of its batch.
+     */
+    @VisibleForTesting
+    @Experimental(Kind.FILESYSTEM)
+    final void moveToOutputFiles(
+        List<KV<FileResult<DestinationT>, ResourceId>> resultsToFinalFilenames, int parallelism)
+        throws IOException {
+      checkArgument(parallelism > 0, "parallelism must be positive, but was %s", parallelism);
       int numFiles = resultsToFinalFilenames.size();
 
       LOG.debug("Copying {} files.", numFiles);
@@ -753,8 +818,35 @@ public abstract class FileBasedSink<UserT, DestinationT, OutputT>
       }
       // During a failure case, files may have been deleted in an earlier step. Thus
       // we ignore missing files here.
-      FileSystems.copy(srcFiles, dstFiles, StandardMoveOptions.IGNORE_MISSING_FILES);
-      removeTemporaryFiles(srcFiles);
+      if (parallelism == 1) {
+        FileSystems.copy(srcFiles, dstFiles, StandardMoveOptions.IGNORE_MISSING_FILES);
+      } else {
+        List<KV<ResourceId, ResourceId>> copies = new ArrayList<>();
+        for (int i = 0; i < numFiles; ++i) {
+          copies.add(KV.of(srcFiles.get(i), dstFiles.get(i)));
+        }
+        runInParallelBatches(
+            "copy",
+            copies,
+            parallelism,
+            batch -> {
+              List<ResourceId> batchSrcFiles = new ArrayList<>();
+              List<ResourceId> batchDstFiles = new ArrayList<>();
+              for (KV<ResourceId, ResourceId> copy : batch) {
+                batchSrcFiles.add(copy.getKey());
+                batchDstFiles.add(copy.getValue());
+              }
+              FileSystems.copy(
+                  batchSrcFiles, batchDstFiles, StandardMoveOptions.IGNORE_MISSING_FILES);
+            });
+      }
+      FILES_FINALIZED.inc(numFiles);
+      removeParallelism = parallelism;
+      try {
+        removeTemporaryFiles(srcFiles);
+      } finally {
+        removeParallelism = 1;
+      }
     }
 
     /**
@@ -799,7 +891,15 @@ public abstract class FileBasedSink<UserT, DestinationT, OutputT>
           LOG.warn("Failed to match temporary files under: [{}].", tempDir);
         }
       }
-      FileSystems.delete(allMatches, StandardMoveOptions.IGNORE_MISSING_FILES);
+      if (removeParallelism <= 1) {
+        FileSystems.delete(allMatches, StandardMoveOptions.IGNORE_MISSING_FILES);
+      } else {
+        runInParallelBatches(
+            "remove",
+            new ArrayList<>(allMatches),
+            removeParallelism,
+            batch -> FileSystems.delete(batch, StandardMoveOptions.IGNORE_MISSING_FILES));
+      }
 
       if (shouldRemoveTemporaryDirectory) {
         // Deletion of the temporary directory might fail, if not all temporary files are removed.
@@ -812,6 +912,103 @@ public abstract class FileBasedSink<UserT, DestinationT, OutputT>
       }
     }
 
+    /** An idempotent operation on a batch of files, e.g. a copy or a delete. */
+    @VisibleForTesting
+    interface BatchFileOperation<T> {
+      void apply(List<T> batch) throws IOException;
+    }
+
+    /**
+     * Applies the given operation to batches of the given files using up to {@code parallelism}
+     * threads, and waits for all batches to complete.
+     *
+     * <p>Metrics are updated from the calling thread, because they are only reported for the thread
+     * that is processing the current element.
+     */
+    private static <T> void runInParallelBatches(
+        String operationName, List<T> files, int parallelism, BatchFileOperation<T> operation)
+        throws IOException {
+      ExecutorService executor =
+          Executors.newFixedThreadPool(
+              parallelism,
+              new ThreadFactoryBuilder()
+                  .setDaemon(true)
+                  .setNameFormat("FileBasedSink-" + operationName + "-%d")
+                  .build());
+      try {
+        List<CompletionStage<BatchStats>> batches = new ArrayList<>();
+        for (List<T> batch : Lists.partition(files, FINALIZE_BATCH_SIZE)) {
+          batches.add(
+              MoreFutures.supplyAsync(
+                  () -> runBatchWithRetries(operationName, batch, operation, Sleeper.DEFAULT),
+                  executor));
+        }
+        for (BatchStats stats : MoreFutures.get(MoreFutures.allAsList(batches))) {
+          FINALIZE_FILE_RETRIES.inc(stats.numRetries);
+          FINALIZE_BATCH_MILLIS.update(stats.millis);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(
+            String.format("Interrupted while trying to %s %s files", operationName, files.size()),
+            e);
+      } catch (ExecutionException e) {
+        throw new IOException(
+            String.format("Failed to %s %s files", operationName, files.size()), e.getCause());
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+
+    /**
+     * Applies the operation to the whole batch and, if that fails, to each of its files separately,
+     * retrying each file with backoff. Only the re-attempts of a file are counted as retries.
+     */
+    @VisibleForTesting
+    static <T> BatchStats runBatchWithRetries(
+        String operationName, List<T> batch, BatchFileOperation<T> operation, Sleeper sleeper)
+        throws IOException, InterruptedException {
+      long startMillis = System.currentTimeMillis();
+      try {
+        operation.apply(batch);
+        return new BatchStats(0, System.currentTimeMillis() - startMillis);
+      } catch (IOException e) {
+        LOG.warn(
+            "Failed to {} a batch of {} files, retrying them one at a time.",
+            operationName,
+            batch.size(),
+            e);
+      }
+      int numRetries = 0;
+      for (T file : batch) {
+        BackOff backoff = FINALIZE_BACKOFF_FACTORY.backoff();
+        while (true) {
+          try {
+            operation.apply(Collections.singletonList(file));
+            break;
+          } catch (IOException e) {
+            if (!BackOffUtils.next(sleeper, backoff)) {
+              throw new IOException(String.format("Failed to %s %s", operationName, file), e);
+            }
+            LOG.warn("Failed to {} {}, retrying.", operationName, file, e);
+            ++numRetries;
+          }
+        }
+      }
+      return new BatchStats(numRetries, System.currentTimeMillis() - startMillis);
+    }
+
+    @VisibleForTesting
+    static class BatchStats {
+      final int numRetries;
+      final long millis;
+
+      private BatchStats(int numRetries, long millis) {
+        this.numRetries = numRetries;
+        this.millis = millis;
+      }
+    }
+
     /** Returns the FileBasedSink for this write operation. */
     public FileBasedSink<?, DestinationT, OutputT> getSink() {
       return sink;
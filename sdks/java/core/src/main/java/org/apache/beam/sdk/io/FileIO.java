@@ -471,6 +471,9 @@ public class FileIO {
     @Nullable
     abstract TerminationCondition<String, ?> getWatchTerminationCondition();
 
+    @Nullable
+    abstract Duration getWatchDeduplicationHorizon();
+
     abstract Builder toBuilder();
 
     @AutoValue.Builder
@@ -481,6 +484,8 @@ public class FileIO {
 
       abstract Builder setWatchTerminationCondition(TerminationCondition<String, ?> condition);
 
+      abstract Builder setWatchDeduplicationHorizon(Duration horizon);
+
       abstract MatchConfiguration build();
     }
 
@@ -498,6 +503,16 @@ public class FileIO {
       return toBuilder().setWatchInterval(interval).setWatchTerminationCondition(condition).build();
     }
 
+    /**
+     * When watching continuously, forgets an already matched file once it has not been seen by any
+     * poll for longer than the given horizon, instead of remembering every file ever matched. A
+     * forgotten file that reappears later is matched again. See {@link
+     * Watch.Growth#withDeduplicationHorizon}.
+     */
+    public MatchConfiguration withWatchDeduplicationHorizon(Duration horizon) {
+      return toBuilder().setWatchDeduplicationHorizon(horizon).build();
+    }
+
     @Override
     public void populateDisplayData(DisplayData.Builder builder) {
       builder
@@ -506,7 +521,10 @@ public class FileIO {
                   .withLabel("Treatment of filepatterns that match no files"))
           .addIfNotNull(
               DisplayData.item("watchForNewFilesInterval", getWatchInterval())
-                  .withLabel("Interval to watch for new files"));
+                  .withLabel("Interval to watch for new files"))
+          .addIfNotNull(
+              DisplayData.item("watchDeduplicationHorizon", getWatchDeduplicationHorizon())
+                  .withLabel("How long to remember files that are no longer matched"));
     }
   }
 
@@ -560,6 +578,11 @@ public class FileIO {
       return withConfiguration(getConfiguration().continuously(pollInterval, terminationCondition));
     }
 
+    /** See {@link MatchConfiguration#withWatchDeduplicationHorizon}. */
+    public Match withWatchDeduplicationHorizon(Duration horizon) {
+      return withConfiguration(getConfiguration().withWatchDeduplicationHorizon(horizon));
+    }
+
     @Override
     public PCollection<MatchResult.Metadata> expand(PBegin input) {
       return input
@@ -600,6 +623,11 @@ public class FileIO {
       return withConfiguration(getConfiguration().continuously(pollInterval, terminationCondition));
     }
 
+    /** Like {@link Match#withWatchDeduplicationHorizon}. */
+    public MatchAll withWatchDeduplicationHorizon(Duration horizon) {
+      return withConfiguration(getConfiguration().withWatchDeduplicationHorizon(horizon));
+    }
+
     @Override
     public PCollection<MatchResult.Metadata> expand(PCollection<String> input) {
       PCollection<MatchResult.Metadata> res;
@@ -608,16 +636,15 @@ public class FileIO {
             "Match filepatterns",
             ParDo.of(new MatchFn(getConfiguration().getEmptyMatchTreatment())));
       } else {
-        res =
-            input
-                .apply(
-                    "Continuously match filepatterns",
-                    Watch.growthOf(
-                            Contextful.of(new MatchPollFn(), Requirements.empty()),
-                            new ExtractFilenameFn())
-                        .withPollInterval(getConfiguration().getWatchInterval())
-                        .withTerminationPerInput(getConfiguration().getWatchTerminationCondition()))
-                .apply(Values.create());
+        Watch.Growth<String, MatchResult.Metadata, String> watch =
+            Watch.growthOf(
+                    Contextful.of(new MatchPollFn(), Requirements.empty()), new ExtractFilenameFn())
+                .withPollInterval(getConfiguration().getWatchInterval())
+                .withTerminationPerInput(getConfiguration().getWatchTerminationCondition());
+        if (getConfiguration().getWatchDeduplicationHorizon() != null) {
+          watch = watch.withDeduplicationHorizon(getConfiguration().getWatchDeduplicationHorizon());
+        }
+        res = input.apply("Continuously match filepatterns", watch).apply(Values.create());
       }
       return res.apply(Reshuffle.viaRandomKey());
     }
@@ -644,8 +671,13 @@ public class FileIO {
       @Override
       public Watch.Growth.PollResult<MatchResult.Metadata> apply(String element, Context c)
           throws Exception {
+        // Files are timestamped with the time they are first matched, so no new file can have an
+        // earlier timestamp than this poll. The watermark also advances the deduplication horizon
+        // while no new files appear.
+        Instant now = Instant.now();
         return Watch.Growth.PollResult.incomplete(
-            Instant.now(), FileSystems.match(element, EmptyMatchTreatment.ALLOW).metadata());
+                now, FileSystems.match(element, EmptyMatchTreatment.ALLOW).metadata())
+            .withWatermark(now);
       }
     }
 
@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import javax.annotation.Nullable;
+import org.apache.beam.sdk.coders.Coder;
+
+/**
+ * Buffers values grouped by key, keeping at most a given number of encoded bytes in memory and
+ * spilling the rest to a local temporary file.
+ *
+ * <p>Values of each key are read back in the order they were added. The buffer is meant to be used
+ * by a single thread for the duration of a bundle, and must be closed to delete the temporary file.
+ */
+class LocalSpillingBuffer<KeyT, T> implements Closeable {
+  private final Coder<T> coder;
+  private final long maxBufferedBytes;
+
+  // Values that have not been spilled yet, encoded and grouped by key. Keys are kept in the order
+  // in which they were first added, across spills.
+  private final Map<KeyT, KeyBuffer> buffers = Maps.newLinkedHashMap();
+  private long numBufferedBytes = 0;
+
+  // Created on the first spill.
+  @Nullable private File spillFile;
+  @Nullable private OutputStream spillStream;
+  private long spillFileLength = 0;
+  @Nullable private RandomAccessFile spillReader;
+
+  private boolean isReading = false;
+
+  LocalSpillingBuffer(Coder<T> coder, long maxBufferedBytes) {
+    checkArgument(
+        maxBufferedBytes > 0, "maxBufferedBytes must be positive, but was %s", maxBufferedBytes);
+    this.coder = coder;
+    this.maxBufferedBytes = maxBufferedBytes;
+  }
+
+  /** Buffered values of a single key. */
+  private static class KeyBuffer {
+    // Dropped on spill rather than reset, as a reset stream keeps the capacity it grew to.
+    @Nullable private ByteArrayOutputStream inMemory;
+    private long numInMemory = 0;
+    // Offset, length and number of values of each spilled segment of this key in the spill file.
+    private final List<long[]> spilledSegments = new ArrayList<>();
+  }
+
+  /** Adds a value for the given key, spilling all buffered values if over the memory budget. */
+  void add(KeyT key, T value) throws IOException {
+    checkState(!isReading, "Can not add values after reading started");
+    KeyBuffer buffer = buffers.get(key);
+    if (buffer == null) {
+      buffer = new KeyBuffer();
+      buffers.put(key, buffer);
+    }
+    if (buffer.inMemory == null) {
+      buffer.inMemory = new ByteArrayOutputStream();
+    }
+    int sizeBefore = buffer.inMemory.size();
+    coder.encode(value, buffer.inMemory);
+    buffer.numInMemory++;
+    numBufferedBytes += buffer.inMemory.size() - sizeBefore;
+    if (numBufferedBytes > maxBufferedBytes) {
+      spill();
+    }
+  }
+
+  /** Returns all keys that have values, in the order in which they were first added. */
+  Set<KeyT> keys() {
+    return buffers.keySet();
+  }
+
+  /** Returns the number of keys that hold an in-memory buffer. */
+  @VisibleForTesting
+  int getNumInMemoryBuffers() {
+    int numInMemoryBuffers = 0;
+    for (KeyBuffer buffer : buffers.values()) {
+      if (buffer.inMemory != null) {
+        numInMemoryBuffers++;
+      }
+    }
+    return numInMemoryBuffers;
+  }
+
+  /** Returns the number of bytes that have been spilled to disk so far. */
+  long getNumSpilledBytes() {
+    return spillFileLength;
+  }
+
+  /**
+   * Returns the values of the given key in the order they were added. Once reading started, no
+   * more values can be added, and the returned iterator must be exhausted before reading another
+   * key.
+   */
+  Iterator<T> read(KeyT key) throws IOException {
+    KeyBuffer buffer = buffers.get(key);
+    checkArgument(buffer != null, "No values for key %s", key);
+    if (!isReading) {
+      isReading = true;
+      if (spillStream != null) {
+        spillStream.close();
+        spillStream = null;
+        spillReader = new RandomAccessFile(spillFile, "r");
+      }
+    }
+    List<long[]> segments = ImmutableList.copyOf(buffer.spilledSegments);
+    byte[] inMemory = buffer.inMemory == null ? new byte[0] : buffer.inMemory.toByteArray();
+    long numInMemory = buffer.numInMemory;
+    return new Iterator<T>() {
+      // Index of the next spilled segment to read; segments.size() stands for the in-memory values.
+      private int nextSegment = 0;
+      private InputStream current = new ByteArrayInputStream(new byte[0]);
+      private long numLeftInCurrent = 0;
+
+      @Override
+      public boolean hasNext() {
+        while (numLeftInCurrent == 0 && nextSegment <= segments.size()) {
+          if (nextSegment < segments.size()) {
+            long[] segment = segments.get(nextSegment);
+            try {
+              spillReader.seek(segment[0]);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+            current =
+                new BufferedInputStream(
+                    ByteStreams.limit(
+                        Channels.newInputStream(spillReader.getChannel()), segment[1]));
+            numLeftInCurrent = segment[2];
+          } else {
+            current = new ByteArrayInputStream(inMemory);
+            numLeftInCurrent = numInMemory;
+          }
+          nextSegment++;
+        }
+        return numLeftInCurrent > 0;
+      }
+
+      @Override
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        numLeftInCurrent--;
+        try {
+          return coder.decode(current);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    };
+  }
+
+  private void spill() throws IOException {
+    if (spillStream == null) {
+      spillFile = File.createTempFile("beam-spill-", ".tmp");
+      spillStream = new BufferedOutputStream(new FileOutputStream(spillFile));
+    }
+    for (KeyBuffer buffer : buffers.values()) {
+      if (buffer.inMemory == null) {
+        continue;
+      }
+      int size = buffer.inMemory.size();
+      buffer.inMemory.writeTo(spillStream);
+      buffer.spilledSegments.add(new long[] {spillFileLength, size, buffer.numInMemory});
+      spillFileLength += size;
+      buffer.inMemory = null;
+      buffer.numInMemory = 0;
+    }
+    numBufferedBytes = 0;
+  }
+
+  /** Releases all buffered values and deletes the spill file, if any. */
+  @Override
+  public void close() throws IOException {
+    buffers.clear();
+    numBufferedBytes = 0;
+    try {
+      if (spillStream != null) {
+        spillStream.close();
+      }
+      if (spillReader != null) {
+        spillReader.close();
+      }
+    } finally {
+      spillStream = null;
+      spillReader = null;
+      if (spillFile != null && !spillFile.delete() && spillFile.exists()) {
+        throw new IOException("Failed to delete spill file " + spillFile);
+      }
+      spillFile = null;
+    }
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.auto.value.AutoValue;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import javax.annotation.Nullable;
+import org.apache.beam.sdk.annotations.Experimental;
+import org.apache.beam.sdk.annotations.Experimental.Kind;
+import org.apache.beam.sdk.io.FileBasedSink.WritableByteChannelFactory;
+import org.apache.beam.sdk.util.MimeTypes;
+import org.apache.commons.compress.compressors.lz4.BlockLZ4CompressorOutputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream.BlockSize;
+import org.apache.commons.compress.compressors.lz77support.Parameters;
+import org.apache.commons.compress.compressors.snappy.FramedSnappyCompressorOutputStream;
+import org.apache.commons.compress.compressors.snappy.SnappyCompressorOutputStream;
+
+/**
+ * A {@link WritableByteChannelFactory} writing {@link Compression#LZ4} or {@link
+ * Compression#SNAPPY} files with a configurable compression level and, for LZ4, block size.
+ *
+ * <p>Both formats are implemented in pure Java. Files written with any level or block size can be
+ * read using the corresponding {@link Compression}, which is also detected from the filename
+ * extension. For example:
+ *
+ * <pre>{@code
+ * p.apply(TextIO.write()
+ *     .to("/path/to/output")
+ *     .withWritableByteChannelFactory(TunableCompression.lz4().withLevel(3)));
+ * }</pre>
+ */
+@Experimental(Kind.FILESYSTEM)
+@AutoValue
+public abstract class TunableCompression implements WritableByteChannelFactory {
+  /** The fastest compression level, and the default. */
+  public static final int MIN_LEVEL = 1;
+
+  /** The compression level giving the best compression ratio. */
+  public static final int MAX_LEVEL = 9;
+
+  /** The default size of uncompressed LZ4 blocks. */
+  public static final int DEFAULT_LZ4_BLOCK_SIZE_BYTES = 64 * 1024;
+
+  // Snappy frames are at most 64KB, and LZ4 matches can not reach further back than 64KB.
+  private static final int WINDOW_SIZE = 64 * 1024;
+
+  abstract Compression getCompression();
+
+  abstract int getLevel();
+
+  @Nullable
+  abstract Integer getBlockSizeBytes();
+
+  abstract Builder toBuilder();
+
+  @AutoValue.Builder
+  abstract static class Builder {
+    abstract Builder setCompression(Compression compression);
+
+    abstract Builder setLevel(int level);
+
+    abstract Builder setBlockSizeBytes(Integer blockSizeBytes);
+
+    abstract TunableCompression build();
+  }
+
+  /** Writes LZ4 frames of {@link #DEFAULT_LZ4_BLOCK_SIZE_BYTES} at level {@link #MIN_LEVEL}. */
+  public static TunableCompression lz4() {
+    return new AutoValue_TunableCompression.Builder()
+        .setCompression(Compression.LZ4)
+        .setLevel(MIN_LEVEL)
+        .setBlockSizeBytes(DEFAULT_LZ4_BLOCK_SIZE_BYTES)
+        .build();
+  }
+
+  /** Writes the Snappy framing format at level {@link #MIN_LEVEL}. */
+  public static TunableCompression snappy() {
+    return new AutoValue_TunableCompression.Builder()
+        .setCompression(Compression.SNAPPY)
+        .setLevel(MIN_LEVEL)
+        .build();
+  }
+
+  /**
+   * Sets the compression level, between {@link #MIN_LEVEL} and {@link #MAX_LEVEL}. Like for zlib,
+   * higher levels look harder for matches, which improves the compression ratio but costs more CPU
+   * when writing. Reading is about as fast for all levels.
+   */
+  public TunableCompression withLevel(int level) {
+    checkArgument(
+        level >= MIN_LEVEL && level <= MAX_LEVEL,
+        "level must be between %s and %s, but was %s",
+        MIN_LEVEL,
+        MAX_LEVEL,
+        level);
+    return toBuilder().setLevel(level).build();
+  }
+
+  /**
+   * Sets the size of uncompressed LZ4 blocks, which must be one of 64KB, 256KB, 1MB or 4MB. Each
+   * writer buffers one block, so smaller blocks use less memory when writing many files at once.
+   */
+  public TunableCompression withBlockSizeBytes(int blockSizeBytes) {
+    checkArgument(
+        getCompression() == Compression.LZ4, "Block size can only be set for LZ4 compression");
+    lz4BlockSize(blockSizeBytes);
+    return toBuilder().setBlockSizeBytes(blockSizeBytes).build();
+  }
+
+  @Override
+  public String getSuggestedFilenameSuffix() {
+    return getCompression().getSuggestedSuffix();
+  }
+
+  @Override
+  public String getMimeType() {
+    return MimeTypes.BINARY;
+  }
+
+  @Override
+  public WritableByteChannel create(WritableByteChannel channel) throws IOException {
+    OutputStream stream = Channels.newOutputStream(channel);
+    switch (getCompression()) {
+      case LZ4:
+        return Channels.newChannel(
+            new FramedLZ4CompressorOutputStream(
+                stream,
+                new FramedLZ4CompressorOutputStream.Parameters(
+                    lz4BlockSize(getBlockSizeBytes()),
+                    lz77Parameters(
+                        BlockLZ4CompressorOutputStream.createParameterBuilder(), getLevel()))));
+      case SNAPPY:
+        return Channels.newChannel(
+            new FramedSnappyCompressorOutputStream(
+                stream,
+                lz77Parameters(
+                    SnappyCompressorOutputStream.createParameterBuilder(WINDOW_SIZE),
+                    getLevel())));
+      default:
+        throw new UnsupportedOperationException("Unsupported compression: " + getCompression());
+    }
+  }
+
+  private static BlockSize lz4BlockSize(int blockSizeBytes) {
+    switch (blockSizeBytes) {
+      case 64 * 1024:
+        return BlockSize.K64;
+      case 256 * 1024:
+        return BlockSize.K256;
+      case 1024 * 1024:
+        return BlockSize.M1;
+      case 4 * 1024 * 1024:
+        return BlockSize.M4;
+      default:
+        throw new IllegalArgumentException(
+            "LZ4 block size must be one of 64KB, 256KB, 1MB or 4MB, but was " + blockSizeBytes);
+    }
+  }
+
+  private static Parameters lz77Parameters(Parameters.Builder builder, int level) {
+    if (level == MIN_LEVEL) {
+      return builder.tunedForSpeed().build();
+    } else if (level == MAX_LEVEL) {
+      return builder.tunedForCompressionRatio().build();
+    }
+    // Levels in between examine more candidate matches, accept only longer matches as good
+    // enough, and switch to lazy matching half way.
+    return builder
+        .withMaxNumberOfCandidates(1 << (level + 3))
+        .withNiceBackReferenceLength(8 << level)
+        .withLazyMatching(level >= 5)
+        .build();
+  }
+}
@@ -30,6 +30,7 @@ import com.google.common.collect.Multimap;
 import com.google.common.hash.Hashing;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -129,6 +130,10 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
   // We could consider making this a parameter.
   private static final int SPILLED_RECORD_SHARDING_FACTOR = 10;
 
+  // By default, temporary files are copied and removed by a single call to FileSystems in the
+  // finalizing thread.
+  private static final int DEFAULT_FINALIZE_PARALLELISM = 1;
+
   static final int UNKNOWN_SHARDNUM = -1;
   private @Nullable WriteOperation<DestinationT, OutputT> writeOperation;
 
@@ -145,6 +150,7 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
         .setNumShardsProvider(null)
         .setWindowedWrites(false)
         .setMaxNumWritersPerBundle(DEFAULT_MAX_NUM_WRITERS_PER_BUNDLE)
+        .setFinalizeParallelism(DEFAULT_FINALIZE_PARALLELISM)
         .setSideInputs(sink.getDynamicDestinations().getSideInputs())
         .build();
   }
@@ -163,6 +169,11 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
 
   abstract int getMaxNumWritersPerBundle();
 
+  abstract int getFinalizeParallelism();
+
+  @Nullable
+  abstract Long getMaxBufferedBytesPerBundle();
+
   abstract List<PCollectionView<?>> getSideInputs();
 
   abstract Builder<UserT, DestinationT, OutputT> toBuilder();
@@ -183,6 +194,11 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
     abstract Builder<UserT, DestinationT, OutputT> setMaxNumWritersPerBundle(
         int maxNumWritersPerBundle);
 
+    abstract Builder<UserT, DestinationT, OutputT> setFinalizeParallelism(int finalizeParallelism);
+
+    abstract Builder<UserT, DestinationT, OutputT> setMaxBufferedBytesPerBundle(
+        @Nullable Long maxBufferedBytesPerBundle);
+
     abstract Builder<UserT, DestinationT, OutputT> setSideInputs(
         List<PCollectionView<?>> sideInputs);
 
@@ -229,6 +245,43 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
     return toBuilder().setMaxNumWritersPerBundle(maxNumWritersPerBundle).build();
   }
 
+  /**
+   * Returns a new {@link WriteFiles} that copies temporary files to their final locations and then
+   * removes them using up to the given number of threads per finalized bundle of file results.
+   *
+   * <p>With a value greater than 1, files are processed in batches, and a batch that fails is
+   * retried one file at a time. This can considerably speed up finalization of writes producing
+   * many files to filesystems with high per-operation latency, such as object stores.
+   */
+  public WriteFiles<UserT, DestinationT, OutputT> withFinalizeParallelism(
+      int finalizeParallelism) {
+    checkArgument(
+        finalizeParallelism > 0,
+        "finalizeParallelism must be positive, but was %s",
+        finalizeParallelism);
+    return toBuilder().setFinalizeParallelism(finalizeParallelism).build();
+  }
+
+  /**
+   * Returns a new {@link WriteFiles} that, once {@link #withMaxNumWritersPerBundle} writers are
+   * open in a bundle, buffers the records of all further destinations within the bundle instead of
+   * spilling them to a shuffle. At most {@code maxBufferedBytesPerBundle} bytes of encoded records
+   * are kept in memory, and the rest go to a temporary file on local disk. At the end of the
+   * bundle, a writer is opened for one buffered destination at a time.
+   *
+   * <p>This reduces both the memory used by open writers and the amount of data shuffled when
+   * writing to many destinations. It only applies to runner-determined sharding, and can not be
+   * used together with side inputs.
+   */
+  public WriteFiles<UserT, DestinationT, OutputT> withInBundleSpilling(
+      long maxBufferedBytesPerBundle) {
+    checkArgument(
+        maxBufferedBytesPerBundle > 0,
+        "maxBufferedBytesPerBundle must be positive, but was %s",
+        maxBufferedBytesPerBundle);
+    return toBuilder().setMaxBufferedBytesPerBundle(maxBufferedBytesPerBundle).build();
+  }
+
   public WriteFiles<UserT, DestinationT, OutputT> withSideInputs(
       List<PCollectionView<?>> sideInputs) {
     return toBuilder().setSideInputs(sideInputs).build();
@@ -292,6 +345,13 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
               + "must specify number of output shards explicitly",
           WriteFiles.class.getSimpleName());
     }
+    if (getMaxBufferedBytesPerBundle() != null) {
+      // Buffered records are formatted in @FinishBundle, where side inputs are not available.
+      checkArgument(
+          getSideInputs().isEmpty(),
+          "%s can not use in-bundle spilling together with side inputs",
+          WriteFiles.class.getSimpleName());
+    }
     this.writeOperation = getSink().createWriteOperation();
     this.writeOperation.setWindowedWrites(getWindowedWrites());
 
@@ -353,6 +413,14 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
           DisplayData.item("numShards", getNumShardsProvider())
               .withLabel("Fixed Number of Shards"));
     }
+    builder.addIfNotNull(
+        DisplayData.item("maxBufferedBytesPerBundle", getMaxBufferedBytesPerBundle())
+            .withLabel("Maximum bytes of records buffered in memory when spilling in a bundle"));
+    if (getFinalizeParallelism() != DEFAULT_FINALIZE_PARALLELISM) {
+      builder.add(
+          DisplayData.item("finalizeParallelism", getFinalizeParallelism())
+              .withLabel("Number of threads used to finalize temporary files"));
+    }
   }
 
   private DynamicDestinations<UserT, DestinationT, OutputT> getDynamicDestinations() {
@@ -412,7 +480,7 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
               "WriteUnshardedBundles",
               ParDo.of(
                       new WriteUnshardedTempFilesWithSpillingFn(
-                          unwrittenRecordsTag, destinationCoder))
+                          unwrittenRecordsTag, destinationCoder, input.getCoder()))
                   .withSideInputs(getSideInputs())
                   .withOutputTags(writtenRecordsTag, TupleTagList.of(unwrittenRecordsTag)));
       PCollection<FileResult<DestinationT>> writtenBundleFiles =
@@ -458,23 +526,33 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
       extends DoFn<UserT, FileResult<DestinationT>> {
     private final TupleTag<KV<ShardedKey<Integer>, UserT>> unwrittenRecordsTag;
     private final Coder<DestinationT> destinationCoder;
+    private final Coder<UserT> inputCoder;
 
     // Initialized in startBundle()
     private @Nullable Map<WriterKey<DestinationT>, Writer<DestinationT, OutputT>> writers;
 
+    // Initialized in startBundle() if in-bundle spilling is enabled.
+    private @Nullable LocalSpillingBuffer<WriterKey<DestinationT>, UserT> spilledRecords;
+
     private int spilledShardNum = UNKNOWN_SHARDNUM;
 
     WriteUnshardedTempFilesWithSpillingFn(
         TupleTag<KV<ShardedKey<Integer>, UserT>> unwrittenRecordsTag,
-        Coder<DestinationT> destinationCoder) {
+        Coder<DestinationT> destinationCoder,
+        Coder<UserT> inputCoder) {
       this.unwrittenRecordsTag = unwrittenRecordsTag;
       this.destinationCoder = destinationCoder;
+      this.inputCoder = inputCoder;
     }
 
     @StartBundle
-    public void startBundle(StartBundleContext c) {
+    public void startBundle(StartBundleContext c) throws Exception {
       // Reset state in case of reuse. We need to make sure that each bundle gets unique writers.
       writers = Maps.newHashMap();
+      closeSpilledRecords();
+      if (getMaxBufferedBytesPerBundle() != null) {
+        spilledRecords = new LocalSpillingBuffer<>(inputCoder, getMaxBufferedBytesPerBundle());
+      }
     }
 
     @ProcessElement
@@ -503,6 +581,9 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
           writer.open(uuid);
           writers.put(key, writer);
           LOG.debug("Done opening writer");
+        } else if (spilledRecords != null) {
+          spilledRecords.add(key, c.element());
+          return;
         } else {
           if (spilledShardNum == UNKNOWN_SHARDNUM) {
             // Cache the random value so we only call ThreadLocalRandom once per DoFn instance.
@@ -541,6 +622,60 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
             window.maxTimestamp(),
             window);
       }
+      if (spilledRecords != null) {
+        writeSpilledRecords(c);
+      }
+    }
+
+    private void writeSpilledRecords(FinishBundleContext c) throws Exception {
+      LOG.info(
+          "Writing {} destinations buffered in the bundle, of which {} bytes were spilled to disk",
+          spilledRecords.keys().size(),
+          spilledRecords.getNumSpilledBytes());
+      // Open only one writer at a time, so that memory use does not grow with the number of
+      // destinations.
+      for (WriterKey<DestinationT> key : spilledRecords.keys()) {
+        String uuid = UUID.randomUUID().toString();
+        LOG.info(
+            "Opening writer {} for window {} pane {} destination {}",
+            uuid,
+            key.window,
+            key.paneInfo,
+            key.destination);
+        Writer<DestinationT, OutputT> writer = writeOperation.createWriter();
+        writer.setDestination(key.destination);
+        writer.open(uuid);
+        Iterator<UserT> records = spilledRecords.read(key);
+        while (records.hasNext()) {
+          writeOrClose(writer, getDynamicDestinations().formatRecord(records.next()));
+        }
+        try {
+          writer.close();
+        } catch (Exception e) {
+          // If anything goes wrong, make sure to delete the temporary file.
+          writer.cleanup();
+          throw e;
+        }
+        BoundedWindow window = key.window;
+        c.output(
+            new FileResult<>(
+                writer.getOutputFile(), UNKNOWN_SHARDNUM, window, key.paneInfo, key.destination),
+            window.maxTimestamp(),
+            window);
+      }
+      closeSpilledRecords();
+    }
+
+    @Teardown
+    public void teardown() throws Exception {
+      closeSpilledRecords();
+    }
+
+    private void closeSpilledRecords() throws IOException {
+      if (spilledRecords != null) {
+        spilledRecords.close();
+        spilledRecords = null;
+      }
     }
   }
 
@@ -798,7 +933,7 @@ public abstract class WriteFiles<UserT, DestinationT, OutputT>
           FileResult<DestinationT> res = entry.getKey();
           c.output(KV.of(res.getDestination(), entry.getValue().toString()));
         }
-        writeOperation.moveToOutputFiles(resultsToFinalFilenames);
+        writeOperation.moveToOutputFiles(resultsToFinalFilenames, getFinalizeParallelism());
       }
     }
   }
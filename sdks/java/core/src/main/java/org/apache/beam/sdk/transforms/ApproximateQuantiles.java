@@ -29,6 +29,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -46,6 +47,7 @@ import org.apache.beam.sdk.coders.ListCoder;
 import org.apache.beam.sdk.transforms.Combine.AccumulatingCombineFn;
 import org.apache.beam.sdk.transforms.Combine.AccumulatingCombineFn.Accumulator;
 import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.sdk.util.VarInt;
 import org.apache.beam.sdk.util.WeightedValue;
 import org.apache.beam.sdk.util.common.ElementByteSizeObserver;
 import org.apache.beam.sdk.values.KV;
@@ -375,6 +377,110 @@ public class ApproximateQuantiles {
     }
   }
 
+  /**
+   * Like {@link ApproximateQuantilesCombineFn} with the natural ordering, but for {@code Long}s
+   * or {@code Double}s, keeping its accumulator in {@code long} arrays.
+   *
+   * <p>It uses the same algorithm and error bounds, and computes the same quantiles for distinct
+   * input values, while avoiding boxing every value and encoding accumulators compactly. Doubles
+   * are ordered according to {@link Double#compare}.
+   *
+   * <p>Example of use:
+   * <pre> {@code
+   * PCollection<KV<String, Double>> latencies = ...;
+   * PCollection<KV<String, List<Double>>> percentiles =
+   *     latencies.apply(Combine.perKey(ApproximatePrimitiveQuantilesCombineFn.ofDoubles(101)));
+   * } </pre>
+   *
+   * @param <T> the type of the values being combined
+   */
+  public static class ApproximatePrimitiveQuantilesCombineFn<T extends Number>
+      extends AccumulatingCombineFn<T, LongQuantileState<T>, List<T>> {
+
+    private final SortableLongs sortableLongs;
+    private final int numQuantiles;
+    private final long maxNumElements;
+    private final double epsilon;
+    private final int bufferSize;
+    private final int numBuffers;
+
+    private ApproximatePrimitiveQuantilesCombineFn(
+        SortableLongs sortableLongs, int numQuantiles, long maxNumElements, double epsilon) {
+      ApproximateQuantilesCombineFn<Long, Top.Natural<Long>> sizing =
+          ApproximateQuantilesCombineFn.create(
+              numQuantiles, new Top.Natural<Long>(), maxNumElements, epsilon);
+      this.sortableLongs = sortableLongs;
+      this.numQuantiles = numQuantiles;
+      this.maxNumElements = maxNumElements;
+      this.epsilon = epsilon;
+      this.bufferSize = sizing.getBufferSize();
+      this.numBuffers = sizing.getNumBuffers();
+    }
+
+    /**
+     * Returns an approximate quantiles combiner over {@code Long}s with the given number of
+     * quantiles, and the same defaults as {@link ApproximateQuantilesCombineFn#create(int)}.
+     */
+    public static ApproximatePrimitiveQuantilesCombineFn<Long> ofLongs(int numQuantiles) {
+      return new ApproximatePrimitiveQuantilesCombineFn<>(
+          SortableLongs.LONGS,
+          numQuantiles,
+          ApproximateQuantilesCombineFn.DEFAULT_MAX_NUM_ELEMENTS,
+          1.0 / numQuantiles);
+    }
+
+    /**
+     * Returns an approximate quantiles combiner over {@code Double}s with the given number of
+     * quantiles, and the same defaults as {@link ApproximateQuantilesCombineFn#create(int)}.
+     */
+    public static ApproximatePrimitiveQuantilesCombineFn<Double> ofDoubles(int numQuantiles) {
+      return new ApproximatePrimitiveQuantilesCombineFn<>(
+          SortableLongs.DOUBLES,
+          numQuantiles,
+          ApproximateQuantilesCombineFn.DEFAULT_MAX_NUM_ELEMENTS,
+          1.0 / numQuantiles);
+    }
+
+    /**
+     * Returns a combiner like this one, but with the given {@code epsilon}. See {@link
+     * ApproximateQuantilesCombineFn#create(int, Comparator, long, double)} for its meaning.
+     */
+    public ApproximatePrimitiveQuantilesCombineFn<T> withEpsilon(double epsilon) {
+      return new ApproximatePrimitiveQuantilesCombineFn<>(
+          sortableLongs, numQuantiles, maxNumElements, epsilon);
+    }
+
+    /**
+     * Returns a combiner like this one, but with the given {@code maxNumElements}. See {@link
+     * ApproximateQuantilesCombineFn#create(int, Comparator, long, double)} for its meaning.
+     */
+    public ApproximatePrimitiveQuantilesCombineFn<T> withMaxInputSize(long maxNumElements) {
+      return new ApproximatePrimitiveQuantilesCombineFn<>(
+          sortableLongs, numQuantiles, maxNumElements, epsilon);
+    }
+
+    @Override
+    public LongQuantileState<T> createAccumulator() {
+      return new LongQuantileState<>(sortableLongs, numQuantiles, numBuffers, bufferSize);
+    }
+
+    @Override
+    public Coder<LongQuantileState<T>> getAccumulatorCoder(
+        CoderRegistry registry, Coder<T> elementCoder) {
+      return new LongQuantileStateCoder<>(sortableLongs, numQuantiles, numBuffers, bufferSize);
+    }
+
+    @Override
+    public void populateDisplayData(DisplayData.Builder builder) {
+      super.populateDisplayData(builder);
+      builder
+          .add(DisplayData.item("numQuantiles", numQuantiles)
+            .withLabel("Quantile Count"))
+          .add(DisplayData.item("epsilon", epsilon)
+            .withLabel("Error Bound"));
+    }
+  }
+
   /**
    * Compact summarization of a collection on which quantiles can be estimated.
    */
@@ -772,4 +878,325 @@ public class ApproximateQuantiles {
           this, "QuantileState.ElementListCoder must be deterministic", elementListCoder);
     }
   }
+
+  /**
+   * A {@link QuantileState} of {@code long}s, which are either {@code Long}s or the {@link
+   * SortableLongs sortable} form of {@code Double}s.
+   *
+   * <p>Adding and merging values only copies {@code long}s into the array of unbuffered values.
+   * Allocation is limited to one array whenever a buffer is filled or buffers are collapsed.
+   */
+  static class LongQuantileState<T extends Number>
+      implements Accumulator<T, LongQuantileState<T>, List<T>> {
+
+    private final SortableLongs sortableLongs;
+    private final int numQuantiles;
+    private final int numBuffers;
+    private final int bufferSize;
+
+    private long min;
+    private long max;
+    private long[] unbufferedElements;
+    private int numUnbuffered;
+    private final PriorityQueue<LongQuantileBuffer> buffers;
+    private int offsetJitter = 0;
+
+    private LongQuantileState(
+        SortableLongs sortableLongs, int numQuantiles, int numBuffers, int bufferSize) {
+      this.sortableLongs = sortableLongs;
+      this.numQuantiles = numQuantiles;
+      this.numBuffers = numBuffers;
+      this.bufferSize = bufferSize;
+      this.unbufferedElements = new long[bufferSize];
+      this.buffers = new PriorityQueue<>(numBuffers + 1,
+          (q1, q2) -> Integer.compare(q1.level, q2.level));
+    }
+
+    @Override
+    public void addInput(T elem) {
+      long value = sortableLongs.toSortable(elem);
+      if (isEmpty()) {
+        min = max = value;
+      } else if (value < min) {
+        min = value;
+      } else if (value > max) {
+        max = value;
+      }
+      addUnbuffered(value);
+    }
+
+    private void addUnbuffered(long value) {
+      unbufferedElements[numUnbuffered++] = value;
+      if (numUnbuffered == bufferSize) {
+        Arrays.sort(unbufferedElements);
+        buffers.add(new LongQuantileBuffer(0, 1, unbufferedElements, bufferSize));
+        unbufferedElements = new long[bufferSize];
+        numUnbuffered = 0;
+        collapseIfNeeded();
+      }
+    }
+
+    @Override
+    public void mergeAccumulator(LongQuantileState<T> other) {
+      if (other.isEmpty()) {
+        return;
+      }
+      if (isEmpty() || other.min < min) {
+        min = other.min;
+      }
+      if (isEmpty() || other.max > max) {
+        max = other.max;
+      }
+      for (int i = 0; i < other.numUnbuffered; i++) {
+        addUnbuffered(other.unbufferedElements[i]);
+      }
+      buffers.addAll(other.buffers);
+      collapseIfNeeded();
+    }
+
+    public boolean isEmpty() {
+      return numUnbuffered == 0 && buffers.isEmpty();
+    }
+
+    private void collapseIfNeeded() {
+      while (buffers.size() > numBuffers) {
+        List<LongQuantileBuffer> toCollapse = Lists.newArrayList();
+        toCollapse.add(buffers.poll());
+        toCollapse.add(buffers.poll());
+        int minLevel = toCollapse.get(1).level;
+        while (!buffers.isEmpty() && buffers.peek().level == minLevel) {
+          toCollapse.add(buffers.poll());
+        }
+        buffers.add(collapse(toCollapse));
+      }
+    }
+
+    private LongQuantileBuffer collapse(List<LongQuantileBuffer> toCollapse) {
+      int newLevel = 0;
+      long newWeight = 0;
+      for (LongQuantileBuffer buffer : toCollapse) {
+        // See QuantileState#collapse.
+        newLevel = Math.max(newLevel, buffer.level + 1);
+        newWeight += buffer.weight;
+      }
+      long[] newElements = new long[bufferSize];
+      interpolate(toCollapse, newElements, bufferSize, newWeight, offset(newWeight));
+      return new LongQuantileBuffer(newLevel, newWeight, newElements, bufferSize);
+    }
+
+    private long offset(long newWeight) {
+      if (newWeight % 2 == 1) {
+        return (newWeight + 1) / 2;
+      } else {
+        offsetJitter = 2 - offsetJitter;
+        return (newWeight + offsetJitter) / 2;
+      }
+    }
+
+    /**
+     * Writes {@code count} values of the weighted merge of {@code buffers}, at positions {@code
+     * offset}, {@code offset + step}, and so on, to {@code output}.
+     */
+    private static void interpolate(
+        List<LongQuantileBuffer> buffers, long[] output, int count, double step, double offset) {
+      int[] positions = new int[buffers.size()];
+      int next = nextBuffer(buffers, positions);
+      long value = buffers.get(next).elements[positions[next]++];
+      double current = buffers.get(next).weight;
+      for (int j = 0; j < count; j++) {
+        double target = j * step + offset;
+        while (current <= target) {
+          next = nextBuffer(buffers, positions);
+          if (next < 0) {
+            break;
+          }
+          value = buffers.get(next).elements[positions[next]++];
+          current += buffers.get(next).weight;
+        }
+        output[j] = value;
+      }
+    }
+
+    /** Returns the buffer with the smallest next value, or -1 if all have been consumed. */
+    private static int nextBuffer(List<LongQuantileBuffer> buffers, int[] positions) {
+      int next = -1;
+      for (int i = 0; i < positions.length; i++) {
+        LongQuantileBuffer buffer = buffers.get(i);
+        if (positions[i] < buffer.size
+            && (next < 0
+                || buffer.elements[positions[i]]
+                    < buffers.get(next).elements[positions[next]])) {
+          next = i;
+        }
+      }
+      return next;
+    }
+
+    @Override
+    public List<T> extractOutput() {
+      if (isEmpty()) {
+        return Lists.newArrayList();
+      }
+      long totalCount = numUnbuffered;
+      for (LongQuantileBuffer buffer : buffers) {
+        totalCount += bufferSize * buffer.weight;
+      }
+      List<LongQuantileBuffer> all = Lists.newArrayList(buffers);
+      if (numUnbuffered > 0) {
+        Arrays.sort(unbufferedElements, 0, numUnbuffered);
+        all.add(new LongQuantileBuffer(0, 1, unbufferedElements, numUnbuffered));
+      }
+      double step = 1.0 * totalCount / (numQuantiles - 1);
+      double offset = (1.0 * totalCount - 1) / (numQuantiles - 1);
+      long[] quantiles = new long[numQuantiles];
+      interpolate(all, quantiles, numQuantiles - 2, step, offset);
+      List<T> output = new ArrayList<>(numQuantiles);
+      output.add(fromSortable(min));
+      for (int i = 0; i < numQuantiles - 2; i++) {
+        output.add(fromSortable(quantiles[i]));
+      }
+      output.add(fromSortable(max));
+      return output;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T fromSortable(long value) {
+      return (T) sortableLongs.fromSortable(value);
+    }
+  }
+
+  /**
+   * A sorted buffer of {@code long}s for {@link LongQuantileState}. The first {@code size}
+   * elements are used.
+   */
+  private static class LongQuantileBuffer {
+    private final int level;
+    private final long weight;
+    private final long[] elements;
+    private final int size;
+
+    private LongQuantileBuffer(int level, long weight, long[] elements, int size) {
+      this.level = level;
+      this.weight = weight;
+      this.elements = elements;
+      this.size = size;
+    }
+  }
+
+  /**
+   * A {@link Coder} for {@link LongQuantileState}, writing the values as fixed width {@code
+   * long}s and the lengths and buffer metadata as variable length integers.
+   */
+  private static class LongQuantileStateCoder<T extends Number>
+      extends CustomCoder<LongQuantileState<T>> {
+    private final SortableLongs sortableLongs;
+    private final int numQuantiles;
+    private final int numBuffers;
+    private final int bufferSize;
+
+    private LongQuantileStateCoder(
+        SortableLongs sortableLongs, int numQuantiles, int numBuffers, int bufferSize) {
+      this.sortableLongs = sortableLongs;
+      this.numQuantiles = numQuantiles;
+      this.numBuffers = numBuffers;
+      this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public void encode(LongQuantileState<T> state, OutputStream outStream)
+        throws CoderException, IOException {
+      VarInt.encode(state.numUnbuffered, outStream);
+      VarInt.encode(state.buffers.size(), outStream);
+      if (state.isEmpty()) {
+        return;
+      }
+      DataOutputStream outData = new DataOutputStream(outStream);
+      outData.writeLong(state.min);
+      outData.writeLong(state.max);
+      for (int i = 0; i < state.numUnbuffered; i++) {
+        outData.writeLong(state.unbufferedElements[i]);
+      }
+      outData.flush();
+      for (LongQuantileBuffer buffer : state.buffers) {
+        VarInt.encode(buffer.level, outStream);
+        VarInt.encode(buffer.weight, outStream);
+        for (int i = 0; i < bufferSize; i++) {
+          outData.writeLong(buffer.elements[i]);
+        }
+        outData.flush();
+      }
+    }
+
+    @Override
+    public LongQuantileState<T> decode(InputStream inStream) throws CoderException, IOException {
+      LongQuantileState<T> state =
+          new LongQuantileState<>(sortableLongs, numQuantiles, numBuffers, bufferSize);
+      int numUnbuffered = VarInt.decodeInt(inStream);
+      int numEncodedBuffers = VarInt.decodeInt(inStream);
+      if (numUnbuffered < 0 || numUnbuffered >= bufferSize || numEncodedBuffers < 0) {
+        throw new CoderException(
+            String.format(
+                "Invalid quantile state with %s unbuffered values and %s buffers",
+                numUnbuffered, numEncodedBuffers));
+      }
+      if (numUnbuffered == 0 && numEncodedBuffers == 0) {
+        return state;
+      }
+      DataInputStream inData = new DataInputStream(inStream);
+      state.min = inData.readLong();
+      state.max = inData.readLong();
+      for (int i = 0; i < numUnbuffered; i++) {
+        state.unbufferedElements[i] = inData.readLong();
+      }
+      state.numUnbuffered = numUnbuffered;
+      for (int b = 0; b < numEncodedBuffers; b++) {
+        int level = VarInt.decodeInt(inStream);
+        long weight = VarInt.decodeLong(inStream);
+        long[] elements = new long[bufferSize];
+        for (int i = 0; i < bufferSize; i++) {
+          elements[i] = inData.readLong();
+        }
+        state.buffers.add(new LongQuantileBuffer(level, weight, elements, bufferSize));
+      }
+      return state;
+    }
+
+    @Override
+    public boolean isRegisterByteSizeObserverCheap(LongQuantileState<T> state) {
+      return true;
+    }
+
+    @Override
+    protected long getEncodedElementByteSize(LongQuantileState<T> state) {
+      long size = VarInt.getLength(state.numUnbuffered) + VarInt.getLength(state.buffers.size());
+      if (state.isEmpty()) {
+        return size;
+      }
+      size += 8L * (2 + state.numUnbuffered);
+      for (LongQuantileBuffer buffer : state.buffers) {
+        size += VarInt.getLength(buffer.level) + VarInt.getLength(buffer.weight) + 8L * bufferSize;
+      }
+      return size;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (other == this) {
+        return true;
+      }
+      if (!(other instanceof LongQuantileStateCoder)) {
+        return false;
+      }
+      LongQuantileStateCoder<?> that = (LongQuantileStateCoder<?>) other;
+      return this.sortableLongs == that.sortableLongs
+          && this.numQuantiles == that.numQuantiles
+          && this.numBuffers == that.numBuffers
+          && this.bufferSize == that.bufferSize;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(sortableLongs, numQuantiles, numBuffers, bufferSize);
+    }
+  }
 }
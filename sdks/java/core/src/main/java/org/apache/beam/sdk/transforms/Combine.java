@@ -17,6 +17,7 @@
  */
 package org.apache.beam.sdk.transforms;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 
 import com.google.common.collect.ImmutableList;
@@ -24,6 +25,7 @@ import com.google.common.collect.Iterables;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -41,8 +43,14 @@ import org.apache.beam.sdk.coders.IterableCoder;
 import org.apache.beam.sdk.coders.KvCoder;
 import org.apache.beam.sdk.coders.StructuredCoder;
 import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
 import org.apache.beam.sdk.coders.VoidCoder;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
 import org.apache.beam.sdk.options.PipelineOptions;
+import org.apache.beam.sdk.state.StateSpec;
+import org.apache.beam.sdk.state.StateSpecs;
+import org.apache.beam.sdk.state.ValueState;
 import org.apache.beam.sdk.transforms.CombineFnBase.AbstractGlobalCombineFn;
 import org.apache.beam.sdk.transforms.CombineFnBase.GlobalCombineFn;
 import org.apache.beam.sdk.transforms.CombineWithContext.CombineFnWithContext;
@@ -55,11 +63,14 @@ import org.apache.beam.sdk.transforms.display.DisplayData.Builder;
 import org.apache.beam.sdk.transforms.display.HasDisplayData;
 import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
 import org.apache.beam.sdk.transforms.windowing.GlobalWindows;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
 import org.apache.beam.sdk.transforms.windowing.Window;
 import org.apache.beam.sdk.util.AppliedCombineFn;
 import org.apache.beam.sdk.util.NameUtils;
 import org.apache.beam.sdk.util.NameUtils.NameOverride;
 import org.apache.beam.sdk.util.SerializableUtils;
+import org.apache.beam.sdk.values.Delta;
+import org.apache.beam.sdk.values.Delta.DeltaCoder;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
 import org.apache.beam.sdk.values.PCollectionList;
@@ -252,6 +263,37 @@ public class Combine {
     return new GroupedValues<>(fn, fnDisplayData);
   }
 
+  /**
+   * Returns a {@link CombineFn} that combines {@link Delta}s of inputs with {@code fn}, adding the
+   * value of each addition and retracting the value of each retraction from the accumulator.
+   *
+   * <p>This is typically applied to the output of {@link PerKey#withDeltas()}, after re-keying it,
+   * so that the results of a later aggregation are updated incrementally when an earlier one fires
+   * repeatedly. For example, to count the users that have each number of events:
+   *
+   * <pre> {@code
+   * PCollection<KV<String, Event>> eventsByUser = ...;
+   * PCollection<KV<Long, Long>> usersByEventCount = eventsByUser
+   *     .apply(Window.<KV<String, Event>>configure()
+   *         .triggering(Repeatedly.forever(AfterPane.elementCountAtLeast(1)))
+   *         .accumulatingFiredPanes())
+   *     .apply(Combine.<String, Event, Long>perKey(Count.combineFn()).withDeltas())
+   *     .apply(MapElements.via(...)) // KV<String, Delta<Long>> to KV<Long, Delta<String>>
+   *     .apply(Combine.perKey(Combine.ofDeltas(Count.<String>combineFn())));
+   * } </pre>
+   *
+   * @param fn a {@link CombineFn} implementing {@link Retractable}
+   */
+  public static <InputT, AccumT, OutputT> CombineFn<Delta<InputT>, AccumT, OutputT> ofDeltas(
+      CombineFn<InputT, AccumT, OutputT> fn) {
+    checkArgument(
+        fn instanceof Retractable,
+        "%s must implement %s to combine deltas",
+        fn.getClass().getName(),
+        Retractable.class.getSimpleName());
+    return new DeltaCombineFn<>(fn);
+  }
+
   /////////////////////////////////////////////////////////////////////////////
 
   /**
@@ -977,6 +1019,101 @@ public class Combine {
     }
   }
 
+  /**
+   * A {@link CombineFn} that can remove an input from an accumulator that it was previously added
+   * to, so that it can combine the retractions of {@link Combine#ofDeltas}.
+   *
+   * <p>For any accumulator and input, {@code retractInput(addInput(accumulator, input), input)}
+   * must have the same output as {@code accumulator}. Retractions may be processed before the
+   * additions they cancel, so accumulators must also support retracting inputs that have not been
+   * added yet, as long as they are added eventually.
+   *
+   * @param <InputT> type of input values
+   * @param <AccumT> type of mutable accumulator values
+   */
+  public interface Retractable<InputT, AccumT> {
+    /**
+     * Removes an input from the accumulator, returning the new value of the accumulator. For
+     * efficiency, the input accumulator may be modified and returned.
+     */
+    AccumT retractInput(AccumT accumulator, InputT input);
+  }
+
+  /**
+   * The {@link CombineFn} of {@link Combine#ofDeltas}.
+   */
+  private static class DeltaCombineFn<InputT, AccumT, OutputT>
+      extends CombineFn<Delta<InputT>, AccumT, OutputT> {
+    private final CombineFn<InputT, AccumT, OutputT> fn;
+
+    private DeltaCombineFn(CombineFn<InputT, AccumT, OutputT> fn) {
+      this.fn = fn;
+    }
+
+    @Override
+    public AccumT createAccumulator() {
+      return fn.createAccumulator();
+    }
+
+    @Override
+    public AccumT addInput(AccumT accumulator, Delta<InputT> input) {
+      if (input.isRetraction()) {
+        @SuppressWarnings("unchecked")
+        Retractable<InputT, AccumT> retractable = (Retractable<InputT, AccumT>) fn;
+        return retractable.retractInput(accumulator, input.getValue());
+      }
+      return fn.addInput(accumulator, input.getValue());
+    }
+
+    @Override
+    public AccumT mergeAccumulators(Iterable<AccumT> accumulators) {
+      return fn.mergeAccumulators(accumulators);
+    }
+
+    @Override
+    public AccumT compact(AccumT accumulator) {
+      return fn.compact(accumulator);
+    }
+
+    @Override
+    public OutputT extractOutput(AccumT accumulator) {
+      return fn.extractOutput(accumulator);
+    }
+
+    @Override
+    public Coder<AccumT> getAccumulatorCoder(
+        CoderRegistry registry, Coder<Delta<InputT>> inputCoder)
+        throws CannotProvideCoderException {
+      return fn.getAccumulatorCoder(registry, valueCoder(inputCoder));
+    }
+
+    @Override
+    public Coder<OutputT> getDefaultOutputCoder(
+        CoderRegistry registry, Coder<Delta<InputT>> inputCoder)
+        throws CannotProvideCoderException {
+      return fn.getDefaultOutputCoder(registry, valueCoder(inputCoder));
+    }
+
+    private Coder<InputT> valueCoder(Coder<Delta<InputT>> inputCoder)
+        throws CannotProvideCoderException {
+      if (!(inputCoder instanceof DeltaCoder)) {
+        throw new CannotProvideCoderException(
+            "Expected the input coder to be a DeltaCoder, but was " + inputCoder);
+      }
+      return ((DeltaCoder<InputT>) inputCoder).getValueCoder();
+    }
+
+    @Override
+    public String getIncompatibleGlobalWindowErrorMessage() {
+      return fn.getIncompatibleGlobalWindowErrorMessage();
+    }
+
+    @Override
+    public void populateDisplayData(DisplayData.Builder builder) {
+      builder.delegate(fn);
+    }
+  }
+
 
   /////////////////////////////////////////////////////////////////////////////
 
@@ -1555,6 +1692,61 @@ public class Combine {
           });
     }
 
+    /**
+     * Like {@link #withHotKeyFanout(int)}, but only spreading the keys that are detected to be hot
+     * while the pipeline runs, rather than every key.
+     *
+     * <p>Equivalent to {@link #withAdaptiveHotKeyFanout(int, double)} with a {@code
+     * hotKeyFraction} of {@code 0.01}.
+     */
+    public PerKeyWithHotKeyFanout<K, InputT, OutputT> withAdaptiveHotKeyFanout(
+        int hotKeyFanout) {
+      return withAdaptiveHotKeyFanout(
+          hotKeyFanout, PerKeyWithHotKeyFanout.DEFAULT_HOT_KEY_FRACTION);
+    }
+
+    /**
+     * Like {@link #withHotKeyFanout(int)}, but only spreading the keys that are detected to be hot
+     * while the pipeline runs, rather than every key.
+     *
+     * <p>Each instance of the intermediate step keeps a small sketch of the most frequent keys it
+     * has recently seen. A key whose values make up at least {@code hotKeyFraction} of the
+     * elements in the sketch is spread among {@code hotKeyFanout} intermediate nodes for partial
+     * combining, and all other keys are combined directly. Keys making up less than {@code
+     * hotKeyFraction} of the elements are never spread. The total number of elements spread is
+     * reported in the {@code fannedOutElements} counter in the {@link PerKeyWithHotKeyFanout}
+     * namespace.
+     *
+     * @param hotKeyFanout the number of intermediate nodes to spread each hot key among, which
+     * must be at least 2
+     * @param hotKeyFraction the fraction of elements above which a key is considered hot, which
+     * must be strictly between 0 and 1
+     */
+    public PerKeyWithHotKeyFanout<K, InputT, OutputT> withAdaptiveHotKeyFanout(
+        int hotKeyFanout, double hotKeyFraction) {
+      return new PerKeyWithHotKeyFanout<>(
+          fn,
+          fnDisplayData,
+          new PerKeyWithHotKeyFanout.AdaptiveHotKeyFanout(hotKeyFanout, hotKeyFraction));
+    }
+
+    /**
+     * Returns a {@link PTransform} that outputs the results of this combine as {@link Delta}s.
+     *
+     * <p>With {@link WindowingStrategy.AccumulationMode#ACCUMULATING_FIRED_PANES accumulating
+     * panes}, each pane after the first for a key and window contains a retraction of the result
+     * output in the previous pane, followed by an addition of the new result. Later stages that
+     * combine these with {@link Combine#ofDeltas} update their results incrementally instead of
+     * counting every earlier result again. With discarding panes, each pane only contains an
+     * addition of its result.
+     *
+     * <p>The previous result for each key and window is kept in state, so this requires a runner
+     * that supports stateful {@link ParDo}.
+     */
+    public PerKeyWithDeltas<K, InputT, OutputT> withDeltas() {
+      return new PerKeyWithDeltas<>(this);
+    }
+
     /**
      * Returns the {@link GlobalCombineFn} used by this Combine operation.
      */
@@ -1601,9 +1793,12 @@ public class Combine {
   public static class PerKeyWithHotKeyFanout<K, InputT, OutputT>
       extends PTransform<PCollection<KV<K, InputT>>, PCollection<KV<K, OutputT>>> {
 
+    static final double DEFAULT_HOT_KEY_FRACTION = 0.01;
+
     private final GlobalCombineFn<? super InputT, ?, OutputT> fn;
     private final DisplayData.ItemSpec<? extends Class<?>> fnDisplayData;
-    private final SerializableFunction<? super K, Integer> hotKeyFanout;
+    @Nullable private final SerializableFunction<? super K, Integer> hotKeyFanout;
+    @Nullable private final AdaptiveHotKeyFanout adaptiveHotKeyFanout;
 
     private PerKeyWithHotKeyFanout(
         GlobalCombineFn<? super InputT, ?, OutputT> fn,
@@ -1612,6 +1807,17 @@ public class Combine {
       this.fn = fn;
       this.fnDisplayData = fnDisplayData;
       this.hotKeyFanout = hotKeyFanout;
+      this.adaptiveHotKeyFanout = null;
+    }
+
+    private PerKeyWithHotKeyFanout(
+        GlobalCombineFn<? super InputT, ?, OutputT> fn,
+        DisplayData.ItemSpec<? extends Class<?>> fnDisplayData,
+        AdaptiveHotKeyFanout adaptiveHotKeyFanout) {
+      this.fn = fn;
+      this.fnDisplayData = fnDisplayData;
+      this.hotKeyFanout = null;
+      this.adaptiveHotKeyFanout = adaptiveHotKeyFanout;
     }
 
     @Override
@@ -1846,30 +2052,13 @@ public class Combine {
             String.format("Unknown type of CombineFn: %s", typedFn.getClass()));
       }
 
-      // Use the provided hotKeyFanout fn to split into "hot" and "cold" keys,
-      // augmenting the hot keys with a nonce.
+      // Use the provided hotKeyFanout fn, or the keys detected to be hot, to split into "hot" and
+      // "cold" keys, augmenting the hot keys with a nonce.
       final TupleTag<KV<KV<K, Integer>, InputT>> hot = new TupleTag<>();
       final TupleTag<KV<K, InputT>> cold = new TupleTag<>();
       PCollectionTuple split = input.apply("AddNonce", ParDo.of(
-          new DoFn<KV<K, InputT>, KV<K, InputT>>() {
-            transient int counter;
-            @StartBundle
-            public void startBundle() {
-              counter = ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE);
-            }
-
-            @ProcessElement
-            public void processElement(@Element KV<K, InputT> kv,
-                                       MultiOutputReceiver receiver) {
-              int spread = Math.max(1, hotKeyFanout.apply(kv.getKey()));
-              if (spread <= 1) {
-                receiver.get(cold).output(kv);
-              } else {
-                int nonce = counter++ % spread;
-                receiver.get(hot).output(KV.of(KV.of(kv.getKey(), nonce), kv.getValue()));
-              }
-            }
-          })
+          new AddNonceFn<>(
+              hotKeyFanout, adaptiveHotKeyFanout, inputCoder.getKeyCoder(), hot, cold))
           .withOutputTags(cold, TupleTagList.of(hot)));
 
       // The first level of combine should never use accumulating mode.
@@ -1931,6 +2120,10 @@ public class Combine {
       super.populateDisplayData(builder);
 
       Combine.populateDisplayData(builder, fn, fnDisplayData);
+      if (adaptiveHotKeyFanout != null) {
+        builder.include("hotKeyFanout", adaptiveHotKeyFanout);
+        return;
+      }
       if (hotKeyFanout instanceof HasDisplayData) {
         builder.include("hotKeyFanout", (HasDisplayData) hotKeyFanout);
       }
@@ -1938,6 +2131,124 @@ public class Combine {
         .withLabel("Fanout Function"));
     }
 
+    /**
+     * The configuration of {@link PerKey#withAdaptiveHotKeyFanout(int, double)}.
+     */
+    private static class AdaptiveHotKeyFanout implements Serializable, HasDisplayData {
+      // Detection is only trusted once the sketch has seen this many elements per hot key.
+      private static final long MIN_SAMPLED_ELEMENTS_PER_HOT_KEY = 10;
+      private static final long MIN_SAMPLED_ELEMENTS = 1000;
+      // Halving the counts this often lets keys that cool down stop being spread.
+      private static final long DECAY_SAMPLES = 64;
+
+      private final int fanout;
+      private final double hotKeyFraction;
+
+      private AdaptiveHotKeyFanout(int fanout, double hotKeyFraction) {
+        checkArgument(fanout > 1, "hotKeyFanout must be at least 2, but was %s", fanout);
+        checkArgument(
+            hotKeyFraction > 0 && hotKeyFraction < 1,
+            "hotKeyFraction must be between 0 and 1, but was %s",
+            hotKeyFraction);
+        this.fanout = fanout;
+        this.hotKeyFraction = hotKeyFraction;
+      }
+
+      /**
+       * Returns a sketch with enough counters that every key making up more than {@code 1.5 *
+       * hotKeyFraction} of the elements has a count of at least {@code hotKeyFraction} of them.
+       */
+      <T> HeavyHittersSketch<T> newSketch() {
+        return new HeavyHittersSketch<>(
+            (int) Math.ceil(2 / hotKeyFraction), DECAY_SAMPLES * minSampledElements());
+      }
+
+      boolean isHot(long count, long total) {
+        return total >= minSampledElements() && count >= hotKeyFraction * total;
+      }
+
+      private long minSampledElements() {
+        return Math.max(
+            MIN_SAMPLED_ELEMENTS,
+            (long) Math.ceil(MIN_SAMPLED_ELEMENTS_PER_HOT_KEY / hotKeyFraction));
+      }
+
+      @Override
+      public void populateDisplayData(DisplayData.Builder builder) {
+        builder
+            .add(DisplayData.item("fanout", fanout).withLabel("Hot Key Fanout Size"))
+            .add(
+                DisplayData.item("hotKeyFraction", hotKeyFraction)
+                    .withLabel("Hot Key Fraction"));
+      }
+    }
+
+    /**
+     * Splits the input into hot keys, which are output with a nonce, and cold keys.
+     */
+    private static class AddNonceFn<K, InputT> extends DoFn<KV<K, InputT>, KV<K, InputT>> {
+      @Nullable private final SerializableFunction<? super K, Integer> hotKeyFanout;
+      @Nullable private final AdaptiveHotKeyFanout adaptiveHotKeyFanout;
+      private final Coder<K> keyCoder;
+      private final TupleTag<KV<KV<K, Integer>, InputT>> hot;
+      private final TupleTag<KV<K, InputT>> cold;
+      private final Counter fannedOutElements =
+          Metrics.counter(PerKeyWithHotKeyFanout.class, "fannedOutElements");
+
+      private transient int counter;
+      private transient HeavyHittersSketch<Object> sketch;
+
+      private AddNonceFn(
+          @Nullable SerializableFunction<? super K, Integer> hotKeyFanout,
+          @Nullable AdaptiveHotKeyFanout adaptiveHotKeyFanout,
+          Coder<K> keyCoder,
+          TupleTag<KV<KV<K, Integer>, InputT>> hot,
+          TupleTag<KV<K, InputT>> cold) {
+        this.hotKeyFanout = hotKeyFanout;
+        this.adaptiveHotKeyFanout = adaptiveHotKeyFanout;
+        this.keyCoder = keyCoder;
+        this.hot = hot;
+        this.cold = cold;
+      }
+
+      @Setup
+      public void setup() {
+        if (adaptiveHotKeyFanout != null) {
+          // The sketch is kept across bundles, so that hot keys are recognized from the start of
+          // each bundle.
+          sketch = adaptiveHotKeyFanout.newSketch();
+        }
+      }
+
+      @StartBundle
+      public void startBundle() {
+        counter = ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE);
+      }
+
+      @ProcessElement
+      public void processElement(@Element KV<K, InputT> kv, MultiOutputReceiver receiver) {
+        int spread = spread(kv.getKey());
+        if (spread <= 1) {
+          receiver.get(cold).output(kv);
+        } else {
+          int nonce = counter++ % spread;
+          receiver.get(hot).output(KV.of(KV.of(kv.getKey(), nonce), kv.getValue()));
+        }
+      }
+
+      private int spread(K key) {
+        if (adaptiveHotKeyFanout == null) {
+          return Math.max(1, hotKeyFanout.apply(key));
+        }
+        long count = sketch.add(keyCoder.structuralValue(key));
+        if (!adaptiveHotKeyFanout.isHot(count, sketch.total())) {
+          return 1;
+        }
+        fannedOutElements.inc();
+        return adaptiveHotKeyFanout.fanout;
+      }
+    }
+
     /**
      * Used to store either an input or accumulator value, for flattening
      * the hot and cold key paths.
@@ -2020,6 +2331,102 @@ public class Combine {
   }
 
 
+  /**
+   * Like {@link PerKey}, but outputting the result of each pane as {@link Delta}s. See {@link
+   * PerKey#withDeltas()}.
+   */
+  public static class PerKeyWithDeltas<K, InputT, OutputT>
+      extends PTransform<PCollection<KV<K, InputT>>, PCollection<KV<K, Delta<OutputT>>>> {
+
+    private final PerKey<K, InputT, OutputT> combine;
+
+    private PerKeyWithDeltas(PerKey<K, InputT, OutputT> combine) {
+      this.combine = combine;
+    }
+
+    @Override
+    protected String getKindString() {
+      return String.format(
+          "Combine.perKeyWithDeltas(%s)", NameUtils.approximateSimpleName(combine.getFn()));
+    }
+
+    @Override
+    public PCollection<KV<K, Delta<OutputT>>> expand(PCollection<KV<K, InputT>> input) {
+      PCollection<KV<K, OutputT>> combined = input.apply("Combine", combine);
+      KvCoder<K, OutputT> combinedCoder = (KvCoder<K, OutputT>) combined.getCoder();
+      PCollection<KV<K, Delta<OutputT>>> deltas;
+      if (combined.getWindowingStrategy().getMode()
+          == WindowingStrategy.AccumulationMode.ACCUMULATING_FIRED_PANES) {
+        deltas = combined.apply(
+            "EmitDeltas", ParDo.of(new EmitDeltasFn<>(combinedCoder.getValueCoder())));
+      } else {
+        deltas = combined.apply(
+            "EmitAdditions",
+            MapElements.via(
+                new SimpleFunction<KV<K, OutputT>, KV<K, Delta<OutputT>>>() {
+                  @Override
+                  public KV<K, Delta<OutputT>> apply(KV<K, OutputT> result) {
+                    return KV.of(result.getKey(), Delta.addition(result.getValue()));
+                  }
+                }));
+      }
+      return deltas.setCoder(
+          KvCoder.of(combinedCoder.getKeyCoder(), DeltaCoder.of(combinedCoder.getValueCoder())));
+    }
+
+    @Override
+    public void populateDisplayData(DisplayData.Builder builder) {
+      super.populateDisplayData(builder);
+      builder.include("combine", combine);
+    }
+
+    /**
+     * Retracts the result of the previous pane for each key and window before adding the result
+     * of the current pane.
+     */
+    private static class EmitDeltasFn<K, OutputT>
+        extends DoFn<KV<K, OutputT>, KV<K, Delta<OutputT>>> {
+      private static final String PREVIOUS_RESULT = "previousResult";
+      private static final String PREVIOUS_PANE_INDEX = "previousPaneIndex";
+
+      @StateId(PREVIOUS_RESULT)
+      private final StateSpec<ValueState<OutputT>> previousResultSpec;
+
+      @StateId(PREVIOUS_PANE_INDEX)
+      private final StateSpec<ValueState<Long>> previousPaneIndexSpec =
+          StateSpecs.value(VarLongCoder.of());
+
+      private EmitDeltasFn(Coder<OutputT> outputCoder) {
+        this.previousResultSpec = StateSpecs.value(outputCoder);
+      }
+
+      @ProcessElement
+      public void processElement(
+          ProcessContext c,
+          @StateId(PREVIOUS_RESULT) ValueState<OutputT> previousResult,
+          @StateId(PREVIOUS_PANE_INDEX) ValueState<Long> previousPaneIndex) {
+        K key = c.element().getKey();
+        PaneInfo pane = c.pane();
+        Long previousIndex = previousPaneIndex.read();
+        if (previousIndex != null) {
+          if (pane.getIndex() <= previousIndex) {
+            // A pane that arrived out of order has already been superseded by a later one.
+            return;
+          }
+          c.output(KV.of(key, Delta.retraction(previousResult.read())));
+        }
+        c.output(KV.of(key, Delta.addition(c.element().getValue())));
+        if (pane.isLast()) {
+          previousResult.clear();
+          previousPaneIndex.clear();
+        } else {
+          previousResult.write(c.element().getValue());
+          previousPaneIndex.write(pane.getIndex());
+        }
+      }
+    }
+  }
+
   /////////////////////////////////////////////////////////////////////////////
 
   /**
@@ -49,7 +49,10 @@ public class Count {
     // do not instantiate
   }
 
-  /** Returns a {@link CombineFn} that counts the number of its inputs. */
+  /**
+   * Returns a {@link CombineFn} that counts the number of its inputs. It is {@link
+   * Combine.Retractable}, so it can be used with {@link Combine#ofDeltas}.
+   */
   public static <T> CombineFn<T, ?, Long> combineFn() {
     return new CountFn<>();
   }
@@ -132,7 +135,8 @@ public class Count {
   /**
    * A {@link CombineFn} that counts elements.
    */
-  private static class CountFn<T> extends CombineFn<T, long[], Long> {
+  private static class CountFn<T> extends CombineFn<T, long[], Long>
+      implements Combine.Retractable<T, long[]> {
     // Note that the long[] accumulator always has size 1, used as
     // a box for a mutable long.
 
@@ -147,6 +151,12 @@ public class Count {
       return accumulator;
     }
 
+    @Override
+    public long[] retractInput(long[] accumulator, T input) {
+      accumulator[0] -= 1;
+      return accumulator;
+    }
+
     @Override
     public long[] mergeAccumulators(Iterable<long[]> accumulators) {
       Iterator<long[]> iter = accumulators.iterator();
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.transforms;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A Misra-Gries summary of the most frequent items seen so far, used by {@link
+ * Combine.PerKeyWithHotKeyFanout} to detect hot keys at runtime.
+ *
+ * <p>The summary keeps at most {@code capacity} counters. The count reported for an item never
+ * exceeds the number of times it was added, and is at most {@code total / (capacity + 1)} below it,
+ * so every item making up more than {@code 1 / (capacity + 1)} of the total is being counted.
+ * Adding an item takes amortized constant time.
+ *
+ * <p>To follow changes in the distribution, all counts are halved once the total reaches {@code
+ * decayThreshold}, so that the summary reflects recent items more than older ones.
+ *
+ * <p>Items must implement {@link Object#equals} and {@link Object#hashCode} consistently; callers
+ * typically use the structural value of an encoded key.
+ */
+class HeavyHittersSketch<T> {
+  private final int capacity;
+  private final long decayThreshold;
+  private final Map<T, long[]> counts;
+  private long total;
+
+  HeavyHittersSketch(int capacity, long decayThreshold) {
+    checkArgument(capacity > 0, "capacity must be positive, but was %s", capacity);
+    checkArgument(
+        decayThreshold > capacity,
+        "decayThreshold must be larger than the capacity %s, but was %s",
+        capacity,
+        decayThreshold);
+    this.capacity = capacity;
+    this.decayThreshold = decayThreshold;
+    this.counts = new HashMap<>(2 * capacity);
+  }
+
+  /** Adds one occurrence of {@code item}, returning its count including this occurrence. */
+  long add(T item) {
+    if (total >= decayThreshold) {
+      decay();
+    }
+    total++;
+    long[] count = counts.get(item);
+    if (count != null) {
+      return ++count[0];
+    }
+    if (counts.size() < capacity) {
+      counts.put(item, new long[] {1L});
+      return 1L;
+    }
+    // Charge the item against every counter instead of counting it. Each such pass discards
+    // capacity + 1 occurrences, which bounds both the error and the amortized cost.
+    Iterator<long[]> it = counts.values().iterator();
+    while (it.hasNext()) {
+      if (--it.next()[0] == 0) {
+        it.remove();
+      }
+    }
+    return 0L;
+  }
+
+  /** Returns the current count of {@code item}, which is zero if it is not being counted. */
+  long count(T item) {
+    long[] count = counts.get(item);
+    return count == null ? 0L : count[0];
+  }
+
+  /** Returns the number of items added, after any decay. */
+  long total() {
+    return total;
+  }
+
+  private void decay() {
+    total /= 2;
+    Iterator<long[]> it = counts.values().iterator();
+    while (it.hasNext()) {
+      long[] count = it.next();
+      count[0] /= 2;
+      if (count[0] == 0) {
+        it.remove();
+      }
+    }
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.transforms;
+
+/**
+ * Maps primitive values to {@code long}s whose signed order is the natural order of the values,
+ * so that combiners over them can keep their state in {@code long} arrays.
+ */
+enum SortableLongs {
+  /** Longs map to themselves. */
+  LONGS {
+    @Override
+    long toSortable(Number value) {
+      return value.longValue();
+    }
+
+    @Override
+    Long fromSortable(long sortable) {
+      return sortable;
+    }
+  },
+
+  /**
+   * Doubles map to their bits, with all but the sign bit flipped for negative values. The order is
+   * the same as {@link Double#compare}, with {@code -0.0} before {@code 0.0} and {@code NaN} after
+   * positive infinity.
+   */
+  DOUBLES {
+    @Override
+    long toSortable(Number value) {
+      long bits = Double.doubleToLongBits(value.doubleValue());
+      return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    @Override
+    Double fromSortable(long sortable) {
+      return Double.longBitsToDouble(sortable ^ ((sortable >> 63) & Long.MAX_VALUE));
+    }
+  };
+
+  abstract long toSortable(Number value);
+
+  abstract Number fromSortable(long sortable);
+}
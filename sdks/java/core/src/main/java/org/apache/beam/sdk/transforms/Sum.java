@@ -35,6 +35,9 @@ package org.apache.beam.sdk.transforms;
  * PCollection<KV<String, Integer>> sumPerKey = input
  *     .apply(Sum.<String>integersPerKey());
  * } </pre>
+ *
+ * <p>The {@code CombineFn}s returned by {@link #ofIntegers}, {@link #ofLongs} and {@link
+ * #ofDoubles} are {@link Combine.Retractable}, so they can be used with {@link Combine#ofDeltas}.
  */
 public class Sum {
 
@@ -140,13 +143,20 @@ public class Sum {
 
   /////////////////////////////////////////////////////////////////////////////
 
-  private static class SumIntegerFn extends Combine.BinaryCombineIntegerFn {
+  private static class SumIntegerFn extends Combine.BinaryCombineIntegerFn
+      implements Combine.Retractable<Integer, int[]> {
 
     @Override
     public int apply(int a, int b) {
       return a + b;
     }
 
+    @Override
+    public int[] retractInput(int[] accumulator, Integer input) {
+      accumulator[0] -= input;
+      return accumulator;
+    }
+
     @Override
     public int identity() {
       return 0;
@@ -163,13 +173,20 @@ public class Sum {
     }
   }
 
-  private static class SumLongFn extends Combine.BinaryCombineLongFn {
+  private static class SumLongFn extends Combine.BinaryCombineLongFn
+      implements Combine.Retractable<Long, long[]> {
 
     @Override
     public long apply(long a, long b) {
       return a + b;
     }
 
+    @Override
+    public long[] retractInput(long[] accumulator, Long input) {
+      accumulator[0] -= input;
+      return accumulator;
+    }
+
     @Override
     public long identity() {
       return 0;
@@ -186,13 +203,20 @@ public class Sum {
     }
   }
 
-  private static class SumDoubleFn extends Combine.BinaryCombineDoubleFn {
+  private static class SumDoubleFn extends Combine.BinaryCombineDoubleFn
+      implements Combine.Retractable<Double, double[]> {
 
     @Override
     public double apply(double a, double b) {
       return a + b;
     }
 
+    @Override
+    public double[] retractInput(double[] accumulator, Double input) {
+      accumulator[0] -= input;
+      return accumulator;
+    }
+
     @Override
     public double identity() {
       return 0;
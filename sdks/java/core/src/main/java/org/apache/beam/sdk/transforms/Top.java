@@ -20,11 +20,14 @@ package org.apache.beam.sdk.transforms;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.common.collect.Lists;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
@@ -43,6 +46,7 @@ import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
 import org.apache.beam.sdk.transforms.windowing.GlobalWindows;
 import org.apache.beam.sdk.util.NameUtils;
 import org.apache.beam.sdk.util.NameUtils.NameOverride;
+import org.apache.beam.sdk.util.VarInt;
 import org.apache.beam.sdk.util.common.ElementByteSizeObserver;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
@@ -331,6 +335,48 @@ public class Top {
     return Combine.perKey(new TopCombineFn<>(count, new Natural<V>()));
   }
 
+  /**
+   * Returns a {@code CombineFn} that computes the largest {@code count} {@code Long}s, in
+   * decreasing order, like {@code new TopCombineFn<>(count, new Natural<Long>())}.
+   *
+   * <p>Its accumulator keeps the values in a {@code long} array, so it can be used in place of
+   * {@link #largest} and {@link #largestPerKey} on large inputs to avoid boxing every value and to
+   * encode accumulators compactly. For example:
+   *
+   * <pre> {@code
+   * PCollection<KV<String, Long>> latencies = ...;
+   * PCollection<KV<String, List<Long>>> slowest10PerKey =
+   *     latencies.apply(Combine.perKey(Top.largestLongsFn(10)));
+   * } </pre>
+   */
+  public static PrimitiveTopCombineFn<Long> largestLongsFn(int count) {
+    return new PrimitiveTopCombineFn<>(count, true, SortableLongs.LONGS);
+  }
+
+  /**
+   * Like {@link #largestLongsFn}, but computing the smallest {@code count} {@code Long}s, in
+   * increasing order.
+   */
+  public static PrimitiveTopCombineFn<Long> smallestLongsFn(int count) {
+    return new PrimitiveTopCombineFn<>(count, false, SortableLongs.LONGS);
+  }
+
+  /**
+   * Like {@link #largestLongsFn}, but computing the largest {@code count} {@code Double}s, in
+   * decreasing order according to {@link Double#compare}.
+   */
+  public static PrimitiveTopCombineFn<Double> largestDoublesFn(int count) {
+    return new PrimitiveTopCombineFn<>(count, true, SortableLongs.DOUBLES);
+  }
+
+  /**
+   * Like {@link #largestLongsFn}, but computing the smallest {@code count} {@code Double}s, in
+   * increasing order according to {@link Double#compare}.
+   */
+  public static PrimitiveTopCombineFn<Double> smallestDoublesFn(int count) {
+    return new PrimitiveTopCombineFn<>(count, false, SortableLongs.DOUBLES);
+  }
+
   /**
    * @deprecated use {@link Natural} instead
    */
@@ -612,4 +658,228 @@ public class Top {
       return Objects.hash(compareFn, listCoder, maximumSize);
     }
   }
+
+  /**
+   * {@code CombineFn} for {@code Top} over {@code Long}s or {@code Double}s, which keeps its
+   * accumulator in a {@code long} array. See {@link Top#largestLongsFn}.
+   *
+   * @param <T> type of element being compared
+   */
+  public static class PrimitiveTopCombineFn<T extends Number>
+      extends AccumulatingCombineFn<T, LongBoundedHeap<T>, List<T>>
+      implements NameOverride {
+
+    private final int count;
+    private final boolean largest;
+    private final SortableLongs sortableLongs;
+
+    private PrimitiveTopCombineFn(int count, boolean largest, SortableLongs sortableLongs) {
+      checkArgument(count >= 0, "count must be >= 0 (not %s)", count);
+      this.count = count;
+      this.largest = largest;
+      this.sortableLongs = sortableLongs;
+    }
+
+    @Override
+    public String getNameOverride() {
+      return String.format(
+          "Top(%s%s)",
+          largest ? "Largest" : "Smallest",
+          sortableLongs == SortableLongs.LONGS ? "Longs" : "Doubles");
+    }
+
+    @Override
+    public LongBoundedHeap<T> createAccumulator() {
+      return new LongBoundedHeap<>(count, largest, sortableLongs, new long[0], 0);
+    }
+
+    @Override
+    public Coder<LongBoundedHeap<T>> getAccumulatorCoder(
+        CoderRegistry registry, Coder<T> inputCoder) {
+      return new LongBoundedHeapCoder<>(count, largest, sortableLongs);
+    }
+
+    @Override
+    public void populateDisplayData(DisplayData.Builder builder) {
+      super.populateDisplayData(builder);
+      builder
+          .add(DisplayData.item("count", count)
+            .withLabel("Top Count"))
+          .add(DisplayData.item("largest", largest)
+            .withLabel("Largest Values"));
+    }
+
+    @Override
+    public String getIncompatibleGlobalWindowErrorMessage() {
+      return "Default values are not supported in Top if the output PCollection is not windowed "
+          + "by GlobalWindows. Instead, use Combine.globally(fn).withoutDefaults() to output an "
+          + "empty PCollection if the input PCollection is empty, or "
+          + "Combine.globally(fn).asSingletonView() to get a PCollection containing the empty list "
+          + "if the input PCollection is empty.";
+    }
+  }
+
+  /**
+   * A {@link BoundedHeap} of {@code long}s, which are either {@code Long}s or the {@link
+   * SortableLongs sortable} form of {@code Double}s.
+   *
+   * <p>The values are stored so that the largest ones are kept: as is for the largest values, and
+   * bitwise negated for the smallest values. The array is a min-heap of these, so adding and
+   * merging values does not allocate once the heap is full.
+   *
+   * <p>This class is <i>not</i> safe for multithreaded use.
+   */
+  static class LongBoundedHeap<T extends Number>
+      implements Accumulator<T, LongBoundedHeap<T>, List<T>> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int maximumSize;
+    private final boolean largest;
+    private final SortableLongs sortableLongs;
+    private long[] heap;
+    private int size;
+
+    private LongBoundedHeap(
+        int maximumSize, boolean largest, SortableLongs sortableLongs, long[] heap, int size) {
+      this.maximumSize = maximumSize;
+      this.largest = largest;
+      this.sortableLongs = sortableLongs;
+      this.heap = heap;
+      this.size = size;
+    }
+
+    @Override
+    public void addInput(T value) {
+      long sortable = sortableLongs.toSortable(value);
+      addStored(largest ? sortable : ~sortable);
+    }
+
+    @Override
+    public void mergeAccumulator(LongBoundedHeap<T> accumulator) {
+      for (int i = 0; i < accumulator.size; i++) {
+        addStored(accumulator.heap[i]);
+      }
+    }
+
+    private void addStored(long value) {
+      if (size < maximumSize) {
+        if (size == heap.length) {
+          heap = Arrays.copyOf(
+              heap, (int) Math.min(maximumSize, Math.max(INITIAL_CAPACITY, 2L * size)));
+        }
+        int i = size++;
+        while (i > 0) {
+          int parent = (i - 1) >>> 1;
+          if (heap[parent] <= value) {
+            break;
+          }
+          heap[i] = heap[parent];
+          i = parent;
+        }
+        heap[i] = value;
+      } else if (size > 0 && value > heap[0]) {
+        int i = 0;
+        while (true) {
+          int child = 2 * i + 1;
+          if (child >= size) {
+            break;
+          }
+          if (child + 1 < size && heap[child + 1] < heap[child]) {
+            child++;
+          }
+          if (value <= heap[child]) {
+            break;
+          }
+          heap[i] = heap[child];
+          i = child;
+        }
+        heap[i] = value;
+      }
+    }
+
+    @Override
+    public List<T> extractOutput() {
+      long[] sorted = Arrays.copyOf(heap, size);
+      Arrays.sort(sorted);
+      List<T> output = new ArrayList<>(size);
+      for (int i = size - 1; i >= 0; i--) {
+        @SuppressWarnings("unchecked")
+        T value = (T) sortableLongs.fromSortable(largest ? sorted[i] : ~sorted[i]);
+        output.add(value);
+      }
+      return output;
+    }
+  }
+
+  /**
+   * A {@link Coder} for {@link LongBoundedHeap}, encoding the number of values followed by the
+   * stored values in heap order.
+   */
+  private static class LongBoundedHeapCoder<T extends Number>
+      extends CustomCoder<LongBoundedHeap<T>> {
+    private final int maximumSize;
+    private final boolean largest;
+    private final SortableLongs sortableLongs;
+
+    private LongBoundedHeapCoder(int maximumSize, boolean largest, SortableLongs sortableLongs) {
+      this.maximumSize = maximumSize;
+      this.largest = largest;
+      this.sortableLongs = sortableLongs;
+    }
+
+    @Override
+    public void encode(LongBoundedHeap<T> value, OutputStream outStream)
+        throws CoderException, IOException {
+      VarInt.encode(value.size, outStream);
+      DataOutputStream dataStream = new DataOutputStream(outStream);
+      for (int i = 0; i < value.size; i++) {
+        dataStream.writeLong(value.heap[i]);
+      }
+      dataStream.flush();
+    }
+
+    @Override
+    public LongBoundedHeap<T> decode(InputStream inStream) throws CoderException, IOException {
+      int size = VarInt.decodeInt(inStream);
+      if (size < 0 || size > maximumSize) {
+        throw new CoderException(
+            String.format("Invalid heap size %s, the maximum is %s", size, maximumSize));
+      }
+      DataInputStream dataStream = new DataInputStream(inStream);
+      long[] heap = new long[size];
+      for (int i = 0; i < size; i++) {
+        heap[i] = dataStream.readLong();
+      }
+      return new LongBoundedHeap<>(maximumSize, largest, sortableLongs, heap, size);
+    }
+
+    @Override
+    public boolean isRegisterByteSizeObserverCheap(LongBoundedHeap<T> value) {
+      return true;
+    }
+
+    @Override
+    protected long getEncodedElementByteSize(LongBoundedHeap<T> value) {
+      return VarInt.getLength(value.size) + 8L * value.size;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (other == this) {
+        return true;
+      }
+      if (!(other instanceof LongBoundedHeapCoder)) {
+        return false;
+      }
+      LongBoundedHeapCoder<?> that = (LongBoundedHeapCoder<?>) other;
+      return this.maximumSize == that.maximumSize
+          && this.largest == that.largest
+          && this.sortableLongs == that.sortableLongs;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(maximumSize, largest, sortableLongs);
+    }
+  }
 }
@@ -107,6 +107,10 @@ import org.slf4j.LoggerFactory;
  * Growth.PollResult#withWatermark} if the {@link Growth.PollFn} can provide a more optimistic
  * estimate.
  *
+ * <p>By default, the transform remembers every output it has ever emitted for an input, so the
+ * size of its checkpointed state grows with the total number of distinct outputs. For long-running
+ * watches this can be bounded via {@link Growth#withDeduplicationHorizon}.
+ *
  * <p>Note: This transform works only in runners supporting Splittable DoFn: see <a
  * href="https://beam.apache.org/documentation/runners/capability-matrix/">capability matrix</a>.
  */
@@ -580,6 +584,9 @@ public class Watch {
     @Nullable
     abstract Coder<OutputT> getOutputCoder();
 
+    @Nullable
+    abstract Duration getDeduplicationHorizon();
+
     abstract Builder<InputT, OutputT, KeyT> toBuilder();
 
     @AutoValue.Builder
@@ -598,6 +605,8 @@ public class Watch {
 
       abstract Builder<InputT, OutputT, KeyT> setOutputCoder(Coder<OutputT> outputCoder);
 
+      abstract Builder<InputT, OutputT, KeyT> setDeduplicationHorizon(Duration horizon);
+
       abstract Growth<InputT, OutputT, KeyT> build();
     }
 
@@ -631,6 +640,29 @@ public class Watch {
       return toBuilder().setOutputCoder(outputCoder).build();
     }
 
+    /**
+     * Specifies how long an already emitted output is remembered for deduplication, relative to the
+     * watermark of the poll results. If unspecified, every emitted output is remembered for as long
+     * as its input is being watched.
+     *
+     * <p>With a horizon, an emitted output is forgotten once the latest timestamp at which a {@link
+     * PollFn} returned it is more than {@code horizon} behind the poll watermark. Outputs whose
+     * timestamp is that far behind the watermark are assumed to have been emitted already, and are
+     * ignored. This keeps the size of the checkpointed state and the cost of every polling round
+     * proportional to the outputs seen within the horizon, rather than to all outputs ever seen.
+     *
+     * <p>An output that disappears from the poll results for longer than the horizon and then
+     * reappears with a fresh timestamp is treated as new and emitted again.
+     */
+    public Growth<InputT, OutputT, KeyT> withDeduplicationHorizon(Duration horizon) {
+      checkArgument(horizon != null, "horizon can not be null");
+      checkArgument(
+          !horizon.isShorterThan(Duration.ZERO),
+          "horizon must be non-negative, but was %s",
+          horizon);
+      return toBuilder().setDeduplicationHorizon(horizon).build();
+    }
+
     @Override
     public PCollection<KV<InputT, OutputT>> expand(PCollection<InputT> input) {
       checkNotNull(getPollInterval(), "pollInterval");
@@ -789,7 +821,11 @@ public class Watch {
     public GrowthTracker<OutputT, KeyT, TerminationStateT> newTracker(
         GrowthState<OutputT, KeyT, TerminationStateT> restriction) {
       return new GrowthTracker<>(
-          outputKeyFn, outputKeyCoder, restriction, getTerminationCondition());
+          outputKeyFn,
+          outputKeyCoder,
+          restriction,
+          getTerminationCondition(),
+          spec.getDeduplicationHorizon());
     }
 
     @GetRestrictionCoder
@@ -803,11 +839,8 @@ public class Watch {
   @VisibleForTesting
   static class GrowthState<OutputT, KeyT, TerminationStateT> {
     // Hashes and timestamps of outputs that have already been output and should be omitted
-    // from future polls. Timestamps are preserved to allow garbage-collecting this state
-    // in the future, e.g. dropping elements from "completed" and from addNewAsPending() if their
-    // timestamp is more than X behind the watermark.
-    // As of writing, we don't do this, but preserve the information for forward compatibility
-    // in case of pipeline update. TODO: do this.
+    // from future polls. Timestamps allow garbage-collecting this state when a deduplication
+    // horizon is specified: see GrowthTracker.addNewAsPending().
     private final ImmutableMap<HashCode, Instant> completed;
     // Outputs that are known to be present in a poll result, but have not yet been returned
     // from a ProcessElement call, sorted by timestamp to help smooth watermark progress.
@@ -867,6 +900,9 @@ public class Watch {
       extends RestrictionTracker<GrowthState<OutputT, KeyT, TerminationStateT>, HashCode> {
     private final Funnel<OutputT> coderFunnel;
     private final Growth.TerminationCondition<?, TerminationStateT> terminationCondition;
+    // If non-null, outputs whose timestamp is further than this behind the poll watermark are
+    // dropped from "completed" and ignored in poll results.
+    @Nullable private final Duration deduplicationHorizon;
 
     // The restriction describing the entire work to be done by the current ProcessElement call.
     // Changes only in checkpoint().
@@ -875,6 +911,9 @@ public class Watch {
     // Mutable state changed by the ProcessElement call itself, and used to compute the primary
     // and residual restrictions in checkpoint().
 
+    // Outputs that should be omitted from future polls; initialized from state.completed, and
+    // refreshed and pruned in addNewAsPending() if there is a deduplication horizon.
+    private Map<HashCode, Instant> completed;
     // Remaining pending outputs; initialized from state.pending (if non-empty) or in
     // addNewAsPending(); drained via tryClaimNextPending().
     private Map<HashCode, TimestampedValue<OutputT>> pending;
@@ -889,7 +928,8 @@ public class Watch {
         final SerializableFunction<OutputT, KeyT> keyFn,
         final Coder<KeyT> outputKeyCoder,
         GrowthState<OutputT, KeyT, TerminationStateT> state,
-        Growth.TerminationCondition<?, TerminationStateT> terminationCondition) {
+        Growth.TerminationCondition<?, TerminationStateT> terminationCondition,
+        @Nullable Duration deduplicationHorizon) {
       this.coderFunnel =
           (from, into) -> {
             try {
@@ -901,7 +941,11 @@ public class Watch {
             }
           };
       this.terminationCondition = terminationCondition;
+      this.deduplicationHorizon = deduplicationHorizon;
       this.state = state;
+      // Without a horizon, "completed" is never modified, so there is no need to copy it.
+      this.completed =
+          (deduplicationHorizon == null) ? state.completed : Maps.newHashMap(state.completed);
       this.isOutputComplete = state.isOutputComplete;
       this.pollWatermark = state.pollWatermark;
       this.terminationState = state.terminationState;
@@ -931,7 +975,7 @@ public class Watch {
       // residual should contain exactly the work *not* claimed in the current ProcessElement call -
       // unclaimed pending outputs plus future polling outputs.
       ImmutableMap.Builder<HashCode, Instant> newCompleted = ImmutableMap.builder();
-      newCompleted.putAll(state.completed);
+      newCompleted.putAll(completed);
       for (Map.Entry<HashCode, TimestampedValue<OutputT>> claimedOutput : claimed.entrySet()) {
         newCompleted.put(
             claimedOutput.getKey(), claimedOutput.getValue().getTimestamp());
@@ -950,6 +994,7 @@ public class Watch {
       this.isOutputComplete = primary.isOutputComplete;
       this.pollWatermark = primary.pollWatermark;
       this.terminationState = null;
+      this.completed = primary.completed;
       this.pending = Maps.newLinkedHashMap();
 
       this.shouldStop = true;
@@ -1016,10 +1061,24 @@ public class Watch {
       // contain multiple outputs mapping to the the same output key - we need to ignore duplicates
       // here already.
       Map<HashCode, TimestampedValue<OutputT>> newPending = Maps.newHashMap();
+      Instant horizonStart = getDeduplicationHorizonStart();
       for (TimestampedValue<OutputT> output : pollResult.getOutputs()) {
+        if (horizonStart != null && output.getTimestamp().isBefore(horizonStart)) {
+          // Its hash may have already been dropped from "completed", so we can't tell whether
+          // it's new, and assume it is not.
+          continue;
+        }
         OutputT value = output.getValue();
         HashCode hash = hash128(value);
-        if (state.completed.containsKey(hash) || newPending.containsKey(hash)) {
+        Instant completedTimestamp = completed.get(hash);
+        if (completedTimestamp != null) {
+          if (horizonStart != null && output.getTimestamp().isAfter(completedTimestamp)) {
+            // Keep remembering outputs that are still being returned by the PollFn.
+            completed.put(hash, output.getTimestamp());
+          }
+          continue;
+        }
+        if (newPending.containsKey(hash)) {
           continue;
         }
         // TODO (https://issues.apache.org/jira/browse/BEAM-2680):
@@ -1053,9 +1112,26 @@ public class Watch {
       if (BoundedWindow.TIMESTAMP_MAX_VALUE.equals(pollWatermark)) {
         isOutputComplete = true;
       }
+      Instant newHorizonStart = getDeduplicationHorizonStart();
+      if (newHorizonStart != null) {
+        completed.values().removeIf(timestamp -> timestamp.isBefore(newHorizonStart));
+      }
       return pending.size();
     }
 
+    @Nullable
+    private Instant getDeduplicationHorizonStart() {
+      if (deduplicationHorizon == null || pollWatermark == null) {
+        return null;
+      }
+      return pollWatermark.minus(deduplicationHorizon);
+    }
+
+    @VisibleForTesting
+    synchronized int getNumCompleted() {
+      return completed.size();
+    }
+
     @VisibleForTesting
     synchronized Instant getWatermark() {
       // Future elements that can be claimed in this restriction come either from
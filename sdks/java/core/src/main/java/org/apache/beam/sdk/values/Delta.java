@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.values;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import javax.annotation.Nullable;
+import org.apache.beam.sdk.annotations.Experimental;
+import org.apache.beam.sdk.annotations.Experimental.Kind;
+import org.apache.beam.sdk.coders.BooleanCoder;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.StructuredCoder;
+import org.apache.beam.sdk.transforms.Combine;
+
+/**
+ * An immutable change to a collection: either the addition of a value, or the retraction of a
+ * value that was previously added.
+ *
+ * <p>{@link Combine.PerKey#withDeltas()} outputs the result of each pane of a combine as deltas,
+ * so that later stages can update their own results incrementally using {@link
+ * Combine#ofDeltas}.
+ *
+ * @param <V> the type of the value
+ */
+@Experimental(Kind.TRIGGER)
+public class Delta<V> {
+  /** Returns a {@link Delta} adding {@code value}. */
+  public static <V> Delta<V> addition(@Nullable V value) {
+    return new Delta<>(value, false);
+  }
+
+  /** Returns a {@link Delta} retracting a previous addition of {@code value}. */
+  public static <V> Delta<V> retraction(@Nullable V value) {
+    return new Delta<>(value, true);
+  }
+
+  public V getValue() {
+    return value;
+  }
+
+  public boolean isRetraction() {
+    return retraction;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof Delta)) {
+      return false;
+    }
+    Delta<?> that = (Delta<?>) other;
+    return Objects.equals(value, that.value) && retraction == that.retraction;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(value, retraction);
+  }
+
+  @Override
+  public String toString() {
+    return (retraction ? "Retraction(" : "Addition(") + value + ")";
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  /** A {@link Coder} for {@link Delta}. */
+  public static class DeltaCoder<T> extends StructuredCoder<Delta<T>> {
+
+    private final Coder<T> valueCoder;
+
+    public static <T> DeltaCoder<T> of(Coder<T> valueCoder) {
+      return new DeltaCoder<>(valueCoder);
+    }
+
+    private DeltaCoder(Coder<T> valueCoder) {
+      this.valueCoder = checkNotNull(valueCoder);
+    }
+
+    @Override
+    public void encode(Delta<T> delta, OutputStream outStream) throws IOException {
+      BooleanCoder.of().encode(delta.isRetraction(), outStream);
+      valueCoder.encode(delta.getValue(), outStream);
+    }
+
+    @Override
+    public Delta<T> decode(InputStream inStream) throws IOException {
+      boolean retraction = BooleanCoder.of().decode(inStream);
+      T value = valueCoder.decode(inStream);
+      return new Delta<>(value, retraction);
+    }
+
+    @Override
+    public void verifyDeterministic() throws NonDeterministicException {
+      verifyDeterministic(this, "DeltaCoder requires a deterministic valueCoder", valueCoder);
+    }
+
+    @Override
+    public Object structuralValue(Delta<T> delta) {
+      return new Delta<>(valueCoder.structuralValue(delta.getValue()), delta.isRetraction());
+    }
+
+    @Override
+    public List<? extends Coder<?>> getCoderArguments() {
+      return Collections.singletonList(valueCoder);
+    }
+
+    public Coder<T> getValueCoder() {
+      return valueCoder;
+    }
+
+    @Override
+    public TypeDescriptor<Delta<T>> getEncodedTypeDescriptor() {
+      return new TypeDescriptor<Delta<T>>() {}.where(
+          new TypeParameter<T>() {}, valueCoder.getEncodedTypeDescriptor());
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final @Nullable V value;
+  private final boolean retraction;
+
+  private Delta(@Nullable V value, boolean retraction) {
+    this.value = value;
+    this.retraction = retraction;
+  }
+}
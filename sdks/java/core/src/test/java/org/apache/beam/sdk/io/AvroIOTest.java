@@ -363,6 +363,73 @@ public class AvroIOTest implements Serializable {
     readPipeline.run();
   }
 
+  private static class ParseIntField implements SerializableFunction<GenericRecord, Integer> {
+    @Override
+    public Integer apply(GenericRecord input) {
+      return (int) input.get("intField");
+    }
+  }
+
+  @Test
+  @Category(NeedsRunner.class)
+  public void testWriteThenReadWithProjection() throws Throwable {
+    List<GenericClass> values =
+        ImmutableList.of(new GenericClass(3, "hi"), new GenericClass(5, "bar"));
+    File outputFile = tmpFolder.newFile("output.avro");
+
+    writePipeline.apply(Create.of(values))
+        .apply(AvroIO.write(GenericClass.class).to(outputFile.getAbsolutePath()).withoutSharding());
+    writePipeline.run();
+
+    Schema schema = ReflectData.get().getSchema(GenericClass.class);
+    Schema.Field intField = schema.getField("intField");
+    Schema projection =
+        Schema.createRecord(
+            schema.getName(),
+            schema.getDoc(),
+            schema.getNamespace(),
+            false,
+            ImmutableList.of(
+                new Schema.Field(
+                    intField.name(), intField.schema(), intField.doc(), intField.defaultVal())));
+
+    PCollection<String> path =
+        readPipeline.apply("Create path", Create.of(outputFile.getAbsolutePath()));
+    PAssert.that(
+        readPipeline.apply(
+            "Read",
+            AvroIO.read(GenericClass.class)
+                .from(outputFile.getAbsolutePath())
+                .withProjection(projection)))
+        .containsInAnyOrder(new GenericClass(3, null), new GenericClass(5, null));
+    PAssert.that(
+        readPipeline.apply(
+            "Read withHintMatchesManyFiles",
+            AvroIO.read(GenericClass.class)
+                .from(outputFile.getAbsolutePath())
+                .withProjection(projection)
+                .withHintMatchesManyFiles()))
+        .containsInAnyOrder(new GenericClass(3, null), new GenericClass(5, null));
+    PAssert.that(
+        readPipeline.apply(
+            "Parse",
+            AvroIO.parseGenericRecords(new ParseIntField())
+                .from(outputFile.getAbsolutePath())
+                .withProjection(projection)
+                .withRecordReuse()))
+        .containsInAnyOrder(3, 5);
+    PAssert.that(
+        path.apply(
+            "ParseAll",
+            AvroIO.parseAllGenericRecords(new ParseIntField())
+                .withProjection(projection)
+                .withRecordReuse()
+                .withDesiredBundleSizeBytes(10)))
+        .containsInAnyOrder(3, 5);
+
+    readPipeline.run();
+  }
+
   @Test
   @Category(NeedsRunner.class)
   public void testWriteThenReadMultipleFilepatterns() throws Throwable {
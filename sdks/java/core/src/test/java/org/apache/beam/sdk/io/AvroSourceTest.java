@@ -33,10 +33,12 @@ import java.io.IOException;
 import java.io.PushbackInputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Random;
+import java.util.Set;
 import org.apache.avro.Schema;
 import org.apache.avro.file.CodecFactory;
 import org.apache.avro.file.DataFileConstants;
@@ -50,6 +52,7 @@ import org.apache.avro.reflect.ReflectData;
 import org.apache.avro.reflect.ReflectDatumWriter;
 import org.apache.beam.sdk.coders.AvroCoder;
 import org.apache.beam.sdk.coders.DefaultCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.io.AvroSource.AvroMetadata;
 import org.apache.beam.sdk.io.AvroSource.AvroReader;
 import org.apache.beam.sdk.io.AvroSource.AvroReader.Seeker;
@@ -465,6 +468,104 @@ public class AvroSourceTest {
     assertThat(actual, containsInAnyOrder(expected.toArray()));
   }
 
+  @Test
+  public void testParseFnWithProjection() throws Exception {
+    List<Bird> birds = createRandomRecords(100);
+    String filename = generateTestFile("tmp.avro", birds, SyncBehavior.SYNC_DEFAULT, 0,
+        AvroCoder.of(Bird.class), DataFileConstants.NULL_CODEC);
+
+    AvroSource<String> source =
+        AvroSource.from(filename)
+            .withParseFn(
+                input -> {
+                  assertEquals(1, input.getSchema().getFields().size());
+                  return input.get("species").toString();
+                },
+                StringUtf8Coder.of())
+            .withProjection(birdProjection("species"));
+    List<String> expected = new ArrayList<>();
+    for (Bird bird : birds) {
+      expected.add(bird.species);
+    }
+    assertEquals(expected, SourceTestUtils.readFromSource(source, null));
+  }
+
+  @Test
+  public void testGeneratedClassesWithProjection() throws Exception {
+    List<Bird> birds = createRandomRecords(100);
+    String filename = generateTestFile("tmp.avro", birds, SyncBehavior.SYNC_DEFAULT, 0,
+        AvroCoder.of(Bird.class), DataFileConstants.NULL_CODEC);
+
+    AvroSource<Bird> source =
+        AvroSource.from(filename)
+            .withSchema(Bird.class)
+            .withProjection(birdProjection("number", "quantity"));
+    List<Bird> expected = new ArrayList<>();
+    for (Bird bird : birds) {
+      expected.add(new Bird(bird.number, null, null, bird.quantity));
+    }
+    assertEquals(expected, SourceTestUtils.readFromSource(source, null));
+  }
+
+  private static final Set<GenericRecord> PARSED_RECORDS =
+      Collections.newSetFromMap(new IdentityHashMap<>());
+
+  @Test
+  public void testParseFnWithRecordReuse() throws Exception {
+    List<Bird> expected = createRandomRecords(DEFAULT_RECORD_COUNT);
+    String filename = generateTestFile("tmp.avro", expected, SyncBehavior.SYNC_REGULAR,
+        DEFAULT_RECORD_COUNT / 10 /* max records per block */,
+        AvroCoder.of(Bird.class), DataFileConstants.DEFLATE_CODEC);
+
+    PARSED_RECORDS.clear();
+    AvroSource<Bird> source =
+        AvroSource.from(filename)
+            .withParseFn(
+                input -> {
+                  PARSED_RECORDS.add(input);
+                  return new Bird(
+                      (long) input.get("number"),
+                      input.get("species").toString(),
+                      input.get("quality").toString(),
+                      (long) input.get("quantity"));
+                },
+                AvroCoder.of(Bird.class))
+            .withRecordReuse();
+    assertEquals(expected, SourceTestUtils.readFromSource(source, null));
+    assertEquals(1, PARSED_RECORDS.size());
+  }
+
+  @Test
+  public void testRecordReuseRequiresParseFn() throws Exception {
+    expectedException.expect(IllegalStateException.class);
+    expectedException.expectMessage("withParseFn");
+    AvroSource.from("tmp.avro").withSchema(Bird.class).withRecordReuse();
+  }
+
+  @Test
+  public void testSplitAtFractionExhaustiveCompressed() throws Exception {
+    // Blocks of compressed files are read ahead of decoding, which must not affect splitting.
+    List<FixedRecord> expected = createFixedRecords(20);
+    String filename = generateTestFile("tmp.avro", expected, SyncBehavior.SYNC_REGULAR, 5,
+        AvroCoder.of(FixedRecord.class), DataFileConstants.DEFLATE_CODEC);
+
+    AvroSource<FixedRecord> source = AvroSource.from(filename).withSchema(FixedRecord.class);
+    assertEquals(expected, SourceTestUtils.readFromSource(source, null));
+    SourceTestUtils.assertSplitAtFractionExhaustive(source, null);
+  }
+
+  /** Returns a projection of the schema of {@link Bird} containing only the given fields. */
+  private static Schema birdProjection(String... fieldNames) {
+    Schema schema = ReflectData.get().getSchema(Bird.class);
+    List<Schema.Field> fields = new ArrayList<>();
+    for (String fieldName : fieldNames) {
+      Schema.Field field = schema.getField(fieldName);
+      fields.add(new Schema.Field(field.name(), field.schema(), field.doc(), field.defaultVal()));
+    }
+    return Schema.createRecord(
+        schema.getName(), schema.getDoc(), schema.getNamespace(), false, fields);
+  }
+
   private void assertEqualsWithGeneric(List<Bird> expected, List<GenericRecord> actual) {
     assertEquals(expected.size(), actual.size());
     for (int i = 0; i < expected.size(); i++) {
@@ -67,6 +67,8 @@ import org.apache.beam.sdk.values.KV;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
 import org.apache.commons.compress.compressors.deflate.DeflateCompressorOutputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+import org.apache.commons.compress.compressors.snappy.FramedSnappyCompressorOutputStream;
 import org.joda.time.Instant;
 import org.junit.Rule;
 import org.junit.Test;
@@ -185,6 +187,24 @@ public class CompressedSourceTest {
     runReadTest(input, CompressionMode.DEFLATE);
   }
 
+  /**
+   * Test reading nonempty input with LZ4.
+   */
+  @Test
+  public void testReadLz4() throws Exception {
+    byte[] input = generateInput(5000);
+    runReadTest(input, CompressionMode.LZ4);
+  }
+
+  /**
+   * Test reading nonempty input with Snappy.
+   */
+  @Test
+  public void testReadSnappy() throws Exception {
+    byte[] input = generateInput(5000);
+    runReadTest(input, CompressionMode.SNAPPY);
+  }
+
   /**
    * Test reading empty input with gzip.
    */
@@ -296,6 +316,17 @@ public class CompressedSourceTest {
     verifyReadContents(input, tmpFile, null /* default auto decompression factory */);
   }
 
+  /**
+   * Test reading according to filepattern when the file is LZ4 compressed.
+   */
+  @Test
+  public void testCompressedAccordingToFilepatternLz4() throws Exception {
+    byte[] input = generateInput(100);
+    File tmpFile = tmpFolder.newFile("test.lz4");
+    writeFile(tmpFile, input, CompressionMode.LZ4);
+    verifyReadContents(input, tmpFile, null /* default auto decompression factory */);
+  }
+
   /**
    * Test reading multiple files with different compression.
    */
@@ -511,6 +542,10 @@ public class CompressedSourceTest {
         return new TestZipOutputStream(stream);
       case DEFLATE:
         return new DeflateCompressorOutputStream(stream);
+      case LZ4:
+        return new FramedLZ4CompressorOutputStream(stream);
+      case SNAPPY:
+        return new FramedSnappyCompressorOutputStream(stream);
       default:
         throw new RuntimeException("Unexpected compression mode");
     }
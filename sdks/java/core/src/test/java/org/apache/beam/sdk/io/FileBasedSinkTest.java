@@ -27,6 +27,7 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -46,8 +47,11 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.zip.GZIPInputStream;
 import org.apache.beam.sdk.io.FileBasedSink.CompressionType;
 import org.apache.beam.sdk.io.FileBasedSink.FileResult;
@@ -61,6 +65,8 @@ import org.apache.beam.sdk.transforms.windowing.PaneInfo;
 import org.apache.beam.sdk.values.KV;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.apache.commons.compress.compressors.deflate.DeflateCompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.snappy.FramedSnappyCompressorInputStream;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -153,6 +159,85 @@ public class FileBasedSinkTest {
     runFinalize(buildWriteOperation(), files);
   }
 
+  /** Finalize copies and removes files in batches when using multiple threads. */
+  @Test
+  public void testFinalizeInParallel() throws Exception {
+    List<File> files = generateTemporaryFilesForFinalize(250);
+    runFinalize(buildWriteOperation(), files, 4);
+  }
+
+  /** Finalizing in parallel removes temporary files through the overridable hook. */
+  @Test
+  public void testFinalizeInParallelUsesRemoveTemporaryFiles() throws Exception {
+    List<File> files = generateTemporaryFilesForFinalize(250);
+    List<ResourceId> removed = new ArrayList<>();
+    WriteOperation<Void, String> writeOp =
+        new WriteOperation<Void, String>(buildSink()) {
+          @Override
+          public Writer<Void, String> createWriter() {
+            throw new UnsupportedOperationException();
+          }
+
+          @Override
+          public void removeTemporaryFiles(Collection<ResourceId> filenames) throws IOException {
+            removed.addAll(filenames);
+            super.removeTemporaryFiles(filenames);
+          }
+        };
+    runFinalize(writeOp, files, 4);
+    assertEquals(files.size(), removed.size());
+  }
+
+  /** A batch that fails is retried one file at a time, counting only the re-attempts. */
+  @Test
+  public void testFinalizeBatchFailureRetriesFilesSeparately() throws Exception {
+    List<String> applied = new ArrayList<>();
+    Set<String> failedOnce = new HashSet<>();
+    List<Long> sleeps = new ArrayList<>();
+    WriteOperation.BatchStats stats =
+        WriteOperation.runBatchWithRetries(
+            "copy",
+            Arrays.asList("a", "b", "c"),
+            batch -> {
+              if (batch.size() > 1) {
+                throw new IOException("batch failed");
+              }
+              String file = Iterables.getOnlyElement(batch);
+              if (file.equals("b") && failedOnce.add(file)) {
+                throw new IOException("file failed");
+              }
+              applied.add(file);
+            },
+            sleeps::add);
+    assertEquals(Arrays.asList("a", "b", "c"), applied);
+    assertEquals(1, stats.numRetries);
+    assertEquals(1, sleeps.size());
+  }
+
+  /** A file that keeps failing fails the batch once its retries are exhausted. */
+  @Test
+  public void testFinalizeFileFailureExhaustsRetries() throws Exception {
+    List<String> applied = new ArrayList<>();
+    List<Long> sleeps = new ArrayList<>();
+    try {
+      WriteOperation.runBatchWithRetries(
+          "copy",
+          Arrays.asList("a", "b", "c"),
+          batch -> {
+            if (batch.size() > 1 || batch.contains("b")) {
+              throw new IOException("failed");
+            }
+            applied.addAll(batch);
+          },
+          sleeps::add);
+      fail("Expected the batch to fail");
+    } catch (IOException e) {
+      assertThat(e.getMessage(), containsString("Failed to copy b"));
+    }
+    assertEquals(Collections.singletonList("a"), applied);
+    assertEquals(3, sleeps.size());
+  }
+
   /** Finalize can be called repeatedly. */
   @Test
   public void testFinalizeMultipleCalls() throws Exception {
@@ -194,6 +279,12 @@ public class FileBasedSinkTest {
   /** Finalize and verify that files are copied and temporary files are optionally removed. */
   private void runFinalize(SimpleSink.SimpleWriteOperation<Void> writeOp, List<File> temporaryFiles)
       throws Exception {
+    runFinalize(writeOp, temporaryFiles, 1);
+  }
+
+  private void runFinalize(
+      WriteOperation<Void, String> writeOp, List<File> temporaryFiles, int parallelism)
+      throws Exception {
     int numFiles = temporaryFiles.size();
 
     List<FileResult<Void>> fileResults = new ArrayList<>();
@@ -211,7 +302,7 @@ public class FileBasedSinkTest {
     // TODO: test with null first argument?
     List<KV<FileResult<Void>, ResourceId>> resultsToFinalFilenames =
         writeOp.finalizeDestination(null, GlobalWindow.INSTANCE, null, fileResults);
-    writeOp.moveToOutputFiles(resultsToFinalFilenames);
+    writeOp.moveToOutputFiles(resultsToFinalFilenames, parallelism);
 
     for (int i = 0; i < numFiles; i++) {
       ResourceId outputFilename =
@@ -458,6 +549,32 @@ public class FileBasedSinkTest {
         "123");
   }
 
+  /** {@link Compression#LZ4} correctly writes LZ4 frames. */
+  @Test
+  public void testCompressionLZ4() throws FileNotFoundException, IOException {
+    final File file = writeValuesWithCompression(Compression.LZ4, "abc", "123");
+    assertReadValues(
+        new BufferedReader(
+            new InputStreamReader(
+                new FramedLZ4CompressorInputStream(new FileInputStream(file)),
+                StandardCharsets.UTF_8)),
+        "abc",
+        "123");
+  }
+
+  /** {@link Compression#SNAPPY} correctly writes framed Snappy data. */
+  @Test
+  public void testCompressionSNAPPY() throws FileNotFoundException, IOException {
+    final File file = writeValuesWithCompression(Compression.SNAPPY, "abc", "123");
+    assertReadValues(
+        new BufferedReader(
+            new InputStreamReader(
+                new FramedSnappyCompressorInputStream(new FileInputStream(file)),
+                StandardCharsets.UTF_8)),
+        "abc",
+        "123");
+  }
+
   /** {@link Compression#UNCOMPRESSED} correctly writes uncompressed data. */
   @Test
   public void testCompressionUNCOMPRESSED() throws FileNotFoundException, IOException {
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.io;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import java.util.List;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link LocalSpillingBuffer}. */
+@RunWith(JUnit4.class)
+public class LocalSpillingBufferTest {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testReadInMemory() throws Exception {
+    try (LocalSpillingBuffer<Integer, String> buffer =
+        new LocalSpillingBuffer<>(StringUtf8Coder.of(), 1024)) {
+      buffer.add(2, "a");
+      buffer.add(1, "b");
+      buffer.add(2, "c");
+
+      assertEquals(0, buffer.getNumSpilledBytes());
+      assertThat(buffer.keys(), contains(2, 1));
+      assertThat(Lists.newArrayList(buffer.read(2)), contains("a", "c"));
+      assertThat(Lists.newArrayList(buffer.read(1)), contains("b"));
+    }
+  }
+
+  @Test
+  public void testReadSpilled() throws Exception {
+    try (LocalSpillingBuffer<Integer, String> buffer =
+        new LocalSpillingBuffer<>(StringUtf8Coder.of(), 10)) {
+      List<String> expectedEven = Lists.newArrayList();
+      List<String> expectedOdd = Lists.newArrayList();
+      for (int i = 0; i < 100; ++i) {
+        String value = "value" + i;
+        buffer.add(i % 2, value);
+        (i % 2 == 0 ? expectedEven : expectedOdd).add(value);
+      }
+
+      assertThat(buffer.getNumSpilledBytes(), greaterThan(0L));
+      assertThat(buffer.keys(), contains(0, 1));
+      assertEquals(expectedEven, ImmutableList.copyOf(buffer.read(0)));
+      assertEquals(expectedOdd, ImmutableList.copyOf(buffer.read(1)));
+    }
+  }
+
+  @Test
+  public void testReleasesMemoryOnSpill() throws Exception {
+    try (LocalSpillingBuffer<Integer, String> buffer =
+        new LocalSpillingBuffer<>(StringUtf8Coder.of(), 100)) {
+      for (int i = 0; i < 10; ++i) {
+        buffer.add(i, "value" + i);
+      }
+      assertEquals(10, buffer.getNumInMemoryBuffers());
+      // each key grew its buffer before the spill, none of them keeps it afterwards.
+      buffer.add(0, Strings.repeat("x", 100));
+      assertEquals(0, buffer.getNumInMemoryBuffers());
+
+      buffer.add(1, "value");
+      assertEquals(1, buffer.getNumInMemoryBuffers());
+      assertThat(Lists.newArrayList(buffer.read(1)), contains("value1", "value"));
+    }
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    LocalSpillingBuffer<Integer, String> buffer =
+        new LocalSpillingBuffer<>(StringUtf8Coder.of(), 1);
+    buffer.add(1, "a");
+    buffer.close();
+    assertThat(buffer.keys(), emptyIterable());
+  }
+
+  @Test
+  public void testAddAfterRead() throws Exception {
+    try (LocalSpillingBuffer<Integer, String> buffer =
+        new LocalSpillingBuffer<>(StringUtf8Coder.of(), 1024)) {
+      buffer.add(1, "a");
+      buffer.read(1);
+
+      thrown.expect(IllegalStateException.class);
+      buffer.add(1, "b");
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.io;
+
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import org.apache.beam.sdk.util.SerializableUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link TunableCompression}. */
+@RunWith(JUnit4.class)
+public class TunableCompressionTest {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private static byte[] generateInput() {
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      input.append("line ").append(i % 1000).append(" of some compressible text\n");
+    }
+    return input.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] compress(TunableCompression compression, byte[] input)
+      throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (WritableByteChannel channel = compression.create(Channels.newChannel(output))) {
+      channel.write(ByteBuffer.wrap(input));
+    }
+    return output.toByteArray();
+  }
+
+  private static byte[] decompress(Compression compression, byte[] input) throws IOException {
+    return ByteStreams.toByteArray(
+        Channels.newInputStream(
+            compression.readDecompressed(Channels.newChannel(new ByteArrayInputStream(input)))));
+  }
+
+  @Test
+  public void testLz4RoundTripAllLevelsAndBlockSizes() throws Exception {
+    byte[] input = generateInput();
+    for (int blockSize : new int[] {64 * 1024, 256 * 1024, 1024 * 1024, 4 * 1024 * 1024}) {
+      for (int level = TunableCompression.MIN_LEVEL; level <= TunableCompression.MAX_LEVEL;
+          level++) {
+        TunableCompression compression =
+            TunableCompression.lz4().withBlockSizeBytes(blockSize).withLevel(level);
+        byte[] compressed = compress(compression, input);
+        assertThat(compressed.length, lessThan(input.length));
+        assertArrayEquals(input, decompress(Compression.LZ4, compressed));
+      }
+    }
+  }
+
+  @Test
+  public void testSnappyRoundTripAllLevels() throws Exception {
+    byte[] input = generateInput();
+    for (int level = TunableCompression.MIN_LEVEL; level <= TunableCompression.MAX_LEVEL;
+        level++) {
+      byte[] compressed = compress(TunableCompression.snappy().withLevel(level), input);
+      assertThat(compressed.length, lessThan(input.length));
+      assertArrayEquals(input, decompress(Compression.SNAPPY, compressed));
+    }
+  }
+
+  @Test
+  public void testHigherLevelCompressesBetter() throws Exception {
+    byte[] input = generateInput();
+    int fastest = compress(TunableCompression.lz4(), input).length;
+    int best = compress(TunableCompression.lz4().withLevel(TunableCompression.MAX_LEVEL), input)
+        .length;
+    assertThat(best, lessThan(fastest));
+  }
+
+  @Test
+  public void testDetectedFromSuggestedSuffix() {
+    assertEquals(
+        Compression.LZ4,
+        Compression.detect("file" + TunableCompression.lz4().getSuggestedFilenameSuffix()));
+    assertEquals(
+        Compression.SNAPPY,
+        Compression.detect("file" + TunableCompression.snappy().getSuggestedFilenameSuffix()));
+  }
+
+  @Test
+  public void testSerializable() throws Exception {
+    TunableCompression compression = TunableCompression.lz4().withLevel(4);
+    assertEquals(compression, SerializableUtils.clone(compression));
+  }
+
+  @Test
+  public void testInvalidLevel() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("level must be between");
+    TunableCompression.lz4().withLevel(TunableCompression.MAX_LEVEL + 1);
+  }
+
+  @Test
+  public void testInvalidLz4BlockSize() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("LZ4 block size");
+    TunableCompression.lz4().withBlockSizeBytes(100 * 1024);
+  }
+
+  @Test
+  public void testSnappyBlockSizeNotSupported() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("only be set for LZ4");
+    TunableCompression.snappy().withBlockSizeBytes(64 * 1024);
+  }
+}
@@ -519,6 +519,39 @@ public class WriteFilesTest {
     }
   }
 
+  @Test
+  @Category(NeedsRunner.class)
+  public void testDynamicDestinationsInBundleSpilling() throws Exception {
+    TestDestinations dynamicDestinations = new TestDestinations(getBaseOutputDirectory());
+    SimpleSink<Integer> sink =
+        new SimpleSink<>(
+            getBaseOutputDirectory(), dynamicDestinations, Compression.UNCOMPRESSED);
+
+    final int numInputs = 100;
+    List<String> inputs = Lists.newArrayList();
+    for (int i = 0; i < numInputs; ++i) {
+      inputs.add(Integer.toString(i));
+    }
+    // Only one writer is opened while processing elements, and a small buffer makes records of
+    // the other destinations spill to disk.
+    p.apply(Create.of(inputs))
+        .apply(WriteFiles.to(sink).withMaxNumWritersPerBundle(0).withInBundleSpilling(64))
+        .getPerDestinationOutputFilenames()
+        .apply(new VerifyFilesExist<>());
+    p.run();
+
+    for (int i = 0; i < 5; ++i) {
+      ResourceId base =
+          getBaseOutputDirectory().resolve("file_" + i, StandardResolveOptions.RESOLVE_FILE);
+      List<String> expected = Lists.newArrayList();
+      for (int j = i; j < numInputs; j += 5) {
+        expected.add("record_" + j);
+      }
+      checkFileContents(
+          base.toString(), expected, Optional.absent(), true /* expectRemovedTempDirectory */);
+    }
+  }
+
   @Test
   public void testShardedDisplayData() {
     DynamicDestinations<String, Void, String> dynamicDestinations =
@@ -28,17 +28,25 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.coders.BigEndianIntegerCoder;
+import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.KvCoder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarLongCoder;
 import org.apache.beam.sdk.testing.NeedsRunner;
 import org.apache.beam.sdk.testing.PAssert;
 import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.ApproximateQuantiles.ApproximatePrimitiveQuantilesCombineFn;
 import org.apache.beam.sdk.transforms.ApproximateQuantiles.ApproximateQuantilesCombineFn;
+import org.apache.beam.sdk.transforms.ApproximateQuantiles.LongQuantileState;
+import org.apache.beam.sdk.transforms.ApproximateQuantiles.QuantileState;
 import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.sdk.util.CoderUtils;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
 import org.hamcrest.CoreMatchers;
@@ -236,6 +244,69 @@ public class ApproximateQuantilesTest {
       assertThat(displayData, hasDisplayItem("comparer", comparer.getClass()));
     }
 
+    @Test
+    public void testPrimitiveQuantilesMatchGenericQuantiles() throws Exception {
+      List<Long> values = new ArrayList<>();
+      for (long i = 0; i < 50000; i++) {
+        values.add(i * 7 - 100000);
+      }
+      Collections.shuffle(values, new Random(5));
+
+      ApproximateQuantilesCombineFn<Long, Top.Natural<Long>> genericFn =
+          ApproximateQuantilesCombineFn.create(11, new Top.Natural<Long>(), 100000, 0.01);
+      ApproximatePrimitiveQuantilesCombineFn<Long> primitiveFn =
+          ApproximatePrimitiveQuantilesCombineFn.ofLongs(11)
+              .withMaxInputSize(100000)
+              .withEpsilon(0.01);
+      Coder<LongQuantileState<Long>> coder =
+          primitiveFn.getAccumulatorCoder(Pipeline.create().getCoderRegistry(), VarLongCoder.of());
+
+      List<QuantileState<Long, Top.Natural<Long>>> genericAccums = new ArrayList<>();
+      List<LongQuantileState<Long>> primitiveAccums = new ArrayList<>();
+      for (List<Long> shard : Lists.partition(values, 7001)) {
+        QuantileState<Long, Top.Natural<Long>> genericAccum = genericFn.createAccumulator();
+        LongQuantileState<Long> primitiveAccum = primitiveFn.createAccumulator();
+        for (Long value : shard) {
+          genericAccum.addInput(value);
+          primitiveAccum.addInput(value);
+        }
+        genericAccums.add(genericAccum);
+        primitiveAccums.add(CoderUtils.clone(coder, primitiveAccum));
+      }
+
+      assertEquals(
+          genericFn.extractOutput(genericFn.mergeAccumulators(genericAccums)),
+          primitiveFn.extractOutput(primitiveFn.mergeAccumulators(primitiveAccums)));
+    }
+
+    @Test
+    public void testPrimitiveDoubleQuantiles() {
+      List<Double> all = new ArrayList<>();
+      for (int i = 0; i <= 100; i++) {
+        all.add(i / 4.0 - 10);
+      }
+      testCombineFn(
+          ApproximatePrimitiveQuantilesCombineFn.ofDoubles(5),
+          all,
+          Arrays.asList(-10.0, -3.75, 2.5, 8.75, 15.0));
+      testCombineFn(
+          ApproximatePrimitiveQuantilesCombineFn.ofDoubles(3),
+          Arrays.asList(Double.NaN, -0.0, 0.0, Double.NEGATIVE_INFINITY, 1.0),
+          Arrays.asList(Double.NEGATIVE_INFINITY, 0.0, Double.NaN));
+    }
+
+    @Test
+    public void testPrimitiveQuantilesEmptyAccumulatorCoder() throws Exception {
+      ApproximatePrimitiveQuantilesCombineFn<Long> fn =
+          ApproximatePrimitiveQuantilesCombineFn.ofLongs(5);
+      Coder<LongQuantileState<Long>> coder =
+          fn.getAccumulatorCoder(Pipeline.create().getCoderRegistry(), VarLongCoder.of());
+
+      LongQuantileState<Long> empty = CoderUtils.clone(coder, fn.createAccumulator());
+      assertEquals(Collections.emptyList(), fn.extractOutput(empty));
+      assertEquals(2, CoderUtils.encodeToByteArray(coder, fn.createAccumulator()).length);
+    }
+
     private Matcher<Iterable<? extends Integer>> quantileMatcher(
         int size, int numQuantiles, int absoluteError) {
       List<Matcher<? super Integer>> quantiles = new ArrayList<>();
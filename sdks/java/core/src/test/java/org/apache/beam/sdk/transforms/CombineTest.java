@@ -25,7 +25,9 @@ import static org.apache.beam.sdk.transforms.display.DisplayDataMatchers.hasName
 import static org.apache.beam.sdk.transforms.display.DisplayDataMatchers.includesDisplayDataFor;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
@@ -46,6 +48,7 @@ import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.PipelineResult;
 import org.apache.beam.sdk.coders.AtomicCoder;
 import org.apache.beam.sdk.coders.BigEndianIntegerCoder;
 import org.apache.beam.sdk.coders.BigEndianLongCoder;
@@ -56,10 +59,19 @@ import org.apache.beam.sdk.coders.KvCoder;
 import org.apache.beam.sdk.coders.SerializableCoder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
 import org.apache.beam.sdk.coders.VoidCoder;
+import org.apache.beam.sdk.metrics.MetricNameFilter;
+import org.apache.beam.sdk.metrics.MetricResult;
+import org.apache.beam.sdk.metrics.MetricsFilter;
 import org.apache.beam.sdk.testing.NeedsRunner;
 import org.apache.beam.sdk.testing.PAssert;
 import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.testing.TestStream;
+import org.apache.beam.sdk.testing.UsesAttemptedMetrics;
+import org.apache.beam.sdk.testing.UsesCounterMetrics;
+import org.apache.beam.sdk.testing.UsesStatefulParDo;
+import org.apache.beam.sdk.testing.UsesTestStream;
 import org.apache.beam.sdk.testing.ValidatesRunner;
 import org.apache.beam.sdk.transforms.Combine.CombineFn;
 import org.apache.beam.sdk.transforms.CombineTest.SharedTestBase.TestCombineFn.Accumulator;
@@ -69,6 +81,7 @@ import org.apache.beam.sdk.transforms.display.DisplayData;
 import org.apache.beam.sdk.transforms.display.DisplayDataEvaluator;
 import org.apache.beam.sdk.transforms.windowing.AfterPane;
 import org.apache.beam.sdk.transforms.windowing.FixedWindows;
+import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
 import org.apache.beam.sdk.transforms.windowing.GlobalWindows;
 import org.apache.beam.sdk.transforms.windowing.Repeatedly;
 import org.apache.beam.sdk.transforms.windowing.Sessions;
@@ -77,11 +90,14 @@ import org.apache.beam.sdk.transforms.windowing.Window;
 import org.apache.beam.sdk.transforms.windowing.Window.ClosingBehavior;
 import org.apache.beam.sdk.util.SerializableUtils;
 import org.apache.beam.sdk.util.common.ElementByteSizeObserver;
+import org.apache.beam.sdk.values.Delta;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
 import org.apache.beam.sdk.values.PCollectionView;
 import org.apache.beam.sdk.values.POutput;
 import org.apache.beam.sdk.values.TimestampedValue;
+import org.apache.beam.sdk.values.TypeDescriptor;
+import org.apache.beam.sdk.values.TypeDescriptors;
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
 import org.joda.time.Duration;
@@ -90,6 +106,7 @@ import org.junit.Assume;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
@@ -105,6 +122,9 @@ public class CombineTest implements Serializable {
     @Rule
     public final transient TestPipeline pipeline = TestPipeline.create();
 
+    @Rule
+    public transient ExpectedException thrown = ExpectedException.none();
+
     protected void runTestSimpleCombine(
         List<KV<String, Integer>> table,
         int globalSum,
@@ -744,6 +764,115 @@ public class CombineTest implements Serializable {
       pipeline.run();
     }
 
+    @Test
+    @Category({ValidatesRunner.class, UsesAttemptedMetrics.class, UsesCounterMetrics.class})
+    public void testAdaptiveHotKeyCombining() {
+      List<KV<String, Integer>> elements = new ArrayList<>();
+      List<KV<String, Integer>> expected = new ArrayList<>();
+      expected.add(KV.of("hot", 20000));
+      for (int i = 0; i < 200; i++) {
+        expected.add(KV.of("cold" + i, 10 * i));
+      }
+      for (int i = 0; i < 22000; i++) {
+        elements.add(i % 11 == 10 ? KV.of("cold" + (i / 11 % 200), i / 11 % 200) : KV.of("hot", 1));
+      }
+
+      PCollection<KV<String, Integer>> sums = pipeline
+          .apply(Create.of(elements))
+          .apply(Combine.<String, Integer, Integer>perKey(Sum.ofIntegers())
+              .withAdaptiveHotKeyFanout(4, 0.1));
+      PAssert.that(sums).containsInAnyOrder(expected);
+
+      PipelineResult result = pipeline.run();
+      long fannedOutElements = 0;
+      for (MetricResult<Long> counter : result.metrics().queryMetrics(
+          MetricsFilter.builder()
+              .addNameFilter(MetricNameFilter.named(
+                  Combine.PerKeyWithHotKeyFanout.class, "fannedOutElements"))
+              .build())
+          .getCounters()) {
+        fannedOutElements += counter.getAttempted();
+      }
+      // Only elements of the hot key are spread, once enough elements have been sampled.
+      assertThat(fannedOutElements, greaterThan(0L));
+      assertThat(fannedOutElements, lessThanOrEqualTo(20000L));
+    }
+
+    @Test
+    public void testAdaptiveHotKeyFanoutDisplayData() {
+      DisplayData displayData = DisplayData.from(
+          Combine.perKey(new UniqueInts()).withAdaptiveHotKeyFanout(3, 0.05));
+
+      assertThat(displayData, hasDisplayItem("fanout", 3));
+      assertThat(displayData, hasDisplayItem("hotKeyFraction", 0.05));
+    }
+
+    @Test
+    public void testAdaptiveHotKeyFanoutInvalidFraction() {
+      thrown.expect(IllegalArgumentException.class);
+      thrown.expectMessage("hotKeyFraction");
+      Combine.perKey(new UniqueInts()).withAdaptiveHotKeyFanout(3, 1.0);
+    }
+
+    @Test
+    public void testOfDeltas() {
+      testCombineFn(
+          Combine.ofDeltas(Sum.ofLongs()),
+          Arrays.asList(
+              Delta.addition(5L), Delta.addition(3L), Delta.retraction(5L), Delta.addition(7L)),
+          10L);
+      testCombineFn(
+          Combine.ofDeltas(Count.<String>combineFn()),
+          Arrays.asList(
+              Delta.retraction("a"), Delta.addition("a"), Delta.addition("b"),
+              Delta.addition("a")),
+          2L);
+    }
+
+    @Test
+    public void testOfDeltasRequiresRetractable() {
+      thrown.expect(IllegalArgumentException.class);
+      thrown.expectMessage("Retractable");
+      Combine.ofDeltas(new MeanInts());
+    }
+
+    @Test
+    @Category({ValidatesRunner.class, UsesTestStream.class, UsesStatefulParDo.class})
+    public void testCombinePerKeyWithDeltas() {
+      TestStream<KV<String, Long>> events =
+          TestStream.create(KvCoder.of(StringUtf8Coder.of(), VarLongCoder.of()))
+              .addElements(KV.of("a", 1L), KV.of("b", 2L))
+              .addElements(KV.of("a", 3L))
+              .addElements(KV.of("a", 5L), KV.of("b", 10L))
+              .advanceWatermarkToInfinity();
+
+      PCollection<KV<String, Delta<Long>>> deltas = pipeline
+          .apply(events)
+          .apply(Window.<KV<String, Long>>into(new GlobalWindows())
+              .triggering(Repeatedly.forever(AfterPane.elementCountAtLeast(1)))
+              .accumulatingFiredPanes()
+              .withAllowedLateness(Duration.ZERO))
+          .apply(Combine.<String, Long, Long>perKey(Sum.ofLongs()).withDeltas());
+      PCollection<KV<String, Long>> total = deltas
+          .apply(
+              MapElements.into(
+                  TypeDescriptors.kvs(
+                      TypeDescriptors.strings(), new TypeDescriptor<Delta<Long>>() {}))
+                  .via(delta -> KV.of("total", delta.getValue())))
+          .apply(Combine.perKey(Combine.ofDeltas(Sum.ofLongs())));
+
+      PAssert.that(deltas)
+          .inFinalPane(GlobalWindow.INSTANCE)
+          .containsInAnyOrder(
+              KV.of("a", Delta.retraction(9L)), KV.of("a", Delta.addition(9L)),
+              KV.of("b", Delta.retraction(12L)), KV.of("b", Delta.addition(12L)));
+      PAssert.that(total)
+          .inFinalPane(GlobalWindow.INSTANCE)
+          .containsInAnyOrder(KV.of("total", 21L));
+
+      pipeline.run();
+    }
+
     @Test
     @Category(ValidatesRunner.class)
     public void testHotKeyCombiningWithAccumulationMode() {
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.transforms;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link HeavyHittersSketch}. */
+@RunWith(JUnit4.class)
+public class HeavyHittersSketchTest {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testCountsExactlyBelowCapacity() {
+    HeavyHittersSketch<String> sketch = new HeavyHittersSketch<>(3, 1000);
+    assertEquals(1L, sketch.add("a"));
+    assertEquals(2L, sketch.add("a"));
+    assertEquals(1L, sketch.add("b"));
+    assertEquals(2L, sketch.count("a"));
+    assertEquals(0L, sketch.count("c"));
+    assertEquals(3L, sketch.total());
+  }
+
+  @Test
+  public void testCountsWithinErrorBound() {
+    int capacity = 20;
+    HeavyHittersSketch<Integer> sketch = new HeavyHittersSketch<>(capacity, Long.MAX_VALUE);
+    Map<Integer, Long> exact = new HashMap<>();
+    Random random = new Random(42);
+    for (int i = 0; i < 100000; i++) {
+      // Half of the elements go to a few hot keys, the rest are spread over many cold keys.
+      int key = random.nextBoolean() ? random.nextInt(4) : 4 + random.nextInt(10000);
+      sketch.add(key);
+      exact.merge(key, 1L, Long::sum);
+    }
+
+    long maxError = sketch.total() / (capacity + 1);
+    for (Map.Entry<Integer, Long> entry : exact.entrySet()) {
+      long count = sketch.count(entry.getKey());
+      assertThat(count, lessThanOrEqualTo(entry.getValue()));
+      assertThat(count, greaterThanOrEqualTo(entry.getValue() - maxError));
+    }
+    // Each hot key makes up an eighth of the elements, which is well above the error.
+    for (int hotKey = 0; hotKey < 4; hotKey++) {
+      assertThat(sketch.count(hotKey), greaterThanOrEqualTo(sketch.total() / 16));
+    }
+  }
+
+  @Test
+  public void testDecayForgetsCooledKeys() {
+    HeavyHittersSketch<String> sketch = new HeavyHittersSketch<>(4, 100);
+    for (int i = 0; i < 100; i++) {
+      sketch.add("old");
+    }
+    for (int i = 0; i < 1000; i++) {
+      sketch.add("new");
+    }
+    assertThat(sketch.total(), lessThanOrEqualTo(100L));
+    assertEquals(0L, sketch.count("old"));
+    assertThat(sketch.count("new"), greaterThanOrEqualTo(50L));
+  }
+
+  @Test
+  public void testInvalidDecayThreshold() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("decayThreshold");
+    new HeavyHittersSketch<>(10, 10);
+  }
+}
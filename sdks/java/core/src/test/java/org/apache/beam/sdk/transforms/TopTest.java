@@ -17,16 +17,21 @@
  */
 package org.apache.beam.sdk.transforms;
 
+import static org.apache.beam.sdk.testing.CombineFnTester.testCombineFn;
 import static org.apache.beam.sdk.transforms.display.DisplayDataMatchers.hasDisplayItem;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertEquals;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.coders.BigEndianIntegerCoder;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.DoubleCoder;
 import org.apache.beam.sdk.coders.KvCoder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.testing.NeedsRunner;
@@ -35,6 +40,7 @@ import org.apache.beam.sdk.testing.TestPipeline;
 import org.apache.beam.sdk.transforms.display.DisplayData;
 import org.apache.beam.sdk.transforms.windowing.FixedWindows;
 import org.apache.beam.sdk.transforms.windowing.Window;
+import org.apache.beam.sdk.util.CoderUtils;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
 import org.hamcrest.Matchers;
@@ -237,6 +243,69 @@ public class TopTest {
     assertThat(displayData, hasDisplayItem("comparer", comparer.getClass()));
   }
 
+  @Test
+  public void testPrimitiveTopMatchesTopCombineFn() {
+    Random random = new Random(17);
+    List<Long> longs = new ArrayList<>();
+    List<Double> doubles = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      longs.add(random.nextInt(10) == 0 ? random.nextLong() : (long) random.nextInt(100) - 50);
+      doubles.add(random.nextGaussian());
+    }
+    doubles.addAll(
+        Arrays.asList(
+            Double.NaN, -0.0, 0.0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+            Double.MIN_VALUE, -Double.MAX_VALUE));
+
+    for (int count : new int[] {0, 1, 10, 5000}) {
+      testCombineFn(
+          Top.largestLongsFn(count),
+          longs,
+          new Top.TopCombineFn<>(count, new Top.Natural<Long>()).apply(longs));
+      testCombineFn(
+          Top.smallestLongsFn(count),
+          longs,
+          new Top.TopCombineFn<>(count, new Top.Reversed<Long>()).apply(longs));
+      testCombineFn(
+          Top.largestDoublesFn(count),
+          doubles,
+          new Top.TopCombineFn<>(count, new Top.Natural<Double>()).apply(doubles));
+      testCombineFn(
+          Top.smallestDoublesFn(count),
+          doubles,
+          new Top.TopCombineFn<>(count, new Top.Reversed<Double>()).apply(doubles));
+    }
+  }
+
+  @Test
+  public void testPrimitiveTopAccumulatorCoder() throws Exception {
+    Top.PrimitiveTopCombineFn<Double> fn = Top.smallestDoublesFn(3);
+    Coder<Top.LongBoundedHeap<Double>> coder =
+        fn.getAccumulatorCoder(p.getCoderRegistry(), DoubleCoder.of());
+
+    Top.LongBoundedHeap<Double> first = fn.createAccumulator();
+    for (double value : new double[] {4.0, -1.5, 7.0, 2.0}) {
+      first.addInput(value);
+    }
+    Top.LongBoundedHeap<Double> second = fn.createAccumulator();
+    second.addInput(-3.0);
+
+    Top.LongBoundedHeap<Double> merged = fn.mergeAccumulators(
+        Arrays.asList(CoderUtils.clone(coder, first), CoderUtils.clone(coder, second)));
+    assertEquals(Arrays.asList(-3.0, -1.5, 2.0), fn.extractOutput(merged));
+    assertEquals(1 + 3 * 8, CoderUtils.encodeToByteArray(coder, first).length);
+  }
+
+  @Test
+  public void testPrimitiveTopGetNames() {
+    assertEquals(
+        "Combine.perKey(Top(LargestLongs))",
+        Combine.perKey(Top.largestLongsFn(1)).getName());
+    assertEquals(
+        "Combine.globally(Top(SmallestDoubles))",
+        Combine.globally(Top.smallestDoublesFn(1)).getName());
+  }
+
   private static class OrderByLength implements Comparator<String>, Serializable {
     @Override
     public int compare(String a, String b) {
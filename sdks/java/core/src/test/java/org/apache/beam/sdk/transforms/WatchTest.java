@@ -31,6 +31,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.google.common.base.Function;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
@@ -490,7 +491,17 @@ public class WatchTest implements Serializable {
   private static GrowthTracker<String, String, Integer> newTracker(
       GrowthState<String, String, Integer> state) {
     return new GrowthTracker<>(
-        SerializableFunctions.identity(), StringUtf8Coder.of(), state, never());
+        SerializableFunctions.identity(), StringUtf8Coder.of(), state, never(), null);
+  }
+
+  private static GrowthTracker<String, String, Integer> newTracker(
+      GrowthState<String, String, Integer> state, Duration deduplicationHorizon) {
+    return new GrowthTracker<>(
+        SerializableFunctions.identity(),
+        StringUtf8Coder.of(),
+        state,
+        never(),
+        deduplicationHorizon);
   }
 
   private static GrowthTracker<String, String, Integer> newTracker() {
@@ -668,6 +679,74 @@ public class WatchTest implements Serializable {
     }
   }
 
+  @Test
+  public void testGrowthTrackerDeduplicationHorizon() {
+    Instant now = Instant.now();
+    Duration horizon = standardSeconds(10);
+    GrowthTracker<String, String, Integer> tracker =
+        newTracker(new GrowthState<>(never().forNewInput(Instant.now(), null)), horizon);
+    tracker.addNewAsPending(
+        PollResult.incomplete(
+                Arrays.asList(
+                    TimestampedValue.of("a", now.plus(standardSeconds(1))),
+                    TimestampedValue.of("b", now.plus(standardSeconds(2)))))
+            .withWatermark(now.plus(standardSeconds(2))));
+    assertEquals("a", tryClaimNextPending(tracker));
+    assertEquals("b", tryClaimNextPending(tracker));
+
+    GrowthState<String, String, Integer> checkpoint = tracker.checkpoint();
+    GrowthTracker<String, String, Integer> residualTracker = newTracker(checkpoint, horizon);
+    assertEquals(2, residualTracker.getNumCompleted());
+    // "a" is no longer returned, but "b" is returned again with a later timestamp.
+    residualTracker.addNewAsPending(
+        PollResult.incomplete(
+                Arrays.asList(
+                    TimestampedValue.of("b", now.plus(standardSeconds(10))),
+                    TimestampedValue.of("c", now.plus(standardSeconds(12)))))
+            .withWatermark(now.plus(standardSeconds(12))));
+    // "a" fell behind the horizon and is forgotten, "b" is still remembered.
+    assertEquals(1, residualTracker.getNumCompleted());
+    assertEquals("c", tryClaimNextPending(residualTracker));
+    assertFalse(residualTracker.hasPending());
+
+    checkpoint = residualTracker.checkpoint();
+    residualTracker = newTracker(checkpoint, horizon);
+    assertEquals(2, residualTracker.getNumCompleted());
+    // "a" is behind the horizon so it's ignored, and "b" is not emitted twice.
+    residualTracker.addNewAsPending(
+        PollResult.incomplete(
+                Arrays.asList(
+                    TimestampedValue.of("a", now.plus(standardSeconds(1))),
+                    TimestampedValue.of("b", now.plus(standardSeconds(14))),
+                    TimestampedValue.of("d", now.plus(standardSeconds(15)))))
+            .withWatermark(now.plus(standardSeconds(15))));
+    assertEquals("d", tryClaimNextPending(residualTracker));
+    assertFalse(residualTracker.hasPending());
+  }
+
+  @Test
+  public void testGrowthTrackerDeduplicationHorizonWithoutNewOutputs() {
+    Instant now = Instant.now();
+    Duration horizon = standardSeconds(10);
+    GrowthTracker<String, String, Integer> tracker =
+        newTracker(new GrowthState<>(never().forNewInput(Instant.now(), null)), horizon);
+    tracker.addNewAsPending(
+        PollResult.incomplete(now, Arrays.asList("a", "b")).withWatermark(now));
+    assertEquals(
+        ImmutableSet.of("a", "b"),
+        ImmutableSet.of(tryClaimNextPending(tracker), tryClaimNextPending(tracker)));
+
+    GrowthTracker<String, String, Integer> residualTracker =
+        newTracker(tracker.checkpoint(), horizon);
+    assertEquals(2, residualTracker.getNumCompleted());
+    // only "b" is returned again, and there is nothing new: the watermark alone moves the horizon.
+    Instant later = now.plus(standardSeconds(11));
+    residualTracker.addNewAsPending(
+        PollResult.incomplete(later, Arrays.asList("b")).withWatermark(later));
+    assertFalse(residualTracker.hasPending());
+    assertEquals(1, residualTracker.getNumCompleted());
+  }
+
   @Test
   public void testGrowthTrackerPollAfterCheckpointWithoutNewOutputs() {
     Instant now = Instant.now();
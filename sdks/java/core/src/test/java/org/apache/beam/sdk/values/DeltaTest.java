@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.beam.sdk.values;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.testing.EqualsTester;
+import org.apache.beam.sdk.coders.ByteArrayCoder;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderRegistry;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.testing.CoderProperties;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link Delta}.
+ */
+@RunWith(JUnit4.class)
+public class DeltaTest {
+  @Test
+  public void testValues() {
+    Delta<String> addition = Delta.addition("foo");
+    Delta<String> retraction = Delta.retraction("foo");
+
+    assertEquals("foo", addition.getValue());
+    assertFalse(addition.isRetraction());
+    assertEquals("foo", retraction.getValue());
+    assertTrue(retraction.isRetraction());
+  }
+
+  @Test
+  public void testEquality() {
+    new EqualsTester()
+        .addEqualityGroup(Delta.addition("foo"), Delta.addition("foo"))
+        .addEqualityGroup(Delta.retraction("foo"), Delta.retraction("foo"))
+        .addEqualityGroup(Delta.addition("bar"))
+        .addEqualityGroup(Delta.addition(null))
+        .testEquals();
+  }
+
+  private static final Coder<Delta<String>> CODER = Delta.DeltaCoder.of(StringUtf8Coder.of());
+
+  @Test
+  public void testCoderEncodeDecodeEquals() throws Exception {
+    CoderProperties.coderDecodeEncodeEqual(CODER, Delta.addition("foo"));
+    CoderProperties.coderDecodeEncodeEqual(CODER, Delta.retraction("foo"));
+  }
+
+  @Test
+  public void testCoderStructuralValue() throws Exception {
+    CoderProperties.structuralValueDecodeEncodeEqual(
+        Delta.DeltaCoder.of(ByteArrayCoder.of()), Delta.retraction(new byte[] {1, 2}));
+  }
+
+  @Test
+  public void testCoderIsInferred() throws Exception {
+    assertEquals(
+        CODER,
+        CoderRegistry.createDefault().getCoder(new TypeDescriptor<Delta<String>>() {}));
+  }
+
+  @Test
+  public void testCoderIsSerializable() {
+    CoderProperties.coderSerializable(CODER);
+  }
+}